@@ -95,9 +95,10 @@ for i in 0..(days - 1)
   day = Time.millis(start_epoch_millis + (86400000 * i))
   for type in types
     events = type.events(day)
-    for e in events
-      response = RestClient.post('http://localhost:8443/events', e.to_json , {:content_type => :json})
-      puts "#{e.to_json} - #{response.code}"
-    end
+    # one batch POST per type per day; the response has a result for each event
+    response = RestClient.post('http://localhost:8443/events/batch', events.to_json , {:content_type => :json})
+    results = JSON.parse(response.body)
+    created = results.count { |r| r["status"] == "CREATED" }
+    puts "#{type.type} #{day.strftime('%Y-%m-%d')} - #{response.code} - #{created}/#{events.length} created"
   end
 end
@@ -0,0 +1,125 @@
+package org.novalabs.event.benchmark;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import javax.sql.DataSource;
+import liquibase.Contexts;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.novalabs.event.dao.EventDao;
+import org.novalabs.event.dao.EventDaoException;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+
+/**
+ * Embedded H2 database and event data for the benchmarks.  The database is created with the application's Liquibase
+ * changelog and seeded with the type mix of {@code scripts/generate_test_data.rb}: each type alternates between two
+ * states, changing a fixed number of times per day at random times.  The shape of the data set is set by the number
+ * of days and a scale that multiplies the changes per day.
+ */
+public class BenchmarkDataset {
+    public static final long START_MILLIS = 1484006400000L; // 2017-01-10T00:00:00Z
+    public static final long DAY_MILLIS = 86400000L;
+    private static final String CHANGELOG = "db/changelog/db.changelog-master.yaml";
+    private static final Map<String, String[]> STATES = new LinkedHashMap<>();
+    private static final Map<String, Integer> CHANGES_PER_DAY = new LinkedHashMap<>();
+
+    static {
+        type("novalabs_space", 4, "open", "closed");
+        type("mongo", 10, "on", "off");
+        type("table_saw", 4, "on", "off");
+        type("lathe", 8, "on", "off");
+        type("alarm", 6, "enabled", "disabled");
+        type("front_door", 30, "open", "closed");
+        type("shop_door", 20, "open", "closed");
+    }
+
+    private BenchmarkDataset() {
+    }
+
+    /**
+     * Creates an empty, in-memory H2 database with the event schema, behind a connection pool like the application's.
+     * @return  the data source
+     * @throws Exception  if the database couldn't be created
+     */
+    public static org.apache.tomcat.jdbc.pool.DataSource createDataSource() throws Exception {
+        org.apache.tomcat.jdbc.pool.DataSource dataSource = new org.apache.tomcat.jdbc.pool.DataSource();
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:benchmark-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        dataSource.setInitialSize(4);
+        dataSource.setMaxActive(16);
+        dataSource.setMaxIdle(16);
+        dataSource.setMinIdle(4);
+
+        try (Connection connection = dataSource.getConnection()) {
+            Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+            new Liquibase(CHANGELOG, new ClassLoaderResourceAccessor(), database).update(new Contexts());
+        }
+
+        return dataSource;
+    }
+
+    /**
+     * Returns the event types of the data set.
+     * @return  the event types
+     */
+    public static List<String> types() {
+        return new ArrayList<>(STATES.keySet());
+    }
+
+    /**
+     * Adds the data set to the DAO, one batch per type per day.
+     * @param eventDao  the DAO to seed
+     * @param days  the number of days of events
+     * @param scale  the multiplier of each type's changes per day
+     * @return  the number of events added
+     * @throws EventDaoException  if the events couldn't be added
+     */
+    public static int seed(EventDao eventDao, int days, int scale) throws EventDaoException {
+        Random random = new Random(days * 31L + scale);
+        int added = 0;
+        for (int day = 0; day < days; ++day) {
+            long midnight = START_MILLIS + day * DAY_MILLIS;
+            for (String type : STATES.keySet()) {
+                added += eventDao.addEvents(events(type, midnight, CHANGES_PER_DAY.get(type) * scale, random));
+            }
+        }
+
+        return added;
+    }
+
+    /**
+     * Returns random events of the type within the day, alternating between the type's states.
+     * @param type  the event type
+     * @param midnight  the start of the day, in epoch milliseconds
+     * @param count  the number of events
+     * @param random  the source of event times
+     * @return  the events
+     */
+    public static List<Event> events(String type, long midnight, int count, Random random) {
+        String[] states = STATES.get(type);
+        List<Event> events = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            long time = midnight + (long) (random.nextDouble() * DAY_MILLIS);
+            events.add(new Event(UUID.randomUUID(), EventType.of(type), new EventValue(states[i % states.length]), time));
+        }
+
+        return events;
+    }
+
+    private static void type(String type, int changesPerDay, String... states) {
+        STATES.put(type, states);
+        CHANGES_PER_DAY.put(type, changesPerDay);
+    }
+}
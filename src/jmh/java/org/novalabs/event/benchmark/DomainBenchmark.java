@@ -0,0 +1,54 @@
+package org.novalabs.event.benchmark;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of constructing the domain objects, which happens for every event read from the store or a request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DomainBenchmark {
+    public String type = "front_door";
+    public String value = "closed";
+    public UUID uuid = UUID.randomUUID();
+
+    public DomainBenchmark() {
+    }
+
+    @Benchmark
+    public EventType eventType() {
+        return new EventType(this.type);
+    }
+
+    @Benchmark
+    public EventType eventTypeOf() {
+        return EventType.of(this.type);
+    }
+
+    @Benchmark
+    public EventValue eventValue() {
+        return new EventValue(this.value);
+    }
+
+    @Benchmark
+    public Event event() {
+        return new Event(this.uuid, new EventType(this.type), new EventValue(this.value), BenchmarkDataset.START_MILLIS);
+    }
+}
@@ -0,0 +1,124 @@
+package org.novalabs.event.benchmark;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.novalabs.event.dao.sql.EventSqlDao;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the {@code EventSqlDao} against an embedded H2 database seeded with {@link BenchmarkDataset}.  Writes
+ * add new events to the seeded data, so they measure inserts into a table of (roughly) the data set's size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventSqlDaoBenchmark {
+    @Param({"30"})
+    public int days;
+
+    @Param({"1"})
+    public int scale;
+
+    private DataSource dataSource;
+    private EventSqlDao eventSqlDao;
+    private String type;
+    private Instant rangeStart;
+    private Instant rangeEnd;
+    private Random random;
+
+    public EventSqlDaoBenchmark() {
+    }
+
+    @Setup(Level.Trial)
+    public void createDatabase() throws Exception {
+        this.dataSource = BenchmarkDataset.createDataSource();
+        this.eventSqlDao = new EventSqlDao(this.dataSource);
+        BenchmarkDataset.seed(this.eventSqlDao, this.days, this.scale);
+        // the busiest type, over the middle week of the data set
+        this.type = "front_door";
+        long middle = BenchmarkDataset.START_MILLIS + this.days * BenchmarkDataset.DAY_MILLIS / 2L;
+        this.rangeStart = Instant.ofEpochMilli(middle - 3L * BenchmarkDataset.DAY_MILLIS);
+        this.rangeEnd = Instant.ofEpochMilli(middle + 4L * BenchmarkDataset.DAY_MILLIS);
+        this.random = new Random(17L);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() {
+        this.dataSource.close(true);
+    }
+
+    @Benchmark
+    public boolean addEvent() throws Exception {
+        long time = BenchmarkDataset.START_MILLIS + (long) (this.random.nextDouble() * this.days * BenchmarkDataset.DAY_MILLIS);
+        return this.eventSqlDao.addEvent(new Event(UUID.randomUUID(), new EventType(this.type), new EventValue("open"), time));
+    }
+
+    @Benchmark
+    public int addEvents(Batch batch) throws Exception {
+        return this.eventSqlDao.addEvents(batch.events);
+    }
+
+    @Benchmark
+    public List<Event> findEventsInRange() throws Exception {
+        return this.eventSqlDao.findEvents(this.type, this.rangeStart, this.rangeEnd);
+    }
+
+    @Benchmark
+    public List<Event> findLatestEvents() throws Exception {
+        return this.eventSqlDao.findLatestEvents();
+    }
+
+    @Benchmark
+    public long countEvents() throws Exception {
+        return this.eventSqlDao.countEvents(this.type);
+    }
+
+    @Benchmark
+    public Map<String, Long> countEventsByType() throws Exception {
+        return this.eventSqlDao.countEventsByType();
+    }
+
+    /**
+     * A new batch of events for each {@code addEvents} invocation.  It is its own state, so the per-invocation setup
+     * doesn't run before, and skew, the other benchmarks.
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+        @Param({"100"})
+        public int batchSize;
+
+        private final Random random = new Random(19L);
+        private List<Event> events;
+
+        public Batch() {
+        }
+
+        @Setup(Level.Invocation)
+        public void createBatch() {
+            this.events = BenchmarkDataset.events("front_door", BenchmarkDataset.START_MILLIS, this.batchSize, this.random);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.novalabs.event.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.novalabs.event.domain.Event;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Benchmarks of Jackson serialization of event lists, with an {@code ObjectMapper} built the way Spring Boot builds
+ * the application's.  The {@code bean} mapping reads and writes events through their bean properties, as before
+ * {@code EventJson}, for comparison.  Run with {@code -prof gc} for the bytes allocated per operation,
+ * {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    @Param({"100", "10000"})
+    public int size;
+
+    @Param({"direct", "bean"})
+    public String mapping;
+
+    private ObjectWriter writer;
+    private ObjectReader reader;
+    private List<Event> events;
+    private byte[] json;
+
+    public SerializationBenchmark() {
+    }
+
+    @Setup
+    public void createEvents() throws Exception {
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+        if ("bean".equals(this.mapping)) {
+            builder.mixIn(Event.class, BeanEvent.class);
+        }
+
+        ObjectMapper objectMapper = builder.build();
+        TypeReference<List<Event>> listOfEvents = new TypeReference<List<Event>>() {};
+        this.writer = objectMapper.writerFor(listOfEvents);
+        this.reader = objectMapper.readerFor(listOfEvents);
+        this.events = BenchmarkDataset.events("front_door", BenchmarkDataset.START_MILLIS, this.size, new Random(17L));
+        this.json = this.writer.writeValueAsBytes(this.events);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return this.writer.writeValueAsBytes(this.events);
+    }
+
+    @Benchmark
+    public List<Event> deserialize() throws Exception {
+        return this.reader.readValue(this.json);
+    }
+
+    /**
+     * Reads and writes {@code Event} through its bean properties.
+     */
+    @JsonSerialize(using = JsonSerializer.None.class)
+    @JsonDeserialize(using = JsonDeserializer.None.class)
+    abstract static class BeanEvent {
+    }
+}
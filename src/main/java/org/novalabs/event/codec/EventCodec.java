@@ -0,0 +1,317 @@
+package org.novalabs.event.codec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+
+/**
+ * Compact binary encoding of a list of events, the {@value #MEDIA_TYPE} media type.  A message is
+ * <pre>
+ *   byte[2]  magic, "EV"
+ *   byte     format version, 1
+ *   varint   event count
+ *   per event:
+ *     zigzag varint  time, epoch milliseconds, as the difference from the previous event's time (0 for the first)
+ *     byte[16]       uuid, most then least significant bits, big-endian
+ *     varint         type reference
+ *     varint         value reference
+ * </pre>
+ * Varints are unsigned LEB128: 7 bits per byte, least significant first, the high bit set on all but the last byte.
+ * Types and values are dictionary coded, with a dictionary each for types and values that starts empty.  A reference
+ * of 0 is followed by a literal, a varint byte length and the UTF-8 bytes, which is appended to the dictionary; a
+ * reference of n refers to the dictionary's nth entry.  A single event is a message with one event.
+ * <p>
+ * The decoder doesn't depend on anything but the JDK and the domain classes, so Java clients can use it to read
+ * responses and write requests.
+ */
+public final class EventCodec {
+    /**
+     * Media type of the encoding.
+     */
+    public static final String MEDIA_TYPE = "application/x-event-binary";
+
+    static final int VERSION = 1;
+    private static final int MAGIC_0 = 'E';
+    private static final int MAGIC_1 = 'V';
+    private static final int MAX_LITERAL_BYTES = 4 * EventValue.MAX_LEGNTH;
+    private static final int MAX_PREALLOCATED_EVENTS = 1024;
+    private static final int BUFFER_BYTES = 8192;
+
+    private EventCodec() {
+    }
+
+    /**
+     * Encodes the events as one message.
+     * @param events  the events
+     * @return  the message
+     */
+    public static byte[] encode(Collection<Event> events) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + events.size() * 24);
+        try {
+            encode(events, bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't write to memory", e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes the events as one message, written to the output stream.  The stream is flushed but not closed.
+     * @param events  the events
+     * @param output  the output stream
+     * @throws IOException  if the message couldn't be written
+     */
+    public static void encode(Collection<Event> events, OutputStream output) throws IOException {
+        OutputStream out = new BufferedOutputStream(output, BUFFER_BYTES);
+        out.write(MAGIC_0);
+        out.write(MAGIC_1);
+        out.write(VERSION);
+        writeVarint(out, events.size());
+        Map<String, Integer> types = new HashMap<>();
+        Map<String, Integer> values = new HashMap<>();
+        long previousTime = 0L;
+        for (Event event : events) {
+            long time = event.getEpochMillis();
+            writeVarint(out, zigzag(time - previousTime));
+            previousTime = time;
+            writeLong(out, event.getUuid().getMostSignificantBits());
+            writeLong(out, event.getUuid().getLeastSignificantBits());
+            writeString(out, event.getType().getString(), types);
+            writeString(out, event.getValue().getString(), values);
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Decodes a message.
+     * @param message  the message
+     * @return  the events, in message order
+     * @throws EventFormatException  if the message is malformed or holds an invalid event
+     */
+    public static List<Event> decode(byte[] message) throws EventFormatException {
+        try {
+            return decode(new ByteArrayInputStream(message));
+        } catch (EventFormatException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't read from memory", e);
+        }
+    }
+
+    /**
+     * Decodes a message read from the input stream.
+     * @param input  the input stream
+     * @return  the events, in message order
+     * @throws EventFormatException  if the message is malformed or holds an invalid event
+     * @throws IOException  if the message couldn't be read
+     */
+    public static List<Event> decode(InputStream input) throws IOException {
+        Decoder decoder = decoder(input);
+        List<Event> events = new ArrayList<>(Math.min(decoder.count(), MAX_PREALLOCATED_EVENTS));
+        while (decoder.hasNext()) {
+            try {
+                events.add(decoder.next());
+            } catch (IllegalArgumentException e) {
+                throw new EventFormatException("Invalid event " + events.size() + ": " + e.getMessage());
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * Returns a decoder of the message read from the input stream, having read the message header.  The decoder reads
+     * ahead, so the stream shouldn't be read by anything else afterwards.
+     * @param input  the input stream
+     * @return  the decoder
+     * @throws EventFormatException  if the header is malformed
+     * @throws IOException  if the header couldn't be read
+     */
+    public static Decoder decoder(InputStream input) throws IOException {
+        return new Decoder(new BufferedInputStream(input, BUFFER_BYTES));
+    }
+
+    /**
+     * Reads the events of one message, one at a time.
+     */
+    public static final class Decoder {
+        private final InputStream in;
+        private final int count;
+        private final List<String> types = new ArrayList<>();
+        private final List<String> values = new ArrayList<>();
+        private int read = 0;
+        private long previousTime = 0L;
+
+        private Decoder(InputStream in) throws IOException {
+            this.in = in;
+            if (readByte(in) != MAGIC_0 || readByte(in) != MAGIC_1) {
+                throw new EventFormatException("Not an event message");
+            }
+
+            int version = readByte(in);
+            if (version != VERSION) {
+                throw new EventFormatException("Unsupported event message version " + version);
+            }
+
+            long count = readVarint(in);
+            if (count < 0L || count > Integer.MAX_VALUE) {
+                throw new EventFormatException("Event count too large: " + count);
+            }
+
+            this.count = (int) count;
+        }
+
+        /**
+         * Returns the number of events in the message.
+         * @return  the event count
+         */
+        public int count() {
+            return this.count;
+        }
+
+        /**
+         * Returns whether there are events left to read.
+         * @return  whether there is a next event
+         */
+        public boolean hasNext() {
+            return this.read < this.count;
+        }
+
+        /**
+         * Reads the next event.  An event whose type or value isn't valid is read past, so the following events can
+         * still be read, and an {@code IllegalArgumentException} is thrown.
+         * @return  the event
+         * @throws EventFormatException  if the event is malformed; no further events can be read
+         * @throws IOException  if the event couldn't be read
+         * @throws IllegalArgumentException  if the event's type or value isn't valid
+         */
+        public Event next() throws IOException {
+            if (!this.hasNext()) {
+                throw new EventFormatException("No more events");
+            }
+
+            this.read++;
+            long time = this.previousTime + unzigzag(readVarint(this.in));
+            this.previousTime = time;
+            UUID uuid = new UUID(readLong(this.in), readLong(this.in));
+            String type = readString(this.in, this.types);
+            String value = readString(this.in, this.values);
+            return new Event(uuid, EventType.of(type), new EventValue(value), time);
+        }
+    }
+
+    private static void writeString(OutputStream out, String string, Map<String, Integer> dictionary) throws IOException {
+        Integer reference = dictionary.get(string);
+        if (reference != null) {
+            writeVarint(out, reference);
+            return;
+        }
+
+        dictionary.put(string, dictionary.size() + 1);
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, 0L);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(InputStream in, List<String> dictionary) throws IOException {
+        long reference = readVarint(in);
+        if (reference != 0L) {
+            if (reference < 0L || reference > dictionary.size()) {
+                throw new EventFormatException("Undefined reference " + reference);
+            }
+
+            return dictionary.get((int) reference - 1);
+        }
+
+        long length = readVarint(in);
+        if (length < 0L || length > MAX_LITERAL_BYTES) {
+            throw new EventFormatException("Literal too long: " + length);
+        }
+
+        byte[] bytes = new byte[(int) length];
+        int offset = 0;
+        while (offset < bytes.length) {
+            int n = in.read(bytes, offset, bytes.length - offset);
+            if (n < 0) {
+                throw new EventFormatException("Truncated event message");
+            }
+
+            offset += n;
+        }
+
+        String string = new String(bytes, StandardCharsets.UTF_8);
+        dictionary.add(string);
+        return string;
+    }
+
+    private static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0L) {
+            out.write((int) (value & 0x7FL) | 0x80);
+            value >>>= 7;
+        }
+
+        out.write((int) value);
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new EventFormatException("Malformed varint");
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    private static long readLong(InputStream in) throws IOException {
+        long value = 0L;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | readByte(in);
+        }
+
+        return value;
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EventFormatException("Truncated event message");
+        }
+
+        return b;
+    }
+
+    private static long zigzag(long value) {
+        return value << 1 ^ value >> 63;
+    }
+
+    private static long unzigzag(long value) {
+        return value >>> 1 ^ -(value & 1L);
+    }
+}
@@ -0,0 +1,16 @@
+package org.novalabs.event.codec;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an event message is malformed, truncated or holds an invalid event.
+ */
+public class EventFormatException extends IOException {
+    /**
+     * Creates an {@code EventFormatException} with the message.
+     * @param message  the exception message
+     */
+    public EventFormatException(String message) {
+        super(message);
+    }
+}
@@ -1,10 +1,33 @@
 package org.novalabs.event.configuration;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.List;
+import java.util.Locale;
+import org.novalabs.event.controller.EventAdminController;
 import org.novalabs.event.controller.EventController;
+import org.novalabs.event.controller.EventMessageConverter;
+import org.novalabs.event.controller.EventRequestMetricsFilter;
 import org.novalabs.event.dao.EventDao;
+import org.novalabs.event.dao.TimedEventDao;
+import org.novalabs.event.dao.sql.EventSqlDao;
+import org.novalabs.event.dao.wal.WriteAheadEventDao;
+import org.novalabs.event.service.EventBroadcaster;
+import org.novalabs.event.service.EventRangeCache;
+import org.novalabs.event.service.EventRetention;
 import org.novalabs.event.service.EventService;
+import org.novalabs.event.util.OperationMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.Ordered;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
@@ -15,14 +38,144 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter
 @Configuration
 public class EventConfig {
 
-    @Bean("eventService")
-    public EventService eventService(EventDao eventDao) {
-        return new EventService(eventDao);
+    // start() seeds in-memory state from the database, so the schema must be migrated first
+    @Bean(name = "eventService", initMethod = "start", destroyMethod = "stop")
+    @DependsOn("liquibase")
+    public EventService eventService(EventDao eventDao,
+                                     @Value("${event.ingest.async.enabled:false}") boolean asyncIngest,
+                                     @Value("${event.ingest.async.queue-capacity:10000}") int queueCapacity,
+                                     @Value("${event.ingest.async.batch-size:500}") int batchSize,
+                                     @Value("${event.ingest.async.max-delay-ms:20}") long maxDelayMillis,
+                                     ObjectProvider<EventBroadcaster> eventBroadcaster,
+                                     ObjectProvider<EventRangeCache> eventRangeCache,
+                                     @Qualifier("eventDaoMetrics") ObjectProvider<OperationMetrics> eventDaoMetrics) {
+        OperationMetrics daoMetrics = eventDaoMetrics.getIfAvailable();
+        EventService eventService = new EventService(daoMetrics == null ? eventDao : new TimedEventDao(eventDao, daoMetrics));
+        if (asyncIngest) {
+            eventService.enableAsyncIngest(queueCapacity, batchSize, maxDelayMillis);
+        }
+
+        EventBroadcaster broadcaster = eventBroadcaster.getIfAvailable();
+        if (broadcaster != null) {
+            eventService.enableBroadcast(broadcaster);
+        }
+
+        EventRangeCache rangeCache = eventRangeCache.getIfAvailable();
+        if (rangeCache != null) {
+            eventService.enableRangeCache(rangeCache);
+        }
+
+        if (eventDao instanceof WriteAheadEventDao) {
+            ((WriteAheadEventDao) eventDao).setDropListener(eventService::eventDropped);
+        }
+
+        return eventService;
+    }
+
+    @Bean(name = "eventBroadcaster", destroyMethod = "close")
+    @ConditionalOnProperty(name = "event.push.enabled", havingValue = "true", matchIfMissing = true)
+    public EventBroadcaster eventBroadcaster(@Value("${event.push.buffer-capacity:256}") int bufferCapacity,
+                                             @Value("${event.push.overflow:drop}") String overflow,
+                                             @Value("${event.push.max-subscribers:10000}") int maxSubscribers,
+                                             @Value("${event.push.dispatch-threads:4}") int dispatchThreads,
+                                             @Value("${event.push.heartbeat-ms:15000}") long heartbeatMillis,
+                                             @Value("${event.push.write-timeout-ms:10000}") long writeTimeoutMillis) {
+        EventBroadcaster.OverflowPolicy overflowPolicy = EventBroadcaster.OverflowPolicy.valueOf(overflow.toUpperCase(Locale.ROOT));
+        return new EventBroadcaster(bufferCapacity, overflowPolicy, maxSubscribers, dispatchThreads, heartbeatMillis,
+                                    writeTimeoutMillis);
+    }
+
+    @Bean("eventRangeCache")
+    @ConditionalOnProperty(name = "event.cache.range.enabled", havingValue = "true", matchIfMissing = true)
+    public EventRangeCache eventRangeCache(@Value("${event.cache.range.bucket-ms:60000}") long bucketMillis,
+                                           @Value("${event.cache.range.max-events:100000}") long maxEvents,
+                                           @Value("${event.cache.range.max-entry-events:10000}") int maxEntryEvents,
+                                           @Value("${event.cache.range.expire-after-write-ms:600000}") long expireAfterWriteMillis) {
+        return new EventRangeCache(bucketMillis, maxEvents, maxEntryEvents, expireAfterWriteMillis);
+    }
+
+    @Bean(name = "eventRetention", initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(name = "event.retention.enabled", havingValue = "true")
+    public EventRetention eventRetention(EventService eventService,
+                                         @Value("${event.retention.rules:}") String rules,
+                                         @Value("${event.retention.interval-ms:3600000}") long intervalMillis,
+                                         @Value("${event.retention.batch-size:1000}") int batchSize,
+                                         @Value("${event.retention.rows-per-second:5000}") double rowsPerSecond) {
+        return new EventRetention(eventService, EventRetention.Rule.parse(rules), intervalMillis, batchSize, rowsPerSecond);
+    }
+
+    @Bean("eventDaoMetrics")
+    @ConditionalOnProperty(name = "event.metrics.enabled", havingValue = "true", matchIfMissing = true)
+    public OperationMetrics eventDaoMetrics(@Value("${event.metrics.window-ms:60000}") long windowMillis) {
+        return new OperationMetrics("event.dao.", windowMillis);
+    }
+
+    @Bean("eventRequestMetrics")
+    @ConditionalOnProperty(name = "event.metrics.enabled", havingValue = "true", matchIfMissing = true)
+    public OperationMetrics eventRequestMetrics(@Value("${event.metrics.window-ms:60000}") long windowMillis) {
+        return new OperationMetrics("event.http.", windowMillis);
+    }
+
+    /**
+     * Registers the request metrics filter ahead of the security filters, so rejected requests are recorded too.
+     */
+    @Bean("eventRequestMetricsFilter")
+    @ConditionalOnProperty(name = "event.metrics.enabled", havingValue = "true", matchIfMissing = true)
+    public FilterRegistrationBean eventRequestMetricsFilter(@Qualifier("eventRequestMetrics") OperationMetrics eventRequestMetrics) {
+        FilterRegistrationBean registration = new FilterRegistrationBean(new EventRequestMetricsFilter(eventRequestMetrics));
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
     }
 
     @Bean("eventController")
-    public EventController eventController(EventService eventService) {
-        return new EventController(eventService);
+    public EventController eventController(EventService eventService, ObjectMapper objectMapper,
+                                           @Value("${event.push.timeout-ms:1800000}") long pushTimeoutMillis) {
+        return new EventController(eventService, objectMapper, pushTimeoutMillis);
+    }
+
+    @Bean("eventAdminController")
+    public EventAdminController eventAdminController(EventService eventService, ObjectProvider<EventSqlDao> eventSqlDao) {
+        return new EventAdminController(eventService, eventSqlDao.getIfAvailable());
+    }
+
+    /**
+     * Executor that writes streamed responses, bounding the number of concurrent event streams.
+     */
+    @Bean("eventStreamExecutor")
+    public ThreadPoolTaskExecutor eventStreamExecutor(@Value("${event.stream.threads:8}") int threads,
+                                                      @Value("${event.stream.queue-capacity:32}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("event-stream-");
+        return executor;
+    }
+
+    @Bean("eventStreamConfigurer")
+    public WebMvcConfigurer eventStreamConfigurer(ThreadPoolTaskExecutor eventStreamExecutor,
+                                                  @Value("${event.stream.timeout-ms:3600000}") long timeoutMillis) {
+        return new WebMvcConfigurerAdapter() {
+            @Override
+            public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+                configurer.setTaskExecutor(eventStreamExecutor);
+                configurer.setDefaultTimeout(timeoutMillis);
+            }
+        };
+    }
+
+    /**
+     * Adds the binary event encoding after the default converters, so JSON stays the default for clients that accept
+     * anything.
+     */
+    @Bean("eventBinaryConfigurer")
+    public WebMvcConfigurer eventBinaryConfigurer() {
+        return new WebMvcConfigurerAdapter() {
+            @Override
+            public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+                converters.add(new EventMessageConverter());
+            }
+        };
     }
 
 }
@@ -0,0 +1,27 @@
+package org.novalabs.event.configuration;
+
+import java.nio.file.Paths;
+import org.novalabs.event.dao.EventDaoException;
+import org.novalabs.event.dao.file.EventFileDao;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Spring Boot configuration file for the segment file event store, selected with {@code event.store.type: file}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "event.store.type", havingValue = "file")
+public class FileConfig {
+
+    @Bean(name = "eventFileDao", destroyMethod = "close")
+    @Qualifier("eventStore")
+    public EventFileDao eventFileDao(@Value("${event.store.file.directory:./eventstore}") String directory,
+                                     @Value("${event.store.file.segment-bytes:67108864}") long segmentBytes,
+                                     @Value("${event.store.file.segment-millis:86400000}") long segmentMillis,
+                                     @Value("${event.store.file.fsync:false}") boolean fsync) throws EventDaoException {
+        return new EventFileDao(Paths.get(directory), segmentBytes, segmentMillis, fsync);
+    }
+}
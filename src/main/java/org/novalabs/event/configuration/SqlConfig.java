@@ -1,18 +1,34 @@
 package org.novalabs.event.configuration;
 
+import java.util.Locale;
 import javax.sql.DataSource;
 import org.novalabs.event.dao.sql.EventSqlDao;
+import org.novalabs.event.dao.sql.SqlPoolMetrics;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 
 /**
- * Spring Boot database configuration file.
+ * Spring Boot database configuration file.  The SQL event store is the default, {@code event.store.type: sql}.
  */
 @Configuration
 public class SqlConfig {
 
-    @Bean("eventH2Dao")
-    public EventSqlDao eventH2Dao(DataSource dataSource) {
-        return new EventSqlDao(dataSource);
+    // start() moves events between tables, so the schema must be migrated first
+    @Bean(name = "eventH2Dao", initMethod = "start")
+    @Qualifier("eventStore")
+    @DependsOn("liquibase")
+    @ConditionalOnProperty(name = "event.store.type", havingValue = "sql", matchIfMissing = true)
+    public EventSqlDao eventH2Dao(DataSource dataSource, SqlPoolMetrics sqlPoolMetrics,
+                                  @Value("${event.store.sql.partitioning:none}") String partitioning) {
+        return new EventSqlDao(dataSource, sqlPoolMetrics, EventSqlDao.Partitioning.valueOf(partitioning.toUpperCase(Locale.ROOT)));
+    }
+
+    @Bean("sqlPoolMetrics")
+    public SqlPoolMetrics sqlPoolMetrics(DataSource dataSource) {
+        return new SqlPoolMetrics(dataSource);
     }
 }
@@ -0,0 +1,38 @@
+package org.novalabs.event.configuration;
+
+import java.nio.file.Paths;
+import java.util.Locale;
+import org.novalabs.event.dao.EventDao;
+import org.novalabs.event.dao.EventDaoException;
+import org.novalabs.event.dao.wal.FsyncPolicy;
+import org.novalabs.event.dao.wal.WriteAheadEventDao;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Primary;
+
+/**
+ * Spring Boot configuration file for the write-ahead log, enabled with {@code event.wal.enabled: true}.  The log is
+ * the primary {@code EventDao} and applies events to the configured store.
+ */
+@Configuration
+@ConditionalOnProperty(name = "event.wal.enabled", havingValue = "true")
+public class WalConfig {
+
+    // replay writes to the store, so the schema must be migrated first
+    @Bean(name = "writeAheadEventDao", destroyMethod = "close")
+    @Primary
+    @DependsOn("liquibase")
+    public WriteAheadEventDao writeAheadEventDao(@Qualifier("eventStore") EventDao eventStore,
+                                                 @Value("${event.wal.directory:./wal}") String directory,
+                                                 @Value("${event.wal.fsync:always}") String fsync,
+                                                 @Value("${event.wal.fsync-interval-ms:10}") long fsyncIntervalMillis,
+                                                 @Value("${event.wal.segment-bytes:67108864}") long segmentBytes,
+                                                 @Value("${event.wal.queue-capacity:10000}") int queueCapacity) throws EventDaoException {
+        return new WriteAheadEventDao(eventStore, Paths.get(directory), FsyncPolicy.valueOf(fsync.trim().toUpperCase(Locale.ROOT)),
+                                      fsyncIntervalMillis, segmentBytes, queueCapacity);
+    }
+}
@@ -0,0 +1,92 @@
+package org.novalabs.event.controller;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.novalabs.event.dao.EventDaoException;
+import org.novalabs.event.dao.sql.EventSqlDao;
+import org.novalabs.event.domain.EventCountDiscrepancy;
+import org.novalabs.event.service.EventService;
+import org.novalabs.event.util.TimingUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * REST controller for Event Service administration.  Paths under /admin require the ADMIN role.
+ */
+@RestController
+@RequestMapping({"/admin"})
+public class EventAdminController {
+    private static final Logger logger = LoggerFactory.getLogger(EventAdminController.class);
+    private final EventService eventService;
+    private final EventSqlDao eventSqlDao;
+
+    /**
+     * Creates an instance of the controller, delegating business logic to the EventService.
+     * @param eventService  the core business logic class
+     * @param eventSqlDao  the SQL event store, whose rollups can be rebuilt, or null if events are stored elsewhere
+     */
+    public EventAdminController(EventService eventService, @Nullable EventSqlDao eventSqlDao) {
+        this.eventService = eventService;
+        this.eventSqlDao = eventSqlDao;
+    }
+
+    /**
+     * Compares the maintained event counts with the store, without changing them.
+     * @return  the differences found
+     */
+    @GetMapping({"/counts/verify"})
+    public ResponseEntity<List<EventCountDiscrepancy>> verifyCounts() {
+        return this.verifyCounts(false);
+    }
+
+    /**
+     * Compares the maintained event counts with the store and resets the ones that differ.
+     * @return  the differences found
+     */
+    @PostMapping({"/counts/resync"})
+    public ResponseEntity<List<EventCountDiscrepancy>> resyncCounts() {
+        return this.verifyCounts(true);
+    }
+
+    /**
+     * Rebuilds the SQL store's rollups (the per minute, hour and day counts) from the event table.  Returns 404 (Not
+     * Found) if the SQL store isn't in use.
+     * @return  the number of rollup rows
+     */
+    @PostMapping({"/rollups/rebuild"})
+    public ResponseEntity<Map<String, Integer>> rebuildRollups() {
+        if (this.eventSqlDao == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            int rows = this.eventSqlDao.rebuildRollups();
+            logger.info("rebuildRollups | rows {} | duration {}", rows, TimingUtils.duration(start));
+            return new ResponseEntity<>(Collections.singletonMap("rows", rows), HttpStatus.OK);
+        } catch (EventDaoException e) {
+            logger.error("Couldn't rebuild rollups", e);
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    private ResponseEntity<List<EventCountDiscrepancy>> verifyCounts(boolean resync) {
+        long start = System.currentTimeMillis();
+        List<EventCountDiscrepancy> discrepancies = this.eventService.verifyEventCounts(resync);
+        if (discrepancies == null) {
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+
+        logger.info("verifyCounts | resync {} | discrepancies {} | duration {}", resync, discrepancies.size(),
+                    TimingUtils.duration(start));
+        return new ResponseEntity<>(discrepancies, HttpStatus.OK);
+    }
+}
@@ -1,28 +1,62 @@
 
 package org.novalabs.event.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import org.novalabs.event.codec.EventCodec;
+import org.novalabs.event.codec.EventFormatException;
 import org.novalabs.event.domain.Event;
 import org.novalabs.event.domain.EventCount;
+import org.novalabs.event.domain.EventCursor;
+import org.novalabs.event.domain.EventDurations;
+import org.novalabs.event.domain.EventHistogram;
+import org.novalabs.event.domain.EventResult;
+import org.novalabs.event.service.EventBroadcaster;
 import org.novalabs.event.service.EventService;
+import org.novalabs.event.service.EventVersion;
 import org.novalabs.event.util.TimingUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.context.config.ResourceNotFoundException;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import org.springframework.web.util.UriComponentsBuilder;
 
 /**
@@ -31,24 +65,73 @@ import org.springframework.web.util.UriComponentsBuilder;
 @RestController
 @RequestMapping({"/"})
 public class EventController {
+    /**
+     * Media type of newline delimited JSON, one JSON value per line.
+     */
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    /**
+     * Maximum number of events accepted in one batch.
+     */
+    public static final int MAX_BATCH_SIZE = 10000;
+
+    /**
+     * Number of events in a page when a cursor is given without a limit.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+     * Maximum number of events in a page.
+     */
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * Bucket size of a histogram when none is given.
+     */
+    public static final String DEFAULT_HISTOGRAM_BUCKET = "1h";
+
+    /**
+     * Maximum number of buckets in a histogram.
+     */
+    public static final int MAX_HISTOGRAM_BUCKETS = 10000;
+
+    /**
+     * Maximum number of buckets in a durations breakdown.
+     */
+    public static final int MAX_DURATION_BUCKETS = 10000;
+
+    private static final String BINARY_ETAG_SUFFIX = "-bin";
+    private static final Pattern BUCKET_PATTERN = Pattern.compile("(\\d+)(ms|s|m|h|d)");
     private static final Logger logger = LoggerFactory.getLogger(EventController.class);
     private final EventService eventService;
+    private final ObjectMapper objectMapper;
+    private final long pushTimeoutMillis;
 
     /**
      * Creates an instance of the controller, delegating business logic to the EventService.
      * @param eventService  the core business logic class
+     * @param objectMapper  the JSON mapper used to read request bodies that are processed incrementally
+     * @param pushTimeoutMillis  the time after which a Server-Sent Event connection is closed, in milliseconds
      */
-    public EventController(EventService eventService) {
+    public EventController(EventService eventService, ObjectMapper objectMapper, long pushTimeoutMillis) {
         this.eventService = eventService;
+        this.objectMapper = objectMapper;
+        this.pushTimeoutMillis = pushTimeoutMillis;
     }
 
     /**
-     * Returns an array of the latest event for each event type.
+     * Returns an array of the latest event for each event type.  Returns 304 (Not Modified) if the request's ETag or
+     * Last-Modified validator is current; see {@link #eventsNotModified(ServletWebRequest, EventVersion)}.
+     * @param request  the request, for its conditional headers
      * @return  the array of latest events
      */
     @GetMapping({"/events"})
     @ResponseBody
-    public List<Event> latestEvents() {
+    public List<Event> latestEvents(ServletWebRequest request) {
+        if (eventsNotModified(request, this.eventService.version())) {
+            return null;
+        }
+
         long start = System.currentTimeMillis();
         logger.info("latestEvents");
         List<Event> events = this.eventService.latestEvents();
@@ -57,28 +140,88 @@ public class EventController {
     }
 
     /**
-     * Returns all events for an event type.
+     * Pushes events as they are added, as Server-Sent Events named {@code event} whose data is the event JSON and whose
+     * id is the event uuid, as read by {@code EventSource}.  The connection holds no thread while idle; a comment is
+     * sent periodically to keep it open.  A subscriber that falls behind has its oldest events dropped or is closed,
+     * depending on configuration, one whose connection stops accepting writes is closed after the write timeout, and
+     * the connection is closed after a timeout; clients reconnect and reload.  Returns 503 (Service Unavailable) if
+     * push is disabled or there are too many subscribers.
+     * @param types  the event types to push, or null for all types
+     * @return  the event stream
+     */
+    @GetMapping(value = {"/push/events"}, produces = {MediaType.TEXT_EVENT_STREAM_VALUE})
+    public ResponseEntity<SseEmitter> subscribe(@RequestParam(value = "type", required = false) List<String> types) {
+        SseEmitter emitter = new SseEmitter(this.pushTimeoutMillis);
+        EventBroadcaster.Subscription subscription = this.eventService.subscribe(types == null ? null : new HashSet<>(types),
+                                                                                 new EventBroadcaster.Sink() {
+            @Override
+            public void send(Event event) throws IOException {
+                emitter.send(SseEmitter.event().name("event").id(event.getUuid().toString()).data(event, MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void heartbeat() throws IOException {
+                emitter.send(SseEmitter.event().comment("heartbeat"));
+            }
+
+            @Override
+            public void close() {
+                emitter.complete();
+            }
+        });
+        if (subscription == null) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.RETRY_AFTER, "5");
+            return new ResponseEntity<>(headers, HttpStatus.SERVICE_UNAVAILABLE);
+        }
+
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        try {
+            // the first write commits the response, so the client sees the stream open before any event
+            emitter.send(SseEmitter.event().comment("subscribed"));
+        } catch (IOException e) {
+            subscription.cancel();
+        }
+
+        logger.info("subscribe | types {}", types);
+        return new ResponseEntity<>(emitter, HttpStatus.OK);
+    }
+
+    /**
+     * Returns all events for an event type.  With a limit or cursor, one page of events is returned; see
+     * {@link #findByDateRange(String, long, long, Integer, String)}.
      * @param type  the event type
+     * @param limit  the maximum number of events to return, or null
+     * @param cursor  the cursor from the previous page's next link, or null
      * @return  the array of events, ordered in reverse chronology (latest first)
      */
     @GetMapping({"/events/{type}"})
     @ResponseBody
-    public List<Event> allEvents(@PathVariable("type") String type) {
+    public ResponseEntity<List<Event>> allEvents(@PathVariable("type") String type,
+                                                 @RequestParam(value = "limit", required = false) Integer limit,
+                                                 @RequestParam(value = "cursor", required = false) String cursor) {
         long start = System.currentTimeMillis();
         logger.info("allEvents");
-        List<Event> events = this.findByDateRange(type, 0L, Instant.now().toEpochMilli());
-        logger.info("allEvents | size {} | duration {}", events.size(), TimingUtils.duration(start));
-        return events;
+        ResponseEntity<List<Event>> response = this.findByDateRange(type, 0L, Instant.now().toEpochMilli(), limit, cursor);
+        logger.info("allEvents | size {} | duration {}", size(response), TimingUtils.duration(start));
+        return response;
     }
 
     /**
-     * Returns the latest event for the event type.
+     * Returns the latest event for the event type.  Returns 304 (Not Modified) if the request's ETag or Last-Modified
+     * validator is current for the type.
      * @param type  the event type
+     * @param request  the request, for its conditional headers
      * @return  the latest event
      */
     @GetMapping({"/events/{type}/latest"})
     @ResponseBody
-    public ResponseEntity<Event> latestEvent(@PathVariable("type") String type) {
+    public ResponseEntity<Event> latestEvent(@PathVariable("type") String type, ServletWebRequest request) {
+        if (eventsNotModified(request, this.eventService.version(type))) {
+            return null;
+        }
+
         long start = System.currentTimeMillis();
         logger.info("latestEvent | type {}", type);
         Event event = this.eventService.latestEvent(type);
@@ -93,18 +236,23 @@ public class EventController {
     }
 
     /**
-     * Returns all events for an event type.
+     * Returns all events for an event type.  With a limit or cursor, one page of events is returned; see
+     * {@link #findByDateRange(String, long, long, Integer, String)}.
      * @param type  the event type
+     * @param limit  the maximum number of events to return, or null
+     * @param cursor  the cursor from the previous page's next link, or null
      * @return  the array of events, ordered in reverse chronology (latest first)
      */
     @GetMapping({"/events/{type}/all"})
     @ResponseBody
-    public List<Event> allEventsForType(@PathVariable("type") String type) {
+    public ResponseEntity<List<Event>> allEventsForType(@PathVariable("type") String type,
+                                                        @RequestParam(value = "limit", required = false) Integer limit,
+                                                        @RequestParam(value = "cursor", required = false) String cursor) {
         long start = System.currentTimeMillis();
         logger.info("allEventsForType");
-        List<Event> events = this.findByDateRange(type, 0L, Instant.now().toEpochMilli());
-        logger.info("allEventsForType | size {} | duration {}", events.size(), TimingUtils.duration(start));
-        return events;
+        ResponseEntity<List<Event>> response = this.findByDateRange(type, 0L, Instant.now().toEpochMilli(), limit, cursor);
+        logger.info("allEventsForType | size {} | duration {}", size(response), TimingUtils.duration(start));
+        return response;
     }
 
     /**
@@ -122,46 +270,252 @@ public class EventController {
         return eventCount;
     }
 
+    /**
+     * Returns the events from the earliest time (default the start of the last {@value #MAX_HISTOGRAM_BUCKETS}
+     * buckets) to the latest time (default now), counted in time buckets and broken down by event value.  Buckets are aligned to multiples of the bucket size since the epoch,
+     * ordered chronologically, and only non-empty buckets are returned, at most {@value #MAX_HISTOGRAM_BUCKETS} of
+     * them.  The counting is done by the store, so the response size depends on the number of buckets rather than the
+     * number of events.
+     * @param type  the event type
+     * @param bucket  the bucket size, a number followed by one of {@code ms}, {@code s}, {@code m}, {@code h} or {@code d}
+     * @param earliest  the earliest time, in milliseconds since the epoch, or null
+     * @param latest  the latest time, in milliseconds since the epoch, or null
+     * @return  the histogram
+     */
+    @GetMapping({"/events/{type}/histogram"})
+    @ResponseBody
+    public ResponseEntity<EventHistogram> histogram(@PathVariable("type") String type,
+                                                    @RequestParam(value = "bucket", defaultValue = DEFAULT_HISTOGRAM_BUCKET) String bucket,
+                                                    @RequestParam(value = "earliest", required = false) Long earliest,
+                                                    @RequestParam(value = "latest", required = false) Long latest) {
+        long start = System.currentTimeMillis();
+        logger.info("histogram | type {} | bucket {} | earliest {} | latest {}", type, bucket, earliest, latest);
+        long bucketMillis = parseBucket(bucket);
+        long latestMillis = latest == null ? Instant.now().toEpochMilli() : latest;
+        long earliestMillis = earliest != null ? earliest
+                : bucketMillis <= 0L ? 0L : Math.max(0L, latestMillis - (MAX_HISTOGRAM_BUCKETS - 1L) * bucketMillis);
+        if (bucketMillis <= 0L || earliestMillis < 0L || earliestMillis > latestMillis
+                || (latestMillis - earliestMillis) / bucketMillis >= MAX_HISTOGRAM_BUCKETS) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+
+        EventHistogram histogram = this.eventService.histogram(type, Instant.ofEpochMilli(earliestMillis),
+                                                               Instant.ofEpochMilli(latestMillis), bucketMillis);
+        if (histogram == null) {
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+        logger.info("histogram | type {} | buckets {} | duration {}", type, histogram.getBuckets().size(), TimingUtils.duration(start));
+        return new ResponseEntity<>(histogram, HttpStatus.OK);
+    }
+
+    /**
+     * Returns the time the event type spent in each event value from the earliest time (default the epoch) to the
+     * latest time (default now), treating events as state transitions.  The state at the earliest time is the value of
+     * the last event before it.  With a bucket size (e.g. {@code 1d}) the time is also broken down into buckets aligned
+     * to multiples of the bucket size since the epoch, at most {@value #MAX_DURATION_BUCKETS} of them.
+     * @param type  the event type
+     * @param bucket  the bucket size, a number followed by one of {@code ms}, {@code s}, {@code m}, {@code h} or {@code d}, or null
+     * @param earliest  the start of the window, inclusive, in milliseconds since the epoch, or null
+     * @param latest  the end of the window, exclusive, in milliseconds since the epoch, or null
+     * @return  the durations
+     */
+    @GetMapping({"/events/{type}/durations"})
+    @ResponseBody
+    public ResponseEntity<EventDurations> durations(@PathVariable("type") String type,
+                                                    @RequestParam(value = "bucket", required = false) String bucket,
+                                                    @RequestParam(value = "earliest", required = false) Long earliest,
+                                                    @RequestParam(value = "latest", required = false) Long latest) {
+        long start = System.currentTimeMillis();
+        logger.info("durations | type {} | bucket {} | earliest {} | latest {}", type, bucket, earliest, latest);
+        long bucketMillis = bucket == null ? 0L : parseBucket(bucket);
+        long earliestMillis = earliest == null ? 0L : earliest;
+        long latestMillis = latest == null ? Instant.now().toEpochMilli() : latest;
+        if (bucketMillis < 0L || (bucket != null && bucketMillis == 0L) || earliestMillis < 0L || earliestMillis > latestMillis
+                || (bucketMillis > 0L && (latestMillis - earliestMillis) / bucketMillis >= MAX_DURATION_BUCKETS)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+
+        EventDurations durations = this.eventService.durations(type, Instant.ofEpochMilli(earliestMillis),
+                                                               Instant.ofEpochMilli(latestMillis), bucketMillis);
+        if (durations == null) {
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+        logger.info("durations | type {} | values {} | duration {}", type, durations.getMillis().size(), TimingUtils.duration(start));
+        return new ResponseEntity<>(durations, HttpStatus.OK);
+    }
+
     /**
      * Returns the list of events from the earliest time to now.  Times are milliseconds since the epoch.  The list is
-     * returned in reverse chronological order.
+     * returned in reverse chronological order.  With a limit or cursor, one page of events is returned; see
+     * {@link #findByDateRange(String, long, long, Integer, String)}.
      * @param type  the event type
      * @param earliest  the earlist time, in milliseconds since the epoch
+     * @param limit  the maximum number of events to return, or null
+     * @param cursor  the cursor from the previous page's next link, or null
      * @return  the list of events
      */
     @GetMapping({"/events/{type}/earliest/{earliest}"})
     @ResponseBody
-    public List<Event> findByDateRange(@PathVariable("type") String type, @PathVariable("earliest") long earliest) {
-        return this.findByDateRange(type, earliest, Instant.now().toEpochMilli());
+    public ResponseEntity<List<Event>> findByDateRange(@PathVariable("type") String type, @PathVariable("earliest") long earliest,
+                                                       @RequestParam(value = "limit", required = false) Integer limit,
+                                                       @RequestParam(value = "cursor", required = false) String cursor) {
+        return this.findByDateRange(type, earliest, Instant.now().toEpochMilli(), limit, cursor);
     }
 
     /**
      * Returns the list of events from the earliest time to the latest time.  Times are milliseconds since the epoch.
      * The list is returned in reverse chronological order.
+     * <p>
+     * With a limit or cursor, one page of at most limit events (default {@value #DEFAULT_PAGE_SIZE}, maximum
+     * {@value #MAX_PAGE_SIZE}) is returned.  If more events follow, the response has a {@code Link} header with
+     * {@code rel="next"} whose URL carries the cursor for the next page.
      * @param type  the event type
      * @param earliest  the earlist time, in milliseconds since the epoch
+     * @param latest  the latest time, in milliseconds since the epoch
+     * @param limit  the maximum number of events to return, or null
+     * @param cursor  the cursor from the previous page's next link, or null
      * @return  the list of events
      */
     @GetMapping({"/events/{type}/earliest/{earliest}/latest/{latest}"})
     @ResponseBody
-    public List<Event> findByDateRange(@PathVariable("type") String type, @PathVariable("earliest") long earliest, @PathVariable("latest") long latest) {
+    public ResponseEntity<List<Event>> findByDateRange(@PathVariable("type") String type, @PathVariable("earliest") long earliest,
+                                                       @PathVariable("latest") long latest,
+                                                       @RequestParam(value = "limit", required = false) Integer limit,
+                                                       @RequestParam(value = "cursor", required = false) String cursor) {
         Instant earliestTime = Instant.ofEpochMilli(earliest);
         Instant latestTime = Instant.ofEpochMilli(latest);
-        return this.eventService.findEvents(type, earliestTime, latestTime);
+        if (limit == null && cursor == null) {
+            return new ResponseEntity<>(this.eventService.findEvents(type, earliestTime, latestTime), HttpStatus.OK);
+        }
+
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+
+        EventCursor after;
+        try {
+            after = cursor == null ? null : EventCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            logger.warn("findByDateRange | invalid cursor {}", cursor);
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+
+        // one event more than the page tells whether there is a next page
+        List<Event> events = this.eventService.findEvents(type, earliestTime, latestTime, after, pageSize + 1);
+        HttpHeaders headers = new HttpHeaders();
+        if (events.size() > pageSize) {
+            events = new ArrayList<>(events.subList(0, pageSize));
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("limit", pageSize)
+                    .replaceQueryParam("cursor", EventCursor.of(events.get(pageSize - 1)).encode())
+                    .build().toUriString();
+            headers.add(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+
+        return new ResponseEntity<>(events, headers, HttpStatus.OK);
+    }
+
+    /**
+     * Streams the events from the earliest time to the latest time (default now) as newline delimited JSON, one event
+     * per line, in reverse chronological order.  Events are written as they are read from the store, so memory use
+     * doesn't depend on the size of the range.  Selected with {@code Accept: application/x-ndjson}.
+     * @param type  the event type
+     * @param earliest  the earlist time, in milliseconds since the epoch
+     * @param latest  the latest time, in milliseconds since the epoch, or null for now
+     * @return  the streamed events
+     */
+    @GetMapping(value = {"/events/{type}/earliest/{earliest}", "/events/{type}/earliest/{earliest}/latest/{latest}"},
+                produces = {APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> streamByDateRangeNdjson(@PathVariable("type") String type,
+                                                                         @PathVariable("earliest") long earliest,
+                                                                         @PathVariable(value = "latest", required = false) Long latest) {
+        return this.streamByDateRange(type, earliest, latest, true);
+    }
+
+    /**
+     * Streams the events from the earliest time to the latest time (default now) as a chunked JSON array, in reverse
+     * chronological order.  Events are written as they are read from the store, so memory use doesn't depend on the
+     * size of the range.  Selected with the {@code stream=true} parameter.
+     * @param type  the event type
+     * @param earliest  the earlist time, in milliseconds since the epoch
+     * @param latest  the latest time, in milliseconds since the epoch, or null for now
+     * @return  the streamed events
+     */
+    @GetMapping(value = {"/events/{type}/earliest/{earliest}", "/events/{type}/earliest/{earliest}/latest/{latest}"},
+                params = {"stream=true"}, produces = {MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> streamByDateRangeJson(@PathVariable("type") String type,
+                                                                       @PathVariable("earliest") long earliest,
+                                                                       @PathVariable(value = "latest", required = false) Long latest) {
+        return this.streamByDateRange(type, earliest, latest, false);
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamByDateRange(String type, long earliest, @Nullable Long latest, boolean ndjson) {
+        Instant earliestTime = Instant.ofEpochMilli(earliest);
+        Instant latestTime = latest == null ? Instant.now() : Instant.ofEpochMilli(latest);
+        ObjectWriter writer = this.objectMapper.writerFor(Event.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingResponseBody body = outputStream -> {
+            long start = System.currentTimeMillis();
+            AtomicLong count = new AtomicLong();
+            try (JsonGenerator generator = this.objectMapper.getFactory().createGenerator(outputStream)) {
+                if (ndjson) {
+                    // each line ends with its own newline; the default separator would start the next line with a space
+                    generator.setRootValueSeparator(null);
+                } else {
+                    generator.writeStartArray();
+                }
+
+                boolean completed = this.eventService.streamEvents(type, earliestTime, latestTime, event -> {
+                    try {
+                        writer.writeValue(generator, event);
+                        if (ndjson) {
+                            generator.writeRaw('\n');
+                        }
+                        count.incrementAndGet();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                if (!completed) {
+                    // abort rather than end the body, so the client can tell the stream is incomplete
+                    throw new IOException("event stream ended early | type " + type + " | written " + count.get());
+                }
+
+                if (!ndjson) {
+                    generator.writeEndArray();
+                }
+            }
+
+            logger.info("streamByDateRange | type {} | ndjson {} | size {} | duration {}", type, ndjson, count.get(),
+                        TimingUtils.duration(start));
+        };
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(ndjson ? MediaType.parseMediaType(APPLICATION_NDJSON_VALUE) : MediaType.APPLICATION_JSON_UTF8);
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
     }
 
     /**
-     * Returns the list of event type, order alphabetically.
+     * Returns the list of event type, order alphabetically.  Returns 304 (Not Modified) if the request's ETag or
+     * Last-Modified validator is current.
+     * @param request  the request, for its conditional headers
      * @return  the list of event types
      */
     @GetMapping({"/types"})
     @ResponseBody
-    public List<String> allEventTypes() {
+    public List<String> allEventTypes(ServletWebRequest request) {
+        if (notModified(request, this.eventService.version())) {
+            return null;
+        }
+
         return this.eventService.allEventTypes();
     }
 
     /**
-     * Adds the event.
+     * Adds the event.  With asynchronous ingest enabled the event is queued and 202 (Accepted) is returned, or 503
+     * (Service Unavailable) if the ingest queue is full.
      * @param event  the event to be added
      * @param ucBuilder  the uri component builder
      * @return the event that was added
@@ -170,7 +524,15 @@ public class EventController {
     public ResponseEntity<Event> addEvent(@RequestBody Event event, UriComponentsBuilder ucBuilder) {
         logger.info("received POST | event {}", event);
         HttpHeaders headers = new HttpHeaders();
-        if (event != null && !event.isInvalid()) {
+        if (event != null && !event.isInvalid() && this.eventService.isAsyncIngest()) {
+            if (this.eventService.submitEvent(event) == null) {
+                headers.set(HttpHeaders.RETRY_AFTER, "1");
+                return new ResponseEntity<>(headers, HttpStatus.SERVICE_UNAVAILABLE);
+            }
+
+            headers.setLocation(ucBuilder.path("/events/" + event.getType() + "/").build().toUri());
+            return new ResponseEntity<>(headers, HttpStatus.ACCEPTED);
+        } else if (event != null && !event.isInvalid()) {
             boolean wasAdded = this.eventService.addEvent(event);
             if (wasAdded) {
                 headers.setLocation(ucBuilder.path("/events/" + event.getType() + "/").build().toUri());
@@ -183,6 +545,190 @@ public class EventController {
         }
     }
 
+    /**
+     * Adds a batch of events, sent as a JSON array, as newline delimited JSON (NDJSON) or in the binary
+     * {@link EventCodec} encoding.  Each event is validated separately, then all valid events are added together as a
+     * single unit of work.
+     * @param contentType  the request content type
+     * @param body  the request body
+     * @return the result for each event, in request order
+     * @throws IOException  if the request body couldn't be read
+     */
+    @PostMapping(value = {"/events/batch"},
+                 consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE, EventCodec.MEDIA_TYPE})
+    public ResponseEntity<List<EventResult>> addEvents(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                                       InputStream body) throws IOException {
+        long start = System.currentTimeMillis();
+        List<EventResult> results = new ArrayList<>();
+        List<Event> validEvents = new ArrayList<>();
+
+        if (EventMessageConverter.EVENT_BINARY.isCompatibleWith(MediaType.parseMediaType(contentType))) {
+            try {
+                EventCodec.Decoder events = EventCodec.decoder(body);
+                if (events.count() > MAX_BATCH_SIZE) {
+                    logger.warn("batch POST too large | max {}", MAX_BATCH_SIZE);
+                    return new ResponseEntity<>(HttpStatus.PAYLOAD_TOO_LARGE);
+                }
+
+                while (events.hasNext()) {
+                    EventResult result;
+                    try {
+                        result = this.validateEvent(results.size(), events.next(), validEvents);
+                    } catch (IllegalArgumentException e) {
+                        result = new EventResult(results.size(), null, EventResult.Status.INVALID, e.getMessage());
+                    }
+
+                    results.add(result);
+                }
+            } catch (EventFormatException e) {
+                logger.warn("batch POST is not a valid event message | read {}", results.size(), e);
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+        } else {
+            // a JSON array is unwrapped and NDJSON is read as a sequence of root values, one event at a time
+            try (MappingIterator<JsonNode> nodes = this.objectMapper.readerFor(JsonNode.class).readValues(body)) {
+                while (nodes.hasNextValue()) {
+                    if (results.size() >= MAX_BATCH_SIZE) {
+                        logger.warn("batch POST too large | max {}", MAX_BATCH_SIZE);
+                        return new ResponseEntity<>(HttpStatus.PAYLOAD_TOO_LARGE);
+                    }
+
+                    results.add(this.validateEvent(results.size(), nodes.nextValue(), validEvents));
+                }
+            } catch (JsonProcessingException e) {
+                logger.warn("batch POST is not valid JSON or NDJSON | read {}", results.size(), e);
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+        }
+
+        if (!validEvents.isEmpty() && !this.eventService.addEvents(validEvents)) {
+            for (EventResult result : results) {
+                if (result.getStatus() == EventResult.Status.CREATED) {
+                    result.setStatus(EventResult.Status.FAILED);
+                    result.setMessage("batch couldn't be added");
+                }
+            }
+        }
+
+        logger.info("received batch POST | size {} | valid {} | duration {}", results.size(), validEvents.size(),
+                    TimingUtils.duration(start));
+        return new ResponseEntity<>(results, HttpStatus.OK);
+    }
+
+    /**
+     * Converts the JSON node to an event and validates it.
+     * @return  the result, {@code CREATED} if the event is valid (pending the batch insert) or {@code INVALID}
+     */
+    private EventResult validateEvent(int index, JsonNode node, List<Event> validEvents) {
+        try {
+            return this.validateEvent(index, this.objectMapper.treeToValue(node, Event.class), validEvents);
+        } catch (JsonProcessingException | RuntimeException e) {
+            return new EventResult(index, null, EventResult.Status.INVALID, e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the event to validEvents if it has a type and value.
+     * @return  the result, {@code CREATED} if the event is valid (pending the batch insert) or {@code INVALID}
+     */
+    private EventResult validateEvent(int index, @Nullable Event event, List<Event> validEvents) {
+        if (event == null || Event.INVALID_TYPE.equals(event.getType()) || Event.INVALID_VALUE.equals(event.getValue())) {
+            return new EventResult(index, event == null ? null : event.getUuid(), EventResult.Status.INVALID,
+                                   "event type and value are required");
+        }
+
+        validEvents.add(event);
+        return new EventResult(index, event.getUuid(), EventResult.Status.CREATED, null);
+    }
+
+    /**
+     * Checks the request's If-None-Match and If-Modified-Since headers against the version, which is read before the
+     * data it versions.  If they match, the response is set to 304 (Not Modified) and the handler returns without
+     * reading the data or writing a body.  Either way the response carries the version's ETag and Last-Modified, and
+     * Cache-Control no-cache so clients keep the response but revalidate it on every use.
+     */
+    private static boolean notModified(ServletWebRequest request, EventVersion version) {
+        return notModified(request, version.getETag(), version.getLastModified());
+    }
+
+    /**
+     * As {@link #notModified(ServletWebRequest, EventVersion)} for a response of events, which is JSON or the binary
+     * encoding depending on the Accept header.  The response varies on Accept, and the binary encoding has its own
+     * ETag, so neither a cache nor a client revalidates one encoding with the other's tag.
+     */
+    private static boolean eventsNotModified(ServletWebRequest request, EventVersion version) {
+        if (request.getResponse() != null) {
+            request.getResponse().setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+
+        String eTag = acceptsBinary(request) ? version.getETag(BINARY_ETAG_SUFFIX) : version.getETag();
+        return notModified(request, eTag, version.getLastModified());
+    }
+
+    private static boolean notModified(ServletWebRequest request, String eTag, long lastModified) {
+        if (request.getResponse() != null) {
+            request.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+        }
+
+        return request.checkNotModified(eTag, lastModified);
+    }
+
+    /**
+     * Returns whether the response will be in the binary encoding: whether the most preferred type of the Accept header
+     * that JSON or the binary encoding matches is matched only by the binary encoding.  JSON is the default, as it is
+     * for the message converters.
+     */
+    private static boolean acceptsBinary(ServletWebRequest request) {
+        List<MediaType> accepted;
+        try {
+            accepted = MediaType.parseMediaTypes(request.getHeader(HttpHeaders.ACCEPT));
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+
+        MediaType.sortBySpecificityAndQuality(accepted);
+        for (MediaType mediaType : accepted) {
+            if (mediaType.includes(MediaType.APPLICATION_JSON)) {
+                return false;
+            }
+
+            if (mediaType.includes(EventMessageConverter.EVENT_BINARY)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the bucket size in milliseconds, or -1 if the size isn't valid.
+     */
+    private static long parseBucket(String bucket) {
+        Matcher matcher = BUCKET_PATTERN.matcher(bucket);
+        if (!matcher.matches()) {
+            return -1L;
+        }
+
+        TimeUnit unit;
+        switch (matcher.group(2)) {
+            case "ms": unit = TimeUnit.MILLISECONDS; break;
+            case "s": unit = TimeUnit.SECONDS; break;
+            case "m": unit = TimeUnit.MINUTES; break;
+            case "h": unit = TimeUnit.HOURS; break;
+            default: unit = TimeUnit.DAYS; break;
+        }
+
+        try {
+            return unit.toMillis(Long.parseLong(matcher.group(1)));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    private static int size(ResponseEntity<List<Event>> response) {
+        return response.getBody() == null ? 0 : response.getBody().size();
+    }
+
     /**
      * Root redirect.
      * @param model  the model map
@@ -0,0 +1,112 @@
+package org.novalabs.event.controller;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.novalabs.event.codec.EventCodec;
+import org.novalabs.event.codec.EventFormatException;
+import org.novalabs.event.domain.Event;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+/**
+ * Reads and writes an {@code Event} or a collection of events in the {@link EventCodec} binary encoding, selected by
+ * the {@value EventCodec#MEDIA_TYPE} content type or Accept header.  It is registered after the JSON converter, so
+ * JSON stays the default for clients that accept anything.
+ */
+public class EventMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+    /**
+     * The binary event media type.
+     */
+    public static final MediaType EVENT_BINARY = MediaType.valueOf(EventCodec.MEDIA_TYPE);
+
+    /**
+     * Creates the converter.
+     */
+    public EventMessageConverter() {
+        super(EVENT_BINARY);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return Event.class == clazz || Collection.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Type type, Class<?> contextClass, MediaType mediaType) {
+        return isEvents(type, true) && this.canRead(mediaType);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return Event.class == clazz && this.canRead(mediaType);
+    }
+
+    @Override
+    public boolean canWrite(Type type, Class<?> clazz, MediaType mediaType) {
+        return (type == null ? Event.class == clazz : isEvents(type, false)) && this.canWrite(mediaType);
+    }
+
+    @Override
+    public boolean canWrite(Class<?> clazz, MediaType mediaType) {
+        return Event.class == clazz && this.canWrite(mediaType);
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) throws IOException {
+        return this.read(Event.class == type, inputMessage);
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        return this.read(Event.class == clazz, inputMessage);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void writeInternal(Object body, Type type, HttpOutputMessage outputMessage) throws IOException {
+        Collection<Event> events = body instanceof Event ? Collections.singletonList((Event) body) : (Collection<Event>) body;
+        EventCodec.encode(events, outputMessage.getBody());
+    }
+
+    private Object read(boolean single, HttpInputMessage inputMessage) throws IOException {
+        try {
+            List<Event> events = EventCodec.decode(inputMessage.getBody());
+            if (!single) {
+                return events;
+            }
+
+            if (events.size() != 1) {
+                throw new HttpMessageNotReadableException("Expected one event, not " + events.size());
+            }
+
+            return events.get(0);
+        } catch (EventFormatException e) {
+            throw new HttpMessageNotReadableException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns whether the type is {@code Event} or a collection of events; to be read, a collection the decoded list
+     * can be assigned to.
+     */
+    private static boolean isEvents(Type type, boolean read) {
+        if (Event.class == type) {
+            return true;
+        } else if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            Type raw = parameterized.getRawType();
+            return raw instanceof Class
+                    && (read ? ((Class<?>) raw).isAssignableFrom(List.class) : Collection.class.isAssignableFrom((Class<?>) raw))
+                    && parameterized.getActualTypeArguments()[0] == Event.class;
+        }
+
+        return false;
+    }
+}
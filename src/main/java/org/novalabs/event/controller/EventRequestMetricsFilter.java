@@ -0,0 +1,144 @@
+package org.novalabs.event.controller;
+
+import java.io.IOException;
+import java.util.Locale;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.novalabs.event.util.OperationMetrics;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Records the latency, response bytes and failure of every request in {@link OperationMetrics}, under the request
+ * method and the handler's mapping, e.g. {@code get.events.type.latest} for {@code GET /events/{type}/latest}.
+ * Requests no handler mapped are recorded as {@code <method>.unmapped}.  A request fails if it throws or answers
+ * with a 5xx status.  Asynchronous requests, such as streamed ranges and pushed events, are recorded when they
+ * complete.  Bytes written through the response's writer rather than its output stream aren't counted.
+ */
+public class EventRequestMetricsFilter extends OncePerRequestFilter {
+    private final OperationMetrics metrics;
+
+    /**
+     * Creates the filter.
+     * @param metrics  the metrics the requests are recorded in
+     */
+    public EventRequestMetricsFilter(OperationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        long start = System.nanoTime();
+        CountingResponse countingResponse = new CountingResponse(response);
+        boolean failed = true;
+        try {
+            filterChain.doFilter(request, countingResponse);
+            failed = false;
+        } finally {
+            String operation = operation(request);
+            if (!failed && request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    private boolean failed;
+
+                    public void onComplete(AsyncEvent event) {
+                        EventRequestMetricsFilter.this.record(operation, start, countingResponse, this.failed);
+                    }
+
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    public void onError(AsyncEvent event) {
+                        this.failed = true;
+                    }
+
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                this.record(operation, start, countingResponse, failed);
+            }
+        }
+    }
+
+    private void record(String operation, long start, CountingResponse response, boolean failed) {
+        this.metrics.record(operation, System.nanoTime() - start, response.bytes, failed || response.getStatus() >= 500);
+    }
+
+    /**
+     * Returns the operation name of the request: its method and the path pattern of its handler, with variable names
+     * kept and separators replaced by dots.
+     */
+    static String operation(HttpServletRequest request) {
+        String method = request.getMethod().toLowerCase(Locale.ROOT);
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (pattern == null) {
+            return method + ".unmapped";
+        }
+
+        String name = pattern.toString().replaceAll("\\{([^}:]*)[^}]*}", "$1").replaceAll("[^A-Za-z0-9]+", ".");
+        name = name.replaceAll("^\\.|\\.$", "");
+        return name.isEmpty() ? method : method + "." + name;
+    }
+
+    /**
+     * Response that counts the bytes written to its output stream.
+     */
+    private static final class CountingResponse extends HttpServletResponseWrapper {
+        // a response is written by one thread at a time
+        private volatile long bytes;
+        private ServletOutputStream outputStream;
+
+        CountingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public synchronized ServletOutputStream getOutputStream() throws IOException {
+            if (this.outputStream == null) {
+                ServletOutputStream delegate = super.getOutputStream();
+                this.outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        delegate.write(b);
+                        ++CountingResponse.this.bytes;
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        delegate.write(b, off, len);
+                        CountingResponse.this.bytes += len;
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        delegate.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        delegate.close();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return delegate.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        delegate.setWriteListener(writeListener);
+                    }
+                };
+            }
+            return this.outputStream;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.novalabs.event.dao;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventBucket;
+
+/**
+ * Counts the events passed to it in time buckets aligned to the epoch, for stores that compute
+ * {@link EventDao#countEventsByBucket} in a streaming pass.  Only the buckets are retained, not the events.
+ */
+public class EventBucketCounter implements Consumer<Event> {
+    private final long bucketMillis;
+    private final TreeMap<Long, EventBucket> buckets = new TreeMap<>();
+
+    /**
+     * Creates a counter.
+     * @param bucketMillis  the bucket size in milliseconds
+     */
+    public EventBucketCounter(long bucketMillis) {
+        Preconditions.checkArgument(bucketMillis > 0L);
+        this.bucketMillis = bucketMillis;
+    }
+
+    /**
+     * Counts the event in its bucket.
+     * @param event  the event
+     */
+    public void accept(Event event) {
+        long start = bucketStart(event.getEpochMillis(), this.bucketMillis);
+        this.buckets.computeIfAbsent(start, EventBucket::new).add(event.getValue().getString(), 1L);
+    }
+
+    /**
+     * Returns the non-empty buckets, in chronological order.
+     * @return  the buckets
+     */
+    public List<EventBucket> buckets() {
+        return new ArrayList<>(this.buckets.values());
+    }
+
+    /**
+     * Returns the start of the bucket containing the time.
+     * @param epochMillis  the time, in milliseconds since the epoch
+     * @param bucketMillis  the bucket size in milliseconds
+     * @return  the bucket start, in milliseconds since the epoch
+     */
+    public static long bucketStart(long epochMillis, long bucketMillis) {
+        return Math.floorDiv(epochMillis, bucketMillis) * bucketMillis;
+    }
+}
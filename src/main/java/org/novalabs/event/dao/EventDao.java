@@ -2,9 +2,15 @@
 package org.novalabs.event.dao;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventBucket;
+import org.novalabs.event.domain.EventCursor;
 
 /**
  * Data Access Object (DAO) for events.
@@ -29,6 +35,47 @@ public interface EventDao {
      */
     List<Event> findEvents(String eventType, Instant earliestTime, Instant latestTime) throws EventDaoException;
 
+    /**
+     * Returns one page of the events for the event type, between the earliest and latest times, inclusive.  The page
+     * is in reverse chronological order, ties ordered by descending uuid, and starts with the first event after the
+     * cursor.  Implementations seek to the cursor rather than skipping the preceding events.
+     * @param eventType the event type
+     * @param earliestTime  the earliest event time, inclusive
+     * @param latestTime  the latest event time, inclusive
+     * @param after  the position of the last event of the previous page, or null for the first page
+     * @param limit  the maximum number of events to return
+     * @return  the page of events
+     * @throws EventDaoException  if the page couldn't be returned
+     */
+    List<Event> findEvents(String eventType, Instant earliestTime, Instant latestTime, @Nullable EventCursor after,
+                           int limit) throws EventDaoException;
+
+    /**
+     * Passes each event for the event type, between the earliest and latest times, inclusive, to the consumer in
+     * reverse chronological order.  Events are read incrementally and not retained, so memory use doesn't depend on
+     * the number of events.  An exception thrown by the consumer ends the stream.
+     * @param eventType the event type
+     * @param earliestTime  the earliest event time, inclusive
+     * @param latestTime  the latest event time, inclusive
+     * @param consumer  the consumer of the events
+     * @throws EventDaoException  if the events couldn't be read or the consumer failed
+     */
+    void streamEvents(String eventType, Instant earliestTime, Instant latestTime, Consumer<Event> consumer) throws EventDaoException;
+
+    /**
+     * Returns the count of events for the event type between the earliest and latest times, inclusive, in time buckets
+     * of the given size aligned to the epoch, broken down by event value.  Counts are computed by the store or in a
+     * single pass over the events, without retaining them.
+     * @param eventType the event type
+     * @param earliestTime  the earliest event time, inclusive
+     * @param latestTime  the latest event time, inclusive
+     * @param bucketMillis  the bucket size in milliseconds
+     * @return  the non-empty buckets, in chronological order
+     * @throws EventDaoException  if the events couldn't be counted
+     */
+    List<EventBucket> countEventsByBucket(String eventType, Instant earliestTime, Instant latestTime, long bucketMillis)
+            throws EventDaoException;
+
     /**
      * Returns the list of all event types.
      * @return  the list of event types
@@ -52,6 +99,14 @@ public interface EventDao {
      */
     List<Event> findLatestEvents() throws EventDaoException;
 
+    /**
+     * Returns whether an event with the uuid is stored.
+     * @param uuid  the event uuid
+     * @return  whether stored
+     * @throws EventDaoException  if the store couldn't be checked
+     */
+    boolean containsEvent(UUID uuid) throws EventDaoException;
+
     /**
      * Returns the count of events for an event type.
      * @param eventType  the event type
@@ -60,6 +115,13 @@ public interface EventDao {
      */
     long countEvents(String eventType) throws EventDaoException;
 
+    /**
+     * Returns the count of events for every event type.
+     * @return  the count of events, keyed by event type
+     * @throws EventDaoException  if the counts couldn't be determined
+     */
+    Map<String, Long> countEventsByType() throws EventDaoException;
+
     /**
      * Adds the {@code Event} and returns if successful.
      * @param event  the event to be added
@@ -67,4 +129,44 @@ public interface EventDao {
      * @throws EventDaoException if an error occurred while adding the event
      */
     boolean addEvent(Event event) throws EventDaoException;
+
+    /**
+     * Adds the events as a single unit of work and returns the number added.  Either all of the events are added or,
+     * if an exception is thrown, none of them are.
+     * @param events  the events to be added
+     * @return  the number of events added
+     * @throws EventDaoException if an error occurred while adding the events
+     */
+    int addEvents(Collection<Event> events) throws EventDaoException;
+
+    /**
+     * Deletes events of the event type older than the time and returns the number deleted.  The latest event of the
+     * type is never deleted, so the latest events and the event types are unchanged.  A store deletes about the limit
+     * per call, in the units it stores events in; call again until it returns less than the limit.  Rollups, where
+     * the store keeps them, go on counting the deleted events.
+     * <p>
+     * Behind a write-behind DAO, such as the write-ahead log, events are applied to the store in batches.  The file
+     * store appends a batch to one segment and never deletes the segment holding the latest event, so it can't delete
+     * events that were applied in the same batch as the type's latest event; they go once a newer event moves the
+     * latest event to a later segment and theirs expires whole.
+     * @param eventType  the event type
+     * @param before  the time events are deleted before, exclusive
+     * @param limit  the number of events to delete in this call
+     * @return  the number of events deleted
+     * @throws EventDaoException  if the events couldn't be deleted
+     */
+    int deleteEvents(String eventType, Instant before, int limit) throws EventDaoException;
+
+    /**
+     * Deletes up to the limit of the event type's rollups of the granularity whose buckets end at or before the time,
+     * and returns the number deleted.  Counts in buckets of that granularity then omit the deleted buckets.  A store
+     * without rollups deletes nothing.
+     * @param eventType  the event type
+     * @param granularityMillis  the rollup granularity in milliseconds
+     * @param before  the time the deleted buckets end by
+     * @param limit  the maximum number of rollups to delete
+     * @return  the number of rollups deleted
+     * @throws EventDaoException  if the rollups couldn't be deleted
+     */
+    int deleteRollups(String eventType, long granularityMillis, Instant before, int limit) throws EventDaoException;
 }
@@ -0,0 +1,133 @@
+package org.novalabs.event.dao;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import javax.annotation.Nullable;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventBucket;
+import org.novalabs.event.domain.EventCursor;
+import org.novalabs.event.util.OperationMetrics;
+
+/**
+ * Decorates an {@code EventDao}, recording the latency, result size and failure of every call in
+ * {@link OperationMetrics}, under the DAO method's name.  The three {@code findEvents} methods are recorded as
+ * {@code findEvents}, {@code findEventsInRange} and {@code findEventsPage}.  The size of a call is the number of
+ * events, types, buckets or counts it returns, streams, adds or deletes.
+ */
+public class TimedEventDao implements EventDao {
+    private final EventDao eventDao;
+    private final OperationMetrics metrics;
+
+    /**
+     * Creates the DAO.
+     * @param eventDao  the DAO whose calls are timed
+     * @param metrics  the metrics the calls are recorded in
+     */
+    public TimedEventDao(EventDao eventDao, OperationMetrics metrics) {
+        this.eventDao = eventDao;
+        this.metrics = metrics;
+    }
+
+    public List<Event> findEvents(String eventType) throws EventDaoException {
+        return this.time("findEvents", () -> this.eventDao.findEvents(eventType), List::size);
+    }
+
+    public List<Event> findEvents(String eventType, Instant earliestTime, Instant latestTime) throws EventDaoException {
+        return this.time("findEventsInRange", () -> this.eventDao.findEvents(eventType, earliestTime, latestTime), List::size);
+    }
+
+    public List<Event> findEvents(String eventType, Instant earliestTime, Instant latestTime, @Nullable EventCursor after,
+                                  int limit) throws EventDaoException {
+        return this.time("findEventsPage", () -> this.eventDao.findEvents(eventType, earliestTime, latestTime, after, limit), List::size);
+    }
+
+    public void streamEvents(String eventType, Instant earliestTime, Instant latestTime, Consumer<Event> consumer) throws EventDaoException {
+        // the store calls the consumer on this thread
+        long[] streamed = new long[1];
+        this.time("streamEvents", () -> {
+            this.eventDao.streamEvents(eventType, earliestTime, latestTime, event -> {
+                consumer.accept(event);
+                ++streamed[0];
+            });
+            return streamed;
+        }, count -> count[0]);
+    }
+
+    public List<EventBucket> countEventsByBucket(String eventType, Instant earliestTime, Instant latestTime, long bucketMillis)
+            throws EventDaoException {
+        return this.time("countEventsByBucket", () -> this.eventDao.countEventsByBucket(eventType, earliestTime, latestTime, bucketMillis),
+                         List::size);
+    }
+
+    public List<String> findAllTypes() throws EventDaoException {
+        return this.time("findAllTypes", this.eventDao::findAllTypes, List::size);
+    }
+
+    @Nullable
+    public Event findLatestEvent(String eventType) throws EventDaoException {
+        return this.time("findLatestEvent", () -> this.eventDao.findLatestEvent(eventType), event -> 1L);
+    }
+
+    public List<Event> findLatestEvents() throws EventDaoException {
+        return this.time("findLatestEvents", this.eventDao::findLatestEvents, List::size);
+    }
+
+    public boolean containsEvent(UUID uuid) throws EventDaoException {
+        return this.time("containsEvent", () -> this.eventDao.containsEvent(uuid), contained -> contained ? 1L : 0L);
+    }
+
+    public long countEvents(String eventType) throws EventDaoException {
+        return this.time("countEvents", () -> this.eventDao.countEvents(eventType), count -> 1L);
+    }
+
+    public Map<String, Long> countEventsByType() throws EventDaoException {
+        return this.time("countEventsByType", this.eventDao::countEventsByType, Map::size);
+    }
+
+    public boolean addEvent(Event event) throws EventDaoException {
+        return this.time("addEvent", () -> this.eventDao.addEvent(event), added -> added ? 1L : 0L);
+    }
+
+    public int addEvents(Collection<Event> events) throws EventDaoException {
+        return this.time("addEvents", () -> this.eventDao.addEvents(events), Integer::longValue);
+    }
+
+    public int deleteEvents(String eventType, Instant before, int limit) throws EventDaoException {
+        return this.time("deleteEvents", () -> this.eventDao.deleteEvents(eventType, before, limit), Integer::longValue);
+    }
+
+    public int deleteRollups(String eventType, long granularityMillis, Instant before, int limit) throws EventDaoException {
+        return this.time("deleteRollups", () -> this.eventDao.deleteRollups(eventType, granularityMillis, before, limit),
+                         Integer::longValue);
+    }
+
+    /**
+     * Makes the call, recording its latency, the size of its result and whether it threw.
+     */
+    private <T> T time(String operation, Call<T> call, ToLongFunction<T> size) throws EventDaoException {
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = call.call();
+        } catch (EventDaoException | RuntimeException e) {
+            this.metrics.record(operation, System.nanoTime() - start, 0L, true);
+            throw e;
+        }
+
+        this.metrics.record(operation, System.nanoTime() - start, result == null ? 0L : size.applyAsLong(result), false);
+        return result;
+    }
+
+    /**
+     * A call of the decorated DAO.
+     */
+    @FunctionalInterface
+    private interface Call<T> {
+        T call() throws EventDaoException;
+    }
+}
@@ -0,0 +1,465 @@
+package org.novalabs.event.dao.file;
+
+import com.google.common.base.Preconditions;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+import org.novalabs.event.dao.EventBucketCounter;
+import org.novalabs.event.dao.EventDao;
+import org.novalabs.event.dao.EventDaoException;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventBucket;
+import org.novalabs.event.domain.EventCursor;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.util.TimingUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The Event DAO for append-only segment files.  Each event type has its own log directory of time ordered segment
+ * files in a compact binary record format (see {@link EventRecord}); the active segment rolls over by size or by the
+ * time span of its events, and each segment has a sparse time index.  Range reads memory map the segments and seek
+ * with the index.
+ * <p>
+ * The uuid of every event, the count and the latest event of each type are held in memory and rebuilt by scanning the
+ * segments when the DAO is created.  Writes to different types proceed in parallel; a batch locks the logs of its
+ * types in type order.  With {@code fsync} each write is forced to disk before it returns, otherwise durability is
+ * left to the operating system.  The DAO is thread-safe.
+ */
+public class EventFileDao implements EventDao, Closeable {
+    /** The maximum segment size; segments are memory mapped, which limits them to 2GB. */
+    public static final long MAX_SEGMENT_BYTES = 1L << 30;
+    private static final Logger logger = LoggerFactory.getLogger(EventFileDao.class);
+    private final Path directory;
+    private final long segmentBytes;
+    private final long segmentMillis;
+    private final boolean fsync;
+    private final ConcurrentSkipListMap<String, EventLog> logs = new ConcurrentSkipListMap<>();
+    private final UuidSet uuids = new UuidSet();
+
+    /**
+     * Creates an {@code EventFileDao} storing events in the directory, opening any events already there.
+     * @param directory  the store directory
+     * @param segmentBytes  the size at which a segment rolls over
+     * @param segmentMillis  the time span of events at which a segment rolls over
+     * @param fsync  whether each write is forced to disk before it returns
+     * @throws EventDaoException  if the store couldn't be opened
+     */
+    public EventFileDao(Path directory, long segmentBytes, long segmentMillis, boolean fsync) throws EventDaoException {
+        Preconditions.checkArgument(segmentBytes > 0L && segmentBytes <= MAX_SEGMENT_BYTES);
+        Preconditions.checkArgument(segmentMillis > 0L);
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.segmentMillis = segmentMillis;
+        this.fsync = fsync;
+
+        long start = System.currentTimeMillis();
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> typeDirectories = Files.newDirectoryStream(directory, Files::isDirectory)) {
+                for (Path typeDirectory : typeDirectories) {
+                    String type = decodeType(typeDirectory.getFileName().toString());
+                    if (type == null) {
+                        logger.warn("Skipping directory that isn't an event type | directory {}", typeDirectory);
+                        continue;
+                    }
+                    this.logs.put(type, EventLog.open(typeDirectory, EventType.of(type), segmentBytes, segmentMillis,
+                                                      event -> this.uuids.add(event.getUuid())));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            this.close();
+            throw new EventDaoException("Couldn't open event store | directory " + directory, e);
+        }
+
+        logger.info("Opened event store | directory {} | types {} | events {} | duration {}", directory,
+                    this.logs.size(), this.uuids.size(), TimingUtils.duration(start));
+    }
+
+    /**
+     * Returns the list of events for the event type.  The list is returned in reverse chronological order.
+     * @param eventType the event type
+     * @return  the list of events
+     * @throws EventDaoException  if the list couldn't be returned
+     */
+    public List<Event> findEvents(String eventType) throws EventDaoException {
+        return this.findEvents(eventType, Instant.EPOCH, Instant.ofEpochMilli(Long.MAX_VALUE));
+    }
+
+    /**
+     * Returns the list of events for the event type, between the earliest and latest times, inclusive.  The list is
+     * returned in reverse chronological order.
+     * @param eventType the event type
+     * @param earliestTime  the earliest event time, inclusive
+     * @param latestTime  the latest event time, inclusive
+     * @return  the list of events
+     * @throws EventDaoException  if the list couldn't be returned
+     */
+    public List<Event> findEvents(String eventType, Instant earliestTime, Instant latestTime) throws EventDaoException {
+        List<Event> events = new ArrayList<>();
+        this.scan("findEvents", eventType, earliestTime.toEpochMilli(), latestTime.toEpochMilli(), events::add);
+        return events;
+    }
+
+    /**
+     * Returns one page of the events for the event type, between the earliest and latest times, inclusive.  The page
+     * is in reverse chronological order, ties ordered by descending uuid, and starts with the first event after the
+     * cursor.  The scan starts at the cursor's time, so segments and index blocks after it aren't read.
+     * @param eventType the event type
+     * @param earliestTime  the earliest event time, inclusive
+     * @param latestTime  the latest event time, inclusive
+     * @param after  the position of the last event of the previous page, or null for the first page
+     * @param limit  the maximum number of events to return
+     * @return  the page of events
+     * @throws EventDaoException  if the page couldn't be returned
+     */
+    public List<Event> findEvents(String eventType, Instant earliestTime, Instant latestTime, @Nullable EventCursor after,
+                                  int limit) throws EventDaoException {
+        List<Event> page = new ArrayList<>(Math.max(Math.min(limit, 1000), 0));
+        if (limit <= 0) {
+            return page;
+        }
+
+        long latest = after == null ? latestTime.toEpochMilli() : Math.min(latestTime.toEpochMilli(), after.getEpochMillis());
+        this.scan("findEvents", eventType, earliestTime.toEpochMilli(), latest, event -> {
+            // the scan ends at the cursor's time, so only events of that time need the uuid comparison
+            if (after == null || event.getEpochMillis() < after.getEpochMillis() || event.getUuid().compareTo(after.getUuid()) < 0) {
+                page.add(event);
+            }
+            return page.size() < limit;
+        });
+        return page;
+    }
+
+    /**
+     * Passes each event for the event type, between the earliest and latest times, inclusive, to the consumer in
+     * reverse chronological order.  Segments are read an index block at a time, except where segments' time ranges
+     * overlap, which are read together.
+     * @param eventType the event type
+     * @param earliestTime  the earliest event time, inclusive
+     * @param latestTime  the latest event time, inclusive
+     * @param consumer  the consumer of the events
+     * @throws EventDaoException  if the events couldn't be read or the consumer failed
+     */
+    public void streamEvents(String eventType, Instant earliestTime, Instant latestTime, Consumer<Event> consumer) throws EventDaoException {
+        this.scan("streamEvents", eventType, earliestTime.toEpochMilli(), latestTime.toEpochMilli(), event -> {
+            consumer.accept(event);
+            return true;
+        });
+    }
+
+    /**
+     * Returns the count of events for the event type between the earliest and latest times, inclusive, in time buckets
+     * aligned to the epoch, broken down by event value.  The counts are taken in one pass over the segments covering
+     * the range; the events aren't retained.
+     * @param eventType the event type
+     * @param earliestTime  the earliest event time, inclusive
+     * @param latestTime  the latest event time, inclusive
+     * @param bucketMillis  the bucket size in milliseconds
+     * @return  the non-empty buckets, in chronological order
+     * @throws EventDaoException  if the events couldn't be read
+     */
+    public List<EventBucket> countEventsByBucket(String eventType, Instant earliestTime, Instant latestTime, long bucketMillis)
+            throws EventDaoException {
+        EventBucketCounter counter = new EventBucketCounter(bucketMillis);
+        this.scan("countEventsByBucket", eventType, earliestTime.toEpochMilli(), latestTime.toEpochMilli(), event -> {
+            counter.accept(event);
+            return true;
+        });
+        return counter.buckets();
+    }
+
+    /**
+     * Returns the list of all event types.
+     * @return  the list of event types
+     */
+    public List<String> findAllTypes() {
+        List<String> types = new ArrayList<>();
+        this.logs.forEach((type, log) -> {
+            if (log.count() > 0L) {
+                types.add(type);
+            }
+        });
+        return types;
+    }
+
+    /**
+     * Returns the latest event for the event type.
+     * @param eventType the event type
+     * @return  the latest event, or null if none
+     */
+    @Nullable
+    public Event findLatestEvent(String eventType) {
+        EventLog log = this.logs.get(eventType);
+        return log == null ? null : log.latest();
+    }
+
+    /**
+     * Returns the list of the latest event for each event type, ordered by type.
+     * @return  the list of latest events
+     */
+    public List<Event> findLatestEvents() {
+        List<Event> latestEvents = new ArrayList<>();
+        for (EventLog log : this.logs.values()) {
+            Event latest = log.latest();
+            if (latest != null) {
+                latestEvents.add(latest);
+            }
+        }
+        return latestEvents;
+    }
+
+    /**
+     * Returns the count of events for an event type.
+     * @param eventType  the event type
+     * @return  the count of events
+     */
+    public long countEvents(String eventType) {
+        EventLog log = this.logs.get(eventType);
+        return log == null ? 0L : log.count();
+    }
+
+    /**
+     * Returns whether an event with the uuid is stored.
+     * @param uuid  the event uuid
+     * @return  whether stored
+     */
+    public boolean containsEvent(UUID uuid) {
+        synchronized (this.uuids) {
+            return this.uuids.contains(uuid);
+        }
+    }
+
+    /**
+     * Returns the count of events for every event type.
+     * @return  the count of events, keyed by event type
+     */
+    public Map<String, Long> countEventsByType() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        this.logs.forEach((type, log) -> {
+            long count = log.count();
+            if (count > 0L) {
+                counts.put(type, count);
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * Adds the {@code Event} and returns if successful.
+     * @param event  the event to be added
+     * @return  if added
+     * @throws EventDaoException if an error occurred while adding the event, e.g. its uuid already exists
+     */
+    public boolean addEvent(Event event) throws EventDaoException {
+        return this.add("addEvent", Collections.singletonList(event)) == 1;
+    }
+
+    /**
+     * Adds the events and returns the number added.  Either all of the events are added or, if an exception is
+     * thrown, the records already written are truncated and none of them are.
+     * @param events  the events to be added
+     * @return  the number of events added
+     * @throws EventDaoException if an error occurred while adding the events
+     */
+    public int addEvents(Collection<Event> events) throws EventDaoException {
+        return events.isEmpty() ? 0 : this.add("addEvents", events);
+    }
+
+    /**
+     * Deletes the sealed segments of the event type whose events are all older than the time, until about the limit
+     * of events has been deleted, and returns the number deleted.  Segments are deleted whole, so events in a segment
+     * that also holds newer events, or in the active segment, are kept until the whole segment expires.  The segment
+     * holding the latest event is never deleted.
+     * @param eventType  the event type
+     * @param before  the time events are deleted before, exclusive
+     * @param limit  the number of events to delete; the last segment deleted may take the count past it
+     * @return  the number of events deleted
+     * @throws EventDaoException  if a segment couldn't be deleted
+     */
+    public int deleteEvents(String eventType, Instant before, int limit) throws EventDaoException {
+        EventLog log = this.logs.get(eventType);
+        if (log == null) {
+            return 0;
+        }
+
+        log.writeLock().lock();
+        try {
+            return log.deleteBefore(before.toEpochMilli(), limit, this::release);
+        } catch (IOException | RuntimeException e) {
+            String msg = "deleteEvents file store call failed | type " + eventType + " | before " + before;
+            logger.error(msg);
+            throw new EventDaoException(msg, e);
+        } finally {
+            log.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The file store keeps no rollups, so nothing is deleted.
+     * @param eventType  the event type
+     * @param granularityMillis  the rollup granularity in milliseconds
+     * @param before  the time the deleted buckets end by
+     * @param limit  the maximum number of rollups to delete
+     * @return  0
+     */
+    public int deleteRollups(String eventType, long granularityMillis, Instant before, int limit) {
+        return 0;
+    }
+
+    /**
+     * Closes the segment files.
+     */
+    public void close() {
+        this.logs.values().forEach(EventLog::close);
+    }
+
+    private int add(String operation, Collection<Event> events) throws EventDaoException {
+        Map<String, List<Event>> eventsByType = new TreeMap<>();
+        for (Event event : events) {
+            eventsByType.computeIfAbsent(event.getType().getString(), type -> new ArrayList<>()).add(event);
+        }
+
+        List<EventLog> typeLogs = new ArrayList<>(eventsByType.size());
+        List<Lock> locks = new ArrayList<>(eventsByType.size());
+        try {
+            for (String type : eventsByType.keySet()) {
+                EventLog log = this.log(type);
+                // locking in type order keeps concurrent batches from deadlocking
+                log.writeLock().lock();
+                locks.add(log.writeLock());
+                typeLogs.add(log);
+            }
+
+            this.reserve(operation, events);
+            List<EventLog> written = new ArrayList<>(typeLogs.size());
+            try {
+                int i = 0;
+                for (List<Event> typeEvents : eventsByType.values()) {
+                    typeLogs.get(i).write(typeEvents);
+                    written.add(typeLogs.get(i++));
+                }
+                if (this.fsync) {
+                    for (EventLog log : written) {
+                        log.force();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                for (EventLog log : written) {
+                    try {
+                        log.rollback();
+                    } catch (IOException rollbackFailure) {
+                        e.addSuppressed(rollbackFailure);
+                    }
+                }
+                this.release(events);
+                String msg = operation + " file store call failed | size " + events.size();
+                logger.error(msg, e);
+                throw new EventDaoException(msg, e);
+            }
+
+            written.forEach(EventLog::commit);
+            return events.size();
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; --i) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+    /**
+     * Adds the uuids of the events to the set of stored uuids, or, if any is already stored or repeated, adds none
+     * and throws.
+     */
+    private void reserve(String operation, Collection<Event> events) throws EventDaoException {
+        synchronized (this.uuids) {
+            List<UUID> added = new ArrayList<>(events.size());
+            for (Event event : events) {
+                if (!this.uuids.add(event.getUuid())) {
+                    added.forEach(this.uuids::remove);
+                    throw new EventDaoException(operation + " file store call failed | duplicate uuid " + event.getUuid());
+                }
+                added.add(event.getUuid());
+            }
+        }
+    }
+
+    private void release(Collection<Event> events) {
+        synchronized (this.uuids) {
+            for (Event event : events) {
+                this.uuids.remove(event.getUuid());
+            }
+        }
+    }
+
+    private void scan(String operation, String eventType, long earliest, long latest, Predicate<Event> visitor) throws EventDaoException {
+        EventLog log = this.logs.get(eventType);
+        if (log == null) {
+            return;
+        }
+
+        try {
+            log.scan(earliest, latest, visitor);
+        } catch (IOException | RuntimeException e) {
+            String msg = operation + " file store call failed | type " + eventType + " | oldest " + earliest + " | newest " + latest;
+            logger.error(msg);
+            throw new EventDaoException(msg, e);
+        }
+    }
+
+    private EventLog log(String type) throws EventDaoException {
+        EventLog log = this.logs.get(type);
+        if (log != null) {
+            return log;
+        }
+
+        // the skip list map's computeIfAbsent may run the function more than once, which would open the log twice
+        synchronized (this.logs) {
+            log = this.logs.get(type);
+            if (log == null) {
+                try {
+                    log = EventLog.open(this.directory.resolve(encodeType(type)), EventType.of(type), this.segmentBytes,
+                                        this.segmentMillis, event -> { });
+                } catch (IOException e) {
+                    throw new EventDaoException("Couldn't create event log | type " + type, e);
+                }
+                this.logs.put(type, log);
+            }
+            return log;
+        }
+    }
+
+    /**
+     * Event types are stored as base64url directory names, which are safe on any file system.
+     */
+    static String encodeType(String type) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(type.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Nullable
+    static String decodeType(String name) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(name), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package org.novalabs.event.dao.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventType;
+
+/**
+ * The events of one type: a directory of append-only {@link Segment} files, numbered in the order they were created.
+ * The last segment is active and receives appends; it rolls over to a new segment when it reaches the maximum size or
+ * time span.  The count and latest event are kept in memory, rebuilt when the log is opened.  Retention deletes
+ * whole sealed segments.
+ * <p>
+ * Writers hold the write lock for the whole write, commit (or rollback) sequence.  Readers hold the read lock only
+ * to take views of the segments, so long scans don't block writers.
+ */
+class EventLog {
+    static final Comparator<Event> DESCENDING =
+            Comparator.comparingLong(Event::getEpochMillis).thenComparing(Event::getUuid).reversed();
+    private final EventType type;
+    private final Path directory;
+    private final long segmentBytes;
+    private final long segmentMillis;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Segment> segments = new ArrayList<>();
+    private long count;
+    @Nullable
+    private Event latest;
+    @Nullable
+    private List<Event> pendingEvents;
+    private int[] pendingOffsets;
+    private long[] pendingTimes;
+
+    private EventLog(EventType type, Path directory, long segmentBytes, long segmentMillis) {
+        this.type = type;
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.segmentMillis = segmentMillis;
+    }
+
+    /**
+     * Opens the log in the directory, creating it if needed, and passes each stored event to the visitor.
+     * @param directory  the log directory
+     * @param type  the event type
+     * @param segmentBytes  the size at which the active segment rolls over
+     * @param segmentMillis  the time span at which the active segment rolls over
+     * @param visitor  the consumer of the stored events
+     * @return  the log
+     * @throws IOException  if the log couldn't be opened
+     */
+    static EventLog open(Path directory, EventType type, long segmentBytes, long segmentMillis, Consumer<Event> visitor)
+            throws IOException {
+        Files.createDirectories(directory);
+        EventLog log = new EventLog(type, directory, segmentBytes, segmentMillis);
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(Segment.TEMP_SUFFIX)) {
+                    // an interrupted rewrite; the segment it would have replaced is intact
+                    Files.delete(path);
+                } else if (name.endsWith(Segment.SUFFIX)) {
+                    paths.add(path);
+                }
+            }
+        }
+        paths.sort(Comparator.comparingLong(Segment::sequence));
+
+        try {
+            for (Path path : paths) {
+                log.segments.add(Segment.open(path, type, event -> {
+                    ++log.count;
+                    log.latest = newer(log.latest, event);
+                    visitor.accept(event);
+                }));
+            }
+            for (int i = 0; i < log.segments.size() - 1; ++i) {
+                log.segments.set(i, log.segments.get(i).seal(type));
+            }
+            if (log.segments.isEmpty()) {
+                log.segments.add(Segment.create(directory, 0L));
+            }
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+
+        return log;
+    }
+
+    Lock writeLock() {
+        return this.lock.writeLock();
+    }
+
+    /**
+     * Writes the events to the active segment, rolling it over first if it is full.  The caller must hold the write
+     * lock and follow with {@link #commit()} or {@link #rollback()}.
+     * @param events  the events, all of this log's type
+     * @throws IOException  if the events couldn't be written; nothing is left written
+     */
+    void write(List<Event> events) throws IOException {
+        Segment active = this.active();
+        if (active.isFull(this.segmentBytes, this.segmentMillis)) {
+            this.segments.set(this.segments.size() - 1, active.seal(this.type));
+            active = Segment.create(this.directory, active.sequence() + 1L);
+            this.segments.add(active);
+        }
+
+        byte[][] values = new byte[events.size()][];
+        int size = 0;
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = EventRecord.value(events.get(i));
+            size += EventRecord.size(values[i]);
+        }
+
+        ByteBuffer records = ByteBuffer.allocate(size);
+        int[] offsets = new int[values.length];
+        long[] times = new long[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            Event event = events.get(i);
+            offsets[i] = records.position();
+            times[i] = event.getEpochMillis();
+            EventRecord.write(records, event, values[i]);
+        }
+        records.flip();
+
+        try {
+            active.write(records);
+        } catch (IOException e) {
+            active.rollback();
+            throw e;
+        }
+
+        this.pendingEvents = events;
+        this.pendingOffsets = offsets;
+        this.pendingTimes = times;
+    }
+
+    void force() throws IOException {
+        this.active().force();
+    }
+
+    /**
+     * Makes the written events visible to readers.
+     */
+    void commit() {
+        this.active().commit(this.pendingOffsets, this.pendingTimes);
+        this.count += this.pendingEvents.size();
+        for (Event event : this.pendingEvents) {
+            this.latest = newer(this.latest, event);
+        }
+        this.pendingEvents = null;
+    }
+
+    /**
+     * Removes the written events.
+     * @throws IOException  if the events couldn't be removed
+     */
+    void rollback() throws IOException {
+        this.pendingEvents = null;
+        this.active().rollback();
+    }
+
+    /**
+     * Deletes the sealed segments whose events are all before the time, oldest first, until at least the limit of
+     * events has been deleted, and passes the events of each deleted segment to the consumer.  The active segment and
+     * any segment that may hold the latest event are kept.  The caller must hold the write lock.
+     * @param before  the time, in epoch milliseconds, exclusive
+     * @param limit  the number of events to delete
+     * @param deleted  the consumer of the deleted events
+     * @return  the number of events deleted
+     * @throws IOException  if a segment couldn't be deleted; the segments deleted before it stay deleted
+     */
+    int deleteBefore(long before, int limit, Consumer<List<Event>> deleted) throws IOException {
+        int deletedEvents = 0;
+        for (int i = 0; i < this.segments.size() - 1 && deletedEvents < limit; ) {
+            Segment segment = this.segments.get(i);
+            Segment.View view = segment.view();
+            if (view == null || view.maxTime() >= before || (this.latest != null && view.maxTime() >= this.latest.getEpochMillis())) {
+                ++i;
+                continue;
+            }
+
+            List<Event> events = new ArrayList<>();
+            view.collect(Long.MIN_VALUE, Long.MAX_VALUE, this.type, events);
+            segment.delete();
+            this.segments.remove(i);
+            this.count -= events.size();
+            deletedEvents += events.size();
+            deleted.accept(events);
+        }
+
+        return deletedEvents;
+    }
+
+    long count() {
+        this.lock.readLock().lock();
+        try {
+            return this.count;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Nullable
+    Event latest() {
+        this.lock.readLock().lock();
+        try {
+            return this.latest;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Passes the events between the earliest and latest times, inclusive, to the visitor in reverse chronological
+     * order, ties by descending uuid, until it returns false.  The segments' time ordered views are merged through a
+     * heap keyed by each view's next event; a view joins the merge only once the merge reaches its latest time, so
+     * segments that overlap no other are read one after another and only the index block being merged from each
+     * overlapping segment is held at once.
+     * @param earliest  the earliest time, in epoch milliseconds
+     * @param latest  the latest time, in epoch milliseconds
+     * @param visitor  the visitor
+     * @return  false if the visitor stopped the scan
+     * @throws IOException  if the segments couldn't be read
+     */
+    boolean scan(long earliest, long latest, Predicate<Event> visitor) throws IOException {
+        List<Segment.View> views = new ArrayList<>();
+        this.lock.readLock().lock();
+        try {
+            for (Segment segment : this.segments) {
+                Segment.View view = segment.view();
+                if (view != null && view.overlaps(earliest, latest)) {
+                    views.add(view);
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        views.sort(Comparator.comparingLong(Segment.View::maxTime).reversed());
+
+        PriorityQueue<MergeCursor> merge = new PriorityQueue<>(Math.max(views.size(), 1));
+        for (int next = 0; next < views.size() || !merge.isEmpty(); ) {
+            while (next < views.size() && (merge.isEmpty() || views.get(next).maxTime() >= merge.peek().event.getEpochMillis())) {
+                MergeCursor cursor = new MergeCursor(views.get(next++).descending(earliest, latest, this.type));
+                if (cursor.advance()) {
+                    merge.add(cursor);
+                }
+            }
+
+            MergeCursor cursor = merge.poll();
+            if (cursor == null) {
+                continue;
+            }
+
+            if (!visitor.test(cursor.event)) {
+                return false;
+            }
+
+            if (cursor.advance()) {
+                merge.add(cursor);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Closes the active segment.
+     */
+    void close() {
+        for (Segment segment : this.segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                // nothing is pending, so there is nothing to lose
+            }
+        }
+    }
+
+    private Segment active() {
+        return this.segments.get(this.segments.size() - 1);
+    }
+
+    private static Event newer(@Nullable Event current, Event candidate) {
+        return current == null || candidate.getEpochMillis() > current.getEpochMillis() ? candidate : current;
+    }
+
+    /**
+     * A view's events in the merge, ordered by the next event to pass on.
+     */
+    private static class MergeCursor implements Comparable<MergeCursor> {
+        private final Iterator<Event> events;
+        private Event event;
+
+        MergeCursor(Iterator<Event> events) {
+            this.events = events;
+        }
+
+        boolean advance() {
+            if (!this.events.hasNext()) {
+                return false;
+            }
+
+            this.event = this.events.next();
+            return true;
+        }
+
+        @Override
+        public int compareTo(MergeCursor other) {
+            return DESCENDING.compare(this.event, other.event);
+        }
+    }
+}
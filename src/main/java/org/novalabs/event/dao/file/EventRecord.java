@@ -0,0 +1,133 @@
+package org.novalabs.event.dao.file;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+
+/**
+ * Binary record format of an event in a segment file.  The type isn't stored; it is the type of the segment's log.
+ * <pre>
+ *   int   payload length
+ *   int   CRC-32 of the payload
+ *   long  time, epoch milliseconds      \
+ *   long  uuid, most significant bits    |  payload
+ *   long  uuid, least significant bits   |
+ *   byte* value, UTF-8                  /
+ * </pre>
+ */
+final class EventRecord {
+    static final int HEADER_BYTES = 8;
+    static final int FIXED_PAYLOAD_BYTES = 24;
+    static final int MAX_PAYLOAD_BYTES = FIXED_PAYLOAD_BYTES + 4 * EventValue.MAX_LEGNTH;
+
+    private EventRecord() {
+    }
+
+    /**
+     * Returns the encoded size of the event's record.
+     * @param value  the UTF-8 encoded event value
+     * @return  the record size in bytes
+     */
+    static int size(byte[] value) {
+        return HEADER_BYTES + FIXED_PAYLOAD_BYTES + value.length;
+    }
+
+    /**
+     * Returns the UTF-8 encoded value of the event.
+     * @param event  the event
+     * @return  the encoded value
+     */
+    static byte[] value(Event event) {
+        return event.getValue().getString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the event's record at the buffer's position, advancing the position past it.
+     * @param buffer  the buffer
+     * @param event  the event
+     * @param value  the UTF-8 encoded event value
+     */
+    static void write(ByteBuffer buffer, Event event, byte[] value) {
+        int start = buffer.position();
+        buffer.putInt(FIXED_PAYLOAD_BYTES + value.length);
+        buffer.putInt(0);
+        buffer.putLong(event.getEpochMillis());
+        buffer.putLong(event.getUuid().getMostSignificantBits());
+        buffer.putLong(event.getUuid().getLeastSignificantBits());
+        buffer.put(value);
+        buffer.putInt(start + 4, crc(buffer, start + HEADER_BYTES, FIXED_PAYLOAD_BYTES + value.length));
+    }
+
+    /**
+     * Returns the size of the valid record at the offset, or -1 if there is no complete record with a matching
+     * checksum there (e.g. the tail of an interrupted write).
+     * @param buffer  the segment
+     * @param offset  the record offset
+     * @param limit  the end of the segment
+     * @return  the record size, or -1
+     */
+    static int check(ByteBuffer buffer, int offset, int limit) {
+        if (limit - offset < HEADER_BYTES + FIXED_PAYLOAD_BYTES) {
+            return -1;
+        }
+
+        int length = buffer.getInt(offset);
+        if (length < FIXED_PAYLOAD_BYTES || length > MAX_PAYLOAD_BYTES || length > limit - offset - HEADER_BYTES) {
+            return -1;
+        }
+
+        return crc(buffer, offset + HEADER_BYTES, length) == buffer.getInt(offset + 4) ? HEADER_BYTES + length : -1;
+    }
+
+    /**
+     * Returns the size of the record at the offset.
+     * @param buffer  the segment
+     * @param offset  the record offset
+     * @return  the record size
+     */
+    static int sizeAt(ByteBuffer buffer, int offset) {
+        return HEADER_BYTES + buffer.getInt(offset);
+    }
+
+    /**
+     * Returns the time of the record at the offset, without decoding the record.
+     * @param buffer  the segment
+     * @param offset  the record offset
+     * @return  the event time in epoch milliseconds
+     */
+    static long timeAt(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset + HEADER_BYTES);
+    }
+
+    /**
+     * Decodes the record at the offset.
+     * @param buffer  the segment
+     * @param offset  the record offset
+     * @param type  the type of the segment's log
+     * @return  the event
+     */
+    static Event read(ByteBuffer buffer, int offset, EventType type) {
+        int valueLength = buffer.getInt(offset) - FIXED_PAYLOAD_BYTES;
+        int position = offset + HEADER_BYTES;
+        long time = buffer.getLong(position);
+        UUID uuid = new UUID(buffer.getLong(position + 8), buffer.getLong(position + 16));
+        byte[] value = new byte[valueLength];
+        ByteBuffer source = buffer.duplicate();
+        source.position(position + FIXED_PAYLOAD_BYTES);
+        source.get(value);
+        return new Event(uuid, type, new EventValue(new String(value, StandardCharsets.UTF_8)), time);
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(offset + length);
+        payload.position(offset);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,433 @@
+package org.novalabs.event.dao.file;
+
+import com.google.common.collect.AbstractIterator;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One append-only segment file of an {@link EventLog}.  The active (last) segment is appended to in arrival order; when
+ * it rolls over it is sealed, which rewrites it in time order if events arrived out of order, so every sealed segment
+ * is time ordered.  A sealed segment is read through a read-only memory mapping.
+ * <p>
+ * Time ordered segments keep a sparse index of (time, offset) entries, one at most every {@value #INDEX_INTERVAL_BYTES}
+ * bytes, placed only where the time changes so that the events of one time are never split across index blocks.
+ * <p>
+ * Segments aren't thread-safe; the owning log serializes access and readers work from immutable {@link View}s.
+ */
+class Segment {
+    static final String SUFFIX = ".seg";
+    static final String TEMP_SUFFIX = ".tmp";
+    static final int INDEX_INTERVAL_BYTES = 4096;
+    private static final int COPY_BUFFER_BYTES = 1 << 20;
+    private static final Logger logger = LoggerFactory.getLogger(Segment.class);
+    private final Path path;
+    private final long sequence;
+    @Nullable
+    private FileChannel channel;
+    @Nullable
+    private MappedByteBuffer mapped;
+    private int size;
+    private int pendingSize = -1;
+    private int count;
+    private long minTime = Long.MAX_VALUE;
+    private long maxTime = Long.MIN_VALUE;
+    private long lastTime = Long.MIN_VALUE;
+    private boolean sorted = true;
+    private long[] indexTimes = new long[16];
+    private int[] indexOffsets = new int[16];
+    private int indexSize;
+    private int lastIndexedOffset = -INDEX_INTERVAL_BYTES;
+    @Nullable
+    private View view;
+
+    private Segment(Path path, long sequence, FileChannel channel) {
+        this.path = path;
+        this.sequence = sequence;
+        this.channel = channel;
+    }
+
+    /**
+     * Creates a new, empty active segment.
+     * @param directory  the log directory
+     * @param sequence  the segment sequence number
+     * @return  the segment
+     * @throws IOException  if the file couldn't be created
+     */
+    static Segment create(Path directory, long sequence) throws IOException {
+        Path path = directory.resolve(fileName(sequence));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(path, sequence, channel);
+    }
+
+    /**
+     * Opens an existing segment, passing each of its events to the visitor.  A torn or corrupt tail, e.g. from a
+     * write interrupted by a crash, is truncated.
+     * @param path  the segment file
+     * @param type  the type of the log
+     * @param visitor  the consumer of the segment's events
+     * @return  the segment, active
+     * @throws IOException  if the file couldn't be read
+     */
+    static Segment open(Path path, EventType type, Consumer<Event> visitor) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(path, sequence(path), channel);
+        try {
+            long fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("segment larger than 2GB | path " + path);
+            }
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, fileSize);
+            int limit = (int) fileSize;
+            int offset = 0;
+            while (offset < limit) {
+                int recordSize = EventRecord.check(buffer, offset, limit);
+                if (recordSize < 0) {
+                    logger.warn("Truncating segment at invalid record | path {} | offset {} | size {}", path, offset, limit);
+                    channel.truncate(offset);
+                    break;
+                }
+
+                visitor.accept(EventRecord.read(buffer, offset, type));
+                segment.track(offset, EventRecord.timeAt(buffer, offset));
+                offset += recordSize;
+            }
+
+            segment.size = offset;
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static String fileName(long sequence) {
+        return String.format("%019d%s", sequence, SUFFIX);
+    }
+
+    static long sequence(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    long sequence() {
+        return this.sequence;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns whether the segment has reached the size or time span at which it rolls over.
+     * @param maxBytes  the maximum segment size
+     * @param maxMillis  the maximum time span of the segment's events
+     * @return  whether full
+     */
+    boolean isFull(long maxBytes, long maxMillis) {
+        return this.count > 0 && (this.size >= maxBytes || this.maxTime - this.minTime >= maxMillis);
+    }
+
+    /**
+     * Writes the records at the end of the segment.  They aren't visible to readers until {@link #commit} and are
+     * removed by {@link #rollback()}.
+     * @param records  the encoded records
+     * @throws IOException  if the records couldn't be written
+     */
+    void write(ByteBuffer records) throws IOException {
+        this.pendingSize = this.size + records.remaining();
+        long position = this.size;
+        while (records.hasRemaining()) {
+            position += this.channel.write(records, position);
+        }
+    }
+
+    /**
+     * Makes the written records visible.
+     * @param offsets  the offset of each record within the written records
+     * @param times  the time of each record
+     */
+    void commit(int[] offsets, long[] times) {
+        for (int i = 0; i < offsets.length; ++i) {
+            this.track(this.size + offsets[i], times[i]);
+        }
+        this.size = this.pendingSize;
+        this.pendingSize = -1;
+        this.view = null;
+    }
+
+    /**
+     * Removes written, uncommitted records.
+     * @throws IOException  if the file couldn't be truncated
+     */
+    void rollback() throws IOException {
+        this.pendingSize = -1;
+        this.channel.truncate(this.size);
+    }
+
+    void force() throws IOException {
+        this.channel.force(false);
+    }
+
+    /**
+     * Seals the segment, after which it is read only.  If its events aren't in time order the segment is rewritten in
+     * time order, to a temporary file that then atomically replaces it, and the rewritten segment is returned.
+     * @param type  the type of the log
+     * @return  the sealed segment
+     * @throws IOException  if the segment couldn't be sealed
+     */
+    Segment seal(EventType type) throws IOException {
+        if (this.sorted) {
+            this.channel.force(false);
+            this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0L, this.size);
+            this.channel.close();
+            this.channel = null;
+            return this;
+        }
+
+        ByteBuffer buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0L, this.size);
+        Integer[] offsets = new Integer[this.count];
+        for (int i = 0, offset = 0; offset < this.size; ++i) {
+            offsets[i] = offset;
+            offset += EventRecord.sizeAt(buffer, offset);
+        }
+        // a stable sort keeps arrival order within a time
+        Arrays.sort(offsets, (lhs, rhs) -> Long.compare(EventRecord.timeAt(buffer, lhs), EventRecord.timeAt(buffer, rhs)));
+
+        Path temp = this.path.resolveSibling(this.path.getFileName() + TEMP_SUFFIX);
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                                StandardOpenOption.WRITE)) {
+            ByteBuffer copy = ByteBuffer.allocate(COPY_BUFFER_BYTES);
+            for (int offset : offsets) {
+                ByteBuffer record = buffer.duplicate();
+                record.limit(offset + EventRecord.sizeAt(buffer, offset));
+                record.position(offset);
+                if (record.remaining() > copy.remaining()) {
+                    writeFully(out, copy);
+                }
+                copy.put(record);
+            }
+            writeFully(out, copy);
+            out.force(true);
+        }
+
+        Files.move(temp, this.path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        this.channel.close();
+        this.channel = null;
+        logger.info("Rewrote segment in time order | path {} | events {}", this.path, this.count);
+        return open(this.path, type, event -> { }).seal(type);
+    }
+
+    /**
+     * Closes the file of an active segment.
+     * @throws IOException  if the file couldn't be closed
+     */
+    void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Closes and deletes the segment file.  Views already taken keep reading the mapping, which outlives the file.
+     * @throws IOException  if the file couldn't be deleted
+     */
+    void delete() throws IOException {
+        this.close();
+        Files.delete(this.path);
+        logger.info("Deleted segment | path {} | events {}", this.path, this.count);
+    }
+
+    /**
+     * Returns an immutable view of the committed events, or null if the segment is empty.  The view is cached until
+     * the next commit, so the active segment is mapped once per commit rather than once per read.
+     * @return  the view
+     * @throws IOException  if the segment couldn't be mapped
+     */
+    @Nullable
+    View view() throws IOException {
+        if (this.count == 0) {
+            return null;
+        }
+
+        // views are immutable, so readers that race to map the same committed state each cache an equivalent one
+        View view = this.view;
+        if (view == null) {
+            ByteBuffer buffer = this.mapped != null ? this.mapped : this.channel.map(FileChannel.MapMode.READ_ONLY, 0L, this.size);
+            view = new View(buffer, this.size, this.minTime, this.maxTime, this.sorted, this.indexTimes, this.indexOffsets, this.indexSize);
+            this.view = view;
+        }
+
+        return view;
+    }
+
+    private void track(int offset, long time) {
+        ++this.count;
+        this.minTime = Math.min(this.minTime, time);
+        this.maxTime = Math.max(this.maxTime, time);
+        if (time < this.lastTime) {
+            this.sorted = false;
+        }
+
+        if (this.sorted && time != this.lastTime && offset - this.lastIndexedOffset >= INDEX_INTERVAL_BYTES) {
+            if (this.indexSize == this.indexTimes.length) {
+                // copies rather than grows in place, so existing views keep a consistent index
+                this.indexTimes = Arrays.copyOf(this.indexTimes, this.indexSize * 2);
+                this.indexOffsets = Arrays.copyOf(this.indexOffsets, this.indexSize * 2);
+            }
+            this.indexTimes[this.indexSize] = time;
+            this.indexOffsets[this.indexSize] = offset;
+            ++this.indexSize;
+            this.lastIndexedOffset = offset;
+        }
+
+        this.lastTime = time;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Immutable view of a segment's committed events.
+     */
+    static class View {
+        private final ByteBuffer buffer;
+        private final int size;
+        private final long minTime;
+        private final long maxTime;
+        private final boolean sorted;
+        private final long[] indexTimes;
+        private final int[] indexOffsets;
+        private final int indexSize;
+
+        View(ByteBuffer buffer, int size, long minTime, long maxTime, boolean sorted, long[] indexTimes,
+             int[] indexOffsets, int indexSize) {
+            this.buffer = buffer;
+            this.size = size;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.sorted = sorted;
+            this.indexTimes = indexTimes;
+            this.indexOffsets = indexOffsets;
+            this.indexSize = indexSize;
+        }
+
+        long minTime() {
+            return this.minTime;
+        }
+
+        long maxTime() {
+            return this.maxTime;
+        }
+
+        boolean isSorted() {
+            return this.sorted;
+        }
+
+        boolean overlaps(long earliest, long latest) {
+            return this.minTime <= latest && this.maxTime >= earliest;
+        }
+
+        /**
+         * Adds the events between the earliest and latest times, inclusive, to the list.  A time ordered segment seeks
+         * to the earliest time with its index and stops after the latest time; otherwise the segment is scanned.
+         */
+        void collect(long earliest, long latest, EventType type, List<Event> events) {
+            int offset = this.sorted ? this.indexOffsets[Math.max(this.block(earliest), 0)] : 0;
+            this.collect(offset, this.size, earliest, latest, type, events);
+        }
+
+        /**
+         * Returns the events between the earliest and latest times, inclusive, in reverse chronological order, ties by
+         * descending uuid.  A time ordered segment is read one index block at a time from the latest time back, as the
+         * iterator advances, so only a block of events is held at once; otherwise the segment's events in the range are
+         * read and sorted.
+         */
+        Iterator<Event> descending(long earliest, long latest, EventType type) {
+            if (!this.sorted) {
+                List<Event> events = new ArrayList<>();
+                this.collect(earliest, latest, type, events);
+                events.sort(EventLog.DESCENDING);
+                return events.iterator();
+            }
+
+            int first = Math.max(this.block(earliest), 0);
+            return new AbstractIterator<Event>() {
+                private final List<Event> events = new ArrayList<>();
+                private int block = View.this.block(latest);
+                private int next;
+
+                @Override
+                protected Event computeNext() {
+                    while (this.next == this.events.size()) {
+                        if (this.block < first) {
+                            return this.endOfData();
+                        }
+
+                        int end = this.block + 1 < View.this.indexSize ? View.this.indexOffsets[this.block + 1] : View.this.size;
+                        this.events.clear();
+                        this.next = 0;
+                        View.this.collect(View.this.indexOffsets[this.block], end, earliest, latest, type, this.events);
+                        this.events.sort(EventLog.DESCENDING);
+                        --this.block;
+                    }
+
+                    return this.events.get(this.next++);
+                }
+            };
+        }
+
+        /**
+         * Returns the index block holding the events of the time, the last entry at or before it, or -1 if the
+         * time precedes the segment.
+         */
+        private int block(long time) {
+            int low = 0;
+            int high = this.indexSize - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (this.indexTimes[middle] <= time) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+
+            return high;
+        }
+
+        private void collect(int offset, int end, long earliest, long latest, EventType type, List<Event> events) {
+            while (offset < end) {
+                long time = EventRecord.timeAt(this.buffer, offset);
+                if (this.sorted && time > latest) {
+                    break;
+                }
+                if (time >= earliest && time <= latest) {
+                    events.add(EventRecord.read(this.buffer, offset, type));
+                }
+                offset += EventRecord.sizeAt(this.buffer, offset);
+            }
+        }
+    }
+}
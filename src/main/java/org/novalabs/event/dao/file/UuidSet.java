@@ -0,0 +1,121 @@
+package org.novalabs.event.dao.file;
+
+import java.util.UUID;
+
+/**
+ * Compact set of uuids, an open addressing hash table over two {@code long} arrays.  It holds the uuid of every stored
+ * event, at under 40 bytes per uuid rather than the ~80 of a {@code HashSet<UUID>}.  Not thread-safe.
+ */
+class UuidSet {
+    private static final float LOAD_FACTOR = 0.6f;
+    private long[] mostBits;
+    private long[] leastBits;
+    private boolean[] used;
+    private int size;
+    private int mask;
+
+    UuidSet() {
+        this.allocate(1024);
+    }
+
+    boolean contains(UUID uuid) {
+        return this.slot(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()) >= 0;
+    }
+
+    boolean add(UUID uuid) {
+        long most = uuid.getMostSignificantBits();
+        long least = uuid.getLeastSignificantBits();
+        if (this.slot(most, least) >= 0) {
+            return false;
+        }
+
+        if (this.size + 1 > this.used.length * LOAD_FACTOR) {
+            this.resize();
+        }
+
+        this.insert(most, least);
+        return true;
+    }
+
+    boolean remove(UUID uuid) {
+        int slot = this.slot(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        if (slot < 0) {
+            return false;
+        }
+
+        // backward shift deletion: move later entries of the probe sequence into the gap
+        int gap = slot;
+        int next = gap;
+        while (true) {
+            next = (next + 1) & this.mask;
+            if (!this.used[next]) {
+                break;
+            }
+
+            int home = hash(this.mostBits[next], this.leastBits[next]) & this.mask;
+            boolean movable = gap <= next ? home <= gap || home > next : home <= gap && home > next;
+            if (movable) {
+                this.mostBits[gap] = this.mostBits[next];
+                this.leastBits[gap] = this.leastBits[next];
+                gap = next;
+            }
+        }
+
+        this.used[gap] = false;
+        --this.size;
+        return true;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    private int slot(long most, long least) {
+        int slot = hash(most, least) & this.mask;
+        while (this.used[slot]) {
+            if (this.mostBits[slot] == most && this.leastBits[slot] == least) {
+                return slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+
+        return -1;
+    }
+
+    private void insert(long most, long least) {
+        int slot = hash(most, least) & this.mask;
+        while (this.used[slot]) {
+            slot = (slot + 1) & this.mask;
+        }
+
+        this.mostBits[slot] = most;
+        this.leastBits[slot] = least;
+        this.used[slot] = true;
+        ++this.size;
+    }
+
+    private void resize() {
+        long[] oldMostBits = this.mostBits;
+        long[] oldLeastBits = this.leastBits;
+        boolean[] oldUsed = this.used;
+        this.allocate(oldUsed.length * 2);
+        for (int i = 0; i < oldUsed.length; ++i) {
+            if (oldUsed[i]) {
+                this.insert(oldMostBits[i], oldLeastBits[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.mostBits = new long[capacity];
+        this.leastBits = new long[capacity];
+        this.used = new boolean[capacity];
+        this.mask = capacity - 1;
+        this.size = 0;
+    }
+
+    private static int hash(long most, long least) {
+        long hash = (most ^ least) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
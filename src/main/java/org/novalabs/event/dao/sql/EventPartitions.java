@@ -0,0 +1,359 @@
+package org.novalabs.event.dao.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Routes events to the tables holding them.  Without partitioning, the event table holds every event.  With it, each
+ * table holds the events of one UTC day or month, is created when the first event of its range is added, and is
+ * recorded in the event_partition catalog with its range.  Ranges never overlap, so a query reads only the tables
+ * overlapping its range and, reading them newest first, can concatenate their reverse chronological results.
+ * <p>
+ * A table's primary key only covers its own range, so with partitioning the uuids of all partitions are also kept in
+ * the event_uuid table, whose primary key keeps a uuid from being stored twice under different times.
+ * <p>
+ * The catalog is read once and kept in memory; tables are only created through it, so it assumes one writing instance.
+ * Events already in the event table when partitioning is enabled are moved to their partitions by {@link #start}.
+ */
+class EventPartitions {
+    static final String EVENT_TABLE = "event";
+    static final String FIND_PARTITIONS = "SELECT name, range_start, range_end from event_partition ORDER BY range_start";
+    static final String INSERT_PARTITION = "INSERT INTO event_partition (name, range_start, range_end) VALUES (?,?,?)";
+    static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS %s (uuid UUID NOT NULL PRIMARY KEY, type VARCHAR(100) NOT NULL, value VARCHAR(255) NOT NULL, time TIMESTAMP NOT NULL)";
+    static final String CREATE_INDEX = "CREATE INDEX IF NOT EXISTS idx_%s_type_time ON %s (type, time DESC)";
+    static final String ANY_UNPARTITIONED = "SELECT 1 from event LIMIT 1";
+    static final String CREATE_MOVE_INDEX = "CREATE INDEX IF NOT EXISTS idx_event_time_move ON event (time)";
+    static final String DROP_MOVE_INDEX = "DROP INDEX IF EXISTS idx_event_time_move";
+    static final String EARLIEST_UNPARTITIONED = "SELECT MIN(time) from event";
+    static final String MOVE_EVENTS = "INSERT INTO %s (uuid,type,value,time) SELECT uuid, type, value, time from event WHERE time >= ? AND time < ?";
+    static final String DELETE_MOVED = "DELETE from event WHERE time >= ? AND time < ?";
+    static final String MOVE_UUIDS = "INSERT INTO event_uuid (uuid) SELECT uuid from event WHERE time >= ? AND time < ?";
+    static final String ANY_UUID = "SELECT 1 from event_uuid LIMIT 1";
+    static final String BACKFILL_UUIDS = "INSERT INTO event_uuid (uuid) SELECT uuid from %s";
+    static final Partition UNPARTITIONED = new Partition(EVENT_TABLE, Long.MIN_VALUE, Long.MAX_VALUE);
+    private static final Logger logger = LoggerFactory.getLogger(EventPartitions.class);
+    private final EventSqlDao.Partitioning partitioning;
+    // newest first; replaced, never modified
+    private volatile List<Partition> partitions;
+
+    /**
+     * Creates the router.
+     * @param partitioning  the size of the partitions
+     */
+    EventPartitions(EventSqlDao.Partitioning partitioning) {
+        this.partitioning = partitioning;
+        this.partitions = partitioning == EventSqlDao.Partitioning.NONE ? Collections.singletonList(UNPARTITIONED) : null;
+    }
+
+    /**
+     * Returns whether the events are partitioned.
+     * @return  whether partitioned
+     */
+    boolean isPartitioned() {
+        return this.partitioning != EventSqlDao.Partitioning.NONE;
+    }
+
+    /**
+     * Reads the catalog, if it hasn't been read, backfills event_uuid if it is empty, and moves the events in the event
+     * table to their partitions, each partition's events and uuids in one transaction.  The event table is only indexed
+     * by (type, time), so while events are moved it is also indexed by time, so each partition's move reads just its
+     * own range instead of the whole table; the index is dropped afterwards.
+     * @param connection  the connection, in auto-commit mode
+     * @throws SQLException  if the catalog couldn't be read or the events moved
+     */
+    synchronized void start(Connection connection) throws SQLException {
+        if (!this.isPartitioned()) {
+            return;
+        }
+
+        this.load(connection);
+        this.backfillUuids(connection);
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(ANY_UNPARTITIONED)) {
+            if (!resultSet.next()) {
+                return;
+            }
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(CREATE_MOVE_INDEX);
+        }
+        try {
+            this.moveUnpartitioned(connection);
+        } finally {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(DROP_MOVE_INDEX);
+            }
+        }
+    }
+
+    /**
+     * Moves the events in the event table to their partitions, earliest first.
+     */
+    private void moveUnpartitioned(Connection connection) throws SQLException {
+        int moved = 0;
+        while (true) {
+            Long earliest;
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(EARLIEST_UNPARTITIONED)) {
+                Timestamp time = resultSet.next() ? resultSet.getTimestamp(1) : null;
+                earliest = time == null ? null : time.toInstant().toEpochMilli();
+            }
+
+            if (earliest == null) {
+                break;
+            }
+
+            Partition partition = this.create(connection, earliest);
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement(String.format(MOVE_EVENTS, partition.name));
+                 PreparedStatement insertUuids = connection.prepareStatement(MOVE_UUIDS);
+                 PreparedStatement delete = connection.prepareStatement(DELETE_MOVED)) {
+                for (PreparedStatement preparedStatement : new PreparedStatement[]{insert, insertUuids, delete}) {
+                    preparedStatement.setTimestamp(1, Timestamp.from(Instant.ofEpochMilli(partition.start)));
+                    preparedStatement.setTimestamp(2, Timestamp.from(Instant.ofEpochMilli(partition.end)));
+                }
+
+                moved += insert.executeUpdate();
+                insertUuids.executeUpdate();
+                delete.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+
+        if (moved > 0) {
+            logger.info("Unpartitioned events moved | events {} | partitions {}", moved, this.partitions.size());
+        }
+    }
+
+    /**
+     * Returns all partitions, newest first.
+     * @param connection  the connection, used to read the catalog the first time
+     * @return  the partitions
+     * @throws SQLException  if the catalog couldn't be read
+     */
+    List<Partition> all(Connection connection) throws SQLException {
+        List<Partition> all = this.partitions;
+        if (all == null) {
+            synchronized (this) {
+                if (this.partitions == null) {
+                    this.start(connection);
+                }
+
+                all = this.partitions;
+            }
+        }
+
+        return all;
+    }
+
+    /**
+     * Returns the partitions overlapping the time range, inclusive, newest first.
+     * @param connection  the connection, used to read the catalog the first time
+     * @param earliest  the earliest time, inclusive
+     * @param latest  the latest time, inclusive
+     * @return  the partitions
+     * @throws SQLException  if the catalog couldn't be read
+     */
+    List<Partition> overlapping(Connection connection, long earliest, long latest) throws SQLException {
+        List<Partition> overlapping = new ArrayList<>();
+        for (Partition partition : this.all(connection)) {
+            if (partition.start <= latest && earliest < partition.end) {
+                overlapping.add(partition);
+            } else if (partition.end <= earliest) {
+                break;
+            }
+        }
+
+        return overlapping;
+    }
+
+    /**
+     * Returns the partition for the time, creating it if there is none.  Creating a partition is DDL, which commits
+     * the connection's transaction on most databases, so the partitions of the events to be added are created before
+     * their transaction begins.
+     * @param connection  the connection, in auto-commit mode
+     * @param epochMillis  the event time
+     * @return  the partition
+     * @throws SQLException  if the partition couldn't be created
+     */
+    Partition partition(Connection connection, long epochMillis) throws SQLException {
+        Partition partition = find(this.all(connection), epochMillis);
+        return partition != null ? partition : this.create(connection, epochMillis);
+    }
+
+    /**
+     * Fills event_uuid from the partitions, in one transaction, if it is empty while there are partitions, e.g. when
+     * they were written before the table existed.
+     */
+    private void backfillUuids(Connection connection) throws SQLException {
+        if (this.partitions.isEmpty()) {
+            return;
+        }
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(ANY_UUID)) {
+            if (resultSet.next()) {
+                return;
+            }
+        }
+
+        int uuids = 0;
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            for (Partition partition : this.partitions) {
+                uuids += statement.executeUpdate(String.format(BACKFILL_UUIDS, partition.name));
+            }
+
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+
+        logger.info("Event uuids backfilled | uuids {} | partitions {}", uuids, this.partitions.size());
+    }
+
+    /**
+     * Reads the catalog.
+     */
+    private void load(Connection connection) throws SQLException {
+        List<Partition> loaded = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(FIND_PARTITIONS)) {
+            while (resultSet.next()) {
+                loaded.add(new Partition(resultSet.getString(1), resultSet.getLong(2), resultSet.getLong(3)));
+            }
+        }
+
+        loaded.sort(Comparator.comparingLong((Partition partition) -> partition.start).reversed());
+        this.partitions = Collections.unmodifiableList(loaded);
+        logger.info("Partitions loaded | partitioning {} | partitions {}", this.partitioning, loaded.size());
+    }
+
+    /**
+     * Creates the table for the day or month of the time, narrowed so it doesn't overlap an existing partition (after
+     * the partitioning was changed), and records it in the catalog.
+     */
+    private synchronized Partition create(Connection connection, long epochMillis) throws SQLException {
+        List<Partition> all = this.all(connection);
+        Partition existing = find(all, epochMillis);
+        if (existing != null) {
+            return existing;
+        }
+
+        LocalDate date = Instant.ofEpochMilli(epochMillis).atZone(ZoneOffset.UTC).toLocalDate();
+        LocalDate first = this.partitioning == EventSqlDao.Partitioning.MONTH ? date.withDayOfMonth(1) : date;
+        LocalDate next = this.partitioning == EventSqlDao.Partitioning.MONTH ? first.plusMonths(1L) : first.plusDays(1L);
+        long start = first.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        long end = next.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        for (Partition partition : all) {
+            if (partition.end <= epochMillis) {
+                start = Math.max(start, partition.end);
+            } else if (partition.start > epochMillis) {
+                end = Math.min(end, partition.start);
+            }
+        }
+
+        // partitions are whole UTC days, so a narrowed partition starts on a day and is named for it
+        LocalDate startDate = Instant.ofEpochMilli(start).atZone(ZoneOffset.UTC).toLocalDate();
+        String name = this.partitioning == EventSqlDao.Partitioning.MONTH && startDate.getDayOfMonth() == 1
+                      ? String.format("event_%04d%02d", startDate.getYear(), startDate.getMonthValue())
+                      : String.format("event_%04d%02d%02d", startDate.getYear(), startDate.getMonthValue(), startDate.getDayOfMonth());
+        Partition partition = new Partition(name, start, end);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(String.format(CREATE_TABLE, name));
+            statement.executeUpdate(String.format(CREATE_INDEX, name, name));
+        }
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_PARTITION)) {
+            preparedStatement.setString(1, name);
+            preparedStatement.setLong(2, start);
+            preparedStatement.setLong(3, end);
+            preparedStatement.executeUpdate();
+        }
+
+        List<Partition> updated = new ArrayList<>(all);
+        updated.add(partition);
+        updated.sort(Comparator.comparingLong((Partition candidate) -> candidate.start).reversed());
+        this.partitions = Collections.unmodifiableList(updated);
+        logger.info("Partition created | name {} | start {} | end {}", name, Instant.ofEpochMilli(start), Instant.ofEpochMilli(end));
+        return partition;
+    }
+
+    @Nullable
+    private static Partition find(List<Partition> partitions, long epochMillis) {
+        for (Partition partition : partitions) {
+            if (partition.start <= epochMillis && epochMillis < partition.end) {
+                return partition;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * A table holding the events from its start, inclusive, to its end, exclusive, in milliseconds since the epoch.
+     */
+    static final class Partition {
+        private final String name;
+        private final long start;
+        private final long end;
+        private final ConcurrentMap<String, String> statements = new ConcurrentHashMap<>();
+
+        Partition(String name, long start, long end) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+        }
+
+        String getName() {
+            return this.name;
+        }
+
+        long getStart() {
+            return this.start;
+        }
+
+        long getEnd() {
+            return this.end;
+        }
+
+        /**
+         * Returns the statement, written against the event table, against this partition's table.
+         * @param sql  the statement
+         * @return  the statement for this partition
+         */
+        String sql(String sql) {
+            if (this.name.equals(EVENT_TABLE)) {
+                return sql;
+            }
+
+            return this.statements.computeIfAbsent(sql, template -> template.replace(" event ", " " + this.name + " ")
+                                                                            .replace(" event)", " " + this.name + ")"));
+        }
+    }
+}
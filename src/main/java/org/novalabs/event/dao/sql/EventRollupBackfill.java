@@ -0,0 +1,49 @@
+package org.novalabs.event.dao.sql;
+
+import java.sql.Connection;
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+
+/**
+ * Liquibase change that backfills the event_rollup table from the existing events.  It is a custom change rather than
+ * plain SQL because bucket starts are UTC epoch milliseconds, which are computed in Java as they are when events are
+ * added; the database's date arithmetic is in local time.
+ */
+public class EventRollupBackfill implements CustomTaskChange {
+    private int rows;
+
+    public EventRollupBackfill() {
+    }
+
+    @Override
+    public void execute(Database database) throws CustomChangeException {
+        try {
+            Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+            this.rows = EventRollups.rebuild(connection);
+        } catch (Exception e) {
+            throw new CustomChangeException("event_rollup backfill failed", e);
+        }
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return "event_rollup backfilled | rows " + this.rows;
+    }
+
+    @Override
+    public void setUp() {
+    }
+
+    @Override
+    public void setFileOpener(ResourceAccessor resourceAccessor) {
+    }
+
+    @Override
+    public ValidationErrors validate(Database database) {
+        return new ValidationErrors();
+    }
+}
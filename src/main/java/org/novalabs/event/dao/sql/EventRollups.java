@@ -0,0 +1,298 @@
+package org.novalabs.event.dao.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.novalabs.event.dao.EventBucketCounter;
+import org.novalabs.event.domain.Event;
+
+/**
+ * Maintains the event_rollup table: the count of events per type, value and minute, hour and day, aligned to the
+ * epoch.  Rollups are updated in the transaction that inserts the events, so they are always consistent with the
+ * event table, and can be rebuilt from it.  Events deleted by retention stay counted in the rollups, which
+ * summarize them; a rebuild keeps those counts.  All methods run on the caller's connection and leave transaction
+ * control to the caller.
+ */
+class EventRollups {
+    /**
+     * The rollup granularities in milliseconds, finest first.
+     */
+    static final long[] GRANULARITIES = {
+            TimeUnit.MINUTES.toMillis(1L), TimeUnit.HOURS.toMillis(1L), TimeUnit.DAYS.toMillis(1L)
+    };
+
+    /**
+     * The coarsest granularity, which has the fewest rows per type.
+     */
+    static final long COARSEST = GRANULARITIES[GRANULARITIES.length - 1];
+
+    static final String UPDATE_ROLLUP = "UPDATE event_rollup SET event_count = event_count + ? WHERE granularity = ? AND type = ? AND bucket_start = ? AND value = ?";
+    static final String INSERT_ROLLUP = "INSERT INTO event_rollup (event_count,granularity,type,bucket_start,value) VALUES (?,?,?,?,?)";
+    static final String UPDATE_ROLLUP_MAX = "UPDATE event_rollup SET event_count = GREATEST(event_count, ?) WHERE granularity = ? AND type = ? AND bucket_start = ? AND value = ?";
+    static final String DELETE_ROLLUPS = "DELETE from event_rollup WHERE granularity = ? AND type = ? AND bucket_start >= ?";
+    static final String FIND_OLDEST_EVENTS = "SELECT type, MIN(time) from event GROUP BY type";
+    static final String DELETE_EXPIRED_ROLLUPS = "DELETE from event_rollup WHERE granularity = ? AND type = ? AND bucket_start <= ? LIMIT ?";
+    static final String FIND_EVENTS_BY_TYPE = "SELECT type, time, value from event ORDER BY type, time DESC";
+
+    private static final int REBUILD_BATCH_SIZE = 1000;
+    private static final Comparator<RollupKey> KEY_ORDER = Comparator.<RollupKey>comparingLong(key -> key.granularity)
+            .thenComparing(key -> key.type)
+            .thenComparingLong(key -> key.bucketStart)
+            .thenComparing(key -> key.value);
+
+    private EventRollups() {
+    }
+
+    /**
+     * Returns the coarsest rollup granularity that divides the bucket size, so that rollup rows can be summed into
+     * buckets of that size.
+     * @param bucketMillis  the bucket size in milliseconds
+     * @return  the granularity in milliseconds, or 0 if no rollup divides the bucket size
+     */
+    static long granularity(long bucketMillis) {
+        for (int i = GRANULARITIES.length - 1; i >= 0; --i) {
+            if (bucketMillis % GRANULARITIES[i] == 0L) {
+                return GRANULARITIES[i];
+            }
+        }
+
+        return 0L;
+    }
+
+    /**
+     * Adds the events to the rollups.  Each rollup row is updated once per call, in a fixed order so that concurrent
+     * transactions lock the rows they share in the same order.  An insert that loses a race with another writer's
+     * insert fails on the primary key and falls back to the update.
+     * @param connection  the connection, in the transaction that inserted the events
+     * @param events  the added events
+     * @throws SQLException  if the rollups couldn't be updated
+     */
+    static void update(Connection connection, Collection<Event> events) throws SQLException {
+        Map<RollupKey, Long> deltas = new TreeMap<>(KEY_ORDER);
+        for (Event event : events) {
+            for (long granularity : GRANULARITIES) {
+                RollupKey key = new RollupKey(granularity, event.getType().getString(),
+                                              EventBucketCounter.bucketStart(event.getEpochMillis(), granularity),
+                                              event.getValue().getString());
+                deltas.merge(key, 1L, Long::sum);
+            }
+        }
+
+        try (PreparedStatement update = connection.prepareStatement(UPDATE_ROLLUP);
+             PreparedStatement insert = connection.prepareStatement(INSERT_ROLLUP)) {
+            for (Map.Entry<RollupKey, Long> delta : deltas.entrySet()) {
+                setRollup(update, delta.getKey(), delta.getValue());
+                if (update.executeUpdate() > 0) {
+                    continue;
+                }
+
+                try {
+                    setRollup(insert, delta.getKey(), delta.getValue());
+                    insert.executeUpdate();
+                } catch (SQLException e) {
+                    // SQL state class 23 is an integrity constraint violation: another writer inserted the row
+                    if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+                        throw e;
+                    }
+
+                    update.executeUpdate();
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes up to the limit of the type's rollups of the granularity whose buckets end at or before the time.
+     * @param connection  the connection
+     * @param type  the event type
+     * @param granularity  the rollup granularity in milliseconds
+     * @param before  the time the buckets end by, in epoch milliseconds
+     * @param limit  the maximum number of rows to delete
+     * @return  the number of rows deleted
+     * @throws SQLException  if the rollups couldn't be deleted
+     */
+    static int delete(Connection connection, String type, long granularity, long before, int limit) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(DELETE_EXPIRED_ROLLUPS)) {
+            preparedStatement.setLong(1, granularity);
+            preparedStatement.setString(2, type);
+            preparedStatement.setLong(3, before - granularity);
+            preparedStatement.setInt(4, limit);
+            return preparedStatement.executeUpdate();
+        }
+    }
+
+    /**
+     * Replaces the rollups with ones computed from the event table.
+     * @param connection  the connection
+     * @return  the number of rollup rows
+     * @throws SQLException  if the rollups couldn't be rebuilt
+     */
+    static int rebuild(Connection connection) throws SQLException {
+        return rebuild(connection, Collections.singletonList(EventPartitions.UNPARTITIONED));
+    }
+
+    /**
+     * Replaces the rollups with ones computed from the partitions' tables.  Retention may have deleted the events of
+     * a type before its oldest remaining event, which only the rollups still count, so only the buckets starting at or
+     * after that event are replaced; a bucket starting before it keeps its count unless the events count more.  The
+     * events are read in (type, time) index order, so each rollup bucket's events arrive together and the bucket is
+     * written as soon as the next one starts; only the open bucket of each granularity is held in memory, not the
+     * whole table.  The bucket starts are computed here from the epoch milliseconds exactly as {@link #update}
+     * computes them; the database's own date arithmetic is in local time and would shift buckets by an hour under
+     * daylight saving time.  Partitions are whole UTC days and rollup buckets are at most a day, aligned to the epoch,
+     * so no bucket spans two partitions.
+     * @param connection  the connection
+     * @param partitions  the partitions
+     * @return  the number of rollup rows written
+     * @throws SQLException  if the rollups couldn't be rebuilt
+     */
+    static int rebuild(Connection connection, List<EventPartitions.Partition> partitions) throws SQLException {
+        Map<String, Long> oldest = new HashMap<>();
+        for (EventPartitions.Partition partition : partitions) {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(partition.sql(FIND_OLDEST_EVENTS));
+                 ResultSet resultSet = preparedStatement.executeQuery()) {
+                while(resultSet.next()) {
+                    oldest.merge(resultSet.getString(1), resultSet.getTimestamp(2).getTime(), Math::min);
+                }
+            }
+        }
+
+        try (PreparedStatement delete = connection.prepareStatement(DELETE_ROLLUPS)) {
+            for (Map.Entry<String, Long> type : oldest.entrySet()) {
+                for (long granularity : GRANULARITIES) {
+                    delete.setLong(1, granularity);
+                    delete.setString(2, type.getKey());
+                    delete.setLong(3, type.getValue());
+                    delete.executeUpdate();
+                }
+            }
+        }
+
+        try (PreparedStatement insert = connection.prepareStatement(INSERT_ROLLUP);
+             PreparedStatement update = connection.prepareStatement(UPDATE_ROLLUP_MAX)) {
+            RollupWriter writer = new RollupWriter(insert, update, oldest);
+            for (EventPartitions.Partition partition : partitions) {
+                try (PreparedStatement preparedStatement = connection.prepareStatement(partition.sql(FIND_EVENTS_BY_TYPE));
+                     ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while(resultSet.next()) {
+                        writer.add(resultSet.getString(1), resultSet.getTimestamp(2).getTime(), resultSet.getString(3));
+                    }
+                }
+
+                writer.flush();
+            }
+
+            return writer.rows;
+        }
+    }
+
+    private static void setRollup(PreparedStatement preparedStatement, RollupKey key, long count) throws SQLException {
+        preparedStatement.setLong(1, count);
+        preparedStatement.setLong(2, key.granularity);
+        preparedStatement.setString(3, key.type);
+        preparedStatement.setLong(4, key.bucketStart);
+        preparedStatement.setString(5, key.value);
+    }
+
+    /**
+     * Counts events arriving in (type, time) order into the open bucket of each granularity, and writes a bucket's
+     * rollups once an event of another type or bucket arrives: inserted, in JDBC batches, if the bucket starts at or
+     * after the type's oldest event, and otherwise raised to the events' count where that is larger.
+     */
+    private static class RollupWriter {
+        private final PreparedStatement insert;
+        private final PreparedStatement update;
+        private final Map<String, Long> oldest;
+        private final long[] bucketStarts = new long[GRANULARITIES.length];
+        private final List<Map<String, Long>> counts = new ArrayList<>();
+        private String type;
+        private int batched;
+        private int rows;
+
+        RollupWriter(PreparedStatement insert, PreparedStatement update, Map<String, Long> oldest) {
+            this.insert = insert;
+            this.update = update;
+            this.oldest = oldest;
+            for (int i = 0; i < GRANULARITIES.length; ++i) {
+                this.counts.add(new HashMap<>());
+            }
+        }
+
+        void add(String type, long epochMillis, String value) throws SQLException {
+            boolean sameType = type.equals(this.type);
+            for (int i = 0; i < GRANULARITIES.length; ++i) {
+                long bucketStart = EventBucketCounter.bucketStart(epochMillis, GRANULARITIES[i]);
+                if (!sameType || bucketStart != this.bucketStarts[i]) {
+                    this.close(i);
+                    this.bucketStarts[i] = bucketStart;
+                }
+
+                this.counts.get(i).merge(value, 1L, Long::sum);
+            }
+
+            this.type = type;
+        }
+
+        void flush() throws SQLException {
+            for (int i = 0; i < GRANULARITIES.length; ++i) {
+                this.close(i);
+            }
+
+            if (this.batched > 0) {
+                this.insert.executeBatch();
+                this.batched = 0;
+            }
+        }
+
+        private void close(int granularity) throws SQLException {
+            Map<String, Long> bucket = this.counts.get(granularity);
+            boolean replaced = bucket.isEmpty() || this.bucketStarts[granularity] >= this.oldest.get(this.type);
+            for (Map.Entry<String, Long> count : bucket.entrySet()) {
+                RollupKey key = new RollupKey(GRANULARITIES[granularity], this.type, this.bucketStarts[granularity], count.getKey());
+                ++this.rows;
+                if (!replaced) {
+                    setRollup(this.update, key, count.getValue());
+                    if (this.update.executeUpdate() > 0) {
+                        continue;
+                    }
+                }
+
+                setRollup(this.insert, key, count.getValue());
+                this.insert.addBatch();
+                if (++this.batched == REBUILD_BATCH_SIZE) {
+                    this.insert.executeBatch();
+                    this.batched = 0;
+                }
+            }
+
+            bucket.clear();
+        }
+    }
+
+    /**
+     * The primary key of a rollup row.
+     */
+    private static class RollupKey {
+        private final long granularity;
+        private final String type;
+        private final long bucketStart;
+        private final String value;
+
+        RollupKey(long granularity, String type, long bucketStart, String value) {
+            this.granularity = granularity;
+            this.type = type;
+            this.bucketStart = bucketStart;
+            this.value = value;
+        }
+    }
+}
@@ -1,4 +1,3 @@
-
 package org.novalabs.event.dao.sql;
 
 import java.sql.Connection;
@@ -8,39 +7,131 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 import javax.sql.DataSource;
+import org.novalabs.event.dao.EventBucketCounter;
 import org.novalabs.event.dao.EventDao;
 import org.novalabs.event.dao.EventDaoException;
 import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventBucket;
+import org.novalabs.event.domain.EventCursor;
 import org.novalabs.event.domain.EventType;
 import org.novalabs.event.domain.EventValue;
+import org.novalabs.event.util.TimingUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * The Event DAO for SQL data sources (databases).
+ * The Event DAO for SQL data sources (databases).  Each operation borrows its own connection from the (pooled) data
+ * source and returns it, along with its statements and result sets, before the operation completes.  The DAO is
+ * thread-safe.
+ * <p>
+ * Events are stored in the event table or, with {@link Partitioning}, in a table per UTC day or month; see
+ * {@link EventPartitions}.  A query reads only the partitions overlapping its time range, newest first.  The latest
+ * events and the rollups are kept in single tables either way.
  */
 public class EventSqlDao implements EventDao {
-    private static final String UNIQUE_TYPES = "SELECT DISTINCT type from event";
-    private static final String ALL_EVENTS_SQL = "SELECT * from event WHERE type = ? ORDER BY time DESC";
-    private static final String LATEST_EVENT_SQL = "SELECT * from event WHERE type = ? ORDER BY time DESC LIMIT 1";
-    private static final String LATEST_EVENTS_SQL = "SELECT t1.uuid,t1.type,t1.value,t1.time FROM event t1  INNER JOIN (SELECT MAX(time) time,type FROM event GROUP BY type) AS t2 ON t1.type = t2.type AND t1.time = t2.time ORDER BY t1.type";
-    private static final String FIND_EVENTS_IN_TIME = "SELECT * from event WHERE type = ? AND time >= ? AND time <= ? ORDER BY time DESC";
-    private static final String COUNT_EVENTS = "SELECT count(*) from event WHERE type = ?";
-    private static final String INSERT_EVENT = "INSERT INTO event (uuid,type,value,time) VALUES (?,?,?,?)";
+    static final String UNIQUE_TYPES = "SELECT type from event_latest";
+    static final String ALL_EVENTS_SQL = "SELECT * from event WHERE type = ? ORDER BY time DESC";
+    static final String LATEST_EVENT_SQL = "SELECT uuid,type,value,time from event_latest WHERE type = ?";
+    static final String LATEST_EVENTS_SQL = "SELECT uuid,type,value,time from event_latest ORDER BY type";
+    static final String FIND_EVENTS_IN_TIME = "SELECT * from event WHERE type = ? AND time >= ? AND time <= ? ORDER BY time DESC";
+    static final String FIND_EVENTS_PAGE = "SELECT * from event WHERE type = ? AND time >= ? AND time <= ? ORDER BY time DESC, uuid DESC LIMIT ?";
+    static final String FIND_EVENTS_PAGE_AFTER = "SELECT * from event WHERE type = ? AND time >= ? AND time <= ? AND (time < ? OR (time = ? AND uuid < ?)) ORDER BY time DESC, uuid DESC LIMIT ?";
+    static final String CONTAINS_EVENT = "SELECT 1 from event WHERE uuid = ?";
+    static final String CONTAINS_UUID = "SELECT 1 from event_uuid WHERE uuid = ?";
+    static final String INSERT_UUID = "INSERT INTO event_uuid (uuid) VALUES (?)";
+    static final String COUNT_EVENTS = "SELECT COALESCE(SUM(event_count), 0) from event_rollup WHERE granularity = ? AND type = ?";
+    static final String COUNT_EVENTS_BY_TYPE = "SELECT type, SUM(event_count) from event_rollup WHERE granularity = ? GROUP BY type";
+    static final String COUNT_EVENTS_BY_BUCKET = "SELECT time, value from event WHERE type = ? AND time >= ? AND time <= ? ORDER BY type, time DESC";
+    static final String COUNT_ROLLUPS_BY_BUCKET = "SELECT bucket, value, SUM(event_count) from (SELECT bucket_start / ? AS bucket, value, event_count from event_rollup WHERE granularity = ? AND type = ? AND bucket_start >= ? AND bucket_start < ?) GROUP BY bucket, value ORDER BY bucket";
+    static final String INSERT_EVENT = "INSERT INTO event (uuid,type,value,time) VALUES (?,?,?,?)";
+    static final String UPDATE_LATEST = "UPDATE event_latest SET uuid = ?, value = ?, time = ? WHERE type = ? AND time < ?";
+    static final String INSERT_LATEST = "INSERT INTO event_latest (uuid,value,time,type) VALUES (?,?,?,?)";
+    static final String LATEST_UUID = "SELECT uuid from event_latest WHERE type = ?";
+    static final String DELETE_EVENTS = "DELETE from event WHERE type = ? AND time < ? AND uuid <> ? LIMIT ?";
+    static final String FIND_EXPIRED = "SELECT uuid from event WHERE type = ? AND time < ? AND uuid <> ? LIMIT ?";
+    static final String DELETE_EVENT = "DELETE from event WHERE uuid = ?";
+    static final String DELETE_UUID = "DELETE from event_uuid WHERE uuid = ?";
+    private static final int STREAM_PAGE_SIZE = 1000;
+    private static final long PAGE_WINDOW_MILLIS = 60000L;
+    private static final long MAX_PAGE_WINDOW_MILLIS = 1L << 60;
     private static final Logger logger = LoggerFactory.getLogger(EventSqlDao.class);
     private final DataSource dataSource;
-    private Connection connection;
+    private final SqlPoolMetrics poolMetrics;
+    private final EventPartitions partitions;
+
+    /**
+     * How events are partitioned into tables by time.
+     */
+    public enum Partitioning {
+        /**
+         * Every event in the event table.
+         */
+        NONE,
+
+        /**
+         * A table per UTC day.
+         */
+        DAY,
+
+        /**
+         * A table per UTC month.
+         */
+        MONTH
+    }
 
     /**
      * Creates an {@code EventSqlDao} with the provided {@code DataSource}.
      * @param datasource  the data source to use
      */
     public EventSqlDao(DataSource datasource) {
+        this(datasource, new SqlPoolMetrics(datasource));
+    }
+
+    /**
+     * Creates an {@code EventSqlDao} with the provided {@code DataSource}, recording connection acquisition in the
+     * pool metrics.
+     * @param datasource  the data source to use
+     * @param poolMetrics  the connection pool metrics
+     */
+    public EventSqlDao(DataSource datasource, SqlPoolMetrics poolMetrics) {
+        this(datasource, poolMetrics, Partitioning.NONE);
+    }
+
+    /**
+     * Creates an {@code EventSqlDao} with the provided {@code DataSource} and partitioning, recording connection
+     * acquisition in the pool metrics.
+     * @param datasource  the data source to use
+     * @param poolMetrics  the connection pool metrics
+     * @param partitioning  how events are partitioned into tables
+     */
+    public EventSqlDao(DataSource datasource, SqlPoolMetrics poolMetrics, Partitioning partitioning) {
         this.dataSource = datasource;
+        this.poolMetrics = poolMetrics;
+        this.partitions = new EventPartitions(partitioning);
+    }
+
+    /**
+     * Starts the DAO.  With partitioning, the partition catalog is read and the events in the event table are moved to
+     * their partitions; otherwise this happens on first use.
+     * @throws EventDaoException  if the partitions couldn't be prepared
+     */
+    public void start() throws EventDaoException {
+        try (Connection connection = this.connection()) {
+            this.partitions.start(connection);
+        } catch (Exception e) {
+            throw new EventDaoException("start database call failed", e);
+        }
     }
 
     /**
@@ -51,9 +142,9 @@ public class EventSqlDao implements EventDao {
     public List<String> findAllTypes() throws EventDaoException {
         ArrayList types = new ArrayList();
 
-        try {
-            PreparedStatement preparedStatement = this.preparedStatement(UNIQUE_TYPES);
-            ResultSet resultSet = preparedStatement.executeQuery();
+        try (Connection connection = this.connection();
+             PreparedStatement preparedStatement = connection.prepareStatement(UNIQUE_TYPES);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
             String typeName = null;
 
             while(resultSet.next()) {
@@ -72,7 +163,8 @@ public class EventSqlDao implements EventDao {
     }
 
     /**
-     * Returns the latest event for the event type.
+     * Returns the latest event for the event type, read from the {@code event_latest} table maintained on write, so
+     * the cost doesn't depend on the number of events or partitions.
      * @param eventType the event type
      * @return  the latest event, or null if none
      * @throws EventDaoException  if the event couldn't be returned
@@ -81,12 +173,13 @@ public class EventSqlDao implements EventDao {
     public Event findLatestEvent(String eventType) throws EventDaoException {
         Event event = null;
 
-        try {
-            PreparedStatement preparedStatement = this.preparedStatement(LATEST_EVENT_SQL);
+        try (Connection connection = this.connection();
+             PreparedStatement preparedStatement = connection.prepareStatement(LATEST_EVENT_SQL)) {
             preparedStatement.setString(1, eventType);
-            ResultSet resultSet = preparedStatement.executeQuery();
-            if (resultSet.next()) {
-                event = this.buildEvent(resultSet);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    event = this.buildEvent(resultSet);
+                }
             }
 
             return event;
@@ -96,16 +189,17 @@ public class EventSqlDao implements EventDao {
     }
 
     /**
-     * Returns the list of the latest event for each event type.
+     * Returns the list of the latest event for each event type, read from the {@code event_latest} table maintained
+     * on write.
      * @return  the list of latest events
      * @throws EventDaoException  if the events couldn't be returned
      */
     public List<Event> findLatestEvents() throws EventDaoException {
         ArrayList latestEvents = new ArrayList();
 
-        try {
-            PreparedStatement preparedStatement = this.preparedStatement(LATEST_EVENTS_SQL);
-            ResultSet resultSet = preparedStatement.executeQuery();
+        try (Connection connection = this.connection();
+             PreparedStatement preparedStatement = connection.prepareStatement(LATEST_EVENTS_SQL);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
 
             while(resultSet.next()) {
                 latestEvents.add(this.buildEvent(resultSet));
@@ -119,7 +213,9 @@ public class EventSqlDao implements EventDao {
     }
 
     /**
-     * Adds the {@code Event} and returns if successful.
+     * Adds the {@code Event} and returns if successful.  The latest event of its type is updated in the same
+     * transaction.  With partitioning, the uuid is also inserted into {@code event_uuid}, whose primary key rejects a
+     * uuid stored in any partition.
      * @param event  the event to be added
      * @return  if added
      * @throws EventDaoException if an error occurred while adding the event
@@ -127,22 +223,88 @@ public class EventSqlDao implements EventDao {
     public boolean addEvent(Event event) throws EventDaoException {
         boolean wasAdded = false;
 
-        try {
-            PreparedStatement preparedStatement = this.preparedStatement(INSERT_EVENT);
-            preparedStatement.setObject(1, event.getUuid());
-            preparedStatement.setString(2, event.getType().getString());
-            preparedStatement.setString(3, event.getValue().getString());
-            preparedStatement.setTimestamp(4, Timestamp.from(event.getTime()));
-            int rowsInserted = preparedStatement.executeUpdate();
-            if (rowsInserted == 1) {
-                wasAdded = true;
-            } else {
-                logger.warn("Event NOT added to the database | event {}", event);
+        try (Connection connection = this.connection()) {
+            EventPartitions.Partition partition = this.partitions.partition(connection, event.getEpochMillis());
+            connection.setAutoCommit(false);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(partition.sql(INSERT_EVENT))) {
+                this.insertUuids(connection, Collections.singletonList(event));
+                preparedStatement.setObject(1, event.getUuid());
+                preparedStatement.setString(2, event.getType().getString());
+                preparedStatement.setString(3, event.getValue().getString());
+                preparedStatement.setTimestamp(4, Timestamp.from(event.getTime()));
+                int rowsInserted = preparedStatement.executeUpdate();
+                if (rowsInserted == 1) {
+                    this.updateLatestEvent(connection, event);
+                    EventRollups.update(connection, Collections.singletonList(event));
+                    wasAdded = true;
+                } else {
+                    logger.warn("Event NOT added to the database | event {}", event);
+                }
+
+                connection.commit();
+                return wasAdded;
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
             }
+        } catch (Exception e) {
+            throw new EventDaoException("addEvent database call failed", e);
+        }
+    }
 
-            return wasAdded;
+    /**
+     * Adds the events with a JDBC batch per partition inside one transaction and returns the number added.  Either all
+     * of the events are added or, if an exception is thrown, the transaction is rolled back and none of them are.  The
+     * partitions the events need are created before the transaction begins.  With partitioning, the uuids are also
+     * inserted into {@code event_uuid}, whose primary key rejects a uuid stored in any partition.
+     * @param events  the events to be added
+     * @return  the number of events added
+     * @throws EventDaoException if an error occurred while adding the events
+     */
+    public int addEvents(Collection<Event> events) throws EventDaoException {
+        if (events.isEmpty()) {
+            return 0;
+        }
+
+        try (Connection connection = this.connection()) {
+            Map<EventPartitions.Partition, List<Event>> partitionEvents = new LinkedHashMap<>();
+            for (Event event : events) {
+                EventPartitions.Partition partition = this.partitions.partition(connection, event.getEpochMillis());
+                partitionEvents.computeIfAbsent(partition, key -> new ArrayList<>()).add(event);
+            }
+
+            connection.setAutoCommit(false);
+            try {
+                this.insertUuids(connection, events);
+                int rowsInserted = 0;
+                for (Map.Entry<EventPartitions.Partition, List<Event>> entry : partitionEvents.entrySet()) {
+                    rowsInserted += this.insertEvents(connection, entry.getKey(), entry.getValue());
+                }
+
+                Map<String, Event> latestEvents = new HashMap<>();
+                for (Event event : events) {
+                    latestEvents.merge(event.getType().getString(), event,
+                                       (current, candidate) -> candidate.getEpochMillis() > current.getEpochMillis() ? candidate : current);
+                }
+                for (Event event : latestEvents.values()) {
+                    this.updateLatestEvent(connection, event);
+                }
+                EventRollups.update(connection, events);
+
+                connection.commit();
+                return rowsInserted;
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
         } catch (Exception e) {
-            throw new EventDaoException("findLatestEvent database call failed", e);
+            String msg = "addEvents database call failed | size " + events.size();
+            logger.error(msg);
+            throw new EventDaoException(msg, e);
         }
     }
 
@@ -155,16 +317,19 @@ public class EventSqlDao implements EventDao {
     public List<Event> findEvents(String eventType) throws EventDaoException {
         ArrayList events = new ArrayList(30);
 
-        try {
-            PreparedStatement preparedStatement = this.preparedStatement(ALL_EVENTS_SQL);
-            preparedStatement.setString(1, eventType);
-            ResultSet resultSet = preparedStatement.executeQuery();
-
-            while(resultSet.next()) {
-                try {
-                    events.add(this.buildEvent(resultSet));
-                } catch (SQLException e) {
-                    logger.warn("Couldn't deserialize Event from database", e);
+        try (Connection connection = this.connection()) {
+            for (EventPartitions.Partition partition : this.partitions.all(connection)) {
+                try (PreparedStatement preparedStatement = connection.prepareStatement(partition.sql(ALL_EVENTS_SQL))) {
+                    preparedStatement.setString(1, eventType);
+                    try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                        while(resultSet.next()) {
+                            try {
+                                events.add(this.buildEvent(resultSet));
+                            } catch (SQLException e) {
+                                logger.warn("Couldn't deserialize Event from database", e);
+                            }
+                        }
+                    }
                 }
             }
 
@@ -188,18 +353,21 @@ public class EventSqlDao implements EventDao {
     public List<Event> findEvents(String eventType, Instant earliestTime, Instant latestTime) throws EventDaoException {
         ArrayList events = new ArrayList(30);
 
-        try {
-            PreparedStatement preparedStatement = this.preparedStatement(FIND_EVENTS_IN_TIME);
-            preparedStatement.setString(1, eventType);
-            preparedStatement.setTimestamp(2, Timestamp.from(earliestTime));
-            preparedStatement.setTimestamp(3, Timestamp.from(latestTime));
-            ResultSet resultSet = preparedStatement.executeQuery();
-
-            while(resultSet.next()) {
-                try {
-                    events.add(this.buildEvent(resultSet));
-                } catch (Exception e) {
-                    logger.warn("Couldn't deserialize Event from database", e);
+        try (Connection connection = this.connection()) {
+            for (EventPartitions.Partition partition : this.overlapping(connection, earliestTime, latestTime)) {
+                try (PreparedStatement preparedStatement = connection.prepareStatement(partition.sql(FIND_EVENTS_IN_TIME))) {
+                    preparedStatement.setString(1, eventType);
+                    preparedStatement.setTimestamp(2, Timestamp.from(earliestTime));
+                    preparedStatement.setTimestamp(3, Timestamp.from(latestTime));
+                    try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                        while(resultSet.next()) {
+                            try {
+                                events.add(this.buildEvent(resultSet));
+                            } catch (Exception e) {
+                                logger.warn("Couldn't deserialize Event from database", e);
+                            }
+                        }
+                    }
                 }
             }
 
@@ -212,7 +380,130 @@ public class EventSqlDao implements EventDao {
     }
 
     /**
-     * Returns the count of events for an event type.
+     * Passes each event for the event type, between the earliest and latest times, inclusive, to the consumer in
+     * reverse chronological order.  Each partition is read in pages of {@value #STREAM_PAGE_SIZE} events with the keyset
+     * page query, and a page is handed to the consumer before the next is read, so memory use doesn't depend on the
+     * number of events; the embedded database materializes a whole result set however small the fetch size.  The
+     * connection is held until the stream ends.
+     * @param eventType the event type
+     * @param earliestTime  the earliest event time, inclusive
+     * @param latestTime  the latest event time, inclusive
+     * @param consumer  the consumer of the events
+     * @throws EventDaoException  if the events couldn't be read or the consumer failed
+     */
+    public void streamEvents(String eventType, Instant earliestTime, Instant latestTime, Consumer<Event> consumer) throws EventDaoException {
+        try (Connection connection = this.connection()) {
+            for (EventPartitions.Partition partition : this.overlapping(connection, earliestTime, latestTime)) {
+                EventCursor[] after = new EventCursor[1];
+                int read;
+                do {
+                    read = this.readPage(connection, partition, eventType, earliestTime, latestTime, after[0], STREAM_PAGE_SIZE, event -> {
+                        consumer.accept(event);
+                        after[0] = EventCursor.of(event);
+                    });
+                } while (read == STREAM_PAGE_SIZE);
+            }
+        } catch (Exception e) {
+            String msg = "streamEvents database call failed | oldest " + earliestTime + " | newest " + latestTime;
+            logger.error(msg);
+            throw new EventDaoException(msg, e);
+        }
+    }
+
+    /**
+     * Returns the count of events for the event type between the earliest and latest times, inclusive, in time buckets
+     * aligned to the epoch, broken down by event value.  When a rollup granularity divides the bucket size, the whole
+     * rollup buckets inside the range are summed from event_rollup and only the partial ones at either end are counted
+     * from the event table, so the cost depends on the number of buckets rather than the number of events.  Otherwise
+     * the event rows are read through the (type, time) index, counted per time and value by the database and bucketed
+     * here.
+     * @param eventType the event type
+     * @param earliestTime  the earliest event time, inclusive
+     * @param latestTime  the latest event time, inclusive
+     * @param bucketMillis  the bucket size in milliseconds
+     * @return  the non-empty buckets, in chronological order
+     * @throws EventDaoException  if the events couldn't be counted
+     */
+    public List<EventBucket> countEventsByBucket(String eventType, Instant earliestTime, Instant latestTime, long bucketMillis)
+            throws EventDaoException {
+        long earliest = earliestTime.toEpochMilli();
+        long latest = latestTime.toEpochMilli();
+        TreeMap<Long, EventBucket> buckets = new TreeMap<>();
+
+        try (Connection connection = this.connection()) {
+            long granularity = EventRollups.granularity(bucketMillis);
+            long rollupStart = granularity == 0L ? 0L : -Math.floorDiv(-earliest, granularity) * granularity;
+            long rollupEnd = granularity == 0L ? 0L : Math.floorDiv(latest + 1L, granularity) * granularity;
+            if (rollupStart < rollupEnd) {
+                try (PreparedStatement preparedStatement = connection.prepareStatement(COUNT_ROLLUPS_BY_BUCKET)) {
+                    preparedStatement.setLong(1, bucketMillis);
+                    preparedStatement.setLong(2, granularity);
+                    preparedStatement.setString(3, eventType);
+                    preparedStatement.setLong(4, rollupStart);
+                    preparedStatement.setLong(5, rollupEnd);
+                    addBuckets(preparedStatement, bucketMillis, buckets);
+                }
+
+                // the partial rollup buckets at either end of the range are counted from the events
+                if (earliest < rollupStart) {
+                    this.countEventsByBucket(connection, eventType, earliest, rollupStart - 1L, bucketMillis, buckets);
+                }
+
+                if (rollupEnd <= latest) {
+                    this.countEventsByBucket(connection, eventType, rollupEnd, latest, bucketMillis, buckets);
+                }
+            } else {
+                this.countEventsByBucket(connection, eventType, earliest, latest, bucketMillis, buckets);
+            }
+
+            return new ArrayList<>(buckets.values());
+        } catch (Exception e) {
+            String msg = "countEventsByBucket database call failed | oldest " + earliestTime + " | newest " + latestTime;
+            logger.error(msg);
+            throw new EventDaoException(msg, e);
+        }
+    }
+
+    /**
+     * Returns one page of the events for the event type, between the earliest and latest times, inclusive.  The page
+     * is in reverse chronological order, ties ordered by descending uuid, and starts with the first event after the
+     * cursor.  The query seeks to the cursor with a keyset predicate on (time, uuid), bounding the index range by the
+     * cursor's time, and reads the range in windows (see {@link #readPage}), so the cost of a page depends on neither
+     * its depth nor the length of the range.
+     * @param eventType the event type
+     * @param earliestTime  the earliest event time, inclusive
+     * @param latestTime  the latest event time, inclusive
+     * @param after  the position of the last event of the previous page, or null for the first page
+     * @param limit  the maximum number of events to return
+     * @return  the page of events
+     * @throws EventDaoException  if the page couldn't be returned
+     */
+    public List<Event> findEvents(String eventType, Instant earliestTime, Instant latestTime, @Nullable EventCursor after,
+                                  int limit) throws EventDaoException {
+        List<Event> events = new ArrayList<>(limit);
+
+        try (Connection connection = this.connection()) {
+            for (EventPartitions.Partition partition : this.overlapping(connection, earliestTime, latestTime)) {
+                if (events.size() == limit) {
+                    break;
+                } else if (after != null && partition.getStart() > after.getEpochMillis()) {
+                    // every event in the partition is before the cursor
+                    continue;
+                }
+
+                this.readPage(connection, partition, eventType, earliestTime, latestTime, after, limit - events.size(), events::add);
+            }
+
+            return events;
+        } catch (Exception e) {
+            String msg = "findEvents page database call failed | oldest " + earliestTime + " | newest " + latestTime + " | after " + after;
+            logger.error(msg);
+            throw new EventDaoException(msg, e);
+        }
+    }
+
+    /**
+     * Returns the count of events for an event type, summed from the day rollups.
      * @param eventType  the event type
      * @return  the count of events
      * @throws EventDaoException  if the count couldn't be determined
@@ -220,16 +511,17 @@ public class EventSqlDao implements EventDao {
     public long countEvents(String eventType) throws EventDaoException {
         long count = -1L;
 
-        try {
-            PreparedStatement preparedStatement = this.preparedStatement(COUNT_EVENTS);
-            preparedStatement.setString(1, eventType);
-            ResultSet resultSet = preparedStatement.executeQuery();
-
-            while(resultSet.next()) {
-                try {
-                    count = resultSet.getLong(1);
-                } catch (Exception e) {
-                    logger.warn("Couldn't deserialize Event from database", e);
+        try (Connection connection = this.connection();
+             PreparedStatement preparedStatement = connection.prepareStatement(COUNT_EVENTS)) {
+            preparedStatement.setLong(1, EventRollups.COARSEST);
+            preparedStatement.setString(2, eventType);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while(resultSet.next()) {
+                    try {
+                        count = resultSet.getLong(1);
+                    } catch (Exception e) {
+                        logger.warn("Couldn't deserialize Event from database", e);
+                    }
                 }
             }
 
@@ -241,23 +533,412 @@ public class EventSqlDao implements EventDao {
         }
     }
 
+    /**
+     * Returns whether an event with the uuid is stored.  With partitioning, the uuid is looked up in
+     * {@code event_uuid}, which holds the uuids of every partition, so the check is one query however many partitions
+     * there are.
+     * @param uuid  the event uuid
+     * @return  whether stored
+     * @throws EventDaoException  if the store couldn't be checked
+     */
+    public boolean containsEvent(UUID uuid) throws EventDaoException {
+        try (Connection connection = this.connection();
+             PreparedStatement preparedStatement = connection.prepareStatement(this.partitions.isPartitioned() ? CONTAINS_UUID : CONTAINS_EVENT)) {
+            preparedStatement.setObject(1, uuid);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next();
+            }
+        } catch (Exception e) {
+            throw new EventDaoException("containsEvent database call failed", e);
+        }
+    }
+
+    /**
+     * Returns the count of events for every event type, summed from the day rollups.
+     * @return  the count of events, keyed by event type
+     * @throws EventDaoException  if the counts couldn't be determined
+     */
+    public Map<String, Long> countEventsByType() throws EventDaoException {
+        Map<String, Long> counts = new HashMap<>();
+
+        try (Connection connection = this.connection();
+             PreparedStatement preparedStatement = connection.prepareStatement(COUNT_EVENTS_BY_TYPE)) {
+            preparedStatement.setLong(1, EventRollups.COARSEST);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while(resultSet.next()) {
+                    counts.put(resultSet.getString(1), resultSet.getLong(2));
+                }
+            }
+
+            return counts;
+        } catch (Exception e) {
+            String msg = "countEventsByType database call failed";
+            logger.error(msg);
+            throw new EventDaoException(msg, e);
+        }
+    }
+
+    /**
+     * Deletes up to the limit of the events of the event type older than the time, except the type's latest event, and
+     * returns the number deleted.  The partitions are visited oldest first, each delete in its own transaction, so
+     * the rows of a call are never locked together.  With partitioning, the deleted events' uuids are deleted from
+     * {@code event_uuid} in the same transaction.  The rollups keep counting the deleted events.
+     * @param eventType  the event type
+     * @param before  the time events are deleted before, exclusive
+     * @param limit  the maximum number of events to delete
+     * @return  the number of events deleted
+     * @throws EventDaoException  if the events couldn't be deleted
+     */
+    public int deleteEvents(String eventType, Instant before, int limit) throws EventDaoException {
+        try (Connection connection = this.connection()) {
+            UUID latest = null;
+            try (PreparedStatement preparedStatement = connection.prepareStatement(LATEST_UUID)) {
+                preparedStatement.setString(1, eventType);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    if (resultSet.next()) {
+                        latest = resultSet.getObject(1, UUID.class);
+                    }
+                }
+            }
+
+            if (latest == null) {
+                return 0;
+            }
+
+            int deleted = 0;
+            List<EventPartitions.Partition> partitions = this.partitions.overlapping(connection, Long.MIN_VALUE, before.toEpochMilli() - 1L);
+            for (int i = partitions.size() - 1; i >= 0 && deleted < limit; --i) {
+                if (this.partitions.isPartitioned()) {
+                    deleted += deletePartitionEvents(connection, partitions.get(i), eventType, before, latest, limit - deleted);
+                    continue;
+                }
+
+                try (PreparedStatement preparedStatement = connection.prepareStatement(partitions.get(i).sql(DELETE_EVENTS))) {
+                    preparedStatement.setString(1, eventType);
+                    preparedStatement.setTimestamp(2, Timestamp.from(before));
+                    preparedStatement.setObject(3, latest);
+                    preparedStatement.setInt(4, limit - deleted);
+                    deleted += preparedStatement.executeUpdate();
+                }
+            }
+
+            return deleted;
+        } catch (Exception e) {
+            String msg = "deleteEvents database call failed | type " + eventType + " | before " + before;
+            logger.error(msg);
+            throw new EventDaoException(msg, e);
+        }
+    }
+
+    /**
+     * Deletes up to the limit of the event type's rollups of the granularity whose buckets end at or before the time,
+     * and returns the number deleted.  The event counts are summed from the day rollups, so deleting those lowers
+     * them.
+     * @param eventType  the event type
+     * @param granularityMillis  the rollup granularity in milliseconds
+     * @param before  the time the deleted buckets end by
+     * @param limit  the maximum number of rollups to delete
+     * @return  the number of rollups deleted
+     * @throws EventDaoException  if the rollups couldn't be deleted
+     */
+    public int deleteRollups(String eventType, long granularityMillis, Instant before, int limit) throws EventDaoException {
+        try (Connection connection = this.connection()) {
+            return EventRollups.delete(connection, eventType, granularityMillis, before.toEpochMilli(), limit);
+        } catch (Exception e) {
+            String msg = "deleteRollups database call failed | type " + eventType + " | granularity " + granularityMillis
+                         + " | before " + before;
+            logger.error(msg);
+            throw new EventDaoException(msg, e);
+        }
+    }
+
+    /**
+     * Rebuilds the rollups from the event table in one transaction, e.g. after events were loaded directly into the
+     * database.  Events added while the rebuild runs may be missed; rebuild again once writes have settled.  The
+     * rollups of buckets before each type's oldest remaining event, which count events deleted by retention, are kept.
+     * @return  the number of rollup rows
+     * @throws EventDaoException  if the rollups couldn't be rebuilt
+     */
+    public int rebuildRollups() throws EventDaoException {
+        long start = System.currentTimeMillis();
+        try (Connection connection = this.connection()) {
+            List<EventPartitions.Partition> all = this.partitions.all(connection);
+            connection.setAutoCommit(false);
+            try {
+                int rows = EventRollups.rebuild(connection, all);
+                connection.commit();
+                logger.info("Rollups rebuilt | rows {} | duration {}", rows, TimingUtils.duration(start));
+                return rows;
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (Exception e) {
+            String msg = "rebuildRollups database call failed";
+            logger.error(msg);
+            throw new EventDaoException(msg, e);
+        }
+    }
+
+    /**
+     * Groups the events for the event type between the earliest and latest times, inclusive, into the buckets.  The
+     * bucket is computed here from the epoch milliseconds, as the rollups do, rather than with DATEDIFF, which the
+     * database evaluates in local time and so shifts buckets by an hour while daylight saving time is in effect.  The
+     * rows are read in index order, with nothing grouped or sorted by the database, and only the buckets are kept.
+     */
+    private void countEventsByBucket(Connection connection, String eventType, long earliest, long latest, long bucketMillis,
+                                     TreeMap<Long, EventBucket> buckets) throws SQLException {
+        for (EventPartitions.Partition partition : this.partitions.overlapping(connection, earliest, latest)) {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(partition.sql(COUNT_EVENTS_BY_BUCKET))) {
+                preparedStatement.setString(1, eventType);
+                preparedStatement.setTimestamp(2, Timestamp.from(Instant.ofEpochMilli(earliest)));
+                preparedStatement.setTimestamp(3, Timestamp.from(Instant.ofEpochMilli(latest)));
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while(resultSet.next()) {
+                        long bucketStart = EventBucketCounter.bucketStart(resultSet.getTimestamp(1).getTime(), bucketMillis);
+                        buckets.computeIfAbsent(bucketStart, EventBucket::new).add(resultSet.getString(2), 1L);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes up to the limit of the partition's events of the type, between the earliest and latest times, inclusive,
+     * and after the cursor, to the consumer in reverse chronological order, and returns the number passed.  The
+     * database reads and sorts every row of a page query's time range before applying the limit, so the range is
+     * queried in windows ending at the cursor, or the latest time, and working back: the first spans
+     * {@value #PAGE_WINDOW_MILLIS}ms and each one after a window that came up short is twice as long.  A query reads
+     * the rows of its window rather than all of the remaining range, and a sparse range takes few queries.
+     */
+    private int readPage(Connection connection, EventPartitions.Partition partition, String eventType, Instant earliestTime,
+                         Instant latestTime, @Nullable EventCursor after, int limit, Consumer<Event> consumer) throws SQLException {
+        long lower = Math.max(earliestTime.toEpochMilli(), partition.getStart());
+        long upper = Math.min(latestTime.toEpochMilli(), partition.getEnd() - 1L);
+        if (after != null) {
+            upper = Math.min(upper, after.getEpochMillis());
+        }
+        long window = PAGE_WINDOW_MILLIS;
+        int read = 0;
+        while (read < limit && upper >= lower) {
+            long start = Math.max(lower, upper - window + 1L);
+            try (PreparedStatement preparedStatement = pageStatement(connection, partition, eventType, start, upper, after, limit - read);
+                 ResultSet resultSet = preparedStatement.executeQuery()) {
+                while(resultSet.next()) {
+                    consumer.accept(this.buildEvent(resultSet));
+                    ++read;
+                }
+            }
+
+            // the later windows are wholly before the cursor
+            after = null;
+            upper = start - 1L;
+            window = Math.min(2L * window, MAX_PAGE_WINDOW_MILLIS);
+        }
+
+        return read;
+    }
+
+    /**
+     * Prepares the query for one page of the partition's events between the times, inclusive, after the cursor, or the
+     * first page if it is null.  The cursor's time must be the latest time, so that it bounds the index range; the
+     * keyset predicate only orders the events at that time.
+     */
+    private static PreparedStatement pageStatement(Connection connection, EventPartitions.Partition partition, String eventType,
+                                                   long earliest, long latest, @Nullable EventCursor after, int limit)
+            throws SQLException {
+        String sql = partition.sql(after == null ? FIND_EVENTS_PAGE : FIND_EVENTS_PAGE_AFTER);
+        PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        try {
+            int index = 1;
+            preparedStatement.setString(index++, eventType);
+            preparedStatement.setTimestamp(index++, Timestamp.from(Instant.ofEpochMilli(earliest)));
+            preparedStatement.setTimestamp(index++, Timestamp.from(Instant.ofEpochMilli(latest)));
+            if (after != null) {
+                Timestamp afterTime = Timestamp.from(Instant.ofEpochMilli(after.getEpochMillis()));
+                preparedStatement.setTimestamp(index++, afterTime);
+                preparedStatement.setTimestamp(index++, afterTime);
+                preparedStatement.setObject(index++, after.getUuid());
+            }
+            preparedStatement.setInt(index, limit);
+            return preparedStatement;
+        } catch (SQLException e) {
+            preparedStatement.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the partitions overlapping the time range, inclusive, newest first.
+     */
+    private List<EventPartitions.Partition> overlapping(Connection connection, Instant earliestTime, Instant latestTime)
+            throws SQLException {
+        return this.partitions.overlapping(connection, earliestTime.toEpochMilli(), latestTime.toEpochMilli());
+    }
+
+    /**
+     * With partitioning, inserts the events' uuids into {@code event_uuid} with a single JDBC batch, failing on the
+     * primary key if any is already stored.  Unpartitioned, the event table's primary key does this.
+     */
+    private void insertUuids(Connection connection, Collection<Event> events) throws SQLException {
+        if (!this.partitions.isPartitioned()) {
+            return;
+        }
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_UUID)) {
+            for (Event event : events) {
+                preparedStatement.setObject(1, event.getUuid());
+                preparedStatement.addBatch();
+            }
+
+            preparedStatement.executeBatch();
+        }
+    }
+
+    /**
+     * Deletes up to the limit of the partition's events of the type older than the time, except the latest, and their
+     * uuids, in one transaction, and returns the number deleted.
+     */
+    private static int deletePartitionEvents(Connection connection, EventPartitions.Partition partition, String eventType,
+                                             Instant before, UUID latest, int limit) throws SQLException {
+        List<UUID> uuids = new ArrayList<>();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(partition.sql(FIND_EXPIRED))) {
+            preparedStatement.setString(1, eventType);
+            preparedStatement.setTimestamp(2, Timestamp.from(before));
+            preparedStatement.setObject(3, latest);
+            preparedStatement.setInt(4, limit);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    uuids.add(resultSet.getObject(1, UUID.class));
+                }
+            }
+        }
+
+        if (uuids.isEmpty()) {
+            return 0;
+        }
+
+        connection.setAutoCommit(false);
+        try (PreparedStatement deleteEvent = connection.prepareStatement(partition.sql(DELETE_EVENT));
+             PreparedStatement deleteUuid = connection.prepareStatement(DELETE_UUID)) {
+            for (UUID uuid : uuids) {
+                deleteEvent.setObject(1, uuid);
+                deleteEvent.addBatch();
+                deleteUuid.setObject(1, uuid);
+                deleteUuid.addBatch();
+            }
+
+            int deleted = 0;
+            for (int rows : deleteEvent.executeBatch()) {
+                deleted += rows == PreparedStatement.SUCCESS_NO_INFO ? 1 : rows;
+            }
+            deleteUuid.executeBatch();
+            connection.commit();
+            return deleted;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Inserts the events into the partition with a single JDBC batch and returns the number inserted.
+     */
+    private int insertEvents(Connection connection, EventPartitions.Partition partition, List<Event> events) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(partition.sql(INSERT_EVENT))) {
+            for (Event event : events) {
+                preparedStatement.setObject(1, event.getUuid());
+                preparedStatement.setString(2, event.getType().getString());
+                preparedStatement.setString(3, event.getValue().getString());
+                preparedStatement.setTimestamp(4, Timestamp.from(event.getTime()));
+                preparedStatement.addBatch();
+            }
+
+            int rowsInserted = 0;
+            for (int rows : preparedStatement.executeBatch()) {
+                // drivers may report SUCCESS_NO_INFO (-2) rather than a row count
+                rowsInserted += rows == PreparedStatement.SUCCESS_NO_INFO ? 1 : rows;
+            }
+
+            return rowsInserted;
+        }
+    }
+
+    /**
+     * Adds the (bucket number, value, count) rows of the query to the buckets.
+     */
+    private static void addBuckets(PreparedStatement preparedStatement, long bucketMillis, TreeMap<Long, EventBucket> buckets)
+            throws SQLException {
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            while(resultSet.next()) {
+                buckets.computeIfAbsent(resultSet.getLong(1) * bucketMillis, EventBucket::new)
+                        .add(resultSet.getString(2), resultSet.getLong(3));
+            }
+        }
+    }
+
+    /**
+     * Makes the event the latest of its type if it is newer than the stored latest event, or if there is none.  An
+     * insert that loses a race with another writer's insert fails on the primary key and falls back to the update.
+     */
+    private void updateLatestEvent(Connection connection, Event event) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(UPDATE_LATEST)) {
+            this.setLatestEvent(preparedStatement, event);
+            preparedStatement.setTimestamp(5, Timestamp.from(event.getTime()));
+            if (preparedStatement.executeUpdate() > 0) {
+                return;
+            }
+        }
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_LATEST)) {
+            this.setLatestEvent(preparedStatement, event);
+            preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            // SQL state class 23 is an integrity constraint violation: the type already has a latest event
+            if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+                throw e;
+            }
+
+            try (PreparedStatement preparedStatement = connection.prepareStatement(UPDATE_LATEST)) {
+                this.setLatestEvent(preparedStatement, event);
+                preparedStatement.setTimestamp(5, Timestamp.from(event.getTime()));
+                preparedStatement.executeUpdate();
+            }
+        }
+    }
+
+    private void setLatestEvent(PreparedStatement preparedStatement, Event event) throws SQLException {
+        preparedStatement.setObject(1, event.getUuid());
+        preparedStatement.setString(2, event.getValue().getString());
+        preparedStatement.setTimestamp(3, Timestamp.from(event.getTime()));
+        preparedStatement.setString(4, event.getType().getString());
+    }
+
     private Event buildEvent(ResultSet resultSet) throws SQLException {
         UUID uuid = resultSet.getObject("uuid", UUID.class);
-        EventType type = new EventType(resultSet.getString("type"));
+        EventType type = EventType.of(resultSet.getString("type"));
         EventValue value = new EventValue(resultSet.getString("value"));
         Instant time = resultSet.getTimestamp("time").toInstant();
         return new Event(uuid, type, value, time);
     }
 
-    private PreparedStatement preparedStatement(String sql) throws SQLException {
-        return this.connection().prepareStatement(sql);
-    }
-
+    /**
+     * Borrows a connection from the data source.  The caller owns the connection and must close it, which returns it
+     * to the pool.
+     */
     private Connection connection() throws SQLException {
-        if (this.connection == null || this.connection.isClosed()) {
-            this.connection = this.dataSource.getConnection();
+        long start = System.nanoTime();
+        try {
+            Connection connection = this.dataSource.getConnection();
+            this.poolMetrics.recordAcquire(System.nanoTime() - start);
+            return connection;
+        } catch (SQLException e) {
+            this.poolMetrics.recordAcquireFailure();
+            throw e;
         }
-
-        return this.connection;
     }
 }
@@ -0,0 +1,76 @@
+package org.novalabs.event.dao.sql;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.sql.DataSource;
+import org.apache.tomcat.jdbc.pool.DataSourceProxy;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+/**
+ * Connection pool metrics for the SQL DAO, published on the actuator {@code /metrics} endpoint.  Pool occupancy
+ * (active, idle, waiters) is read from the Tomcat JDBC pool when that is the data source in use; acquisition latency is
+ * recorded by {@link EventSqlDao} for every connection it borrows.
+ */
+public class SqlPoolMetrics implements PublicMetrics {
+    private static final String PREFIX = "event.sql.pool.";
+    private final DataSource dataSource;
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final AtomicLong acquireMaxNanos = new AtomicLong();
+    private final LongAdder acquireFailures = new LongAdder();
+
+    /**
+     * Creates the metrics for the data source.
+     * @param dataSource  the pooled data source
+     */
+    public SqlPoolMetrics(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Records a successful connection acquisition.
+     * @param nanos  the time spent waiting for the connection, in nanoseconds
+     */
+    public void recordAcquire(long nanos) {
+        this.acquireCount.increment();
+        this.acquireNanos.add(nanos);
+        this.acquireMaxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Records a failed connection acquisition, e.g. a pool wait timeout.
+     */
+    public void recordAcquireFailure() {
+        this.acquireFailures.increment();
+    }
+
+    /**
+     * Returns the pool metrics.
+     * @return  the metrics
+     */
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> metrics = new ArrayList<>();
+        if (this.dataSource instanceof DataSourceProxy) {
+            DataSourceProxy pool = (DataSourceProxy) this.dataSource;
+            metrics.add(new Metric<>(PREFIX + "active", pool.getActive()));
+            metrics.add(new Metric<>(PREFIX + "idle", pool.getIdle()));
+            metrics.add(new Metric<>(PREFIX + "size", pool.getSize()));
+            metrics.add(new Metric<>(PREFIX + "max", pool.getMaxActive()));
+            metrics.add(new Metric<>(PREFIX + "waiters", pool.getWaitCount()));
+            metrics.add(new Metric<>(PREFIX + "abandoned", pool.getRemoveAbandonedCount()));
+        }
+
+        long count = this.acquireCount.sum();
+        metrics.add(new Metric<>(PREFIX + "acquire.count", count));
+        metrics.add(new Metric<>(PREFIX + "acquire.failures", this.acquireFailures.sum()));
+        metrics.add(new Metric<>(PREFIX + "acquire.meanMicros",
+                                 count == 0L ? 0L : TimeUnit.NANOSECONDS.toMicros(this.acquireNanos.sum() / count)));
+        metrics.add(new Metric<>(PREFIX + "acquire.maxMicros", TimeUnit.NANOSECONDS.toMicros(this.acquireMaxNanos.get())));
+        return metrics;
+    }
+}
@@ -0,0 +1,13 @@
+package org.novalabs.event.dao.wal;
+
+/**
+ * When the write-ahead log forces appended events to disk.
+ */
+public enum FsyncPolicy {
+    /** Every write is forced before it is acknowledged; concurrent writes share one fsync (group commit). */
+    ALWAYS,
+    /** Writes are acknowledged once appended and forced every interval; a crash loses at most one interval. */
+    INTERVAL,
+    /** Writes are never forced explicitly; the operating system decides when they reach the disk. */
+    OS
+}
@@ -0,0 +1,145 @@
+package org.novalabs.event.dao.wal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+
+/**
+ * One write in the write-ahead log: the events of an {@code addEvent} or {@code addEvents} call, applied to the store
+ * as a unit.  An entry is framed with its length and a CRC-32, so a torn entry at the end of the log is detected and
+ * dropped whole.
+ * <pre>
+ *   int   payload length
+ *   int   CRC-32 of the payload
+ *   int   event count                            \
+ *   per event: long time, long uuid msb,          |  payload
+ *              long uuid lsb, UTF type, UTF value /
+ * </pre>
+ */
+class WalEntry {
+    static final int HEADER_BYTES = 8;
+    static final int MAX_PAYLOAD_BYTES = 1 << 26;
+    private final List<Event> events;
+    private final long segment;
+    private final long position;
+
+    WalEntry(List<Event> events, long segment, long position) {
+        this.events = events;
+        this.segment = segment;
+        this.position = position;
+    }
+
+    /**
+     * Returns the events of the entry.
+     * @return  the events
+     */
+    List<Event> events() {
+        return this.events;
+    }
+
+    /**
+     * Returns the sequence number of the log segment holding the entry.
+     * @return  the segment sequence number
+     */
+    long segment() {
+        return this.segment;
+    }
+
+    /**
+     * Returns the log position just past the entry; the entry is durable once the log is synced to it.
+     * @return  the log position
+     */
+    long position() {
+        return this.position;
+    }
+
+    /**
+     * Encodes the events as a framed entry.
+     * @param events  the events
+     * @return  the entry bytes
+     * @throws IOException  never, the entry is written to memory
+     */
+    static ByteBuffer encode(Collection<Event> events) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_BYTES + events.size() * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(events.size());
+        for (Event event : events) {
+            out.writeLong(event.getEpochMillis());
+            out.writeLong(event.getUuid().getMostSignificantBits());
+            out.writeLong(event.getUuid().getLeastSignificantBits());
+            out.writeUTF(event.getType().getString());
+            out.writeUTF(event.getValue().getString());
+        }
+
+        ByteBuffer entry = ByteBuffer.wrap(bytes.toByteArray());
+        int length = entry.remaining() - HEADER_BYTES;
+        entry.putInt(0, length);
+        entry.putInt(4, crc(entry.array(), HEADER_BYTES, length));
+        return entry;
+    }
+
+    /**
+     * Reads the next entry's events, or returns null at the end of the log or at a torn or corrupt entry.
+     * @param in  the log
+     * @return  the events, or null
+     * @throws IOException  if the log couldn't be read
+     */
+    static List<Event> read(DataInputStream in) throws IOException {
+        byte[] header = new byte[HEADER_BYTES];
+        if (!readFully(in, header)) {
+            return null;
+        }
+
+        ByteBuffer frame = ByteBuffer.wrap(header);
+        int length = frame.getInt(0);
+        if (length < 4 || length > MAX_PAYLOAD_BYTES) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        if (!readFully(in, payload) || crc(payload, 0, length) != frame.getInt(4)) {
+            return null;
+        }
+
+        DataInputStream entry = new DataInputStream(new ByteArrayInputStream(payload));
+        int count = entry.readInt();
+        List<Event> events = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            long time = entry.readLong();
+            UUID uuid = new UUID(entry.readLong(), entry.readLong());
+            EventType type = EventType.of(entry.readUTF());
+            events.add(new Event(uuid, type, new EventValue(entry.readUTF()), time));
+        }
+        return events;
+    }
+
+    private static boolean readFully(DataInputStream in, byte[] bytes) throws IOException {
+        int read = 0;
+        while (read < bytes.length) {
+            int n = in.read(bytes, read, bytes.length - read);
+            if (n < 0) {
+                return false;
+            }
+            read += n;
+        }
+        return true;
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,565 @@
+package org.novalabs.event.dao.wal;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import org.novalabs.event.dao.EventDao;
+import org.novalabs.event.dao.EventDaoException;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventBucket;
+import org.novalabs.event.domain.EventCursor;
+import org.novalabs.event.util.TimingUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-ahead log in front of an {@code EventDao} store.  Added events are appended to the log and, by the
+ * {@link FsyncPolicy}, forced to disk before the add returns; a background thread then applies them to the store.
+ * When the DAO is created, entries left in the log by a crash are replayed into the store.  Replay is idempotent:
+ * events whose uuid is already stored are skipped.
+ * <p>
+ * Reads wait until the events added before them have been applied, so a caller always reads its own writes.  A
+ * duplicate uuid is rejected when it is added: the last {@value #RECENT_UUIDS} uuids logged are indexed in memory,
+ * and a uuid missing from the index is looked up in the store, a single primary key read.
+ * <p>
+ * An entry the store keeps rejecting is retried {@value #MAX_APPLY_ATTEMPTS} times, then each of its events the
+ * store still rejects while answering is written to the {@value #DEAD_LETTER} file in the log directory, in the log's
+ * entry format, and logged as an error, so one poison entry doesn't stall the log and the reads waiting on it.  While
+ * the store is unavailable, entries are retried until it returns.  An event acknowledged as added but then dropped,
+ * dead-lettered or found already stored when applied, is reported to the {@link DropListener}.  The DAO is
+ * thread-safe.
+ */
+public class WriteAheadEventDao implements EventDao, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadEventDao.class);
+    private static final int MAX_APPLY_EVENTS = 500;
+    private static final long MAX_RETRY_MILLIS = 5000L;
+    private static final long READ_WAIT_MILLIS = 10000L;
+    private static final int RECENT_UUIDS = 100000;
+    private static final int MAX_APPLY_ATTEMPTS = 5;
+    static final String DEAD_LETTER = "dead-letter.log";
+    private final EventDao store;
+    private final WriteAheadLog log;
+    private final FsyncPolicy fsyncPolicy;
+    private final BlockingQueue<WalEntry> queue;
+    private final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+    private final Cache<UUID, Boolean> recent = CacheBuilder.newBuilder().maximumSize(RECENT_UUIDS).build();
+    private final Path deadLetter;
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final Object appliedMonitor = new Object();
+    private final Thread applier;
+    @Nullable
+    private final ScheduledExecutorService syncer;
+    @Nullable
+    private volatile DropListener dropListener;
+    private volatile boolean running = true;
+    private long appended;
+    private long applied;
+
+    /**
+     * Creates the DAO, replaying any entries left in the log into the store before returning.
+     * @param store  the store the events are applied to
+     * @param directory  the log directory
+     * @param fsyncPolicy  when the log is forced to disk
+     * @param fsyncIntervalMillis  the interval between syncs with {@link FsyncPolicy#INTERVAL}
+     * @param segmentBytes  the size at which a log segment rolls over
+     * @param queueCapacity  the maximum number of entries waiting to be applied; adds block when it is reached
+     * @throws EventDaoException  if the log couldn't be opened or replayed
+     */
+    public WriteAheadEventDao(EventDao store, Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis,
+                              long segmentBytes, int queueCapacity) throws EventDaoException {
+        Preconditions.checkArgument(fsyncIntervalMillis > 0L);
+        Preconditions.checkArgument(segmentBytes > 0L);
+        Preconditions.checkArgument(queueCapacity > 0);
+        this.store = store;
+        this.fsyncPolicy = fsyncPolicy;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.deadLetter = directory.resolve(DEAD_LETTER);
+
+        long start = System.currentTimeMillis();
+        try {
+            this.log = new WriteAheadLog(directory, segmentBytes);
+            int entries = this.log.replay(events -> this.apply(events, true));
+            this.log.deleteReplayed();
+            logger.info("Replayed write-ahead log | directory {} | entries {} | duration {}", directory, entries,
+                        TimingUtils.duration(start));
+        } catch (IOException | RuntimeException e) {
+            throw new EventDaoException("Couldn't replay write-ahead log | directory " + directory, e);
+        }
+
+        this.applier = new Thread(this::run, "wal-applier");
+        this.applier.setDaemon(true);
+        this.applier.start();
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "wal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.syncer.scheduleWithFixedDelay(this::syncQuietly, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+    }
+
+    /**
+     * Logs the event and returns once it is durable by the fsync policy; it is applied to the store in the
+     * background.
+     * @param event  the event to be added
+     * @return  true
+     * @throws EventDaoException  if the event's uuid already exists or the event couldn't be logged
+     */
+    public boolean addEvent(Event event) throws EventDaoException {
+        return this.add("addEvent", Collections.singletonList(event)) == 1;
+    }
+
+    /**
+     * Logs the events as one entry and returns once it is durable by the fsync policy; the entry is applied to the
+     * store as a unit in the background.
+     * @param events  the events to be added
+     * @return  the number of events added
+     * @throws EventDaoException  if an event's uuid already exists or the events couldn't be logged
+     */
+    public int addEvents(Collection<Event> events) throws EventDaoException {
+        return events.isEmpty() ? 0 : this.add("addEvents", events);
+    }
+
+    public List<Event> findEvents(String eventType) throws EventDaoException {
+        this.awaitApplied();
+        return this.store.findEvents(eventType);
+    }
+
+    public List<Event> findEvents(String eventType, Instant earliestTime, Instant latestTime) throws EventDaoException {
+        this.awaitApplied();
+        return this.store.findEvents(eventType, earliestTime, latestTime);
+    }
+
+    public List<Event> findEvents(String eventType, Instant earliestTime, Instant latestTime, @Nullable EventCursor after,
+                                  int limit) throws EventDaoException {
+        this.awaitApplied();
+        return this.store.findEvents(eventType, earliestTime, latestTime, after, limit);
+    }
+
+    public void streamEvents(String eventType, Instant earliestTime, Instant latestTime, Consumer<Event> consumer) throws EventDaoException {
+        this.awaitApplied();
+        this.store.streamEvents(eventType, earliestTime, latestTime, consumer);
+    }
+
+    public List<EventBucket> countEventsByBucket(String eventType, Instant earliestTime, Instant latestTime, long bucketMillis)
+            throws EventDaoException {
+        this.awaitApplied();
+        return this.store.countEventsByBucket(eventType, earliestTime, latestTime, bucketMillis);
+    }
+
+    public List<String> findAllTypes() throws EventDaoException {
+        this.awaitApplied();
+        return this.store.findAllTypes();
+    }
+
+    @Nullable
+    public Event findLatestEvent(String eventType) throws EventDaoException {
+        this.awaitApplied();
+        return this.store.findLatestEvent(eventType);
+    }
+
+    public List<Event> findLatestEvents() throws EventDaoException {
+        this.awaitApplied();
+        return this.store.findLatestEvents();
+    }
+
+    public boolean containsEvent(UUID uuid) throws EventDaoException {
+        return this.pending.contains(uuid) || this.store.containsEvent(uuid);
+    }
+
+    public long countEvents(String eventType) throws EventDaoException {
+        this.awaitApplied();
+        return this.store.countEvents(eventType);
+    }
+
+    public Map<String, Long> countEventsByType() throws EventDaoException {
+        this.awaitApplied();
+        return this.store.countEventsByType();
+    }
+
+    public int deleteEvents(String eventType, Instant before, int limit) throws EventDaoException {
+        this.awaitApplied();
+        return this.store.deleteEvents(eventType, before, limit);
+    }
+
+    public int deleteRollups(String eventType, long granularityMillis, Instant before, int limit) throws EventDaoException {
+        return this.store.deleteRollups(eventType, granularityMillis, before, limit);
+    }
+
+    /**
+     * Returns the number of entries logged but not yet applied to the store.
+     * @return  the backlog
+     */
+    public long backlog() {
+        synchronized (this.appliedMonitor) {
+            return this.appended - this.applied;
+        }
+    }
+
+    /**
+     * Returns the number of events written to the dead-letter file since the DAO was created.
+     * @return  the events dead-lettered
+     */
+    public long deadLettered() {
+        return this.deadLettered.get();
+    }
+
+    /**
+     * Sets the listener told of events acknowledged as added that are then dropped rather than applied.
+     * @param dropListener  the listener, or null for none
+     */
+    public void setDropListener(@Nullable DropListener dropListener) {
+        this.dropListener = dropListener;
+    }
+
+    /**
+     * Stops accepting events, applies the logged entries and closes the log.  Entries that can't be applied stay in
+     * the log and are replayed when the DAO is next created.
+     */
+    public void close() {
+        this.running = false;
+        if (this.syncer != null) {
+            this.syncer.shutdownNow();
+        }
+
+        try {
+            this.applier.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            this.log.close();
+        } catch (IOException e) {
+            logger.error("Couldn't close write-ahead log", e);
+        }
+    }
+
+    private int add(String operation, Collection<Event> events) throws EventDaoException {
+        Preconditions.checkState(this.running, "write-ahead log is closed");
+        // claiming each uuid in the index rejects duplicates within the events and from concurrent adds
+        Set<UUID> uuids = new HashSet<>();
+        for (Event event : events) {
+            if (this.recent.asMap().putIfAbsent(event.getUuid(), Boolean.TRUE) != null) {
+                this.release(uuids);
+                throw new EventDaoException(operation + " failed | duplicate uuid " + event.getUuid());
+            }
+            uuids.add(event.getUuid());
+        }
+
+        // a uuid older than the index may still be stored, or pending if it was evicted before being applied
+        for (Event event : events) {
+            boolean stored;
+            try {
+                stored = this.pending.contains(event.getUuid()) || this.store.containsEvent(event.getUuid());
+            } catch (EventDaoException | RuntimeException e) {
+                this.release(uuids);
+                throw e;
+            }
+            if (stored) {
+                this.release(uuids);
+                throw new EventDaoException(operation + " failed | duplicate uuid " + event.getUuid());
+            }
+        }
+
+        WalEntry entry;
+        try {
+            entry = this.log.append(events);
+            this.pending.addAll(uuids);
+            synchronized (this.appliedMonitor) {
+                ++this.appended;
+            }
+            this.queue.put(entry);
+        } catch (IOException e) {
+            // the events weren't logged, so they may be added again
+            this.release(uuids);
+            String msg = operation + " write-ahead log append failed | size " + events.size();
+            logger.error(msg);
+            throw new EventDaoException(msg, e);
+        } catch (InterruptedException e) {
+            // the entry is logged and will be applied when the log is replayed
+            Thread.currentThread().interrupt();
+            throw new EventDaoException(operation + " interrupted | size " + events.size(), e);
+        }
+
+        if (this.fsyncPolicy == FsyncPolicy.ALWAYS) {
+            try {
+                this.log.sync(entry.position());
+            } catch (IOException e) {
+                // the entry is appended and will be applied, but it may not survive a crash
+                String msg = operation + " write-ahead log sync failed | size " + events.size();
+                logger.error(msg);
+                throw new EventDaoException(msg, e);
+            }
+        }
+
+        return events.size();
+    }
+
+    /**
+     * Releases the uuids claimed in the index by an add that failed, so they may be added again.
+     */
+    private void release(Set<UUID> uuids) {
+        for (UUID uuid : uuids) {
+            this.recent.invalidate(uuid);
+        }
+    }
+
+    private void run() {
+        List<WalEntry> entries = new ArrayList<>();
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                WalEntry first = this.queue.poll(100L, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                entries.add(first);
+                int size = first.events().size();
+                WalEntry next;
+                while (size < MAX_APPLY_EVENTS && (next = this.queue.poll()) != null) {
+                    entries.add(next);
+                    size += next.events().size();
+                }
+
+                if (this.applyWithRetry(entries)) {
+                    for (WalEntry entry : entries) {
+                        this.log.applied(entry);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // only close() ends the applier; keep applying so the log stays short
+                logger.warn("Write-ahead log applier interrupted | backlog {}", this.queue.size());
+            } finally {
+                for (WalEntry entry : entries) {
+                    for (Event event : entry.events()) {
+                        this.pending.remove(event.getUuid());
+                    }
+                }
+                this.markApplied(entries.size());
+                entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Applies the entries, retrying with backoff while the store fails.  After {@value #MAX_APPLY_ATTEMPTS} attempts
+     * the events are applied one at a time and those the store still rejects are dead-lettered.  Once closing, a
+     * failure leaves the entries in the log for replay instead.
+     * @return  whether the entries were applied
+     */
+    private boolean applyWithRetry(List<WalEntry> entries) throws InterruptedException {
+        List<Event> events = new ArrayList<>();
+        for (WalEntry entry : entries) {
+            events.addAll(entry.events());
+        }
+
+        long backoff = 100L;
+        for (int attempt = 1; ; ++attempt) {
+            try {
+                if (attempt < MAX_APPLY_ATTEMPTS) {
+                    this.apply(events, false);
+                } else {
+                    this.applyOrDeadLetter(events);
+                }
+                return true;
+            } catch (RuntimeException e) {
+                if (!this.running) {
+                    logger.error("Couldn't apply write-ahead log entries, leaving them for replay | events {}", events.size(), e);
+                    return false;
+                }
+                logger.error("Couldn't apply write-ahead log entries, retrying | events {} | attempt {} | backoff {}", events.size(),
+                             attempt, backoff, e);
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2L, MAX_RETRY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Applies the events to the store as one batch.  If the batch fails, or when replaying, each event is checked
+     * against the store and the missing ones are added, so an event is never added twice.
+     * @param events  the events
+     * @param replay  whether the events are being replayed, and so may already be stored
+     */
+    private void apply(List<Event> events, boolean replay) {
+        if (replay) {
+            for (Event event : events) {
+                this.recent.put(event.getUuid(), Boolean.TRUE);
+            }
+        }
+
+        try {
+            if (!replay) {
+                try {
+                    this.store.addEvents(events);
+                    return;
+                } catch (EventDaoException e) {
+                    logger.warn("Couldn't apply event batch, applying individually | size {}", events.size(), e);
+                }
+            }
+
+            List<Event> dropped = new ArrayList<>();
+            for (Event event : events) {
+                if (!this.store.containsEvent(event.getUuid())) {
+                    this.store.addEvent(event);
+                } else if (!replay) {
+                    logger.warn("Dropping event with duplicate uuid | event {}", event);
+                    dropped.add(event);
+                }
+            }
+
+            // reported once the whole batch is applied, so a retry doesn't report an event twice
+            for (Event event : dropped) {
+                this.dropped(event);
+            }
+        } catch (EventDaoException e) {
+            throw new IllegalStateException("couldn't apply events | size " + events.size(), e);
+        }
+    }
+
+    /**
+     * Applies the events one at a time, dead-lettering each event the store rejects although it answers whether the
+     * event is stored.  Handled events are removed from the list, so a retry after the store fails resumes where this
+     * left off.
+     */
+    private void applyOrDeadLetter(List<Event> events) {
+        for (Iterator<Event> iterator = events.iterator(); iterator.hasNext(); ) {
+            Event event = iterator.next();
+            try {
+                if (!this.store.containsEvent(event.getUuid())) {
+                    try {
+                        this.store.addEvent(event);
+                    } catch (EventDaoException e) {
+                        this.deadLetter(event, e);
+                        this.dropped(event);
+                    }
+                }
+            } catch (EventDaoException | IOException e) {
+                throw new IllegalStateException("couldn't apply event | event " + event, e);
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Appends the event to the dead-letter file and forces it to disk.
+     */
+    private void deadLetter(Event event, Exception cause) throws IOException {
+        ByteBuffer entry = WalEntry.encode(Collections.singletonList(event));
+        try (FileChannel channel = FileChannel.open(this.deadLetter, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.APPEND)) {
+            while (entry.hasRemaining()) {
+                channel.write(entry);
+            }
+            channel.force(true);
+        }
+
+        this.deadLettered.incrementAndGet();
+        logger.error("Dead-lettered event the store rejects | event {} | file {}", event, this.deadLetter, cause);
+    }
+
+    /**
+     * Reports an acknowledged event that wasn't applied to the listener, with the latest event of its type the store
+     * holds, read directly since the entries waiting to be applied are behind this one.
+     */
+    private void dropped(Event event) {
+        DropListener listener = this.dropListener;
+        if (listener == null) {
+            return;
+        }
+
+        Event latest = null;
+        try {
+            latest = this.store.findLatestEvent(event.getType().getString());
+        } catch (EventDaoException | RuntimeException e) {
+            logger.error("Couldn't read latest event for dropped event | event {}", event, e);
+        }
+
+        try {
+            listener.eventDropped(event, latest);
+        } catch (RuntimeException e) {
+            logger.error("Drop listener failed | event {}", event, e);
+        }
+    }
+
+    private void markApplied(int entries) {
+        synchronized (this.appliedMonitor) {
+            this.applied += entries;
+            this.appliedMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the entries appended before the call have been applied to the store.  Gives up, and reads what is
+     * applied, after {@value #READ_WAIT_MILLIS} ms, e.g. while the store is failing.
+     */
+    private void awaitApplied() throws EventDaoException {
+        synchronized (this.appliedMonitor) {
+            long target = this.appended;
+            long deadline = System.currentTimeMillis() + READ_WAIT_MILLIS;
+            while (this.applied < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0L) {
+                    logger.warn("Reading before write-ahead log is applied | backlog {}", target - this.applied);
+                    return;
+                }
+                try {
+                    this.appliedMonitor.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new EventDaoException("Interrupted waiting for the write-ahead log to be applied", e);
+                }
+            }
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            this.log.sync(this.log.position());
+        } catch (IOException e) {
+            logger.error("Write-ahead log sync failed", e);
+        }
+    }
+
+    /**
+     * Told of events that were acknowledged as added but then dropped by the applier, e.g. to undo their effect on
+     * state kept in memory.  Called on the applier thread, so it must not read through this DAO.
+     */
+    public interface DropListener {
+        /**
+         * Called when an acknowledged event is dropped.
+         * @param event  the dropped event
+         * @param latest  the latest stored event of the event's type, or null if there is none or it couldn't be read
+         */
+        void eventDropped(Event event, @Nullable Event latest);
+    }
+}
@@ -0,0 +1,224 @@
+package org.novalabs.event.dao.wal;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.novalabs.event.domain.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of {@link WalEntry entries}, in numbered segment files.  Appends are serialized; {@link #sync(long)}
+ * forces the log up to a position, and a single fsync covers every entry appended before it started, so concurrent
+ * writers waiting on the same sync share it (group commit).  A segment is deleted once it is no longer the active
+ * segment and all of its entries have been applied to the store.
+ */
+class WriteAheadLog implements Closeable {
+    static final String PREFIX = "wal-";
+    static final String SUFFIX = ".log";
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+    private final Path directory;
+    private final long segmentBytes;
+    private final Object appendLock = new Object();
+    private final Object syncLock = new Object();
+    private final Map<Long, Integer> unapplied = new HashMap<>();
+    private final List<Path> replayed = new ArrayList<>();
+    private volatile FileChannel channel;
+    private volatile long written;
+    private long segment;
+    private long segmentSize;
+    private long synced;
+
+    /**
+     * Opens the log in the directory.  Existing segments are left for {@link #replay(Consumer)}; appends go to a new
+     * segment.
+     * @param directory  the log directory
+     * @param segmentBytes  the size at which the active segment rolls over
+     * @throws IOException  if the log couldn't be opened
+     */
+    WriteAheadLog(Path directory, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : files) {
+                this.replayed.add(path);
+            }
+        }
+        this.replayed.sort(Comparator.comparingLong(WriteAheadLog::sequence));
+        this.segment = this.replayed.isEmpty() ? 0L : sequence(this.replayed.get(this.replayed.size() - 1)) + 1L;
+        this.channel = this.open(this.segment);
+    }
+
+    /**
+     * Passes the events of each entry in the existing segments to the consumer, in log order.  Reading a segment
+     * stops at a torn or corrupt entry, which was never acknowledged.
+     * @param consumer  the consumer of each entry's events
+     * @return  the number of entries replayed
+     * @throws IOException  if the segments couldn't be read
+     */
+    int replay(Consumer<List<Event>> consumer) throws IOException {
+        int entries = 0;
+        for (Path path : this.replayed) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                List<Event> events;
+                while ((events = WalEntry.read(in)) != null) {
+                    consumer.accept(events);
+                    ++entries;
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Deletes the replayed segments, once their entries have been applied.
+     * @throws IOException  if a segment couldn't be deleted
+     */
+    void deleteReplayed() throws IOException {
+        for (Path path : this.replayed) {
+            Files.deleteIfExists(path);
+        }
+        this.replayed.clear();
+    }
+
+    /**
+     * Appends an entry for the events.  The entry isn't durable until the log is synced to its position.
+     * @param events  the events
+     * @return  the entry
+     * @throws IOException  if the entry couldn't be appended
+     */
+    WalEntry append(Collection<Event> events) throws IOException {
+        ByteBuffer bytes = WalEntry.encode(events);
+        synchronized (this.appendLock) {
+            if (this.segmentSize >= this.segmentBytes) {
+                this.roll();
+            }
+
+            int length = bytes.remaining();
+            long position = this.segmentSize;
+            try {
+                while (bytes.hasRemaining()) {
+                    position += this.channel.write(bytes, position);
+                }
+            } catch (IOException e) {
+                // drop any partial entry, so the next one doesn't follow garbage
+                this.channel.truncate(this.segmentSize);
+                throw e;
+            }
+
+            this.segmentSize += length;
+            this.written += length;
+            this.unapplied.merge(this.segment, 1, Integer::sum);
+            return new WalEntry(new ArrayList<>(events), this.segment, this.written);
+        }
+    }
+
+    /**
+     * Forces the log to disk up to at least the position.  If another thread is already syncing, the caller waits
+     * and usually finds its position covered by that sync.
+     * @param position  the log position
+     * @throws IOException  if the log couldn't be forced
+     */
+    void sync(long position) throws IOException {
+        synchronized (this.syncLock) {
+            if (this.synced >= position) {
+                return;
+            }
+
+            // read the position before the channel: a roll forces the old segment before switching channels
+            long target = this.written;
+            FileChannel active = this.channel;
+            try {
+                active.force(false);
+            } catch (ClosedChannelException e) {
+                // rolled over since reading the position, and the roll forced it
+            }
+            this.synced = Math.max(this.synced, target);
+        }
+    }
+
+    /**
+     * Returns the position just past the last appended entry.
+     * @return  the log position
+     */
+    long position() {
+        return this.written;
+    }
+
+    /**
+     * Records that the entry has been applied to the store, deleting its segment if nothing in it remains unapplied.
+     * @param entry  the applied entry
+     */
+    void applied(WalEntry entry) {
+        synchronized (this.appendLock) {
+            int remaining = this.unapplied.merge(entry.segment(), -1, Integer::sum);
+            if (remaining == 0) {
+                this.unapplied.remove(entry.segment());
+                if (entry.segment() != this.segment) {
+                    this.delete(entry.segment());
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces and closes the active segment.  Segments with unapplied entries are kept for the next replay.
+     * @throws IOException  if the segment couldn't be closed
+     */
+    public void close() throws IOException {
+        synchronized (this.appendLock) {
+            this.channel.force(false);
+            this.channel.close();
+            if (this.segmentSize == 0L || !this.unapplied.containsKey(this.segment)) {
+                this.delete(this.segment);
+            }
+        }
+    }
+
+    private void roll() throws IOException {
+        FileChannel previous = this.channel;
+        previous.force(false);
+        this.channel = this.open(this.segment + 1L);
+        previous.close();
+        if (!this.unapplied.containsKey(this.segment)) {
+            this.delete(this.segment);
+        }
+        ++this.segment;
+        this.segmentSize = 0L;
+    }
+
+    private FileChannel open(long sequence) throws IOException {
+        return FileChannel.open(this.directory.resolve(String.format("%s%019d%s", PREFIX, sequence, SUFFIX)),
+                                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private void delete(long sequence) {
+        Path path = this.directory.resolve(String.format("%s%019d%s", PREFIX, sequence, SUFFIX));
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Couldn't delete applied log segment | path {}", path, e);
+        }
+    }
+
+    private static long sequence(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
@@ -4,16 +4,19 @@ package org.novalabs.event.domain;
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonFormat.Shape;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
-import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import com.google.common.base.Preconditions;
 import java.time.Instant;
 import java.util.Objects;
 import java.util.UUID;
 
 /**
- * Event represents an event in time.  Each event has a type and unique ID.
+ * Event represents an event in time.  Each event has a type and unique ID.  It is read and written as JSON by
+ * {@link EventJson}; the property annotations describe the same JSON for bean introspection.
  */
+@JsonSerialize(using = EventJson.EventSerializer.class)
+@JsonDeserialize(using = EventJson.EventDeserializer.class)
 public class Event {
     public static final EventType INVALID_TYPE = new EventType("---INVALID-TYPE---");
     public static final EventValue INVALID_VALUE = new EventValue("---INVALID-VALUE---");
@@ -80,8 +83,6 @@ public class Event {
      * Returns the event type
      * @return  the event type
      */
-    // serialize the JSON as the string from toString method of the object
-    @JsonSerialize(using = ToStringSerializer.class)
     public EventType getType() {
         return this.type;
     }
@@ -99,8 +100,6 @@ public class Event {
      * Returns the event value
      * @return  the value
      */
-    // serialize the JSON as the string from toString method of the object
-    @JsonSerialize(using = ToStringSerializer.class)
     public EventValue getValue() {
         return this.value;
     }
@@ -137,7 +136,7 @@ public class Event {
      */
     @JsonFormat(
             shape = Shape.STRING,
-            pattern = "yyyy-MM-dd'T'HH:mm:ss.SSSZ",
+            pattern = EventJson.TIME_PATTERN,
             timezone = "UTC"
     )
     public Instant getTime() {
@@ -0,0 +1,88 @@
+package org.novalabs.event.domain;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Represents the count of events in one time bucket of an {@link EventHistogram}, broken down by event value.
+ */
+public class EventBucket {
+    private long epochMillis;
+    private long count;
+    private Map<String, Long> values;
+
+    /**
+     * Default constructor, creates an invalid object.  This is used primarily by Spring.
+     */
+    public EventBucket() {
+        this(-1L);
+    }
+
+    /**
+     * Creates an empty {@code EventBucket} starting at the time.
+     * @param epochMillis  the start of the bucket, in milliseconds since the epoch
+     */
+    public EventBucket(long epochMillis) {
+        this.epochMillis = epochMillis;
+        this.count = 0L;
+        this.values = new TreeMap<>();
+    }
+
+    /**
+     * Adds to the count of events with the value.
+     * @param value  the event value
+     * @param count  the number of events
+     */
+    public void add(String value, long count) {
+        this.values.merge(value, count, Long::sum);
+        this.count += count;
+    }
+
+    /**
+     * Returns the start of the bucket, in milliseconds since the epoch.  The bucket ends where the next one starts.
+     * @return  the start time
+     */
+    public long getEpochMillis() {
+        return this.epochMillis;
+    }
+
+    /**
+     * Sets the start of the bucket.
+     * @param epochMillis  the start time
+     */
+    public void setEpochMillis(long epochMillis) {
+        this.epochMillis = epochMillis;
+    }
+
+    /**
+     * Returns the count of events in the bucket.
+     * @return  the count
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Sets the count of events in the bucket.
+     * @param count  the count
+     */
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    /**
+     * Returns the count of events in the bucket for each event value, ordered by value.
+     * @return  the counts, keyed by event value
+     */
+    public Map<String, Long> getValues() {
+        return this.values;
+    }
+
+    /**
+     * Sets the count of events for each event value.
+     * @param values  the counts, keyed by event value
+     */
+    public void setValues(Map<String, Long> values) {
+        this.values = values;
+    }
+}
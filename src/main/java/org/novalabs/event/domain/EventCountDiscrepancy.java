@@ -0,0 +1,96 @@
+package org.novalabs.event.domain;
+
+/**
+ * Represents a difference between the maintained count of events for a type and the count in the store.
+ */
+public class EventCountDiscrepancy {
+    private String type;
+    private long counted;
+    private long stored;
+    private boolean resynced;
+
+    /**
+     * Default constructor, creates an invalid object.  This is used primarily by Spring.
+     */
+    public EventCountDiscrepancy() {
+        this("--invalid--", -1L, -1L, false);
+    }
+
+    /**
+     * Creates an {@code EventCountDiscrepancy}.
+     * @param type  the event type
+     * @param counted  the maintained count
+     * @param stored  the count in the store
+     * @param resynced  whether the maintained count was reset to the stored count
+     */
+    public EventCountDiscrepancy(String type, long counted, long stored, boolean resynced) {
+        this.type = type;
+        this.counted = counted;
+        this.stored = stored;
+        this.resynced = resynced;
+    }
+
+    /**
+     * Returns the event type.
+     * @return  the event type
+     */
+    public String getType() {
+        return this.type;
+    }
+
+    /**
+     * Sets the event type
+     * @param type  the event type
+     */
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * Returns the maintained count.
+     * @return  the maintained count
+     */
+    public long getCounted() {
+        return this.counted;
+    }
+
+    /**
+     * Sets the maintained count.
+     * @param counted  the maintained count
+     */
+    public void setCounted(long counted) {
+        this.counted = counted;
+    }
+
+    /**
+     * Returns the count in the store.
+     * @return  the stored count
+     */
+    public long getStored() {
+        return this.stored;
+    }
+
+    /**
+     * Sets the count in the store.
+     * @param stored  the stored count
+     */
+    public void setStored(long stored) {
+        this.stored = stored;
+    }
+
+    /**
+     * Returns whether the maintained count was reset to the stored count.
+     * @return  whether resynced
+     */
+    public boolean isResynced() {
+        return this.resynced;
+    }
+
+    /**
+     * Sets whether the maintained count was reset to the stored count.
+     * @param resynced  whether resynced
+     */
+    public void setResynced(boolean resynced) {
+        this.resynced = resynced;
+    }
+}
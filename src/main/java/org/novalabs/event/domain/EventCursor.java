@@ -0,0 +1,112 @@
+package org.novalabs.event.domain;
+
+import com.google.common.base.Preconditions;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Position in a reverse chronological list of events, used to page through event history.  The cursor is keyed on the
+ * (time, uuid) of the last event returned; the next page starts with the event that follows it in (time DESC,
+ * uuid DESC) order.  Cursors are exchanged with clients as opaque, URL safe strings.
+ */
+public class EventCursor {
+    private final long epochMillis;
+    private final UUID uuid;
+
+    /**
+     * Creates a cursor positioned at the time and uuid.
+     * @param epochMillis  the event time in epoch milliseconds
+     * @param uuid  the event uuid
+     */
+    public EventCursor(long epochMillis, UUID uuid) {
+        Preconditions.checkArgument(epochMillis >= 0L);
+        Preconditions.checkNotNull(uuid);
+        this.epochMillis = epochMillis;
+        this.uuid = uuid;
+    }
+
+    /**
+     * Returns the cursor positioned at the event.
+     * @param event  the last event of a page
+     * @return  the cursor
+     */
+    public static EventCursor of(Event event) {
+        return new EventCursor(event.getEpochMillis(), event.getUuid());
+    }
+
+    /**
+     * Decodes a cursor from the string returned by {@link #encode()}.
+     * @param encoded  the encoded cursor
+     * @return  the cursor
+     * @throws IllegalArgumentException  if the string isn't a valid cursor
+     */
+    public static EventCursor decode(String encoded) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(':');
+            Preconditions.checkArgument(separator > 0, "malformed cursor");
+            return new EventCursor(Long.parseLong(decoded.substring(0, separator)), UUID.fromString(decoded.substring(separator + 1)));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IllegalArgumentException("Invalid event cursor '" + encoded + "'", e);
+        }
+    }
+
+    /**
+     * Returns the cursor as an opaque, URL safe string.
+     * @return  the encoded cursor
+     */
+    public String encode() {
+        String decoded = this.epochMillis + ":" + this.uuid;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(decoded.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the time of the cursor position in epoch milliseconds.
+     * @return  the time
+     */
+    public long getEpochMillis() {
+        return this.epochMillis;
+    }
+
+    /**
+     * Returns the uuid of the cursor position.
+     * @return  the uuid
+     */
+    public UUID getUuid() {
+        return this.uuid;
+    }
+
+    /**
+     * Returns the cursor as a string
+     * @return  the string
+     */
+    public String toString() {
+        return "epochMillis '" + this.epochMillis + "', uuid '" + this.uuid + "'";
+    }
+
+    /**
+     * Returns whether the two cursors are equivalent.
+     * @param obj  the object to compare
+     * @return  whether equal
+     */
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        } else if (obj != null && obj instanceof EventCursor) {
+            EventCursor rhs = (EventCursor)obj;
+            return this.epochMillis == rhs.epochMillis && Objects.equals(this.uuid, rhs.uuid);
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the hash code of the cursor.
+     * @return  the hash code
+     */
+    public int hashCode() {
+        return Objects.hash(this.epochMillis, this.uuid);
+    }
+}
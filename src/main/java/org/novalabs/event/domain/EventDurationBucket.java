@@ -0,0 +1,69 @@
+package org.novalabs.event.domain;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Represents the time spent in each event value during one time bucket of an {@link EventDurations}.
+ */
+public class EventDurationBucket {
+    private long epochMillis;
+    private Map<String, Long> millis;
+
+    /**
+     * Default constructor, creates an invalid object.  This is used primarily by Spring.
+     */
+    public EventDurationBucket() {
+        this(-1L);
+    }
+
+    /**
+     * Creates an empty {@code EventDurationBucket} starting at the time.
+     * @param epochMillis  the start of the bucket, in milliseconds since the epoch
+     */
+    public EventDurationBucket(long epochMillis) {
+        this.epochMillis = epochMillis;
+        this.millis = new TreeMap<>();
+    }
+
+    /**
+     * Adds to the time spent in the value.
+     * @param value  the event value
+     * @param millis  the time in milliseconds
+     */
+    public void add(String value, long millis) {
+        this.millis.merge(value, millis, Long::sum);
+    }
+
+    /**
+     * Returns the start of the bucket, in milliseconds since the epoch.  The bucket ends where the next one starts.
+     * @return  the start time
+     */
+    public long getEpochMillis() {
+        return this.epochMillis;
+    }
+
+    /**
+     * Sets the start of the bucket.
+     * @param epochMillis  the start time
+     */
+    public void setEpochMillis(long epochMillis) {
+        this.epochMillis = epochMillis;
+    }
+
+    /**
+     * Returns the time spent in each event value during the bucket, in milliseconds, ordered by value.
+     * @return  the times, keyed by event value
+     */
+    public Map<String, Long> getMillis() {
+        return this.millis;
+    }
+
+    /**
+     * Sets the time spent in each event value.
+     * @param millis  the times, keyed by event value
+     */
+    public void setMillis(Map<String, Long> millis) {
+        this.millis = millis;
+    }
+}
@@ -0,0 +1,143 @@
+package org.novalabs.event.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Represents the time an event type spent in each event value between two times, treating each event as a state
+ * transition: the type is in an event's value from the event's time until the next event.  Time before the first known
+ * state isn't attributed to any value.  Optionally broken down into fixed size time buckets aligned to multiples of
+ * the bucket size since the epoch.
+ */
+public class EventDurations {
+    private String type;
+    private long earliest;
+    private long latest;
+    private long bucketMillis;
+    private Map<String, Long> millis;
+    private List<EventDurationBucket> buckets;
+
+    /**
+     * Default constructor, creates an invalid object.  This is used primarily by Spring.
+     */
+    public EventDurations() {
+        this("--invalid--", -1L, -1L, 0L, new TreeMap<>(), new ArrayList<>());
+    }
+
+    /**
+     * Creates an {@code EventDurations}.
+     * @param type  the event type
+     * @param earliest  the start of the window, inclusive, in milliseconds since the epoch
+     * @param latest  the end of the window, exclusive, in milliseconds since the epoch
+     * @param bucketMillis  the bucket size in milliseconds, or 0 if not broken down
+     * @param millis  the time spent in each value, in milliseconds
+     * @param buckets  the buckets with time in a known state, in chronological order
+     */
+    public EventDurations(String type, long earliest, long latest, long bucketMillis, Map<String, Long> millis,
+                          List<EventDurationBucket> buckets) {
+        this.type = type;
+        this.earliest = earliest;
+        this.latest = latest;
+        this.bucketMillis = bucketMillis;
+        this.millis = millis;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Returns the event type.
+     * @return  the event type
+     */
+    public String getType() {
+        return this.type;
+    }
+
+    /**
+     * Sets the event type
+     * @param type  the event type
+     */
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * Returns the start of the window, inclusive, in milliseconds since the epoch.
+     * @return  the start time
+     */
+    public long getEarliest() {
+        return this.earliest;
+    }
+
+    /**
+     * Sets the start of the window.
+     * @param earliest  the start time
+     */
+    public void setEarliest(long earliest) {
+        this.earliest = earliest;
+    }
+
+    /**
+     * Returns the end of the window, exclusive, in milliseconds since the epoch.
+     * @return  the end time
+     */
+    public long getLatest() {
+        return this.latest;
+    }
+
+    /**
+     * Sets the end of the window.
+     * @param latest  the end time
+     */
+    public void setLatest(long latest) {
+        this.latest = latest;
+    }
+
+    /**
+     * Returns the bucket size in milliseconds, or 0 if the durations aren't broken down.
+     * @return  the bucket size
+     */
+    public long getBucketMillis() {
+        return this.bucketMillis;
+    }
+
+    /**
+     * Sets the bucket size in milliseconds.
+     * @param bucketMillis  the bucket size
+     */
+    public void setBucketMillis(long bucketMillis) {
+        this.bucketMillis = bucketMillis;
+    }
+
+    /**
+     * Returns the time spent in each event value over the window, in milliseconds, ordered by value.
+     * @return  the times, keyed by event value
+     */
+    public Map<String, Long> getMillis() {
+        return this.millis;
+    }
+
+    /**
+     * Sets the time spent in each event value.
+     * @param millis  the times, keyed by event value
+     */
+    public void setMillis(Map<String, Long> millis) {
+        this.millis = millis;
+    }
+
+    /**
+     * Returns the buckets with time in a known state, in chronological order.
+     * @return  the buckets
+     */
+    public List<EventDurationBucket> getBuckets() {
+        return this.buckets;
+    }
+
+    /**
+     * Sets the buckets.
+     * @param buckets  the buckets
+     */
+    public void setBuckets(List<EventDurationBucket> buckets) {
+        this.buckets = buckets;
+    }
+}
@@ -0,0 +1,119 @@
+package org.novalabs.event.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents the events of a type between two times, counted in fixed size time buckets.  Buckets are aligned to
+ * multiples of the bucket size since the epoch and ordered chronologically; buckets without events are omitted.
+ */
+public class EventHistogram {
+    private String type;
+    private long earliest;
+    private long latest;
+    private long bucketMillis;
+    private List<EventBucket> buckets;
+
+    /**
+     * Default constructor, creates an invalid object.  This is used primarily by Spring.
+     */
+    public EventHistogram() {
+        this("--invalid--", -1L, -1L, -1L, new ArrayList<>());
+    }
+
+    /**
+     * Creates an {@code EventHistogram}.
+     * @param type  the event type
+     * @param earliest  the earliest event time, inclusive, in milliseconds since the epoch
+     * @param latest  the latest event time, inclusive, in milliseconds since the epoch
+     * @param bucketMillis  the bucket size in milliseconds
+     * @param buckets  the non-empty buckets, in chronological order
+     */
+    public EventHistogram(String type, long earliest, long latest, long bucketMillis, List<EventBucket> buckets) {
+        this.type = type;
+        this.earliest = earliest;
+        this.latest = latest;
+        this.bucketMillis = bucketMillis;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Returns the event type.
+     * @return  the event type
+     */
+    public String getType() {
+        return this.type;
+    }
+
+    /**
+     * Sets the event type
+     * @param type  the event type
+     */
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * Returns the earliest event time, inclusive, in milliseconds since the epoch.
+     * @return  the earliest time
+     */
+    public long getEarliest() {
+        return this.earliest;
+    }
+
+    /**
+     * Sets the earliest event time.
+     * @param earliest  the earliest time
+     */
+    public void setEarliest(long earliest) {
+        this.earliest = earliest;
+    }
+
+    /**
+     * Returns the latest event time, inclusive, in milliseconds since the epoch.
+     * @return  the latest time
+     */
+    public long getLatest() {
+        return this.latest;
+    }
+
+    /**
+     * Sets the latest event time.
+     * @param latest  the latest time
+     */
+    public void setLatest(long latest) {
+        this.latest = latest;
+    }
+
+    /**
+     * Returns the bucket size in milliseconds.
+     * @return  the bucket size
+     */
+    public long getBucketMillis() {
+        return this.bucketMillis;
+    }
+
+    /**
+     * Sets the bucket size in milliseconds.
+     * @param bucketMillis  the bucket size
+     */
+    public void setBucketMillis(long bucketMillis) {
+        this.bucketMillis = bucketMillis;
+    }
+
+    /**
+     * Returns the non-empty buckets, in chronological order.
+     * @return  the buckets
+     */
+    public List<EventBucket> getBuckets() {
+        return this.buckets;
+    }
+
+    /**
+     * Sets the buckets.
+     * @param buckets  the buckets
+     */
+    public void setBuckets(List<EventBucket> buckets) {
+        this.buckets = buckets;
+    }
+}
@@ -0,0 +1,328 @@
+package org.novalabs.event.domain;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+
+/**
+ * Jackson serializers and deserializers of the domain classes, registered by annotations on the classes so every
+ * {@code ObjectMapper} uses them.  They write and read the fields directly instead of going through bean
+ * introspection, and allocate nothing per event beyond the strings and objects the event is made of.
+ * <p>
+ * An event is written as {@code {"uuid":..., "type":..., "value":..., "epochMillis":..., "time":...}}, the time
+ * formatted as {@link #TIME_PATTERN} in UTC.  When read, {@code time} is ignored, a missing uuid is generated, a
+ * missing time is the current time and a missing type or value is {@link Event#INVALID_TYPE} or
+ * {@link Event#INVALID_VALUE}, as for the default constructor.
+ */
+public final class EventJson {
+    /**
+     * Pattern of the formatted event time.
+     */
+    public static final String TIME_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern(TIME_PATTERN).withZone(ZoneOffset.UTC);
+    private static final SerializableString UUID_FIELD = new SerializedString("uuid");
+    private static final SerializableString TYPE_FIELD = new SerializedString("type");
+    private static final SerializableString VALUE_FIELD = new SerializedString("value");
+    private static final SerializableString EPOCH_MILLIS_FIELD = new SerializedString("epochMillis");
+    private static final SerializableString TIME_FIELD = new SerializedString("time");
+    private static final int UUID_CHARS = 36;
+    private static final int TIME_CHARS = 28;
+    private static final long MAX_FORMATTED_MILLIS = 253402300799999L;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // formatting buffer, one per thread so serializers can be shared
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[UUID_CHARS]);
+
+    private EventJson() {
+    }
+
+    /**
+     * Writes an {@code Event}.
+     */
+    public static class EventSerializer extends StdSerializer<Event> {
+        public EventSerializer() {
+            super(Event.class);
+        }
+
+        @Override
+        public void serialize(Event event, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            char[] buffer = BUFFER.get();
+            gen.writeStartObject();
+            gen.writeFieldName(UUID_FIELD);
+            gen.writeString(buffer, 0, formatUuid(event.getUuid(), buffer));
+            gen.writeFieldName(TYPE_FIELD);
+            gen.writeString(event.getType().getString());
+            gen.writeFieldName(VALUE_FIELD);
+            gen.writeString(event.getValue().getString());
+            gen.writeFieldName(EPOCH_MILLIS_FIELD);
+            gen.writeNumber(event.getEpochMillis());
+            gen.writeFieldName(TIME_FIELD);
+            if (event.getEpochMillis() <= MAX_FORMATTED_MILLIS) {
+                gen.writeString(buffer, 0, formatTime(event.getEpochMillis(), buffer));
+            } else {
+                gen.writeString(TIME_FORMATTER.format(Instant.ofEpochMilli(event.getEpochMillis())));
+            }
+
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * Reads an {@code Event}, constructing it once all of its fields have been read.
+     */
+    public static class EventDeserializer extends StdDeserializer<Event> {
+        public EventDeserializer() {
+            super(Event.class);
+        }
+
+        @Override
+        public Event deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            JsonToken token = p.getCurrentToken();
+            if (token == JsonToken.START_OBJECT) {
+                token = p.nextToken();
+            } else if (token != JsonToken.FIELD_NAME) {
+                return (Event) ctxt.handleUnexpectedToken(Event.class, p);
+            }
+
+            UUID uuid = null;
+            EventType type = Event.INVALID_TYPE;
+            EventValue value = Event.INVALID_VALUE;
+            long epochMillis = 0L;
+            boolean hasTime = false;
+            try {
+                for (; token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+                    String field = p.getCurrentName();
+                    p.nextToken();
+                    switch (field) {
+                        case "uuid":
+                            uuid = parseUuid(p);
+                            break;
+                        case "type":
+                            type = EventType.of(text(p, field));
+                            break;
+                        case "value":
+                            value = new EventValue(text(p, field));
+                            break;
+                        case "epochMillis":
+                            epochMillis = this._parseLongPrimitive(p, ctxt);
+                            hasTime = true;
+                            break;
+                        default:
+                            p.skipChildren();
+                    }
+                }
+
+                return new Event(uuid == null ? UUID.randomUUID() : uuid, type, value,
+                                 hasTime ? epochMillis : System.currentTimeMillis());
+            } catch (IllegalArgumentException e) {
+                throw JsonMappingException.from(p, "Invalid event: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes an {@code EventType} as its string.
+     */
+    public static class TypeSerializer extends StdSerializer<EventType> {
+        public TypeSerializer() {
+            super(EventType.class);
+        }
+
+        @Override
+        public void serialize(EventType type, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeString(type.getString());
+        }
+    }
+
+    /**
+     * Reads an {@code EventType} from its string.
+     */
+    public static class TypeDeserializer extends StdDeserializer<EventType> {
+        public TypeDeserializer() {
+            super(EventType.class);
+        }
+
+        @Override
+        public EventType deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            try {
+                return EventType.of(text(p, "type"));
+            } catch (IllegalArgumentException e) {
+                throw JsonMappingException.from(p, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes an {@code EventValue} as its string.
+     */
+    public static class ValueSerializer extends StdSerializer<EventValue> {
+        public ValueSerializer() {
+            super(EventValue.class);
+        }
+
+        @Override
+        public void serialize(EventValue value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeString(value.getString());
+        }
+    }
+
+    /**
+     * Reads an {@code EventValue} from its string.
+     */
+    public static class ValueDeserializer extends StdDeserializer<EventValue> {
+        public ValueDeserializer() {
+            super(EventValue.class);
+        }
+
+        @Override
+        public EventValue deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            try {
+                return new EventValue(text(p, "value"));
+            } catch (IllegalArgumentException e) {
+                throw JsonMappingException.from(p, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Returns the scalar at the parser as text, throwing an exception (rather than returning null) for anything else.
+     */
+    private static String text(JsonParser p, String field) throws IOException {
+        String text = p.getValueAsString();
+        if (text == null) {
+            throw JsonMappingException.from(p, "Expected a string for " + field + ", not " + p.getCurrentToken());
+        }
+
+        return text;
+    }
+
+    /**
+     * Parses the uuid string at the parser from its characters, without creating the string.
+     */
+    private static UUID parseUuid(JsonParser p) throws IOException {
+        if (p.getCurrentToken() == JsonToken.VALUE_STRING && p.getTextLength() == UUID_CHARS) {
+            char[] chars = p.getTextCharacters();
+            int offset = p.getTextOffset();
+            if (chars[offset + 8] == '-' && chars[offset + 13] == '-' && chars[offset + 18] == '-' && chars[offset + 23] == '-') {
+                long timeLow = hex(chars, offset, 8);
+                long timeMid = hex(chars, offset + 9, 4);
+                long timeHigh = hex(chars, offset + 14, 4);
+                long clockSeq = hex(chars, offset + 19, 4);
+                long node = hex(chars, offset + 24, 12);
+                // each part is -1 if not hex
+                if ((timeLow | timeMid | timeHigh | clockSeq | node) >= 0L) {
+                    return new UUID(timeLow << 32 | timeMid << 16 | timeHigh, clockSeq << 48 | node);
+                }
+            }
+        }
+
+        String text = text(p, "uuid");
+        try {
+            return UUID.fromString(text);
+        } catch (IllegalArgumentException e) {
+            throw JsonMappingException.from(p, "Invalid uuid: " + text, e);
+        }
+    }
+
+    /**
+     * Returns the value of the hex digits, or -1 if they aren't all hex digits.
+     */
+    private static long hex(char[] chars, int offset, int length) {
+        long value = 0L;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = Character.digit(chars[i], 16);
+            if (digit < 0) {
+                return -1L;
+            }
+
+            value = value << 4 | digit;
+        }
+
+        return value;
+    }
+
+    /**
+     * Writes the uuid in its canonical form to the buffer.
+     * @return  the number of characters written
+     */
+    static int formatUuid(UUID uuid, char[] buffer) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        formatHex(msb >>> 32, 8, buffer, 0);
+        buffer[8] = '-';
+        formatHex(msb >>> 16, 4, buffer, 9);
+        buffer[13] = '-';
+        formatHex(msb, 4, buffer, 14);
+        buffer[18] = '-';
+        formatHex(lsb >>> 48, 4, buffer, 19);
+        buffer[23] = '-';
+        formatHex(lsb, 12, buffer, 24);
+        return UUID_CHARS;
+    }
+
+    private static void formatHex(long value, int digits, char[] buffer, int offset) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buffer[i] = HEX[(int) value & 0xF];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * Writes the time, in epoch milliseconds before the year 10000, formatted as {@link #TIME_PATTERN} in UTC to the
+     * buffer.  The date is computed with the days-from-civil algorithm, in integer arithmetic.
+     * @return  the number of characters written
+     */
+    static int formatTime(long epochMillis, char[] buffer) {
+        long days = Math.floorDiv(epochMillis, 86400000L);
+        int millisOfDay = (int) Math.floorMod(epochMillis, 86400000L);
+        long z = days + 719468L;
+        long era = Math.floorDiv(z, 146097L);
+        int dayOfEra = (int) (z - era * 146097L);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthIndex = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        int month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+        int year = (int) (yearOfEra + era * 400L) + (month <= 2 ? 1 : 0);
+
+        formatDecimal(year, 4, buffer, 0);
+        buffer[4] = '-';
+        formatDecimal(month, 2, buffer, 5);
+        buffer[7] = '-';
+        formatDecimal(day, 2, buffer, 8);
+        buffer[10] = 'T';
+        formatDecimal(millisOfDay / 3600000, 2, buffer, 11);
+        buffer[13] = ':';
+        formatDecimal(millisOfDay / 60000 % 60, 2, buffer, 14);
+        buffer[16] = ':';
+        formatDecimal(millisOfDay / 1000 % 60, 2, buffer, 17);
+        buffer[19] = '.';
+        formatDecimal(millisOfDay % 1000, 3, buffer, 20);
+        buffer[23] = '+';
+        buffer[24] = '0';
+        buffer[25] = '0';
+        buffer[26] = '0';
+        buffer[27] = '0';
+        return TIME_CHARS;
+    }
+
+    private static void formatDecimal(int value, int digits, char[] buffer, int offset) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.novalabs.event.domain;
+
+import java.util.UUID;
+import javax.annotation.Nullable;
+
+/**
+ * Represents the outcome of adding one event of a batch.
+ */
+public class EventResult {
+    /**
+     * The outcome of adding an event.
+     */
+    public enum Status {
+        /** the event was added */
+        CREATED,
+        /** the event failed validation and was not added */
+        INVALID,
+        /** the event was valid but couldn't be added */
+        FAILED
+    }
+
+    private int index;
+    private UUID uuid;
+    private Status status;
+    private String message;
+
+    /**
+     * Default constructor, creates an empty result.  This is used primarily by Spring.
+     */
+    public EventResult() {
+        this(-1, null, Status.FAILED, null);
+    }
+
+    /**
+     * Creates an {@code EventResult}.
+     * @param index  the position of the event in the batch, starting at 0
+     * @param uuid  the event uuid, or null if the event couldn't be read
+     * @param status  the outcome
+     * @param message  the reason the event wasn't added, or null
+     */
+    public EventResult(int index, @Nullable UUID uuid, Status status, @Nullable String message) {
+        this.index = index;
+        this.uuid = uuid;
+        this.status = status;
+        this.message = message;
+    }
+
+    /**
+     * Returns the position of the event in the batch.
+     * @return  the index
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Sets the position of the event in the batch.
+     * @param index  the index
+     */
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Returns the event uuid.
+     * @return  the uuid, or null if the event couldn't be read
+     */
+    @Nullable
+    public UUID getUuid() {
+        return this.uuid;
+    }
+
+    /**
+     * Sets the event uuid.
+     * @param uuid  the uuid
+     */
+    public void setUuid(@Nullable UUID uuid) {
+        this.uuid = uuid;
+    }
+
+    /**
+     * Returns the outcome.
+     * @return  the status
+     */
+    public Status getStatus() {
+        return this.status;
+    }
+
+    /**
+     * Sets the outcome.
+     * @param status  the status
+     */
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    /**
+     * Returns the reason the event wasn't added.
+     * @return  the message, or null
+     */
+    @Nullable
+    public String getMessage() {
+        return this.message;
+    }
+
+    /**
+     * Sets the reason the event wasn't added.
+     * @param message  the message
+     */
+    public void setMessage(@Nullable String message) {
+        this.message = message;
+    }
+}
@@ -1,15 +1,54 @@
 
 package org.novalabs.event.domain;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.incava.ijdk.lang.Str;
 
 /**
  * Represents the type of Event.  Event type has a minimum of 1 character and maximum of 100 characters.
+ * <p>
+ * There are few types and many events, so events read from the store or a request share the canonical instance of
+ * their type from {@link #of(String)}.
  */
+@JsonSerialize(using = EventJson.TypeSerializer.class)
+@JsonDeserialize(using = EventJson.TypeDeserializer.class)
 public class EventType extends Str {
     public static final int MIN_LEGNTH = 1;
     public static final int MAX_LEGNTH = 100;
 
+    /**
+     * Maximum number of canonical instances kept by {@link #of(String)}.
+     */
+    public static final int MAX_CANONICAL = 10000;
+
+    private static final ConcurrentMap<String, EventType> CANONICAL = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the canonical {@code EventType} of type, checking and registering it on first use.  Once
+     * {@link #MAX_CANONICAL} types are registered, further types are returned as new instances, so arbitrary types
+     * from requests can't grow the registry without bound.
+     * @param type  the event type
+     * @return  the event type
+     * @throws IllegalArgumentException  if the type isn't valid
+     */
+    public static EventType of(String type) {
+        EventType eventType = type == null ? null : CANONICAL.get(type);
+        if (eventType == null) {
+            eventType = new EventType(type);
+            if (CANONICAL.size() < MAX_CANONICAL) {
+                EventType registered = CANONICAL.putIfAbsent(type, eventType);
+                if (registered != null) {
+                    eventType = registered;
+                }
+            }
+        }
+
+        return eventType;
+    }
+
     /**
      * Creates an {@code EventType} of type.
      * @param type  the event type
@@ -38,6 +77,26 @@ public class EventType extends Str {
         this.checkType();
     }
 
+    /**
+     * Returns whether the object is an equal event type.  Canonical instances are the same object, so the identity
+     * check usually decides.
+     * @param obj  the object to compare
+     * @return  whether equal
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return obj == this || super.equals(obj);
+    }
+
+    /**
+     * Returns the hash code of the event type.
+     * @return  the hash code
+     */
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
     /**
      * Checks type and throws IllegalArgumentException if it fails any check.
      */
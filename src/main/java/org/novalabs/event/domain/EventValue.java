@@ -1,11 +1,15 @@
 
 package org.novalabs.event.domain;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import org.incava.ijdk.lang.Str;
 
 /**
  * Represents the value of Event.  Event value has a minimum of 1 character and maximum of 255 characters.
  */
+@JsonSerialize(using = EventJson.ValueSerializer.class)
+@JsonDeserialize(using = EventJson.ValueDeserializer.class)
 public class EventValue extends Str {
     public static final int MIN_LEGNTH = 1;
     public static final int MAX_LEGNTH = 255;
@@ -0,0 +1,200 @@
+package org.novalabs.event.service;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.Nullable;
+import org.novalabs.event.dao.EventDao;
+import org.novalabs.event.domain.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind event writer.  Submitted events are held in a bounded queue and a single writer thread drains them,
+ * group committing each batch to the {@code EventDao}.  A batch is cut when it reaches the batch size or when its
+ * oldest event has waited the maximum delay, whichever comes first.  {@link #stop()} stops accepting events and
+ * returns once every accepted event has been written.
+ */
+public class AsyncEventWriter {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncEventWriter.class);
+    private final EventDao eventDao;
+    private final BlockingQueue<PendingEvent> queue;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final Thread writerThread;
+    private final ReadWriteLock acceptLock = new ReentrantReadWriteLock();
+    private volatile boolean accepting = true;
+
+    /**
+     * Creates and starts the writer.
+     * @param eventDao  the DAO the batches are written to
+     * @param queueCapacity  the maximum number of events waiting to be written
+     * @param batchSize  the maximum number of events written in one batch
+     * @param maxDelayMillis  the maximum time an event waits for its batch to fill, in milliseconds
+     */
+    public AsyncEventWriter(EventDao eventDao, int queueCapacity, int batchSize, long maxDelayMillis) {
+        Preconditions.checkArgument(queueCapacity > 0);
+        Preconditions.checkArgument(batchSize > 0);
+        Preconditions.checkArgument(maxDelayMillis >= 0L);
+        this.eventDao = eventDao;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.writerThread = new Thread(this::run, "async-event-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues the event to be written.  The returned future completes with whether the event was added once its batch
+     * has been written.
+     * @param event  the event
+     * @return  the completion future, or null if the queue is full or the writer is stopped
+     */
+    @Nullable
+    public CompletableFuture<Boolean> submit(Event event) {
+        PendingEvent pending = new PendingEvent(event);
+        // the read lock keeps stop() from completing between the accepting check and the offer
+        this.acceptLock.readLock().lock();
+        try {
+            if (!this.accepting || !this.queue.offer(pending)) {
+                return null;
+            }
+        } finally {
+            this.acceptLock.readLock().unlock();
+        }
+
+        return pending.future;
+    }
+
+    /**
+     * Returns the number of events waiting to be written.
+     * @return  the queue size
+     */
+    public int queueSize() {
+        return this.queue.size();
+    }
+
+    /**
+     * Stops accepting events and waits until all accepted events have been written.
+     */
+    public void stop() {
+        this.acceptLock.writeLock().lock();
+        try {
+            this.accepting = false;
+        } finally {
+            this.acceptLock.writeLock().unlock();
+        }
+
+        try {
+            this.writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted waiting for the event queue to drain | remaining {}", this.queue.size());
+        }
+    }
+
+    private void run() {
+        List<PendingEvent> batch = new ArrayList<>(this.batchSize);
+        while (this.accepting || !this.queue.isEmpty()) {
+            try {
+                PendingEvent first = this.queue.poll(100L, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                long deadline = System.nanoTime() + this.maxDelayNanos;
+                while (batch.size() < this.batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    // once stopping, cut batches from what is queued rather than waiting for the deadline
+                    PendingEvent next = remaining > 0L && this.accepting ?
+                            this.queue.poll(remaining, TimeUnit.NANOSECONDS) : this.queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+
+                    batch.add(next);
+                }
+
+                this.write(batch);
+            } catch (InterruptedException e) {
+                // only stop() ends the writer; write the events already taken and keep draining so none is lost
+                logger.warn("Async event writer interrupted | batch {} | pending {}", batch.size(), this.queue.size());
+                this.writeInterrupted(batch);
+            } catch (RuntimeException e) {
+                logger.error("Async event writer failed | batch {}", batch.size(), e);
+            } finally {
+                // every event taken from the queue is answered, whatever happened to its batch
+                for (PendingEvent pending : batch) {
+                    pending.future.complete(false);
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes a batch cut short by an interrupt, logging rather than propagating a failure so the caller still answers
+     * the batch's futures.
+     */
+    private void writeInterrupted(List<PendingEvent> batch) {
+        try {
+            this.write(batch);
+        } catch (RuntimeException e) {
+            logger.error("Async event writer failed | batch {}", batch.size(), e);
+        }
+    }
+
+    /**
+     * Group commits the batch.  If the batch fails, the events are retried one at a time so that one bad event (e.g.
+     * a duplicate uuid) doesn't fail the others.
+     */
+    private void write(List<PendingEvent> batch) {
+        List<Event> events = new ArrayList<>(batch.size());
+        for (PendingEvent pending : batch) {
+            events.add(pending.event);
+        }
+
+        try {
+            int added = this.eventDao.addEvents(events);
+            if (added == events.size()) {
+                for (PendingEvent pending : batch) {
+                    pending.future.complete(true);
+                }
+                return;
+            }
+        } catch (Exception e) {
+            logger.warn("Couldn't add event batch, retrying individually | size {}", events.size(), e);
+        }
+
+        for (PendingEvent pending : batch) {
+            boolean wasAdded = false;
+            try {
+                wasAdded = this.eventDao.addEvent(pending.event);
+            } catch (Exception e) {
+                logger.warn("Couldn't add event | event {}", pending.event, e);
+            }
+
+            pending.future.complete(wasAdded);
+        }
+    }
+
+    /**
+     * An accepted event and the future completed when it has been written.
+     */
+    private static class PendingEvent {
+        private final Event event;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        PendingEvent(Event event) {
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package org.novalabs.event.service;
+
+import com.google.common.base.Preconditions;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.novalabs.event.domain.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fans added events out to subscribers, e.g. Server-Sent Event connections.  Publishing never blocks on a subscriber:
+ * each subscriber has a bounded buffer, and a small shared pool of dispatch threads drains the buffers into the
+ * subscribers' sinks, so idle subscribers hold no thread.  When a subscriber falls behind and its buffer is full,
+ * the {@link OverflowPolicy} either drops its oldest buffered event or closes it.  A send that blocks longer than the
+ * write timeout, e.g. to a client that stopped reading, interrupts the dispatch thread and closes the subscriber, so
+ * stalled clients can't hold the dispatch threads the other subscribers share.  Subscribers may filter by event type.
+ */
+public class EventBroadcaster implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(EventBroadcaster.class);
+    private final int bufferCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int maxSubscribers;
+    private final long writeTimeoutMillis;
+    private final ExecutorService dispatcher;
+    private final ScheduledExecutorService heartbeat;
+    private final Set<Subscription> allTypes = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Set<Subscription>> byType = new ConcurrentHashMap<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * What to do with a subscriber whose buffer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the subscriber's oldest buffered event to make room.
+         */
+        DROP,
+
+        /**
+         * Close the subscriber; a client is expected to reconnect and reload its state.
+         */
+        CLOSE
+    }
+
+    /**
+     * Receives a subscriber's events.  Methods are called by one dispatch thread at a time.
+     */
+    public interface Sink {
+        /**
+         * Sends the event to the subscriber.
+         * @param event  the event
+         * @throws IOException  if the subscriber is gone; the subscription is cancelled
+         */
+        void send(Event event) throws IOException;
+
+        /**
+         * Sends a keep-alive to the subscriber, which also detects subscribers that have gone.
+         * @throws IOException  if the subscriber is gone; the subscription is cancelled
+         */
+        void heartbeat() throws IOException;
+
+        /**
+         * Closes the subscriber, e.g. because it overflowed or the broadcaster is closing.
+         */
+        void close();
+    }
+
+    /**
+     * Creates and starts the broadcaster.
+     * @param bufferCapacity  the maximum number of events buffered for one subscriber
+     * @param overflowPolicy  what to do with a subscriber whose buffer is full
+     * @param maxSubscribers  the maximum number of subscribers
+     * @param dispatchThreads  the number of threads sending events to subscribers
+     * @param heartbeatMillis  the interval between keep-alives, in milliseconds, or 0 for none
+     * @param writeTimeoutMillis  the time a send may block before the subscriber is closed, in milliseconds, or 0 for
+     *                            no limit
+     */
+    public EventBroadcaster(int bufferCapacity, OverflowPolicy overflowPolicy, int maxSubscribers, int dispatchThreads,
+                            long heartbeatMillis, long writeTimeoutMillis) {
+        Preconditions.checkArgument(bufferCapacity > 0);
+        Preconditions.checkArgument(maxSubscribers > 0);
+        Preconditions.checkArgument(dispatchThreads > 0);
+        Preconditions.checkArgument(heartbeatMillis >= 0L);
+        Preconditions.checkArgument(writeTimeoutMillis >= 0L);
+        this.bufferCapacity = bufferCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.maxSubscribers = maxSubscribers;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.dispatcher = Executors.newFixedThreadPool(dispatchThreads, daemonThreads("event-broadcast-"));
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(daemonThreads("event-heartbeat-"));
+        if (heartbeatMillis > 0L) {
+            this.heartbeat.scheduleWithFixedDelay(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        }
+        if (writeTimeoutMillis > 0L) {
+            long interval = Math.max(writeTimeoutMillis / 4L, 1L);
+            this.heartbeat.scheduleWithFixedDelay(this::expireWrites, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Subscribes the sink to events of the types.
+     * @param types  the event types, or null (or empty) for all types
+     * @param sink  the sink the events are sent to
+     * @return  the subscription, or null if the maximum number of subscribers has been reached
+     */
+    @Nullable
+    public Subscription subscribe(@Nullable Set<String> types, Sink sink) {
+        if (this.closed || this.subscribers.incrementAndGet() > this.maxSubscribers) {
+            this.subscribers.decrementAndGet();
+            logger.warn("Subscription rejected | subscribers {} | closed {}", this.subscribers.get(), this.closed);
+            return null;
+        }
+
+        Subscription subscription = new Subscription(types == null || types.isEmpty() ? null : types, sink);
+        if (subscription.types == null) {
+            this.allTypes.add(subscription);
+        } else {
+            for (String type : subscription.types) {
+                this.byType.computeIfAbsent(type, key -> ConcurrentHashMap.newKeySet()).add(subscription);
+            }
+        }
+
+        logger.info("Subscribed | types {} | subscribers {}", subscription.types, this.subscribers.get());
+        return subscription;
+    }
+
+    /**
+     * Buffers the event for every subscriber to its type and schedules their dispatch.  Never blocks.
+     * @param event  the added event
+     */
+    public void publish(Event event) {
+        if (this.closed) {
+            return;
+        }
+
+        for (Subscription subscription : this.allTypes) {
+            subscription.offer(event);
+        }
+
+        Set<Subscription> subscriptions = this.byType.get(event.getType().getString());
+        if (subscriptions != null) {
+            for (Subscription subscription : subscriptions) {
+                subscription.offer(event);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of subscribers.
+     * @return  the subscriber count
+     */
+    public int subscriberCount() {
+        return this.subscribers.get();
+    }
+
+    /**
+     * Returns the number of events dropped because a subscriber's buffer was full.
+     * @return  the dropped count
+     */
+    public long droppedCount() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Stops dispatching and closes every subscriber.
+     */
+    public void close() {
+        this.closed = true;
+        this.heartbeat.shutdownNow();
+        this.dispatcher.shutdown();
+        for (Subscription subscription : this.allTypes) {
+            subscription.close();
+        }
+        for (Set<Subscription> subscriptions : this.byType.values()) {
+            for (Subscription subscription : subscriptions) {
+                subscription.close();
+            }
+        }
+    }
+
+    private void heartbeat() {
+        for (Subscription subscription : this.allTypes) {
+            subscription.schedule(true);
+        }
+        for (Set<Subscription> subscriptions : this.byType.values()) {
+            for (Subscription subscription : subscriptions) {
+                subscription.schedule(true);
+            }
+        }
+    }
+
+    private void expireWrites() {
+        long now = System.currentTimeMillis();
+        for (Subscription subscription : this.allTypes) {
+            subscription.expireWrite(now);
+        }
+        for (Set<Subscription> subscriptions : this.byType.values()) {
+            for (Subscription subscription : subscriptions) {
+                subscription.expireWrite(now);
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A subscriber's buffer and dispatch state.  At most one dispatch task runs for a subscriber at a time, so its
+     * sink is called by one thread at a time and sees events in publish order.
+     */
+    public class Subscription {
+        private final Set<String> types;
+        private final Sink sink;
+        private final BlockingQueue<Event> buffer;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final AtomicBoolean timedOut = new AtomicBoolean();
+        private volatile boolean heartbeatDue = false;
+        @Nullable
+        private Thread writer;
+        private long writeStarted;
+
+        Subscription(@Nullable Set<String> types, Sink sink) {
+            this.types = types;
+            this.sink = sink;
+            this.buffer = new ArrayBlockingQueue<>(EventBroadcaster.this.bufferCapacity);
+        }
+
+        /**
+         * Removes the subscription.  Events already buffered aren't sent.
+         */
+        public void cancel() {
+            if (!this.cancelled.compareAndSet(false, true)) {
+                return;
+            }
+
+            if (this.types == null) {
+                EventBroadcaster.this.allTypes.remove(this);
+            } else {
+                for (String type : this.types) {
+                    Set<Subscription> subscriptions = EventBroadcaster.this.byType.get(type);
+                    if (subscriptions != null) {
+                        subscriptions.remove(this);
+                    }
+                }
+            }
+
+            this.buffer.clear();
+            int remaining = EventBroadcaster.this.subscribers.decrementAndGet();
+            logger.info("Unsubscribed | types {} | subscribers {}", this.types, remaining);
+        }
+
+        private void offer(Event event) {
+            while (!this.buffer.offer(event)) {
+                if (EventBroadcaster.this.overflowPolicy == OverflowPolicy.CLOSE) {
+                    logger.warn("Subscriber buffer full, closing | types {} | capacity {}", this.types,
+                                EventBroadcaster.this.bufferCapacity);
+                    this.close();
+                    return;
+                }
+
+                if (this.buffer.poll() != null) {
+                    EventBroadcaster.this.dropped.incrementAndGet();
+                }
+            }
+
+            this.schedule(false);
+        }
+
+        private void schedule(boolean heartbeat) {
+            if (heartbeat) {
+                this.heartbeatDue = true;
+            }
+
+            if (!this.cancelled.get() && this.scheduled.compareAndSet(false, true)) {
+                try {
+                    EventBroadcaster.this.dispatcher.execute(this::dispatch);
+                } catch (RejectedExecutionException e) {
+                    this.scheduled.set(false);
+                }
+            }
+        }
+
+        private void dispatch() {
+            try {
+                Event event;
+                while (!this.cancelled.get() && (event = this.buffer.poll()) != null) {
+                    this.writeStarted();
+                    this.sink.send(event);
+                    this.writeFinished();
+                    this.heartbeatDue = false;
+                }
+
+                if (this.heartbeatDue && !this.cancelled.get()) {
+                    this.heartbeatDue = false;
+                    this.writeStarted();
+                    this.sink.heartbeat();
+                    this.writeFinished();
+                }
+            } catch (IOException | RuntimeException e) {
+                this.writeFinished();
+                logger.info("Subscriber gone | types {} | reason {}", this.types, e.toString());
+                this.cancel();
+                return;
+            } finally {
+                this.scheduled.set(false);
+                if (this.timedOut.compareAndSet(true, false)) {
+                    this.closeSink();
+                }
+            }
+
+            // an event buffered after the last poll but before the flag was cleared
+            if (!this.buffer.isEmpty()) {
+                this.schedule(false);
+            }
+        }
+
+        private synchronized void writeStarted() {
+            this.writer = Thread.currentThread();
+            this.writeStarted = System.currentTimeMillis();
+        }
+
+        private void writeFinished() {
+            synchronized (this) {
+                this.writer = null;
+            }
+            // clears an interrupt from a timeout that raced the end of the write, so it can't hit the next subscriber
+            Thread.interrupted();
+        }
+
+        /**
+         * Cancels the subscriber if a send has been blocked longer than the write timeout and interrupts the dispatch
+         * thread blocked in it.  The sink is closed by the dispatch thread once the send returns, since the sink may
+         * hold a lock for the whole send.
+         */
+        private void expireWrite(long now) {
+            synchronized (this) {
+                if (this.writer == null || now - this.writeStarted < EventBroadcaster.this.writeTimeoutMillis) {
+                    return;
+                }
+
+                this.timedOut.set(true);
+                this.writer.interrupt();
+            }
+
+            if (!this.cancelled.get()) {
+                logger.warn("Subscriber write timed out, closing | types {} | timeout {}", this.types,
+                            EventBroadcaster.this.writeTimeoutMillis);
+                this.cancel();
+            }
+        }
+
+        private void close() {
+            this.cancel();
+            this.closeSink();
+        }
+
+        private void closeSink() {
+            try {
+                this.sink.close();
+            } catch (RuntimeException e) {
+                logger.debug("Couldn't close subscriber | types {}", this.types, e);
+            }
+        }
+    }
+}
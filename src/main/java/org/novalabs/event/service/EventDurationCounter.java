@@ -0,0 +1,81 @@
+package org.novalabs.event.service;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import org.novalabs.event.dao.EventBucketCounter;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventDurationBucket;
+import org.novalabs.event.domain.EventDurations;
+
+/**
+ * Accumulates the time spent in each event value from events passed to it in reverse chronological order, as
+ * {@code EventDao.streamEvents} delivers them.  Each event's value holds from its time until the time of the event
+ * that follows it (the previous one passed), or the end of the window.  Only the totals and the per bucket times are
+ * retained, so memory use depends on the number of values and buckets, not the number of events.
+ */
+class EventDurationCounter implements Consumer<Event> {
+    private final long earliest;
+    private final long latest;
+    private final long bucketMillis;
+    private final Map<String, Long> millis = new TreeMap<>();
+    private final TreeMap<Long, EventDurationBucket> buckets = new TreeMap<>();
+    private long segmentEnd;
+
+    /**
+     * Creates a counter for the window.
+     * @param earliest  the start of the window, inclusive, in milliseconds since the epoch
+     * @param latest  the end of the window, exclusive, in milliseconds since the epoch
+     * @param bucketMillis  the bucket size in milliseconds, or 0 to only total the window
+     */
+    EventDurationCounter(long earliest, long latest, long bucketMillis) {
+        Preconditions.checkArgument(earliest <= latest);
+        Preconditions.checkArgument(bucketMillis >= 0L);
+        this.earliest = earliest;
+        this.latest = latest;
+        this.bucketMillis = bucketMillis;
+        this.segmentEnd = latest;
+    }
+
+    /**
+     * Attributes the time from the event until the following event to the event's value.
+     * @param event  the event, no later than the previous event passed
+     */
+    public void accept(Event event) {
+        long start = Math.max(event.getEpochMillis(), this.earliest);
+        if (start < this.segmentEnd) {
+            this.add(event.getValue().getString(), start, this.segmentEnd);
+            this.segmentEnd = start;
+        }
+    }
+
+    /**
+     * Attributes the time from the start of the window until the earliest event passed to the state the type was in
+     * when the window started, and returns the durations.
+     * @param type  the event type
+     * @param before  the last event before the window, or null if there is none
+     * @return  the durations
+     */
+    EventDurations durations(String type, @Nullable Event before) {
+        if (before != null && this.earliest < this.segmentEnd) {
+            this.add(before.getValue().getString(), this.earliest, this.segmentEnd);
+            this.segmentEnd = this.earliest;
+        }
+
+        return new EventDurations(type, this.earliest, this.latest, this.bucketMillis, this.millis,
+                                  new ArrayList<>(this.buckets.values()));
+    }
+
+    private void add(String value, long start, long end) {
+        this.millis.merge(value, end - start, Long::sum);
+        if (this.bucketMillis > 0L) {
+            for (long bucket = EventBucketCounter.bucketStart(start, this.bucketMillis); bucket < end; bucket += this.bucketMillis) {
+                long overlap = Math.min(end, bucket + this.bucketMillis) - Math.max(start, bucket);
+                this.buckets.computeIfAbsent(bucket, EventDurationBucket::new).add(value, overlap);
+            }
+        }
+    }
+}
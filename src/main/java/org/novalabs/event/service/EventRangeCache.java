@@ -0,0 +1,257 @@
+package org.novalabs.event.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.novalabs.event.dao.EventDaoException;
+import org.novalabs.event.domain.Event;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+/**
+ * Read-through cache of the events of a type in a time range, for the ranges dashboards request repeatedly.
+ * <p>
+ * A range is widened to whole buckets before it is loaded and cached, so requests for "the last 24 hours" made within
+ * the same bucket share an entry; each request is answered with the events of its exact range.  The cache is bounded
+ * by the total number of events held, least recently used entries evicted first, and ranges with more than a
+ * maximum number of events aren't cached.  An added event evicts only the entries of its type whose range contains
+ * its time.  A range loaded while events of its type are added isn't kept, since it may not include them.  Hit, miss
+ * and eviction counts are published on the actuator {@code /metrics} endpoint.
+ */
+public class EventRangeCache implements PublicMetrics {
+    private static final String PREFIX = "event.cache.range.";
+    private final long bucketMillis;
+    private final int maxEntryEvents;
+    private final Cache<RangeKey, List<Event>> cache;
+    private final ConcurrentMap<String, AtomicLong> typeWrites = new ConcurrentHashMap<>();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder uncacheable = new LongAdder();
+
+    /**
+     * Loads the events of a type in a range from the store.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * Returns the events of the type between the earliest and latest times, inclusive, in reverse chronological
+         * order.
+         * @param eventType  the event type
+         * @param earliestTime  the earliest event time, inclusive
+         * @param latestTime  the latest event time, inclusive
+         * @return  the events
+         * @throws EventDaoException  if the events couldn't be loaded
+         */
+        List<Event> load(String eventType, Instant earliestTime, Instant latestTime) throws EventDaoException;
+    }
+
+    /**
+     * Creates the cache.
+     * @param bucketMillis  the size of the buckets ranges are widened to, in milliseconds
+     * @param maxEvents  the maximum number of events held, across entries
+     * @param maxEntryEvents  the maximum number of events in a cached range
+     * @param expireAfterWriteMillis  the time after which an entry is evicted regardless, in milliseconds
+     */
+    public EventRangeCache(long bucketMillis, long maxEvents, int maxEntryEvents, long expireAfterWriteMillis) {
+        this.bucketMillis = bucketMillis;
+        this.maxEntryEvents = maxEntryEvents;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxEvents)
+                .weigher((RangeKey key, List<Event> events) -> 1 + events.size())
+                .expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the events of the type between the earliest and latest times, inclusive, in reverse chronological order,
+     * from the cache or else loaded by the loader for the bucket-aligned range.  The returned list is unmodifiable.
+     * @param eventType  the event type
+     * @param earliestTime  the earliest event time, inclusive
+     * @param latestTime  the latest event time, inclusive
+     * @param loader  the loader of the events from the store
+     * @return  the events
+     * @throws EventDaoException  if the events couldn't be loaded
+     */
+    public List<Event> get(String eventType, Instant earliestTime, Instant latestTime, Loader loader) throws EventDaoException {
+        long earliest = earliestTime.toEpochMilli();
+        long latest = latestTime.toEpochMilli();
+        if (earliest > latest) {
+            return Collections.emptyList();
+        }
+
+        RangeKey key = new RangeKey(eventType, Math.floorDiv(earliest, this.bucketMillis) * this.bucketMillis,
+                                    Math.floorDiv(latest, this.bucketMillis) * this.bucketMillis + this.bucketMillis - 1L);
+        List<Event> events = this.cache.getIfPresent(key);
+        if (events == null) {
+            long writes = this.writes(eventType);
+            events = ImmutableList.copyOf(loader.load(eventType, Instant.ofEpochMilli(key.earliest), Instant.ofEpochMilli(key.latest)));
+            if (events.size() > this.maxEntryEvents) {
+                this.uncacheable.increment();
+            } else {
+                this.cache.put(key, events);
+                // an event added during the load may be missing; evicting after the put can't miss the invalidation
+                if (this.writes(eventType) != writes) {
+                    this.cache.invalidate(key);
+                }
+            }
+        }
+
+        return slice(events, earliest, latest);
+    }
+
+    /**
+     * Evicts the cached ranges containing the time of any of the events, which have been added.
+     * @param events  the added events
+     */
+    public void invalidate(Collection<Event> events) {
+        Map<String, List<Long>> times = new HashMap<>();
+        for (Event event : events) {
+            String type = event.getType().getString();
+            this.typeWrites.computeIfAbsent(type, t -> new AtomicLong()).incrementAndGet();
+            times.computeIfAbsent(type, t -> new ArrayList<>()).add(event.getEpochMillis());
+        }
+
+        Map<String, long[]> sortedTimes = new HashMap<>();
+        times.forEach((type, list) -> {
+            long[] sorted = list.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            sortedTimes.put(type, sorted);
+        });
+
+        for (RangeKey key : this.cache.asMap().keySet()) {
+            long[] sorted = sortedTimes.get(key.type);
+            if (sorted != null && key.containsAny(sorted)) {
+                this.cache.invalidate(key);
+                this.invalidations.increment();
+            }
+        }
+    }
+
+    /**
+     * Evicts every cached range of the type, e.g. after events have been removed.
+     * @param eventType  the event type
+     */
+    public void invalidate(String eventType) {
+        this.typeWrites.computeIfAbsent(eventType, t -> new AtomicLong()).incrementAndGet();
+        for (RangeKey key : this.cache.asMap().keySet()) {
+            if (key.type.equals(eventType)) {
+                this.cache.invalidate(key);
+                this.invalidations.increment();
+            }
+        }
+    }
+
+    /**
+     * Returns the cache statistics.
+     * @return  the statistics
+     */
+    public CacheStats stats() {
+        return this.cache.stats();
+    }
+
+    /**
+     * Returns the cache metrics.
+     * @return  the metrics
+     */
+    @Override
+    public Collection<Metric<?>> metrics() {
+        CacheStats stats = this.cache.stats();
+        Collection<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>(PREFIX + "entries", this.cache.size()));
+        metrics.add(new Metric<>(PREFIX + "hits", stats.hitCount()));
+        metrics.add(new Metric<>(PREFIX + "misses", stats.missCount()));
+        metrics.add(new Metric<>(PREFIX + "hitRatio", stats.hitRate()));
+        metrics.add(new Metric<>(PREFIX + "evictions", stats.evictionCount()));
+        metrics.add(new Metric<>(PREFIX + "invalidations", this.invalidations.sum()));
+        metrics.add(new Metric<>(PREFIX + "uncacheable", this.uncacheable.sum()));
+        return metrics;
+    }
+
+    private long writes(String eventType) {
+        AtomicLong writes = this.typeWrites.get(eventType);
+        return writes == null ? 0L : writes.get();
+    }
+
+    /**
+     * Returns the events, in reverse chronological order, between the earliest and latest times, inclusive.
+     */
+    private static List<Event> slice(List<Event> events, long earliest, long latest) {
+        int from = firstAtOrBefore(events, latest);
+        int to = firstAtOrBefore(events, earliest - 1L);
+        return from == 0 && to == events.size() ? events : events.subList(from, to);
+    }
+
+    /**
+     * Returns the index of the first event at or before the time, or the size of the list if none.
+     */
+    private static int firstAtOrBefore(List<Event> events, long epochMillis) {
+        int low = 0;
+        int high = events.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (events.get(middle).getEpochMillis() > epochMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * A type and bucket-aligned range, inclusive.
+     */
+    private static final class RangeKey {
+        private final String type;
+        private final long earliest;
+        private final long latest;
+
+        private RangeKey(String type, long earliest, long latest) {
+            this.type = type;
+            this.earliest = earliest;
+            this.latest = latest;
+        }
+
+        /**
+         * Returns whether any of the sorted times is in the range.
+         */
+        private boolean containsAny(long[] sorted) {
+            int index = Arrays.binarySearch(sorted, this.earliest);
+            int insertion = index >= 0 ? index : -index - 1;
+            return insertion < sorted.length && sorted[insertion] <= this.latest;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (!(obj instanceof RangeKey)) {
+                return false;
+            }
+
+            RangeKey rhs = (RangeKey) obj;
+            return this.earliest == rhs.earliest && this.latest == rhs.latest && this.type.equals(rhs.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.type, this.earliest, this.latest);
+        }
+    }
+}
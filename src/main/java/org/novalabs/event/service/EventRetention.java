@@ -0,0 +1,358 @@
+package org.novalabs.event.service;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.RateLimiter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.novalabs.event.util.TimingUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+/**
+ * Applies per-type retention {@link Rule}s in the background, e.g. "keep the raw events of mongo 90 days and its
+ * hourly rollups 2 years".  Each pass deletes the expired raw events, then the expired rollups, of every type in
+ * batches, rate limited to a number of rows per second so live queries don't stall behind the deletes.  The rollups
+ * already summarize the raw events, so a store with rollups keeps the counts of the deleted events.
+ * <p>
+ * Progress and lag are published on the actuator {@code /metrics} endpoint.  The lag is the time since the start of
+ * the last pass that completed: no stored row is older than its retention by more than that.
+ */
+public class EventRetention implements PublicMetrics {
+    /** The granularity of the rule for raw events. */
+    public static final long RAW = 0L;
+    private static final String PREFIX = "event.retention.";
+    private static final Logger logger = LoggerFactory.getLogger(EventRetention.class);
+    private final EventService eventService;
+    private final List<Rule> rules;
+    private final long intervalMillis;
+    private final int batchSize;
+    private final RateLimiter rateLimiter;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final LongAdder passes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder deleted = new LongAdder();
+    private final LongAdder rollupsDeleted = new LongAdder();
+    private volatile boolean stopped = false;
+    private volatile long lastPassMillis;
+    private volatile long lastCompletedStart;
+    private volatile int passTypes;
+    private volatile int passTypesDone;
+    private volatile long passDeleted;
+    // only read and written by the pass holding running
+    private boolean passCountsChanged;
+
+    /**
+     * A retention rule: the raw events, or the rollups of a granularity, of a type, or of every type, are kept for
+     * the retention period.  A rule for a type overrides the rule for every type of the same granularity.
+     */
+    public static final class Rule {
+        /** The type of a rule for every type. */
+        public static final String ALL_TYPES = "*";
+        private static final Pattern DURATION = Pattern.compile("(\\d+)(ms|s|m|h|d)");
+        private final String type;
+        private final long granularityMillis;
+        private final long retentionMillis;
+
+        /**
+         * Creates the rule.
+         * @param type  the event type, or {@link #ALL_TYPES}
+         * @param granularityMillis  the rollup granularity in milliseconds, or {@link EventRetention#RAW} for the raw events
+         * @param retentionMillis  the retention period in milliseconds
+         */
+        public Rule(String type, long granularityMillis, long retentionMillis) {
+            Preconditions.checkArgument(granularityMillis >= 0L);
+            Preconditions.checkArgument(retentionMillis > 0L);
+            this.type = type;
+            this.granularityMillis = granularityMillis;
+            this.retentionMillis = retentionMillis;
+        }
+
+        /**
+         * Parses rules written {@code type:granularity=retention}, separated by commas, e.g.
+         * {@code mongo:raw=90d,mongo:hour=730d,*:raw=365d}.  The granularity is raw, minute, hour or day and the
+         * retention a number of ms, s, m, h or d.
+         * @param rules  the rules, or an empty string for none
+         * @return  the rules
+         * @throws IllegalArgumentException  if a rule is malformed
+         */
+        public static List<Rule> parse(String rules) {
+            List<Rule> parsed = new ArrayList<>();
+            for (String rule : rules.split(",")) {
+                rule = rule.trim();
+                if (rule.isEmpty()) {
+                    continue;
+                }
+
+                int equals = rule.lastIndexOf('=');
+                int colon = equals < 0 ? -1 : rule.lastIndexOf(':', equals);
+                Matcher retention = DURATION.matcher(equals < 0 ? "" : rule.substring(equals + 1).trim());
+                if (colon <= 0 || !retention.matches()) {
+                    throw new IllegalArgumentException("Invalid retention rule | rule " + rule);
+                }
+
+                long granularity = granularity(rule.substring(colon + 1, equals).trim(), rule);
+                parsed.add(new Rule(rule.substring(0, colon).trim(), granularity,
+                                    unit(retention.group(2)).toMillis(Long.parseLong(retention.group(1)))));
+            }
+
+            return parsed;
+        }
+
+        /**
+         * Returns the event type the rule applies to, or {@link #ALL_TYPES}.
+         * @return  the event type
+         */
+        public String getType() {
+            return this.type;
+        }
+
+        /**
+         * Returns the rollup granularity the rule expires, or {@link EventRetention#RAW} for the raw events.
+         * @return  the granularity in milliseconds
+         */
+        public long getGranularityMillis() {
+            return this.granularityMillis;
+        }
+
+        /**
+         * Returns how long data of the rule's granularity is kept.
+         * @return  the retention in milliseconds
+         */
+        public long getRetentionMillis() {
+            return this.retentionMillis;
+        }
+
+        private static long granularity(String name, String rule) {
+            switch (name.toLowerCase(Locale.ROOT)) {
+                case "raw":
+                    return RAW;
+                case "minute":
+                    return TimeUnit.MINUTES.toMillis(1L);
+                case "hour":
+                    return TimeUnit.HOURS.toMillis(1L);
+                case "day":
+                    return TimeUnit.DAYS.toMillis(1L);
+                default:
+                    throw new IllegalArgumentException("Invalid retention rule granularity | rule " + rule);
+            }
+        }
+
+        private static TimeUnit unit(String unit) {
+            switch (unit) {
+                case "ms":
+                    return TimeUnit.MILLISECONDS;
+                case "s":
+                    return TimeUnit.SECONDS;
+                case "m":
+                    return TimeUnit.MINUTES;
+                case "h":
+                    return TimeUnit.HOURS;
+                default:
+                    return TimeUnit.DAYS;
+            }
+        }
+    }
+
+    /**
+     * Creates the retention, which runs once {@link #start()}ed.  Rollups must be kept at least as long as the raw
+     * events they count, since counts over buckets without rollups would miss the events still stored.
+     * @param eventService  the service the events are deleted through
+     * @param rules  the rules
+     * @param intervalMillis  the time between the end of a pass and the start of the next, in milliseconds
+     * @param batchSize  the number of rows deleted in one call to the store
+     * @param rowsPerSecond  the maximum rate of deletes
+     * @throws IllegalArgumentException  if a type's rollups would be kept for less time than its raw events
+     */
+    public EventRetention(EventService eventService, List<Rule> rules, long intervalMillis, int batchSize, double rowsPerSecond) {
+        Preconditions.checkArgument(intervalMillis > 0L);
+        Preconditions.checkArgument(batchSize > 0);
+        Preconditions.checkArgument(rowsPerSecond > 0.0);
+        this.eventService = eventService;
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        this.intervalMillis = intervalMillis;
+        this.batchSize = batchSize;
+        this.rateLimiter = RateLimiter.create(rowsPerSecond);
+
+        Set<String> types = new LinkedHashSet<>();
+        types.add(Rule.ALL_TYPES);
+        rules.forEach(rule -> types.add(rule.getType()));
+        for (String type : types) {
+            Map<Long, Long> retention = this.retention(type);
+            Long raw = retention.get(RAW);
+            for (Map.Entry<Long, Long> rule : retention.entrySet()) {
+                if (rule.getKey() != RAW && (raw == null || raw > rule.getValue())) {
+                    throw new IllegalArgumentException("Rollups must be kept at least as long as raw events | type " + type
+                                                       + " | granularity " + rule.getKey());
+                }
+            }
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules the passes, the first after one interval.
+     */
+    public void start() {
+        this.scheduler.scheduleWithFixedDelay(this::runPass, this.intervalMillis, this.intervalMillis, TimeUnit.MILLISECONDS);
+        logger.info("Retention started | rules {} | interval {} | batch {} | rate {}", this.rules.size(), this.intervalMillis,
+                    this.batchSize, this.rateLimiter.getRate());
+    }
+
+    /**
+     * Stops the passes; a pass in progress ends after its current batch.
+     */
+    public void stop() {
+        this.stopped = true;
+        this.scheduler.shutdownNow();
+    }
+
+    /**
+     * Runs a pass on the caller's thread, unless one is already running.  Every event type is visited; a type whose
+     * deletes fail is left for the next pass.  After events or day rollups were deleted, the service's counts are
+     * resynced with the store; a store that keeps rollups sums its counts from the day rollups, so deleting those lowers
+     * them even when no event was deleted.
+     */
+    public void runPass() {
+        if (!this.running.compareAndSet(false, true)) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            boolean complete = true;
+            List<String> types = this.eventService.allEventTypes();
+            this.passTypes = types.size();
+            this.passTypesDone = 0;
+            this.passDeleted = 0L;
+            this.passCountsChanged = false;
+            for (String type : types) {
+                long typeStart = System.currentTimeMillis();
+                long deletedBefore = this.deleted.sum();
+                long rollupsDeletedBefore = this.rollupsDeleted.sum();
+                for (Map.Entry<Long, Long> rule : this.retention(type).entrySet()) {
+                    complete &= this.expire(type, rule.getKey(), Instant.ofEpochMilli(start - rule.getValue()));
+                }
+
+                long typeDeleted = this.deleted.sum() - deletedBefore;
+                long typeRollupsDeleted = this.rollupsDeleted.sum() - rollupsDeletedBefore;
+                if (typeDeleted > 0L || typeRollupsDeleted > 0L) {
+                    logger.info("Retention applied | type {} | events deleted {} | rollups deleted {} | duration {}", type,
+                                typeDeleted, typeRollupsDeleted, TimingUtils.duration(typeStart));
+                }
+                ++this.passTypesDone;
+            }
+
+            if (this.passCountsChanged) {
+                this.eventService.verifyEventCounts(true);
+            }
+
+            this.passes.increment();
+            if (complete) {
+                this.lastCompletedStart = start;
+            }
+        } catch (RuntimeException e) {
+            this.failures.increment();
+            logger.error("Retention pass failed", e);
+        } finally {
+            this.lastPassMillis = TimingUtils.duration(start);
+            this.running.set(false);
+        }
+    }
+
+    /**
+     * Returns the retention metrics.
+     * @return  the metrics
+     */
+    @Override
+    public Collection<Metric<?>> metrics() {
+        long lastCompleted = this.lastCompletedStart;
+        Collection<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>(PREFIX + "running", this.running.get() ? 1 : 0));
+        metrics.add(new Metric<>(PREFIX + "passes", this.passes.sum()));
+        metrics.add(new Metric<>(PREFIX + "failures", this.failures.sum()));
+        metrics.add(new Metric<>(PREFIX + "deleted", this.deleted.sum()));
+        metrics.add(new Metric<>(PREFIX + "rollupsDeleted", this.rollupsDeleted.sum()));
+        metrics.add(new Metric<>(PREFIX + "lastPassMs", this.lastPassMillis));
+        metrics.add(new Metric<>(PREFIX + "lagMs", lastCompleted == 0L ? -1L : TimingUtils.duration(lastCompleted)));
+        metrics.add(new Metric<>(PREFIX + "pass.types", this.passTypes));
+        metrics.add(new Metric<>(PREFIX + "pass.typesDone", this.passTypesDone));
+        metrics.add(new Metric<>(PREFIX + "pass.deleted", this.passDeleted));
+        return metrics;
+    }
+
+    /**
+     * Returns the retention of the type's raw events and rollups, keyed by granularity, raw first.
+     */
+    Map<Long, Long> retention(String type) {
+        Map<Long, Long> retention = new TreeMap<>();
+        for (Rule rule : this.rules) {
+            if (rule.getType().equals(Rule.ALL_TYPES)) {
+                retention.put(rule.getGranularityMillis(), rule.getRetentionMillis());
+            }
+        }
+        for (Rule rule : this.rules) {
+            if (rule.getType().equals(type)) {
+                retention.put(rule.getGranularityMillis(), rule.getRetentionMillis());
+            }
+        }
+
+        return retention;
+    }
+
+    /**
+     * Deletes the type's raw events, or rollups of the granularity, older than the time in rate limited batches until
+     * a batch comes up short.  Returns false if a batch failed or the retention was stopped first.
+     */
+    private boolean expire(String type, long granularity, Instant before) {
+        while (!this.stopped) {
+            int rows = granularity == RAW ? this.eventService.deleteEvents(type, before, this.batchSize)
+                                          : this.eventService.deleteRollups(type, granularity, before, this.batchSize);
+            if (rows < 0) {
+                this.failures.increment();
+                return false;
+            }
+
+            if (granularity == RAW) {
+                this.deleted.add(rows);
+                this.passDeleted += rows;
+            } else {
+                this.rollupsDeleted.add(rows);
+            }
+
+            if (rows > 0 && (granularity == RAW || granularity == TimeUnit.DAYS.toMillis(1L))) {
+                this.passCountsChanged = true;
+            }
+
+            if (rows < this.batchSize) {
+                return true;
+            }
+
+            this.rateLimiter.acquire(rows);
+        }
+
+        return false;
+    }
+}
@@ -2,22 +2,77 @@
 package org.novalabs.event.service;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 import org.novalabs.event.dao.EventDao;
 import org.novalabs.event.dao.EventDaoException;
 import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventBucket;
 import org.novalabs.event.domain.EventCount;
+import org.novalabs.event.domain.EventCountDiscrepancy;
+import org.novalabs.event.domain.EventCursor;
+import org.novalabs.event.domain.EventDurations;
+import org.novalabs.event.domain.EventHistogram;
+import org.novalabs.event.util.SingleFlight;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * The EventService provides the core business logic of the Event Service.
+ * <p>
+ * The service keeps the latest event and the count of events of each type in memory.  Both are seeded from the DAO by
+ * {@link #start()} and updated after every successful add, so the latest event and count queries don't touch the DAO.
+ * They only reflect events added through this instance; until they have been seeded, those queries fall through to
+ * the DAO.
+ * <p>
+ * Every successful add also advances the service's {@link EventVersion}, globally and for the event's type, after the
+ * in-memory state has been updated.  A version read before the state therefore never describes newer data than the
+ * state, which lets the controller answer conditional requests without reading the state at all.
+ * <p>
+ * With an {@link EventRangeCache}, range queries are answered from the cache; added events evict the cached ranges
+ * containing them before they are published to subscribers.
+ * <p>
+ * Concurrent identical reads that go to the DAO share one call through a {@link SingleFlight}.  The flights are
+ * keyed by the query and the version of the data it reads, so a caller arriving after an add never joins a read
+ * started before it.
  */
 public class EventService {
     private static final Logger logger = LoggerFactory.getLogger(EventService.class);
     private final EventDao eventDao;
+    private final ConcurrentMap<String, Event> latestEvents = new ConcurrentHashMap<>();
+    private volatile boolean latestEventsSeeded = false;
+    private final ConcurrentMap<String, EventCounter> eventCounts = new ConcurrentHashMap<>();
+    private volatile boolean eventCountsSeeded = false;
+    private volatile AsyncEventWriter asyncWriter;
+    private volatile EventBroadcaster broadcaster;
+    private volatile EventRangeCache rangeCache;
+    private final EventVersion initialVersion = new EventVersion(Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36),
+                                                                 0L, System.currentTimeMillis());
+    private final AtomicReference<EventVersion> version = new AtomicReference<>(this.initialVersion);
+    private final ConcurrentMap<String, EventVersion> typeVersions = new ConcurrentHashMap<>();
+    private final SingleFlight<Long, List<String>> typesFlights = new SingleFlight<>();
+    private final SingleFlight<Long, List<Event>> latestEventsFlights = new SingleFlight<>();
+    private final SingleFlight<List<Object>, Event> latestEventFlights = new SingleFlight<>();
+    private final SingleFlight<List<Object>, List<Event>> findFlights = new SingleFlight<>();
 
     /**
      * Creates an {@code EventService} with the dao to use for persistence.
@@ -27,6 +82,117 @@ public class EventService {
         this.eventDao = eventDao;
     }
 
+    /**
+     * Enables asynchronous (write-behind) ingest: {@link #submitEvent(Event)} queues events and a writer thread group
+     * commits them in batches.
+     * @param queueCapacity  the maximum number of events waiting to be written
+     * @param batchSize  the maximum number of events written in one batch
+     * @param maxDelayMillis  the maximum time an event waits for its batch to fill, in milliseconds
+     */
+    public synchronized void enableAsyncIngest(int queueCapacity, int batchSize, long maxDelayMillis) {
+        if (this.asyncWriter == null) {
+            this.asyncWriter = new AsyncEventWriter(this.eventDao, queueCapacity, batchSize, maxDelayMillis);
+            logger.info("Async ingest enabled | capacity {} | batch {} | max delay {}", queueCapacity, batchSize, maxDelayMillis);
+        }
+    }
+
+    /**
+     * Enables push: every successfully added event is published to the broadcaster's subscribers.
+     * @param broadcaster  the broadcaster
+     */
+    public void enableBroadcast(EventBroadcaster broadcaster) {
+        this.broadcaster = broadcaster;
+        logger.info("Event broadcast enabled");
+    }
+
+    /**
+     * Enables the range cache: {@link #findEvents(String, Instant, Instant)} reads through it and added events evict the
+     * ranges containing them.
+     * @param rangeCache  the range cache
+     */
+    public void enableRangeCache(EventRangeCache rangeCache) {
+        this.rangeCache = rangeCache;
+        logger.info("Range cache enabled");
+    }
+
+    /**
+     * Subscribes the sink to events of the types as they are added.
+     * @param types  the event types, or null for all types
+     * @param sink  the sink the events are sent to
+     * @return  the subscription, or null if push isn't enabled or there are too many subscribers
+     */
+    @Nullable
+    public EventBroadcaster.Subscription subscribe(@Nullable Set<String> types, EventBroadcaster.Sink sink) {
+        EventBroadcaster eventBroadcaster = this.broadcaster;
+        return eventBroadcaster == null ? null : eventBroadcaster.subscribe(types, sink);
+    }
+
+    /**
+     * Returns the version of the events, advanced by every event added through this service.  It versions the latest
+     * events and the event types.
+     * @return  the version
+     */
+    public EventVersion version() {
+        return this.version.get();
+    }
+
+    /**
+     * Returns the version of the events of the type, advanced by every event of the type added through this service.
+     * It versions the latest event of the type.
+     * @param eventType  the event type
+     * @return  the version
+     */
+    public EventVersion version(String eventType) {
+        return this.typeVersions.getOrDefault(eventType, this.initialVersion);
+    }
+
+    /**
+     * Returns whether asynchronous ingest is enabled.
+     * @return  whether events are written behind
+     */
+    public boolean isAsyncIngest() {
+        return this.asyncWriter != null;
+    }
+
+    /**
+     * Starts the service, seeding the latest event and count of events of each type from the DAO.
+     */
+    public void start() {
+        try {
+            for (Event event : this.eventDao.findLatestEvents()) {
+                this.latestEvents.merge(event.getType().getString(), event, EventService::newer);
+            }
+
+            this.latestEventsSeeded = true;
+            logger.info("Latest events seeded | types {}", this.latestEvents.size());
+        } catch (EventDaoException e) {
+            logger.error("Couldn't seed latest events, falling back to the DAO", e);
+        }
+
+        try {
+            for (Map.Entry<String, Long> count : this.eventDao.countEventsByType().entrySet()) {
+                this.eventCounter(count.getKey()).count.add(count.getValue());
+            }
+
+            this.eventCountsSeeded = true;
+            logger.info("Event counts seeded | types {}", this.eventCounts.size());
+        } catch (EventDaoException e) {
+            logger.error("Couldn't seed event counts, falling back to the DAO", e);
+        }
+    }
+
+    /**
+     * Stops the service.  With asynchronous ingest, no further events are accepted and all queued events are written
+     * before this returns.
+     */
+    public void stop() {
+        AsyncEventWriter writer = this.asyncWriter;
+        if (writer != null) {
+            logger.info("Draining async ingest queue | size {}", writer.queueSize());
+            writer.stop();
+        }
+    }
+
     /**
      * Returns all event types.
      * @return  the event types.
@@ -34,7 +200,7 @@ public class EventService {
     public List<String> allEventTypes() {
         List types;
         try {
-            types = this.eventDao.findAllTypes();
+            types = this.typesFlights.execute(this.version().getVersion(), this.eventDao::findAllTypes);
         } catch (Exception e) {
             logger.warn("Couldn't retrieve event types", e);
             types = Collections.emptyList();
@@ -50,16 +216,104 @@ public class EventService {
      */
     public boolean addEvent(Event event) {
         boolean wasAdded = false;
-
+        List<Event> events = Collections.singletonList(event);
+        Set<EventCounter> counters = this.addsStarted(events);
         try {
             wasAdded = this.eventDao.addEvent(event);
         } catch (Exception e) {
             logger.warn("Couldn't add event | event {}", event, e);
         }
 
+        try {
+            if (wasAdded) {
+                this.eventsAdded(events);
+            }
+        } finally {
+            addsFinished(counters);
+        }
+
         return wasAdded;
     }
 
+    /**
+     * Submits the {@code Event} to be added.  With asynchronous ingest the event is queued and the returned future
+     * completes once it has been written; otherwise the event is added before this returns.
+     * @param event  the event
+     * @return  the future completed with whether the event was added, or null if the ingest queue is full
+     */
+    @Nullable
+    public CompletableFuture<Boolean> submitEvent(Event event) {
+        AsyncEventWriter writer = this.asyncWriter;
+        if (writer == null) {
+            return CompletableFuture.completedFuture(this.addEvent(event));
+        }
+
+        List<Event> events = Collections.singletonList(event);
+        Set<EventCounter> counters = this.addsStarted(events);
+        CompletableFuture<Boolean> future = writer.submit(event);
+        if (future == null) {
+            addsFinished(counters);
+            logger.warn("Ingest queue full, event rejected | event {}", event);
+        } else {
+            future.thenAccept(wasAdded -> {
+                try {
+                    if (wasAdded) {
+                        this.eventsAdded(events);
+                    }
+                } finally {
+                    addsFinished(counters);
+                }
+            });
+        }
+
+        return future;
+    }
+
+    /**
+     * Adds the events as a single unit of work and returns whether all of them were added.  If not, none were.
+     * @param events  the events
+     * @return  whether the events were successfully added
+     */
+    public boolean addEvents(Collection<Event> events) {
+        boolean wereAdded = false;
+        Set<EventCounter> counters = this.addsStarted(events);
+        try {
+            wereAdded = this.eventDao.addEvents(events) == events.size();
+        } catch (Exception e) {
+            logger.warn("Couldn't add events | size {}", events.size(), e);
+        }
+
+        try {
+            if (wereAdded) {
+                this.eventsAdded(events);
+            }
+        } finally {
+            addsFinished(counters);
+        }
+
+        return wereAdded;
+    }
+
+    /**
+     * Undoes the in-memory effects of an event that was acknowledged as added but then dropped by the store: its
+     * count, the latest event of its type if it was that event, the versions and the cached ranges containing it.
+     * @param event  the dropped event
+     * @param latest  the latest stored event of the event's type, or null if there is none
+     */
+    public void eventDropped(Event event, @Nullable Event latest) {
+        String type = event.getType().getString();
+        logger.warn("Acknowledged event dropped by the store | event {}", event);
+        this.eventCounter(type).count.decrement();
+        this.latestEvents.computeIfPresent(type, (key, current) -> current.getUuid().equals(event.getUuid()) ? latest : current);
+        long now = System.currentTimeMillis();
+        this.typeVersions.compute(type, (key, current) -> (current == null ? this.initialVersion : current).next(now));
+        this.version.updateAndGet(current -> current.next(now));
+        EventRangeCache cache = this.rangeCache;
+        if (cache != null) {
+            cache.invalidate(Collections.singletonList(event));
+        }
+    }
+
     /**
      * Returns the latest {@code Event} for the event type.
      * @param eventType  the event type
@@ -67,10 +321,15 @@ public class EventService {
      */
     @Nullable
     public Event latestEvent(String eventType) {
+        if (this.latestEventsSeeded) {
+            return this.latestEvents.get(eventType);
+        }
+
         Event event = null;
 
         try {
-            event = this.eventDao.findLatestEvent(eventType);
+            event = this.latestEventFlights.execute(this.flightKey(eventType),
+                                                    () -> this.eventDao.findLatestEvent(eventType));
         } catch (EventDaoException e) {
             logger.error("Couldn't retrieve findLatestEvent", e);
         }
@@ -83,9 +342,15 @@ public class EventService {
      * @return  the list of latest events
      */
     public List<Event> latestEvents() {
+        if (this.latestEventsSeeded) {
+            List<Event> events = new ArrayList<>(this.latestEvents.values());
+            events.sort(Comparator.comparing(event -> event.getType().getString()));
+            return events;
+        }
+
         List latestEvents;
         try {
-            latestEvents = this.eventDao.findLatestEvents();
+            latestEvents = this.latestEventsFlights.execute(this.version().getVersion(), this.eventDao::findLatestEvents);
         } catch (EventDaoException e) {
             latestEvents = Collections.emptyList();
             logger.error("Couldn't retrieve findLatestEvents", e);
@@ -102,7 +367,7 @@ public class EventService {
     public List<Event> findEvents(String eventType) {
         List events;
         try {
-            events = this.eventDao.findEvents(eventType);
+            events = this.findFlights.execute(this.flightKey(eventType), () -> this.eventDao.findEvents(eventType));
         } catch (EventDaoException e) {
             events = Collections.emptyList();
             logger.error("Couldn't retrieve findLatestEvent", e);
@@ -121,7 +386,9 @@ public class EventService {
     public List<Event> findEvents(String eventType, Instant earliestTime, Instant latestTime) {
         List events;
         try {
-            events = this.eventDao.findEvents(eventType, earliestTime, latestTime);
+            EventRangeCache cache = this.rangeCache;
+            events = cache == null ? this.findEventsShared(eventType, earliestTime, latestTime)
+                                   : cache.get(eventType, earliestTime, latestTime, this::findEventsShared);
         } catch (EventDaoException e) {
             events = Collections.emptyList();
             logger.error("Couldn't retrieve findLatestEvent | earliest {} | latest {}", earliestTime, latestTime, e);
@@ -130,12 +397,108 @@ public class EventService {
         return events;
     }
 
+    /**
+     * Passes each event for a type between earliestTime and latestTime, inclusive, to the consumer in reverse
+     * chronological order, without retaining them.
+     * @param eventType  the event type
+     * @param earliestTime earliest event time, inclusive
+     * @param latestTime latest event time, inclusive
+     * @param consumer  the consumer of the events
+     * @return  whether all events were passed to the consumer; false if the stream ended early
+     */
+    public boolean streamEvents(String eventType, Instant earliestTime, Instant latestTime, Consumer<Event> consumer) {
+        try {
+            this.eventDao.streamEvents(eventType, earliestTime, latestTime, consumer);
+            return true;
+        } catch (EventDaoException e) {
+            logger.error("Couldn't stream events | earliest {} | latest {}", earliestTime, latestTime, e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the events for a type between earliestTime and latestTime, inclusive, counted in time buckets of the given
+     * size and broken down by event value.
+     * @param eventType  the event type
+     * @param earliestTime earliest event time, inclusive
+     * @param latestTime latest event time, inclusive
+     * @param bucketMillis  the bucket size in milliseconds
+     * @return  the histogram, or null if the events couldn't be counted
+     */
+    @Nullable
+    public EventHistogram histogram(String eventType, Instant earliestTime, Instant latestTime, long bucketMillis) {
+        try {
+            List<EventBucket> buckets = this.eventDao.countEventsByBucket(eventType, earliestTime, latestTime, bucketMillis);
+            return new EventHistogram(eventType, earliestTime.toEpochMilli(), latestTime.toEpochMilli(), bucketMillis, buckets);
+        } catch (EventDaoException e) {
+            logger.error("Couldn't retrieve countEventsByBucket | earliest {} | latest {} | bucket {}", earliestTime, latestTime,
+                         bucketMillis, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the time a type spent in each event value between earliestTime, inclusive, and latestTime, exclusive,
+     * optionally broken down into time buckets.  The state at earliestTime is seeded from the last event before it,
+     * then the events in the window are read in one reverse chronological pass without being retained.
+     * @param eventType  the event type
+     * @param earliestTime  the start of the window, inclusive
+     * @param latestTime  the end of the window, exclusive
+     * @param bucketMillis  the bucket size in milliseconds, or 0 to only total the window
+     * @return  the durations, or null if the events couldn't be read
+     */
+    @Nullable
+    public EventDurations durations(String eventType, Instant earliestTime, Instant latestTime, long bucketMillis) {
+        try {
+            Event before = null;
+            if (earliestTime.isAfter(Instant.EPOCH)) {
+                List<Event> previous = this.eventDao.findEvents(eventType, Instant.EPOCH, earliestTime.minusMillis(1L), null, 1);
+                before = previous.isEmpty() ? null : previous.get(0);
+            }
+
+            EventDurationCounter counter = new EventDurationCounter(earliestTime.toEpochMilli(), latestTime.toEpochMilli(), bucketMillis);
+            this.eventDao.streamEvents(eventType, earliestTime, latestTime, counter);
+            return counter.durations(eventType, before);
+        } catch (EventDaoException e) {
+            logger.error("Couldn't compute durations | earliest {} | latest {} | bucket {}", earliestTime, latestTime, bucketMillis, e);
+            return null;
+        }
+    }
+
+    /**
+     * Return one page of the events for a type between earliestTime and latestTime, inclusive, in reverse
+     * chronological order.
+     * @param eventType  the event type
+     * @param earliestTime earliest event time, inclusive
+     * @param latestTime latest event time, inclusive
+     * @param after  the position of the last event of the previous page, or null for the first page
+     * @param limit  the maximum number of events to return
+     * @return  the page of events
+     */
+    public List<Event> findEvents(String eventType, Instant earliestTime, Instant latestTime, @Nullable EventCursor after, int limit) {
+        List<Event> events;
+        try {
+            events = this.findFlights.execute(this.flightKey(eventType, earliestTime, latestTime, after, limit),
+                                              () -> this.eventDao.findEvents(eventType, earliestTime, latestTime, after, limit));
+        } catch (EventDaoException e) {
+            events = Collections.emptyList();
+            logger.error("Couldn't retrieve findEvents page | earliest {} | latest {} | after {}", earliestTime, latestTime, after, e);
+        }
+
+        return events;
+    }
+
     /**
      * Returns the {@code EventCount} for the event type.
      * @param eventType  the event type
      * @return  the count of events
      */
     public EventCount countEvents(String eventType) {
+        if (this.eventCountsSeeded) {
+            EventCounter counter = this.eventCounts.get(eventType);
+            return new EventCount(eventType, counter == null ? 0L : counter.count.sum());
+        }
+
         EventCount eventCount;
         try {
             long count = this.eventDao.countEvents(eventType);
@@ -147,4 +510,199 @@ public class EventService {
 
         return eventCount;
     }
+
+    /**
+     * Compares the maintained count of events of each type with the count in the store, optionally resyncing the
+     * maintained counts.  A type with an add under way when the count is read, or started while the store is read,
+     * isn't resynced, since the store may already hold an event the count doesn't; verify again once its writes have
+     * settled.
+     * @param resync  whether to reset differing counts to the stored count
+     * @return  the differences found, ordered by type, or null if the stored counts couldn't be read
+     */
+    @Nullable
+    public List<EventCountDiscrepancy> verifyEventCounts(boolean resync) {
+        // a type's adds are read before its count, so an add in flight is seen or else started after the count was read
+        Map<String, Long> addsStarted = new HashMap<>();
+        Map<String, Long> counted = new HashMap<>();
+        this.eventCounts.forEach((type, counter) -> {
+            long started = counter.addsStarted.get();
+            addsStarted.put(type, counter.addsInFlight.get() == 0 ? started : -1L);
+            counted.put(type, counter.count.sum());
+        });
+        Map<String, Long> stored;
+        try {
+            stored = this.eventDao.countEventsByType();
+        } catch (EventDaoException e) {
+            logger.error("Couldn't retrieve countEventsByType", e);
+            return null;
+        }
+
+        List<EventCountDiscrepancy> discrepancies = new ArrayList<>();
+        boolean allResynced = true;
+        TreeSet<String> types = new TreeSet<>(counted.keySet());
+        types.addAll(stored.keySet());
+        for (String type : types) {
+            long countedBefore = counted.getOrDefault(type, 0L);
+            long storedCount = stored.getOrDefault(type, 0L);
+            if (countedBefore != storedCount) {
+                EventCounter counter = this.eventCounter(type);
+                boolean resynced = false;
+                if (resync && counter.addsStarted.get() == addsStarted.getOrDefault(type, 0L)) {
+                    counter.count.add(storedCount - countedBefore);
+                    resynced = true;
+                }
+
+                allResynced &= resynced;
+                discrepancies.add(new EventCountDiscrepancy(type, countedBefore, storedCount, resynced));
+            }
+        }
+
+        if (resync && allResynced && !this.eventCountsSeeded) {
+            this.eventCountsSeeded = true;
+        }
+
+        logger.info("Event counts verified | types {} | discrepancies {} | resync {}", types.size(), discrepancies.size(), resync);
+        return discrepancies;
+    }
+
+    /**
+     * Deletes events of the type older than the time, about the limit of them, and evicts the type's cached ranges.
+     * The latest event of the type is never deleted.  The maintained count isn't changed, since stores with rollups
+     * go on counting deleted events; {@link #verifyEventCounts(boolean) verify} the counts after deleting.
+     * @param eventType  the event type
+     * @param before  the time events are deleted before, exclusive
+     * @param limit  the number of events to delete
+     * @return  the number of events deleted, or -1 if they couldn't be deleted
+     */
+    public int deleteEvents(String eventType, Instant before, int limit) {
+        int deleted;
+        try {
+            deleted = this.eventDao.deleteEvents(eventType, before, limit);
+        } catch (EventDaoException e) {
+            logger.error("Couldn't delete events | type {} | before {}", eventType, before, e);
+            return -1;
+        }
+
+        EventRangeCache cache = this.rangeCache;
+        if (deleted > 0 && cache != null) {
+            cache.invalidate(eventType);
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Deletes up to the limit of the type's rollups of the granularity whose buckets end at or before the time.
+     * @param eventType  the event type
+     * @param granularityMillis  the rollup granularity in milliseconds
+     * @param before  the time the deleted buckets end by
+     * @param limit  the maximum number of rollups to delete
+     * @return  the number of rollups deleted, or -1 if they couldn't be deleted
+     */
+    public int deleteRollups(String eventType, long granularityMillis, Instant before, int limit) {
+        try {
+            return this.eventDao.deleteRollups(eventType, granularityMillis, before, limit);
+        } catch (EventDaoException e) {
+            logger.error("Couldn't delete rollups | type {} | granularity {} | before {}", eventType, granularityMillis, before, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Evicts the cached ranges containing the events, then updates the state and publishes each event, after they have
+     * been successfully added.
+     * @param events  the added events
+     */
+    private void eventsAdded(Collection<Event> events) {
+        EventRangeCache cache = this.rangeCache;
+        if (cache != null) {
+            cache.invalidate(events);
+        }
+
+        for (Event event : events) {
+            this.eventAdded(event);
+        }
+    }
+
+    /**
+     * Updates the in-memory state, then the versions, and publishes the event to subscribers after it has been
+     * successfully added.
+     * @param event  the added event
+     */
+    private void eventAdded(Event event) {
+        String type = event.getType().getString();
+        this.latestEvents.merge(type, event, EventService::newer);
+        this.eventCounter(type).count.increment();
+        long now = System.currentTimeMillis();
+        this.typeVersions.compute(type, (key, current) -> (current == null ? this.initialVersion : current).next(now));
+        this.version.updateAndGet(current -> current.next(now));
+        EventBroadcaster eventBroadcaster = this.broadcaster;
+        if (eventBroadcaster != null) {
+            eventBroadcaster.publish(event);
+        }
+    }
+
+    /**
+     * Returns the events for a type between earliestTime and latestTime, inclusive, sharing the DAO call with
+     * concurrent identical reads.
+     */
+    private List<Event> findEventsShared(String eventType, Instant earliestTime, Instant latestTime) throws EventDaoException {
+        return this.findFlights.execute(this.flightKey(eventType, earliestTime, latestTime),
+                                        () -> this.eventDao.findEvents(eventType, earliestTime, latestTime));
+    }
+
+    /**
+     * Returns the key of a read of the type with the arguments: the type, its version and the arguments.
+     */
+    private List<Object> flightKey(String eventType, Object... arguments) {
+        List<Object> key = new ArrayList<>(arguments.length + 2);
+        key.add(eventType);
+        key.add(this.version(eventType).getVersion());
+        key.addAll(Arrays.asList(arguments));
+        return key;
+    }
+
+    private EventCounter eventCounter(String eventType) {
+        return this.eventCounts.computeIfAbsent(eventType, type -> new EventCounter());
+    }
+
+    /**
+     * Marks an add of the events' types as under way, before the events are written, and returns their counters.
+     */
+    private Set<EventCounter> addsStarted(Collection<Event> events) {
+        Set<EventCounter> counters = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Event event : events) {
+            EventCounter counter = this.eventCounter(event.getType().getString());
+            if (counters.add(counter)) {
+                counter.addsInFlight.incrementAndGet();
+                counter.addsStarted.incrementAndGet();
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * Marks the adds as finished, after the added events have been counted.
+     */
+    private static void addsFinished(Set<EventCounter> counters) {
+        for (EventCounter counter : counters) {
+            counter.addsInFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * The maintained count of a type's events, and the adds of the type that a resync of the count mustn't race.
+     */
+    private static final class EventCounter {
+        private final LongAdder count = new LongAdder();
+        private final AtomicLong addsStarted = new AtomicLong();
+        private final AtomicInteger addsInFlight = new AtomicInteger();
+    }
+
+    /**
+     * Returns the later of the two events; an event that arrives out of order doesn't replace a later one.
+     */
+    private static Event newer(Event current, Event candidate) {
+        return candidate.getEpochMillis() > current.getEpochMillis() ? candidate : current;
+    }
 }
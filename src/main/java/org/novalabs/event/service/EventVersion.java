@@ -0,0 +1,67 @@
+package org.novalabs.event.service;
+
+/**
+ * A version of the events held by the {@link EventService}: the number of events added through the service since it
+ * was created and the time of the last one.  The entity tag also carries an id chosen when the service is created, so
+ * tags aren't reused after a restart.  Immutable.
+ */
+public final class EventVersion {
+    private final String bootId;
+    private final long version;
+    private final long lastModified;
+
+    EventVersion(String bootId, long version, long lastModified) {
+        this.bootId = bootId;
+        this.version = version;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Returns the next version, after an event has been added.
+     * @param now  the current time in milliseconds since the epoch
+     * @return  the next version
+     */
+    EventVersion next(long now) {
+        return new EventVersion(this.bootId, this.version + 1L, Math.max(this.lastModified, now));
+    }
+
+    /**
+     * Returns the number of events added since the service was created.
+     * @return  the version number
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns the time of the last change, in milliseconds since the epoch.  Before any event is added, this is the
+     * time the service was created.
+     * @return  the last modified time
+     */
+    public long getLastModified() {
+        return this.lastModified;
+    }
+
+    /**
+     * Returns the strong entity tag of the version, quoted.
+     * @return  the entity tag
+     */
+    public String getETag() {
+        return this.getETag("");
+    }
+
+    /**
+     * Returns the strong entity tag of one representation of the version, e.g. an encoding, quoted.  The suffix is
+     * appended to the version's tag, so each representation has its own tag.
+     * @param suffix  the suffix of the representation
+     * @return  the entity tag
+     */
+    public String getETag(String suffix) {
+        return "\"" + this.bootId + "-" + Long.toString(this.version, 36) + suffix + "\"";
+    }
+
+    @Override
+    public String toString() {
+        return this.getETag();
+    }
+}
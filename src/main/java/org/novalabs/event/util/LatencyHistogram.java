@@ -0,0 +1,210 @@
+package org.novalabs.event.util;
+
+import com.google.common.base.Preconditions;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Concurrent histogram of non-negative values, e.g. latencies in nanoseconds, in the manner of HdrHistogram: values
+ * below {@value #LINEAR} are counted exactly and each power of two above is split into {@value #SUB_BUCKETS}
+ * buckets, so a value is reported to within 1/{@value #SUB_BUCKETS} of itself whatever its magnitude.  Values above
+ * the highest trackable value are counted as it.
+ * <p>
+ * Recording a value is an index computation and an atomic increment, with no lock and no allocation.  Percentiles
+ * describe the recent values: counts are kept in windows of a fixed length, and a snapshot covers the current window
+ * and the one before it, so between one and two windows of values.
+ */
+public final class LatencyHistogram {
+    private static final int LINEAR_BITS = 8;
+    private static final int LINEAR = 1 << LINEAR_BITS;
+    private static final int SUB_BUCKETS = LINEAR >>> 1;
+    private final long highestValue;
+    private final int buckets;
+    private final long windowNanos;
+    private final LongSupplier nanoTime;
+    private volatile Window current;
+    private volatile Window previous;
+
+    /**
+     * Creates the histogram.
+     * @param highestValue  the highest value tracked; higher values are counted as it
+     * @param windowMillis  the length of a window, in milliseconds
+     */
+    public LatencyHistogram(long highestValue, long windowMillis) {
+        this(highestValue, windowMillis, System::nanoTime);
+    }
+
+    /**
+     * Creates the histogram, timing its windows with the clock.
+     * @param highestValue  the highest value tracked; higher values are counted as it
+     * @param windowMillis  the length of a window, in milliseconds
+     * @param nanoTime  the clock, in nanoseconds from an arbitrary origin as {@link System#nanoTime()}
+     */
+    LatencyHistogram(long highestValue, long windowMillis, LongSupplier nanoTime) {
+        Preconditions.checkArgument(highestValue >= LINEAR);
+        Preconditions.checkArgument(windowMillis > 0L);
+        this.highestValue = highestValue;
+        this.buckets = index(highestValue) + 1;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.nanoTime = nanoTime;
+        this.current = new Window(this.buckets, nanoTime.getAsLong());
+        this.previous = new Window(this.buckets, this.current.start);
+    }
+
+    /**
+     * Records the value.
+     * @param value  the value; negative values are counted as 0
+     */
+    public void record(long value) {
+        long clamped = Math.min(Math.max(value, 0L), this.highestValue);
+        Window window = this.window(this.nanoTime.getAsLong());
+        window.counts.incrementAndGet(index(clamped));
+        window.sum.add(clamped);
+        if (clamped > window.max.get()) {
+            window.max.accumulateAndGet(clamped, Math::max);
+        }
+    }
+
+    /**
+     * Returns the counts of the current and previous windows.
+     * @return  the snapshot
+     */
+    public Snapshot snapshot() {
+        Window latest = this.window(this.nanoTime.getAsLong());
+        Window before = this.previous;
+        long[] counts = new long[this.buckets];
+        long count = 0L;
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = latest.counts.get(i) + before.counts.get(i);
+            count += counts[i];
+        }
+
+        return new Snapshot(counts, count, latest.sum.sum() + before.sum.sum(), Math.max(latest.max.get(), before.max.get()));
+    }
+
+    /**
+     * Returns the bucket of the value.
+     */
+    static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - LINEAR_BITS + 1;
+        return LINEAR + (magnitude - LINEAR_BITS) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the highest value counted in the bucket.
+     */
+    static long highestEquivalentValue(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+
+        int offset = index - LINEAR;
+        int magnitude = offset / SUB_BUCKETS + LINEAR_BITS;
+        long subBucket = offset % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1L) << (magnitude - LINEAR_BITS + 1)) - 1L;
+    }
+
+    /**
+     * Returns the current window, first starting a new one if it has ended.  The ended window becomes the previous
+     * one, unless it ended more than a window ago and so holds no recent values.
+     */
+    private Window window(long now) {
+        Window window = this.current;
+        if (now - window.start < this.windowNanos) {
+            return window;
+        }
+
+        synchronized (this) {
+            window = this.current;
+            if (now - window.start >= this.windowNanos) {
+                this.previous = now - window.start < 2L * this.windowNanos ? window : new Window(this.buckets, now);
+                window = new Window(this.buckets, now);
+                this.current = window;
+            }
+            return window;
+        }
+    }
+
+    /**
+     * The counts of one window.
+     */
+    private static final class Window {
+        private final AtomicLongArray counts;
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final long start;
+
+        Window(int buckets, long start) {
+            this.counts = new AtomicLongArray(buckets);
+            this.start = start;
+        }
+    }
+
+    /**
+     * An immutable copy of the recent counts.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * Returns the number of values recorded.
+         * @return  the count
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * Returns the largest value recorded.
+         * @return  the maximum, or 0 if no values were recorded
+         */
+        public long getMax() {
+            return this.max;
+        }
+
+        /**
+         * Returns the mean of the values recorded, rounded down.
+         * @return  the mean, or 0 if no values were recorded
+         */
+        public long getMean() {
+            return this.count == 0L ? 0L : this.sum / this.count;
+        }
+
+        /**
+         * Returns the value at the percentile: the highest value of the bucket holding it, but no more than the
+         * maximum recorded.
+         * @param percentile  the percentile, from 0 to 100
+         * @return  the value, or 0 if no values were recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            long rank = Math.max(1L, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * this.count));
+            long seen = 0L;
+            for (int i = 0; i < this.counts.length; ++i) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestEquivalentValue(i), this.max);
+                }
+            }
+
+            return 0L;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.novalabs.event.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+/**
+ * Latency, result size and failure metrics of named operations, published on the actuator {@code /metrics} endpoint.
+ * For each operation the count, failures and total size are cumulative; the latency percentiles, mean and maximum are
+ * of the recent calls, as kept by a {@link LatencyHistogram} per operation.  Operations are created on first use, so
+ * names must come from a bounded set, e.g. method names or request mappings.
+ */
+public class OperationMetrics implements PublicMetrics {
+    private static final long HIGHEST_NANOS = TimeUnit.HOURS.toNanos(1L);
+    private final String prefix;
+    private final long windowMillis;
+    private final ConcurrentMap<String, Operation> operations = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the metrics.
+     * @param prefix  the prefix of the metric names, e.g. {@code event.dao.}
+     * @param windowMillis  the length of a latency window, in milliseconds; percentiles cover one to two windows
+     */
+    public OperationMetrics(String prefix, long windowMillis) {
+        this.prefix = prefix;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Records a call of the operation.
+     * @param operation  the operation name
+     * @param nanos  the duration of the call, in nanoseconds
+     * @param size  the size of the result, e.g. rows or bytes
+     * @param failed  whether the call failed
+     */
+    public void record(String operation, long nanos, long size, boolean failed) {
+        Operation metrics = this.operations.get(operation);
+        if (metrics == null) {
+            metrics = this.operations.computeIfAbsent(operation, name -> new Operation(this.windowMillis));
+        }
+
+        metrics.latency.record(nanos);
+        metrics.count.increment();
+        metrics.size.add(size);
+        if (failed) {
+            metrics.failures.increment();
+        }
+    }
+
+    /**
+     * Returns the metrics of every operation called so far, in operation name order.
+     * @return  the metrics
+     */
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> metrics = new ArrayList<>();
+        for (Map.Entry<String, Operation> entry : new TreeMap<>(this.operations).entrySet()) {
+            String name = this.prefix + entry.getKey() + ".";
+            Operation operation = entry.getValue();
+            long count = operation.count.sum();
+            long size = operation.size.sum();
+            LatencyHistogram.Snapshot latency = operation.latency.snapshot();
+            metrics.add(new Metric<>(name + "count", count));
+            metrics.add(new Metric<>(name + "failures", operation.failures.sum()));
+            metrics.add(new Metric<>(name + "size", size));
+            metrics.add(new Metric<>(name + "meanSize", count == 0L ? 0L : size / count));
+            metrics.add(new Metric<>(name + "meanMicros", TimeUnit.NANOSECONDS.toMicros(latency.getMean())));
+            metrics.add(new Metric<>(name + "p50Micros", TimeUnit.NANOSECONDS.toMicros(latency.getValueAtPercentile(50.0))));
+            metrics.add(new Metric<>(name + "p99Micros", TimeUnit.NANOSECONDS.toMicros(latency.getValueAtPercentile(99.0))));
+            metrics.add(new Metric<>(name + "p999Micros", TimeUnit.NANOSECONDS.toMicros(latency.getValueAtPercentile(99.9))));
+            metrics.add(new Metric<>(name + "maxMicros", TimeUnit.NANOSECONDS.toMicros(latency.getMax())));
+        }
+        return metrics;
+    }
+
+    /**
+     * The metrics of one operation.
+     */
+    private static final class Operation {
+        private final LatencyHistogram latency;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder size = new LongAdder();
+
+        Operation(long windowMillis) {
+            this.latency = new LatencyHistogram(HIGHEST_NANOS, windowMillis);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.novalabs.event.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent identical calls: while a call for a key is in flight, callers with the same key wait for it
+ * and share its result, or its exception, instead of making the call themselves.  A caller arriving after the call
+ * completed makes a new call, so no result is older than the call the caller joined.
+ * @param <K>  the key type
+ * @param <V>  the result type
+ */
+public final class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+
+    /**
+     * A call that may fail with a checked exception.
+     * @param <V>  the result type
+     * @param <E>  the checked exception type
+     */
+    @FunctionalInterface
+    public interface Call<V, E extends Exception> {
+        V call() throws E;
+    }
+
+    public SingleFlight() {
+    }
+
+    /**
+     * Returns the result of the call in flight for the key, or else of the call, made by this thread.
+     * @param key  the key identifying the call
+     * @param call  the call
+     * @param <E>  the checked exception type
+     * @return  the result
+     * @throws E  if the call, this thread's or the one joined, failed
+     */
+    public <E extends Exception> V execute(K key, Call<V, E> call) throws E {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> current = this.inFlight.putIfAbsent(key, flight);
+        if (current == null) {
+            this.calls.increment();
+            try {
+                V result = call.call();
+                flight.complete(result);
+                return result;
+            } catch (Throwable t) {
+                flight.completeExceptionally(t);
+                throw t;
+            } finally {
+                this.inFlight.remove(key, flight);
+            }
+        }
+
+        this.shared.increment();
+        try {
+            return current.join();
+        } catch (CompletionException e) {
+            throw SingleFlight.<E>rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the number of calls made.
+     * @return  the number of calls
+     */
+    public long calls() {
+        return this.calls.sum();
+    }
+
+    /**
+     * Returns the number of callers that shared a call in flight instead of making it.
+     * @return  the number of shared results
+     */
+    public long shared() {
+        return this.shared.sum();
+    }
+
+    /**
+     * Throws the exception of a joined call, which was thrown by a call of the same type.
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> RuntimeException rethrow(Throwable cause) throws E {
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+
+        throw (E) cause;
+    }
+}
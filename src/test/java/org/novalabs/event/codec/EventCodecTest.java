@@ -0,0 +1,116 @@
+package org.novalabs.event.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+
+@RunWith(JUnitParamsRunner.class)
+public class EventCodecTest {
+    public EventCodecTest() {
+    }
+
+    @Test
+    public void encodeDecode() throws Exception {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            // reverse chronological, as lists are returned, with a repeat and a jump forward
+            long time = i == 50 ? 1515542400000L + 1000000L : 1515542400000L - i * 1000L;
+            events.add(event(i % 3 == 0 ? "door" : "lathe", i % 2 == 0 ? "open" : "closed", time));
+        }
+
+        events.add(event("zoë", "ünïcödé", 0L));
+        Assert.assertEquals(events, EventCodec.decode(EventCodec.encode(events)));
+        Assert.assertEquals(Collections.emptyList(), EventCodec.decode(EventCodec.encode(Collections.emptyList())));
+    }
+
+    @Test
+    public void smallerThanJson() throws Exception {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            events.add(event("door", i % 2 == 0 ? "open" : "closed", 1515542400000L - i * 60000L));
+        }
+
+        int binary = EventCodec.encode(events).length;
+        int json = new ObjectMapper().writeValueAsBytes(events).length;
+        Assert.assertTrue(binary + " vs " + json, binary * 4 < json);
+        // 16 byte uuid, 3 byte delta and 2 references per event after the first
+        Assert.assertTrue(String.valueOf(binary), binary < 100 * 22);
+    }
+
+    @Test
+    public void invalidEventIsSkipped() throws Exception {
+        List<Event> events = Arrays.asList(event("door", "open", 1000L), event("door", "closed", 2000L));
+        EventCodec.Decoder decoder = EventCodec.decoder(new ByteArrayInputStream(corruptTime(EventCodec.encode(events))));
+        Assert.assertEquals(2, decoder.count());
+        try {
+            decoder.next();
+            Assert.fail("negative time accepted");
+        } catch (IllegalArgumentException e) {
+            // the event is read past
+        }
+
+        Assert.assertEquals(events.get(1).getUuid(), decoder.next().getUuid());
+        Assert.assertFalse(decoder.hasNext());
+    }
+
+    @Test(
+            expected = EventFormatException.class
+    )
+    @Parameters
+    public void decodeMalformed(String hex) throws Exception {
+        EventCodec.decode(hex(hex));
+    }
+
+    private Object[] parametersForDecodeMalformed() {
+        String header = "455601";
+        String uuid = "00000000000000010000000000000002";
+        return new Object[]{
+                new Object[]{""},
+                new Object[]{"4a534f4e"},                                   // not the magic
+                new Object[]{"455602" + "00"},                              // unsupported version
+                new Object[]{header + "01"},                                // truncated event
+                new Object[]{header + "01" + "02" + uuid + "01" + "00"},   // undefined type reference
+                new Object[]{header + "01" + "02" + uuid + "00" + "ff07"}, // literal too long
+                new Object[]{header + "ffffffffffffffffffff01"},            // varint too long
+                new Object[]{header + "01" + "01" + uuid + "00" + "0164" + "00" + "016f"} // negative time
+        };
+    }
+
+    private static Event event(String type, String value, long epochMillis) {
+        return new Event(UUID.randomUUID(), new EventType(type), new EventValue(value), epochMillis);
+    }
+
+    /**
+     * Changes the first event's time delta, 1000 zigzag encoded as the two bytes after the header and count, to -1.
+     * The second event's delta is relative to the decoded time, so it still decodes.
+     */
+    private static byte[] corruptTime(byte[] message) {
+        byte[] corrupt = message.clone();
+        Assert.assertEquals((byte) 0xd0, corrupt[4]);
+        Assert.assertEquals((byte) 0x0f, corrupt[5]);
+        corrupt[4] = (byte) 0x81;
+        corrupt[5] = (byte) 0x00;
+        return corrupt;
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+
+        return bytes;
+    }
+}
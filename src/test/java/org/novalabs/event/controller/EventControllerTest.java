@@ -0,0 +1,364 @@
+package org.novalabs.event.controller;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.jayway.jsonpath.JsonPath;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.novalabs.event.codec.EventCodec;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+import org.novalabs.event.util.OperationMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class EventControllerTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    @Qualifier("eventRequestMetrics")
+    private OperationMetrics eventRequestMetrics;
+    @Autowired
+    @Qualifier("eventDaoMetrics")
+    private OperationMetrics eventDaoMetrics;
+
+    public EventControllerTest() {
+    }
+
+    @Test
+    public void addEventsJsonArray() throws Exception {
+        String type = uniqueType();
+        String body = "[" + event(type, "open", 1000L) + "," + event(type, "closed", 2000L) + "]";
+        this.mockMvc.perform(post("/events/batch").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].status").value("CREATED"))
+                .andExpect(jsonPath("$[1].status").value("CREATED"));
+        this.mockMvc.perform(get("/events/" + type + "/count"))
+                .andExpect(jsonPath("$.count").value(2));
+    }
+
+    @Test
+    public void addEventsNdjsonWithInvalidItem() throws Exception {
+        String type = uniqueType();
+        String body = event(type, "on", 1000L) + "\n" + "{\"type\":\"\",\"value\":\"off\"}" + "\n" + event(type, "off", 3000L) + "\n";
+        this.mockMvc.perform(post("/events/batch").contentType(EventController.APPLICATION_NDJSON_VALUE).content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].status").value("CREATED"))
+                .andExpect(jsonPath("$[1].status").value("INVALID"))
+                .andExpect(jsonPath("$[2].status").value("CREATED"));
+        this.mockMvc.perform(get("/events/" + type + "/latest"))
+                .andExpect(jsonPath("$.value").value("off"));
+    }
+
+    @Test
+    public void pagedRangeHasNextLink() throws Exception {
+        String type = uniqueType();
+        String body = "[" + event(type, "open", 1000L) + "," + event(type, "closed", 2000L) + "," + event(type, "open", 3000L) + "]";
+        this.mockMvc.perform(post("/events/batch").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk());
+
+        MvcResult first = this.mockMvc.perform(get("/events/" + type + "/earliest/0/latest/5000?limit=2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].epochMillis").value(3000))
+                .andExpect(header().string("Link", Matchers.containsString("rel=\"next\"")))
+                .andReturn();
+        String link = first.getResponse().getHeader("Link");
+        String next = link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+        Assert.assertTrue(next.contains("cursor="));
+
+        this.mockMvc.perform(get(next))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].epochMillis").value(1000))
+                .andExpect(header().doesNotExist("Link"));
+        this.mockMvc.perform(get("/events/" + type + "?cursor=bogus"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void streamRangeNdjsonAndJsonArray() throws Exception {
+        String type = uniqueType();
+        String body = "[" + event(type, "open", 1000L) + "," + event(type, "closed", 2000L) + "]";
+        this.mockMvc.perform(post("/events/batch").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk());
+
+        MvcResult ndjson = this.mockMvc.perform(get("/events/" + type + "/earliest/0/latest/5000")
+                                                        .accept(EventController.APPLICATION_NDJSON_VALUE))
+                .andExpect(request().asyncStarted())
+                .andExpect(content().contentType(EventController.APPLICATION_NDJSON_VALUE))
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(ndjson))
+                .andExpect(status().isOk());
+        // the streamed body is written to the original response
+        String content = ndjson.getResponse().getContentAsString();
+        Assert.assertTrue(content.endsWith("}\n"));
+        String[] events = content.split("\n");
+        Assert.assertEquals(2, events.length);
+        Assert.assertTrue(events[1].startsWith("{"));
+        Assert.assertTrue(events[0].contains("\"epochMillis\":2000"));
+        Assert.assertTrue(events[1].contains("\"epochMillis\":1000"));
+
+        MvcResult array = this.mockMvc.perform(get("/events/" + type + "/earliest/0?stream=true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(array))
+                .andExpect(status().isOk());
+        List<Object> values = JsonPath.read(array.getResponse().getContentAsString(), "$[*].value");
+        Assert.assertEquals(Arrays.asList("closed", "open"), values);
+    }
+
+    @Test
+    public void histogramCountsByBucketAndValue() throws Exception {
+        String type = uniqueType();
+        long hour = 3600000L;
+        String body = "[" + event(type, "on", 1000L) + "," + event(type, "off", 2000L) + "," + event(type, "on", 3000L) + ","
+                + event(type, "on", 2 * hour + 5L) + "]";
+        this.mockMvc.perform(post("/events/batch").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk());
+
+        this.mockMvc.perform(get("/events/" + type + "/histogram?bucket=1h&earliest=0&latest=" + 3 * hour))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.bucketMillis").value(hour))
+                .andExpect(jsonPath("$.buckets.length()").value(2))
+                .andExpect(jsonPath("$.buckets[0].epochMillis").value(0))
+                .andExpect(jsonPath("$.buckets[0].count").value(3))
+                .andExpect(jsonPath("$.buckets[0].values.on").value(2))
+                .andExpect(jsonPath("$.buckets[0].values.off").value(1))
+                .andExpect(jsonPath("$.buckets[1].epochMillis").value(2 * hour))
+                .andExpect(jsonPath("$.buckets[1].count").value(1));
+        this.mockMvc.perform(get("/events/" + type + "/histogram?bucket=1s&earliest=1500&latest=2500"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.buckets.length()").value(1))
+                .andExpect(jsonPath("$.buckets[0].epochMillis").value(2000));
+        this.mockMvc.perform(get("/events/" + type + "/histogram?bucket=1week"))
+                .andExpect(status().isBadRequest());
+        this.mockMvc.perform(get("/events/" + type + "/histogram?earliest=10&latest=5"))
+                .andExpect(status().isBadRequest());
+        this.mockMvc.perform(get("/events/" + type + "/histogram?bucket=1ms&earliest=0&latest=" + 3 * hour))
+                .andExpect(status().isBadRequest());
+        this.mockMvc.perform(get("/events/" + type + "/histogram?bucket=1s&latest=3500"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.buckets.length()").value(3));
+        this.mockMvc.perform(get("/events/" + type + "/histogram"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void durationsInEachState() throws Exception {
+        String type = uniqueType();
+        long day = 86400000L;
+        String body = "[" + event(type, "off", 1000L) + "," + event(type, "on", day - 1000L) + "," + event(type, "off", day + 2000L) + "]";
+        this.mockMvc.perform(post("/events/batch").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk());
+
+        this.mockMvc.perform(get("/events/" + type + "/durations?bucket=1d&earliest=2000&latest=" + 2 * day))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.millis.on").value(3000))
+                .andExpect(jsonPath("$.millis.off").value(2 * day - 2000L - 3000L))
+                .andExpect(jsonPath("$.buckets.length()").value(2))
+                .andExpect(jsonPath("$.buckets[0].millis.on").value(1000))
+                .andExpect(jsonPath("$.buckets[1].millis.on").value(2000));
+        this.mockMvc.perform(get("/events/" + type + "/durations?earliest=0&latest=2000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.millis.off").value(1000))
+                .andExpect(jsonPath("$.buckets.length()").value(0));
+        this.mockMvc.perform(get("/events/" + type + "/durations?bucket=1ms&earliest=0&latest=" + day))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void pushesAddedEventsOfSubscribedType() throws Exception {
+        String type = uniqueType();
+        MvcResult subscription = this.mockMvc.perform(get("/push/events?type=" + type).accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String other = event(uniqueType(), "on", 1000L);
+        String pushed = event(type, "on", 2000L);
+        this.mockMvc.perform(post("/events").contentType(MediaType.APPLICATION_JSON).content(other))
+                .andExpect(status().isCreated());
+        this.mockMvc.perform(post("/events").contentType(MediaType.APPLICATION_JSON).content(pushed))
+                .andExpect(status().isCreated());
+
+        String pushedUuid = JsonPath.read(pushed, "$.uuid");
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!subscription.getResponse().getContentAsString().contains("id:" + pushedUuid)) {
+            Assert.assertTrue("event not pushed", System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+
+        String stream = subscription.getResponse().getContentAsString();
+        Assert.assertTrue(stream, stream.contains("event:event"));
+        Assert.assertTrue(stream, stream.contains("\"type\":\"" + type + "\""));
+        Assert.assertFalse(stream, stream.contains(JsonPath.<String>read(other, "$.uuid")));
+    }
+
+    @Test
+    public void conditionalGetNotModifiedUntilEventAdded() throws Exception {
+        String type = uniqueType();
+        String other = uniqueType();
+        this.mockMvc.perform(post("/events").contentType(MediaType.APPLICATION_JSON).content(event(type, "open", 1000L)))
+                .andExpect(status().isCreated());
+
+        MvcResult latest = this.mockMvc.perform(get("/events/" + type + "/latest"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "no-cache"))
+                .andExpect(header().string("Last-Modified", Matchers.notNullValue()))
+                .andReturn();
+        String typeTag = latest.getResponse().getHeader("ETag");
+        String allTag = this.mockMvc.perform(get("/events")).andExpect(status().isOk()).andReturn().getResponse().getHeader("ETag");
+        Assert.assertNotNull(typeTag);
+        Assert.assertNotNull(allTag);
+        this.mockMvc.perform(get("/events/" + type + "/latest").header("If-None-Match", typeTag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", typeTag))
+                .andExpect(content().string(""));
+        this.mockMvc.perform(get("/types").header("If-None-Match", allTag))
+                .andExpect(status().isNotModified());
+
+        this.mockMvc.perform(post("/events").contentType(MediaType.APPLICATION_JSON).content(event(other, "on", 2000L)))
+                .andExpect(status().isCreated());
+        this.mockMvc.perform(get("/events/" + type + "/latest").header("If-None-Match", typeTag))
+                .andExpect(status().isNotModified());
+        this.mockMvc.perform(get("/events").header("If-None-Match", allTag))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", Matchers.not(allTag)));
+
+        this.mockMvc.perform(post("/events").contentType(MediaType.APPLICATION_JSON).content(event(type, "closed", 3000L)))
+                .andExpect(status().isCreated());
+        this.mockMvc.perform(get("/events/" + type + "/latest").header("If-None-Match", typeTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.value").value("closed"));
+    }
+
+    @Test
+    public void binaryBatchAndRange() throws Exception {
+        String type = uniqueType();
+        List<Event> events = Arrays.asList(new Event(UUID.randomUUID(), new EventType(type), new EventValue("open"), 1000L),
+                                           new Event(UUID.randomUUID(), new EventType(type), new EventValue("closed"), 2000L));
+        this.mockMvc.perform(post("/events/batch").contentType(EventMessageConverter.EVENT_BINARY).content(EventCodec.encode(events)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[1].status").value("CREATED"));
+
+        MvcResult range = this.mockMvc.perform(get("/events/" + type + "/earliest/0/latest/5000").accept(EventMessageConverter.EVENT_BINARY))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(EventMessageConverter.EVENT_BINARY))
+                .andReturn();
+        Assert.assertEquals(Arrays.asList(events.get(1), events.get(0)), EventCodec.decode(range.getResponse().getContentAsByteArray()));
+
+        Event added = new Event(UUID.randomUUID(), new EventType(type), new EventValue("open"), 3000L);
+        this.mockMvc.perform(post("/events").contentType(EventMessageConverter.EVENT_BINARY).content(EventCodec.encode(Arrays.asList(added))))
+                .andExpect(status().isCreated());
+        MvcResult latest = this.mockMvc.perform(get("/events/" + type + "/latest").accept(EventMessageConverter.EVENT_BINARY))
+                .andExpect(status().isOk())
+                .andReturn();
+        Assert.assertEquals(Arrays.asList(added), EventCodec.decode(latest.getResponse().getContentAsByteArray()));
+
+        this.mockMvc.perform(get("/events/" + type + "/latest"))
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON));
+        this.mockMvc.perform(post("/events/batch").contentType(EventMessageConverter.EVENT_BINARY).content(new byte[]{'E', 'V', 1, 1}))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void conditionalGetTagsEachEncoding() throws Exception {
+        String type = uniqueType();
+        this.mockMvc.perform(post("/events").contentType(MediaType.APPLICATION_JSON).content(event(type, "open", 1000L)))
+                .andExpect(status().isCreated());
+
+        String jsonTag = this.mockMvc.perform(get("/events/" + type + "/latest"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Vary", "Accept"))
+                .andReturn().getResponse().getHeader("ETag");
+        String binaryTag = this.mockMvc.perform(get("/events/" + type + "/latest").accept(EventMessageConverter.EVENT_BINARY))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(EventMessageConverter.EVENT_BINARY))
+                .andExpect(header().string("Vary", "Accept"))
+                .andReturn().getResponse().getHeader("ETag");
+        Assert.assertNotNull(jsonTag);
+        Assert.assertNotEquals(jsonTag, binaryTag);
+
+        this.mockMvc.perform(get("/events/" + type + "/latest").header("If-None-Match", binaryTag))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON));
+        this.mockMvc.perform(get("/events/" + type + "/latest").accept(EventMessageConverter.EVENT_BINARY).header("If-None-Match", jsonTag))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(EventMessageConverter.EVENT_BINARY));
+        this.mockMvc.perform(get("/events/" + type + "/latest").accept(EventMessageConverter.EVENT_BINARY).header("If-None-Match", binaryTag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("Vary", "Accept"));
+        this.mockMvc.perform(get("/events").accept(EventMessageConverter.EVENT_BINARY))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(EventMessageConverter.EVENT_BINARY))
+                .andExpect(header().string("Vary", "Accept"))
+                .andExpect(header().string("ETag", Matchers.endsWith("-bin\"")));
+    }
+
+    @Test
+    public void addEventsMalformed() throws Exception {
+        this.mockMvc.perform(post("/events/batch").contentType(MediaType.APPLICATION_JSON).content("[{\"type\":"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void requestsAndStoreCallsTimed() throws Exception {
+        String type = uniqueType();
+        this.mockMvc.perform(post("/events/batch").contentType(MediaType.APPLICATION_JSON).content("[" + event(type, "on", 1000L) + "]"))
+                .andExpect(status().isOk());
+        MvcResult result = this.mockMvc.perform(get("/events/" + type + "/latest"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        Map<String, Number> requests = metrics(this.eventRequestMetrics);
+        Assert.assertTrue(requests.get("event.http.get.events.type.latest.count").longValue() >= 1L);
+        Assert.assertTrue(requests.get("event.http.get.events.type.latest.size").longValue() >= result.getResponse().getContentAsByteArray().length);
+        Assert.assertTrue(requests.get("event.http.post.events.batch.p999Micros").longValue() > 0L);
+        Assert.assertTrue(metrics(this.eventDaoMetrics).get("event.dao.addEvents.count").longValue() >= 1L);
+    }
+
+    private static Map<String, Number> metrics(OperationMetrics operationMetrics) {
+        Map<String, Number> metrics = new HashMap<>();
+        for (Metric<?> metric : operationMetrics.metrics()) {
+            metrics.put(metric.getName(), metric.getValue());
+        }
+        return metrics;
+    }
+
+    static String event(String type, String value, long epochMillis) {
+        return "{\"uuid\":\"" + UUID.randomUUID() + "\",\"type\":\"" + type + "\",\"value\":\"" + value
+                + "\",\"epochMillis\":" + epochMillis + "}";
+    }
+
+    static String uniqueType() {
+        return "test-" + UUID.randomUUID();
+    }
+}
@@ -0,0 +1,320 @@
+package org.novalabs.event.dao;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventBucket;
+import org.novalabs.event.domain.EventCursor;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+
+/**
+ * Behavior every {@code EventDao} implementation must have.  Each implementation's test extends this class.
+ */
+public abstract class EventDaoContractTest {
+    private static final long DAY = TimeUnit.DAYS.toMillis(1L);
+
+    /**
+     * Returns the DAO under test.
+     * @return  the DAO
+     */
+    protected abstract EventDao eventDao();
+
+    /**
+     * Asserts that the DAO released the resources (e.g. connections) used by the preceding operations.
+     * @throws Exception  if the check fails
+     */
+    protected void assertResourcesReleased() throws Exception {
+    }
+
+    @Test
+    public void addAndFind() throws Exception {
+        String type = uniqueType();
+        Event event = new Event(UUID.randomUUID(), new EventType(type), new EventValue("open"), 1000L);
+        Assert.assertFalse(this.eventDao().containsEvent(event.getUuid()));
+        Assert.assertTrue(this.eventDao().addEvent(event));
+        Assert.assertTrue(this.eventDao().containsEvent(event.getUuid()));
+        Assert.assertEquals(event, this.eventDao().findLatestEvent(type));
+        Assert.assertEquals(1L, this.eventDao().countEvents(type));
+        Assert.assertEquals(1, this.eventDao().findEvents(type).size());
+        Assert.assertTrue(this.eventDao().findAllTypes().contains(type));
+        Assert.assertEquals(Long.valueOf(1L), this.eventDao().countEventsByType().get(type));
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void unknownType() throws Exception {
+        String type = uniqueType();
+        Assert.assertNull(this.eventDao().findLatestEvent(type));
+        Assert.assertEquals(0L, this.eventDao().countEvents(type));
+        Assert.assertTrue(this.eventDao().findEvents(type).isEmpty());
+        Assert.assertFalse(this.eventDao().findAllTypes().contains(type));
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void duplicateUuidFails() throws Exception {
+        String type = uniqueType();
+        Event event = new Event(UUID.randomUUID(), new EventType(type), new EventValue("open"), 1000L);
+        Assert.assertTrue(this.eventDao().addEvent(event));
+        try {
+            this.eventDao().addEvent(event);
+            Assert.fail("duplicate uuid should fail");
+        } catch (Exception expected) {
+        }
+
+        Assert.assertEquals(1L, this.eventDao().countEvents(type));
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void duplicateUuidAtOtherTimeFails() throws Exception {
+        String type = uniqueType();
+        Event event = new Event(UUID.randomUUID(), new EventType(type), new EventValue("open"), 1000L);
+        Assert.assertTrue(this.eventDao().addEvent(event));
+        // another day and month, which a partitioned store keeps in another table
+        Event moved = new Event(event.getUuid(), new EventType(type), new EventValue("open"), 40L * DAY);
+        try {
+            this.eventDao().addEvent(moved);
+            Assert.fail("duplicate uuid should fail");
+        } catch (Exception expected) {
+        }
+        try {
+            this.eventDao().addEvents(Collections.singletonList(moved));
+            Assert.fail("duplicate uuid should fail");
+        } catch (Exception expected) {
+        }
+
+        Assert.assertEquals(1L, this.eventDao().countEvents(type));
+        Assert.assertEquals(Collections.singletonList(event), this.eventDao().findEvents(type));
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void addEventsBatch() throws Exception {
+        String type = uniqueType();
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            events.add(new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), i));
+        }
+
+        Assert.assertEquals(50, this.eventDao().addEvents(events));
+        Assert.assertEquals(50L, this.eventDao().countEvents(type));
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void addEventsBatchRollsBack() throws Exception {
+        String type = uniqueType();
+        String otherType = uniqueType();
+        Event event = new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), 1L);
+        List<Event> events = new ArrayList<>();
+        events.add(new Event(UUID.randomUUID(), new EventType(type), new EventValue("off"), 2L));
+        events.add(new Event(UUID.randomUUID(), new EventType(otherType), new EventValue("off"), 2L));
+        events.add(event);
+        events.add(event);
+        try {
+            this.eventDao().addEvents(events);
+            Assert.fail("duplicate uuid should fail");
+        } catch (Exception expected) {
+        }
+
+        Assert.assertEquals(0L, this.eventDao().countEvents(type));
+        Assert.assertEquals(0L, this.eventDao().countEvents(otherType));
+        Assert.assertTrue(this.eventDao().addEvent(event));
+        Assert.assertEquals(1L, this.eventDao().countEvents(type));
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void findEventsInRange() throws Exception {
+        String type = uniqueType();
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            // added out of time order
+            events.add(new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), 1000L + (i * 7L) % 20L * 100L));
+        }
+        this.eventDao().addEvents(events);
+
+        List<Event> range = this.eventDao().findEvents(type, Instant.ofEpochMilli(1500L), Instant.ofEpochMilli(2000L));
+        Assert.assertEquals(6, range.size());
+        Assert.assertEquals(2000L, range.get(0).getEpochMillis());
+        Assert.assertEquals(1500L, range.get(5).getEpochMillis());
+        List<Event> streamed = new ArrayList<>();
+        this.eventDao().streamEvents(type, Instant.ofEpochMilli(1500L), Instant.ofEpochMilli(2000L), streamed::add);
+        Assert.assertEquals(range, streamed);
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void countEventsByBucket() throws Exception {
+        String type = uniqueType();
+        List<Event> events = new ArrayList<>();
+        // buckets of 1000ms: [0, 1000) has open, open, closed; [2000, 3000) has closed; 3000 is past the latest time
+        long[] times = {0L, 400L, 999L, 2000L, 3000L};
+        String[] values = {"open", "open", "closed", "closed", "open"};
+        for (int i = 0; i < times.length; ++i) {
+            events.add(new Event(UUID.randomUUID(), new EventType(type), new EventValue(values[i]), times[i]));
+        }
+        Assert.assertEquals(times.length, this.eventDao().addEvents(events));
+
+        List<EventBucket> buckets = this.eventDao().countEventsByBucket(type, Instant.ofEpochMilli(0L),
+                                                                        Instant.ofEpochMilli(2999L), 1000L);
+        Assert.assertEquals(2, buckets.size());
+        Assert.assertEquals(0L, buckets.get(0).getEpochMillis());
+        Assert.assertEquals(3L, buckets.get(0).getCount());
+        Assert.assertEquals(Long.valueOf(2L), buckets.get(0).getValues().get("open"));
+        Assert.assertEquals(Long.valueOf(1L), buckets.get(0).getValues().get("closed"));
+        Assert.assertEquals(2000L, buckets.get(1).getEpochMillis());
+        Assert.assertEquals(1L, buckets.get(1).getCount());
+        Assert.assertEquals(Long.valueOf(1L), buckets.get(1).getValues().get("closed"));
+        Assert.assertTrue(this.eventDao().countEventsByBucket(uniqueType(), Instant.ofEpochMilli(0L),
+                                                              Instant.ofEpochMilli(2999L), 1000L).isEmpty());
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void countEventsByBucketInUtc() throws Exception {
+        String type = uniqueType();
+        // an hour before midnight UTC in July, when a daylight saving time zone is an hour off its winter offset
+        Instant time = Instant.parse("2017-07-15T23:30:00Z");
+        Instant day = Instant.parse("2017-07-15T00:00:00Z");
+        TimeZone timeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+        try {
+            Assert.assertTrue(this.eventDao().addEvent(new Event(UUID.randomUUID(), new EventType(type), new EventValue("open"),
+                                                                 time.toEpochMilli())));
+            // a range that isn't whole days, so that the buckets are counted from the events
+            List<EventBucket> buckets = this.eventDao().countEventsByBucket(type, day.plusMillis(DAY / 2L),
+                                                                            day.plusMillis(DAY + DAY / 2L), DAY);
+            Assert.assertEquals(1, buckets.size());
+            Assert.assertEquals(day.toEpochMilli(), buckets.get(0).getEpochMillis());
+            Assert.assertEquals(1L, buckets.get(0).getCount());
+        } finally {
+            TimeZone.setDefault(timeZone);
+        }
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void findEventsPaged() throws Exception {
+        String type = uniqueType();
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 25; ++i) {
+            // pairs of events share a time, so pages must break ties on uuid
+            events.add(new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), 1000L + i / 2));
+        }
+        this.eventDao().addEvents(events);
+
+        Set<UUID> seen = new HashSet<>();
+        EventCursor after = null;
+        Event previous = null;
+        int pages = 0;
+        List<Event> page;
+        do {
+            page = this.eventDao().findEvents(type, Instant.EPOCH, Instant.ofEpochMilli(5000L), after, 10);
+            for (Event event : page) {
+                Assert.assertTrue(seen.add(event.getUuid()));
+                Assert.assertTrue(previous == null || previous.getEpochMillis() >= event.getEpochMillis());
+                previous = event;
+            }
+            after = page.isEmpty() ? null : EventCursor.of(page.get(page.size() - 1));
+            ++pages;
+        } while (page.size() == 10);
+
+        Assert.assertEquals(25, seen.size());
+        Assert.assertEquals(3, pages);
+        Assert.assertEquals(this.eventDao().findEvents(type, Instant.EPOCH, Instant.ofEpochMilli(5000L)).get(0).getEpochMillis(),
+                            this.eventDao().findEvents(type, Instant.EPOCH, Instant.ofEpochMilli(5000L), null, 1).get(0).getEpochMillis());
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void latestEventMaintainedOnWrite() throws Exception {
+        String type = uniqueType();
+        Event newer = new Event(UUID.randomUUID(), new EventType(type), new EventValue("closed"), 2000L);
+        Assert.assertTrue(this.eventDao().addEvent(newer));
+        Assert.assertTrue(this.eventDao().addEvent(new Event(UUID.randomUUID(), new EventType(type), new EventValue("open"), 1000L)));
+        Assert.assertEquals(newer, this.latestEvent(type));
+        Assert.assertTrue(this.eventDao().findAllTypes().contains(type));
+
+        List<Event> events = new ArrayList<>();
+        Event newest = new Event(UUID.randomUUID(), new EventType(type), new EventValue("open"), 3000L);
+        events.add(new Event(UUID.randomUUID(), new EventType(type), new EventValue("closed"), 2500L));
+        events.add(newest);
+        events.add(new Event(UUID.randomUUID(), new EventType(type), new EventValue("closed"), 1500L));
+        Assert.assertEquals(3, this.eventDao().addEvents(events));
+        Assert.assertEquals(newest, this.latestEvent(type));
+        Assert.assertEquals(this.eventDao().findLatestEvent(type), this.latestEvent(type));
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void concurrentAdds() throws Exception {
+        String type = uniqueType();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            long time = i;
+            results.add(executor.submit(() -> this.eventDao().addEvent(
+                    new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), time))));
+        }
+
+        for (Future<Boolean> result : results) {
+            Assert.assertTrue(result.get());
+        }
+
+        executor.shutdown();
+        Assert.assertEquals(200L, this.eventDao().countEvents(type));
+        Assert.assertEquals(199L, this.eventDao().findLatestEvent(type).getEpochMillis());
+        Assert.assertEquals(200, this.eventDao().findEvents(type).size());
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void deleteEventsKeepsLatest() throws Exception {
+        String type = uniqueType();
+        Event oldest = new Event(UUID.randomUUID(), new EventType(type), new EventValue("open"), 1000L);
+        Event latest = new Event(UUID.randomUUID(), new EventType(type), new EventValue("open"), 4L * DAY);
+        // added apart, with time spans that roll a segment store over before the latest event; reading the latest event
+        // between adds keeps a write-behind DAO from applying them to its store as one batch
+        Assert.assertTrue(this.eventDao().addEvent(oldest));
+        Assert.assertEquals(oldest, this.eventDao().findLatestEvent(type));
+        Assert.assertTrue(this.eventDao().addEvent(new Event(UUID.randomUUID(), new EventType(type), new EventValue("closed"), 2L * DAY)));
+        Assert.assertEquals(2L * DAY, this.eventDao().findLatestEvent(type).getEpochMillis());
+        Assert.assertTrue(this.eventDao().addEvent(latest));
+
+        Assert.assertEquals(2, this.eventDao().deleteEvents(type, Instant.ofEpochMilli(3L * DAY), 10));
+        Assert.assertFalse(this.eventDao().containsEvent(oldest.getUuid()));
+        Assert.assertEquals(Collections.singletonList(latest), this.eventDao().findEvents(type));
+        Assert.assertEquals(latest, this.eventDao().findLatestEvent(type));
+        Assert.assertTrue(this.eventDao().findAllTypes().contains(type));
+
+        // the latest event is kept even when it has expired
+        Assert.assertEquals(0, this.eventDao().deleteEvents(type, Instant.ofEpochMilli(10L * DAY), 10));
+        Assert.assertEquals(latest, this.eventDao().findLatestEvent(type));
+        Assert.assertEquals(0, this.eventDao().deleteEvents(uniqueType(), Instant.ofEpochMilli(10L * DAY), 10));
+        this.assertResourcesReleased();
+    }
+
+    protected Event latestEvent(String type) throws Exception {
+        return this.eventDao().findLatestEvents().stream().filter(event -> event.getType().getString().equals(type))
+                .findFirst().orElse(null);
+    }
+
+    protected static String uniqueType() {
+        return "test-" + UUID.randomUUID();
+    }
+}
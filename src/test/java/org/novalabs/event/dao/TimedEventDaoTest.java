@@ -0,0 +1,59 @@
+package org.novalabs.event.dao;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+import org.novalabs.event.util.OperationMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+public class TimedEventDaoTest {
+    public TimedEventDaoTest() {
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void callsTimedBySizeAndFailure() throws Exception {
+        EventDao store = Mockito.mock(EventDao.class);
+        Event event = new Event(UUID.randomUUID(), new EventType("door"), new EventValue("open"), 1000L);
+        Mockito.when(store.findEvents("door")).thenReturn(Arrays.asList(event, event, event));
+        Mockito.when(store.findEvents("mongo")).thenThrow(new EventDaoException("findEvents failed"));
+        Mockito.doAnswer(invocation -> {
+            Consumer<Event> consumer = (Consumer<Event>) invocation.getArguments()[3];
+            consumer.accept(event);
+            consumer.accept(event);
+            return null;
+        }).when(store).streamEvents(Mockito.eq("door"), Mockito.any(Instant.class), Mockito.any(Instant.class), Mockito.any(Consumer.class));
+
+        OperationMetrics operationMetrics = new OperationMetrics("event.dao.", 60000L);
+        EventDao eventDao = new TimedEventDao(store, operationMetrics);
+        Assert.assertEquals(3, eventDao.findEvents("door").size());
+        try {
+            eventDao.findEvents("mongo");
+            Assert.fail("failure not rethrown");
+        } catch (EventDaoException expected) {
+        }
+        int[] streamed = new int[1];
+        eventDao.streamEvents("door", Instant.EPOCH, Instant.now(), e -> ++streamed[0]);
+        Assert.assertEquals(2, streamed[0]);
+
+        Map<String, Number> metrics = new HashMap<>();
+        for (Metric<?> metric : operationMetrics.metrics()) {
+            metrics.put(metric.getName(), metric.getValue());
+        }
+        Assert.assertEquals(2L, metrics.get("event.dao.findEvents.count"));
+        Assert.assertEquals(1L, metrics.get("event.dao.findEvents.failures"));
+        Assert.assertEquals(3L, metrics.get("event.dao.findEvents.size"));
+        Assert.assertEquals(2L, metrics.get("event.dao.streamEvents.size"));
+        Assert.assertEquals(0L, metrics.get("event.dao.streamEvents.failures"));
+        Assert.assertFalse(metrics.containsKey("event.dao.findEventsInRange.count"));
+    }
+}
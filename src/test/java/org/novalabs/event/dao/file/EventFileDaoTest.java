@@ -0,0 +1,182 @@
+package org.novalabs.event.dao.file;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.novalabs.event.dao.EventDao;
+import org.novalabs.event.dao.EventDaoContractTest;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventCursor;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+
+public class EventFileDaoTest extends EventDaoContractTest {
+    // small segments, so the tests roll over and read across segments
+    private static final long SEGMENT_BYTES = 8192L;
+    private static final long SEGMENT_MILLIS = 10000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private EventFileDao eventFileDao;
+
+    public EventFileDaoTest() {
+    }
+
+    @Before
+    public void open() throws Exception {
+        this.directory = this.folder.getRoot().toPath();
+        this.eventFileDao = new EventFileDao(this.directory, SEGMENT_BYTES, SEGMENT_MILLIS, false);
+    }
+
+    @After
+    public void close() {
+        this.eventFileDao.close();
+    }
+
+    @Override
+    protected EventDao eventDao() {
+        return this.eventFileDao;
+    }
+
+    @Test
+    public void reopenRestoresEvents() throws Exception {
+        String type = uniqueType();
+        List<Event> events = this.events(type, 500, 0L, 50L);
+        for (int i = 0; i < events.size(); i += 50) {
+            // a batch is written to one segment, so segments roll over between batches
+            this.eventFileDao.addEvents(events.subList(i, i + 50));
+        }
+        List<Event> found = this.eventFileDao.findEvents(type);
+        Assert.assertTrue(this.segments(type) > 1);
+
+        this.reopen();
+        Assert.assertEquals(500L, this.eventFileDao.countEvents(type));
+        Assert.assertEquals(found, this.eventFileDao.findEvents(type));
+        Assert.assertEquals(found.get(0), this.eventFileDao.findLatestEvent(type));
+        try {
+            this.eventFileDao.addEvent(events.get(17));
+            Assert.fail("duplicate uuid should fail after reopening");
+        } catch (Exception expected) {
+        }
+    }
+
+    @Test
+    public void outOfOrderSegmentsAreSorted() throws Exception {
+        String type = uniqueType();
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 400; ++i) {
+            // interleaves times across the whole range, so segments overlap and each is out of order
+            events.add(new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), (i * 37L) % 400L * 20L));
+            if (events.size() == 40) {
+                this.eventFileDao.addEvents(events);
+                events.clear();
+            }
+        }
+        Assert.assertTrue(this.segments(type) > 1);
+
+        List<Event> all = this.eventFileDao.findEvents(type);
+        Assert.assertEquals(400, all.size());
+        for (int i = 1; i < all.size(); ++i) {
+            Assert.assertTrue(all.get(i - 1).getEpochMillis() > all.get(i).getEpochMillis());
+        }
+
+        List<Event> range = this.eventFileDao.findEvents(type, Instant.ofEpochMilli(2000L), Instant.ofEpochMilli(3990L));
+        Assert.assertEquals(100, range.size());
+        List<Event> page = this.eventFileDao.findEvents(type, Instant.EPOCH, Instant.ofEpochMilli(8000L),
+                                                        EventCursor.of(all.get(99)), 10);
+        Assert.assertEquals(all.subList(100, 110), page);
+
+        this.reopen();
+        Assert.assertEquals(all, this.eventFileDao.findEvents(type));
+    }
+
+    @Test
+    public void overlappingSegmentsMergeTies() throws Exception {
+        String type = uniqueType();
+        List<Event> all = new ArrayList<>();
+        for (int batch = 0; batch < 6; ++batch) {
+            // every batch covers the same times, so the segments overlap with ties between them
+            List<Event> events = new ArrayList<>();
+            for (int i = 0; i < 200; ++i) {
+                events.add(new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), i * 5L));
+            }
+            Assert.assertEquals(events.size(), this.eventFileDao.addEvents(events));
+            all.addAll(events);
+        }
+        Assert.assertTrue(this.segments(type) > 2);
+
+        all.sort(Comparator.comparingLong(Event::getEpochMillis).thenComparing(Event::getUuid).reversed());
+        Assert.assertEquals(all, this.eventFileDao.findEvents(type));
+        Assert.assertEquals(all.subList(51, 71), this.eventFileDao.findEvents(type, Instant.EPOCH, Instant.ofEpochMilli(1000L),
+                                                                              EventCursor.of(all.get(50)), 20));
+    }
+
+    @Test
+    public void tornTailIsTruncated() throws Exception {
+        String type = uniqueType();
+        this.eventFileDao.addEvents(this.events(type, 10, 1000L, 10L));
+        this.eventFileDao.close();
+
+        Path active = this.segmentFiles(type).get(this.segmentFiles(type).size() - 1);
+        try (FileChannel channel = FileChannel.open(active, StandardOpenOption.APPEND)) {
+            // a record header promising more bytes than were written
+            ByteBuffer header = ByteBuffer.allocate(12).putInt(100).putInt(0).putInt(42);
+            header.flip();
+            channel.write(header);
+        }
+
+        this.reopen();
+        Assert.assertEquals(10L, this.eventFileDao.countEvents(type));
+        Assert.assertTrue(this.eventFileDao.addEvent(new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), 5000L)));
+        this.reopen();
+        Assert.assertEquals(11L, this.eventFileDao.countEvents(type));
+        Assert.assertEquals(5000L, this.eventFileDao.findLatestEvent(type).getEpochMillis());
+    }
+
+    @Test
+    public void encodesTypeNames() {
+        String type = "front door/ünicode";
+        Assert.assertEquals(type, EventFileDao.decodeType(EventFileDao.encodeType(type)));
+        Assert.assertNull(EventFileDao.decodeType("not base64!"));
+    }
+
+    private void reopen() throws Exception {
+        this.eventFileDao.close();
+        this.eventFileDao = new EventFileDao(this.directory, SEGMENT_BYTES, SEGMENT_MILLIS, false);
+    }
+
+    private List<Event> events(String type, int count, long start, long step) {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            events.add(new Event(UUID.randomUUID(), new EventType(type), new EventValue(i % 2 == 0 ? "on" : "off"), start + i * step));
+        }
+        return events;
+    }
+
+    private int segments(String type) throws Exception {
+        return this.segmentFiles(type).size();
+    }
+
+    private List<Path> segmentFiles(String type) throws Exception {
+        try (Stream<Path> files = Files.list(this.directory.resolve(EventFileDao.encodeType(type)))) {
+            return files.filter(path -> path.toString().endsWith(Segment.SUFFIX)).sorted().collect(Collectors.toList());
+        }
+    }
+}
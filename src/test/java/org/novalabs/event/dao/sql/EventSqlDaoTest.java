@@ -0,0 +1,357 @@
+package org.novalabs.event.dao.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.sql.DataSource;
+import org.apache.tomcat.jdbc.pool.DataSourceProxy;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.novalabs.event.dao.EventBucketCounter;
+import org.novalabs.event.dao.EventDao;
+import org.novalabs.event.dao.EventDaoContractTest;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventBucket;
+import org.novalabs.event.domain.EventCursor;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class EventSqlDaoTest extends EventDaoContractTest {
+    private static final Pattern SCAN_COUNT = Pattern.compile("scanCount: (\\d+)");
+
+    @Autowired
+    private EventSqlDao eventSqlDao;
+
+    @Autowired
+    private DataSource dataSource;
+
+    public EventSqlDaoTest() {
+    }
+
+    @Override
+    protected EventDao eventDao() {
+        return this.eventSqlDao;
+    }
+
+    /**
+     * Asserts that every connection was returned to the pool.
+     */
+    @Override
+    protected void assertResourcesReleased() {
+        Assert.assertTrue(this.dataSource instanceof DataSourceProxy);
+        Assert.assertEquals(0, ((DataSourceProxy) this.dataSource).getActive());
+    }
+
+    @Test
+    public void queriesUseTypeTimeIndex() throws Exception {
+        this.assertIndexed(EventSqlDao.ALL_EVENTS_SQL, "test");
+        this.assertIndexed(EventSqlDao.FIND_EVENTS_IN_TIME, "test", new Timestamp(0L), new Timestamp(1000L));
+        this.assertIndexed(EventSqlDao.COUNT_EVENTS_BY_BUCKET, "test", new Timestamp(0L), new Timestamp(1000L));
+        Assert.assertTrue(this.plan(EventRollups.FIND_EVENTS_BY_TYPE).contains("index sorted"));
+        Assert.assertTrue(this.plan(EventSqlDao.COUNT_EVENTS_BY_BUCKET, "test", new Timestamp(0L), new Timestamp(1000L))
+                              .contains("index sorted"));
+        this.assertIndexed(EventSqlDao.FIND_EXPIRED, "test", new Timestamp(1000L), UUID.randomUUID(), 10);
+        this.assertIndexed(EventSqlDao.FIND_EVENTS_PAGE, "test", new Timestamp(0L), new Timestamp(1000L), 10);
+        this.assertIndexed(EventSqlDao.FIND_EVENTS_PAGE_AFTER, "test", new Timestamp(0L), new Timestamp(1000L), new Timestamp(1000L),
+                           new Timestamp(1000L), UUID.randomUUID(), 10);
+    }
+
+    @Test
+    public void partitionMoveUsesTimeIndex() throws Exception {
+        try (Connection connection = this.dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate(EventPartitions.CREATE_MOVE_INDEX);
+        }
+        try {
+            Timestamp start = new Timestamp(0L);
+            Timestamp end = new Timestamp(TimeUnit.DAYS.toMillis(1L));
+            this.assertUsesIndex("IDX_EVENT_TIME_MOVE", EventPartitions.EARLIEST_UNPARTITIONED);
+            this.assertUsesIndex("IDX_EVENT_TIME_MOVE", String.format(EventPartitions.MOVE_EVENTS, "event"), start, end);
+            this.assertUsesIndex("IDX_EVENT_TIME_MOVE", EventPartitions.MOVE_UUIDS, start, end);
+            this.assertUsesIndex("IDX_EVENT_TIME_MOVE", EventPartitions.DELETE_MOVED, start, end);
+        } finally {
+            try (Connection connection = this.dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.executeUpdate(EventPartitions.DROP_MOVE_INDEX);
+            }
+        }
+    }
+
+    @Test
+    public void pageQueriesReadOnlyTheirWindow() throws Exception {
+        String type = uniqueType();
+        long second = TimeUnit.SECONDS.toMillis(1L);
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            events.add(new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), i * second));
+        }
+        Assert.assertEquals(events.size(), this.eventSqlDao.addEvents(events));
+
+        // the cursor's time bounds the index range, so only the rows at or before it are read, not the whole range
+        Event cursor = events.get(1000);
+        Timestamp cursorTime = new Timestamp(cursor.getEpochMillis());
+        Assert.assertTrue(this.scanCount(EventSqlDao.FIND_EVENTS_PAGE_AFTER, type, new Timestamp(0L), cursorTime, cursorTime,
+                                         cursorTime, cursor.getUuid(), 10) <= 1002L);
+        // and a window reads only its own rows
+        Timestamp windowStart = new Timestamp(cursor.getEpochMillis() - TimeUnit.MINUTES.toMillis(1L) + 1L);
+        Assert.assertTrue(this.scanCount(EventSqlDao.FIND_EVENTS_PAGE_AFTER, type, windowStart, cursorTime, cursorTime,
+                                         cursorTime, cursor.getUuid(), 10) <= 62L);
+        Assert.assertTrue(this.scanCount(EventSqlDao.FIND_EVENTS_PAGE, type, windowStart, cursorTime, 10) <= 62L);
+
+        // pages spanning many windows still come back whole and in order
+        List<Event> page = this.eventSqlDao.findEvents(type, Instant.EPOCH, Instant.ofEpochMilli(1999L * second),
+                                                       EventCursor.of(cursor), 500);
+        Assert.assertEquals(500, page.size());
+        Assert.assertEquals(999L * second, page.get(0).getEpochMillis());
+        Assert.assertEquals(500L * second, page.get(499).getEpochMillis());
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void countQueriesUseRollupKey() throws Exception {
+        this.assertUsesIndex("PRIMARY_KEY", EventSqlDao.COUNT_EVENTS, EventRollups.COARSEST, "test");
+        this.assertUsesIndex("PRIMARY_KEY", EventSqlDao.COUNT_EVENTS_BY_TYPE, EventRollups.COARSEST);
+        this.assertUsesIndex("PRIMARY_KEY", EventSqlDao.COUNT_ROLLUPS_BY_BUCKET, 3600000L, 3600000L, "test", 0L, 3600000L);
+    }
+
+    @Test
+    public void rollupHistogramMatchesEvents() throws Exception {
+        String type = uniqueType();
+        this.addEventsOverDays(type, 3);
+        long hour = TimeUnit.HOURS.toMillis(1L);
+        long day = TimeUnit.DAYS.toMillis(1L);
+        // unaligned ends exercise the partial buckets counted from the event table
+        this.assertHistogramMatchesEvents(type, 1234L, 2 * day + 5 * hour + 17L, hour);
+        this.assertHistogramMatchesEvents(type, 0L, 3 * day, day);
+        this.assertHistogramMatchesEvents(type, hour + 1L, hour + 2L, hour);
+        this.assertHistogramMatchesEvents(type, 777L, 2 * day + 1L, 2 * day);
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void rebuildRollupsRestoresCounts() throws Exception {
+        String type = uniqueType();
+        int added = this.addEventsOverDays(type, 2);
+        Assert.assertEquals(added, this.eventSqlDao.countEvents(type));
+        Map<String, Long> rollups = this.rollups(type);
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("DELETE from event_rollup WHERE type = ?")) {
+            preparedStatement.setString(1, type);
+            preparedStatement.executeUpdate();
+        }
+        Assert.assertEquals(0L, this.eventSqlDao.countEvents(type));
+
+        Assert.assertTrue(this.eventSqlDao.rebuildRollups() > 0);
+        Assert.assertEquals(added, this.eventSqlDao.countEvents(type));
+        Assert.assertEquals(rollups, this.rollups(type));
+        Assert.assertEquals(Long.valueOf(added), this.eventSqlDao.countEventsByType().get(type));
+        this.assertHistogramMatchesEvents(type, 0L, TimeUnit.DAYS.toMillis(2L), TimeUnit.HOURS.toMillis(1L));
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void rebuildRollupsInUtc() throws Exception {
+        String type = uniqueType();
+        TimeZone timeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+        try {
+            // an hour before midnight UTC in July, when a daylight saving time zone is an hour off its winter offset
+            long time = Instant.parse("2017-07-15T23:30:00Z").toEpochMilli();
+            Assert.assertTrue(this.eventSqlDao.addEvent(new Event(UUID.randomUUID(), new EventType(type), new EventValue("open"), time)));
+            Map<String, Long> added = this.rollups(type);
+            long day = TimeUnit.DAYS.toMillis(1L);
+            Assert.assertEquals(Long.valueOf(1L), added.get(day + "/" + EventBucketCounter.bucketStart(time, day)));
+
+            Assert.assertTrue(this.eventSqlDao.rebuildRollups() > 0);
+            Assert.assertEquals(added, this.rollups(type));
+        } finally {
+            TimeZone.setDefault(timeZone);
+        }
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void deletedEventsStayCountedInRollups() throws Exception {
+        String type = uniqueType();
+        int added = this.addEventsOverDays(type, 2);
+        Instant dayEnd = Instant.ofEpochMilli(TimeUnit.DAYS.toMillis(1L) - 1L);
+        long hour = TimeUnit.HOURS.toMillis(1L);
+        int expired = this.eventSqlDao.findEvents(type, Instant.EPOCH, dayEnd).size();
+        Map<Long, Map<String, Long>> hourly = counts(this.eventSqlDao.countEventsByBucket(type, Instant.EPOCH, dayEnd, hour));
+
+        int deleted = 0;
+        for (int batch = 50; batch == 50; deleted += batch) {
+            batch = this.eventSqlDao.deleteEvents(type, dayEnd.plusMillis(1L), 50);
+        }
+        Assert.assertEquals(expired, deleted);
+        Assert.assertTrue(this.eventSqlDao.findEvents(type, Instant.EPOCH, dayEnd).isEmpty());
+        Assert.assertEquals(added, this.eventSqlDao.countEvents(type));
+        Assert.assertEquals(hourly, counts(this.eventSqlDao.countEventsByBucket(type, Instant.EPOCH, dayEnd, hour)));
+
+        // without the hour rollups, the day rollups still count the deleted events
+        Assert.assertTrue(this.eventSqlDao.deleteRollups(type, hour, dayEnd.plusMillis(1L), 1000) > 0);
+        Assert.assertTrue(this.eventSqlDao.countEventsByBucket(type, Instant.EPOCH, dayEnd, hour).isEmpty());
+        Assert.assertEquals(expired, this.eventSqlDao.countEventsByBucket(type, Instant.EPOCH, dayEnd, TimeUnit.DAYS.toMillis(1L))
+                .get(0).getCount());
+        Assert.assertEquals(added, this.eventSqlDao.countEvents(type));
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void rebuildRollupsKeepsCountsOfDeletedEvents() throws Exception {
+        String type = uniqueType();
+        int added = this.addEventsOverDays(type, 2);
+        Map<String, Long> rollups = this.rollups(type);
+
+        // delete up to the middle of an hour, so the hour and day holding the oldest remaining event lost some events
+        Instant cutoff = Instant.ofEpochMilli(TimeUnit.MINUTES.toMillis(30L * 60L + 30L));
+        int deleted = 0;
+        for (int batch = 50; batch == 50; deleted += batch) {
+            batch = this.eventSqlDao.deleteEvents(type, cutoff, 50);
+        }
+        Assert.assertTrue(deleted > 0);
+
+        Assert.assertTrue(this.eventSqlDao.rebuildRollups() > 0);
+        Assert.assertEquals(rollups, this.rollups(type));
+        Assert.assertEquals(added, this.eventSqlDao.countEvents(type));
+
+        // a bucket whose rollups were lost is recounted from the events it still holds
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("DELETE from event_rollup WHERE type = ? AND granularity = ?")) {
+            preparedStatement.setString(1, type);
+            preparedStatement.setLong(2, TimeUnit.DAYS.toMillis(1L));
+            preparedStatement.executeUpdate();
+        }
+        Assert.assertTrue(this.eventSqlDao.rebuildRollups() > 0);
+        Assert.assertEquals(added - deleted, this.eventSqlDao.countEvents(type));
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void streamReadsInPages() throws Exception {
+        // more than two pages, with runs of events at the same time across page boundaries
+        String type = uniqueType();
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 2100; ++i) {
+            events.add(new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), 1000L + i / 7));
+        }
+        Assert.assertEquals(events.size(), this.eventSqlDao.addEvents(events));
+
+        List<Event> streamed = new ArrayList<>();
+        this.eventSqlDao.streamEvents(type, Instant.EPOCH, Instant.ofEpochMilli(5000L), streamed::add);
+        Assert.assertEquals(this.eventSqlDao.findEvents(type, Instant.EPOCH, Instant.ofEpochMilli(5000L), null, 3000), streamed);
+        Assert.assertEquals(events.size(), streamed.stream().map(Event::getUuid).distinct().count());
+        this.assertResourcesReleased();
+    }
+
+    /**
+     * Adds events of alternating values every 7 minutes over the days, in batches and one at a time.
+     */
+    private int addEventsOverDays(String type, int days) throws Exception {
+        List<Event> events = new ArrayList<>();
+        long step = TimeUnit.MINUTES.toMillis(7L);
+        for (long time = 0L; time < TimeUnit.DAYS.toMillis(days); time += step) {
+            events.add(new Event(UUID.randomUUID(), new EventType(type), new EventValue(events.size() % 3 == 0 ? "on" : "off"), time));
+        }
+        Assert.assertEquals(events.size() - 1, this.eventSqlDao.addEvents(events.subList(1, events.size())));
+        Assert.assertTrue(this.eventSqlDao.addEvent(events.get(0)));
+        return events.size();
+    }
+
+    /**
+     * Asserts that the histogram, which sums rollups where it can, matches one counted from the events themselves.
+     */
+    private void assertHistogramMatchesEvents(String type, long earliest, long latest, long bucketMillis) throws Exception {
+        EventBucketCounter counter = new EventBucketCounter(bucketMillis);
+        this.eventSqlDao.streamEvents(type, Instant.ofEpochMilli(earliest), Instant.ofEpochMilli(latest), counter);
+        Assert.assertEquals(counts(counter.buckets()),
+                            counts(this.eventSqlDao.countEventsByBucket(type, Instant.ofEpochMilli(earliest),
+                                                                       Instant.ofEpochMilli(latest), bucketMillis)));
+    }
+
+    private static Map<Long, Map<String, Long>> counts(List<EventBucket> buckets) {
+        Map<Long, Map<String, Long>> counts = new LinkedHashMap<>();
+        for (EventBucket bucket : buckets) {
+            counts.put(bucket.getEpochMillis(), bucket.getValues());
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the type's rollup counts by granularity and bucket start.
+     */
+    private Map<String, Long> rollups(String type) throws Exception {
+        Map<String, Long> rollups = new LinkedHashMap<>();
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(
+                     "SELECT granularity, bucket_start, event_count from event_rollup WHERE type = ? ORDER BY granularity, bucket_start")) {
+            preparedStatement.setString(1, type);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    rollups.merge(resultSet.getLong(1) + "/" + resultSet.getLong(2), resultSet.getLong(3), Long::sum);
+                }
+            }
+        }
+        return rollups;
+    }
+
+    /**
+     * Returns the number of rows the database read to answer the query.
+     */
+    private long scanCount(String sql, Object... parameters) throws Exception {
+        String plan = this.plan("ANALYZE " + sql, parameters);
+        Matcher matcher = SCAN_COUNT.matcher(plan);
+        Assert.assertTrue(plan, matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+
+    /**
+     * Asserts that the query reads the event table through the (type, time) index rather than a table scan.
+     */
+    private void assertIndexed(String sql, Object... parameters) throws Exception {
+        this.assertUsesIndex("IDX_TYPE_TIME", sql, parameters);
+    }
+
+    /**
+     * Asserts that the query reads its table through the index (or the primary key) rather than a table scan.
+     */
+    private void assertUsesIndex(String index, String sql, Object... parameters) throws Exception {
+        String plan = this.plan(sql, parameters);
+        Assert.assertFalse(plan, plan.contains("tableScan"));
+        Assert.assertTrue(plan, plan.contains(index));
+    }
+
+    /**
+     * Returns the database's plan for the query.
+     */
+    private String plan(String sql, Object... parameters) throws Exception {
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 0; i < parameters.length; ++i) {
+                preparedStatement.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                Assert.assertTrue(resultSet.next());
+                return resultSet.getString(1);
+            }
+        }
+    }
+}
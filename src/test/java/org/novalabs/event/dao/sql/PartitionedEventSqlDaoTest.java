@@ -0,0 +1,184 @@
+package org.novalabs.event.dao.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import liquibase.Liquibase;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.novalabs.event.dao.EventDao;
+import org.novalabs.event.dao.EventDaoContractTest;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventCursor;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+
+/**
+ * The SQL DAO with a table per day, on its own database migrated by Liquibase.
+ */
+public class PartitionedEventSqlDaoTest extends EventDaoContractTest {
+    private static final long DAY = TimeUnit.DAYS.toMillis(1L);
+    private static DataSource dataSource;
+    private static EventSqlDao eventSqlDao;
+
+    public PartitionedEventSqlDaoTest() {
+    }
+
+    @BeforeClass
+    public static void createDatabase() throws Exception {
+        dataSource = new DataSource();
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:partitioned;DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        try (Connection connection = dataSource.getConnection()) {
+            new Liquibase("db/changelog/db.changelog-master.yaml", new ClassLoaderResourceAccessor(), new JdbcConnection(connection)).update("");
+        }
+
+        eventSqlDao = new EventSqlDao(dataSource, new SqlPoolMetrics(dataSource), EventSqlDao.Partitioning.DAY);
+        eventSqlDao.start();
+    }
+
+    @AfterClass
+    public static void closeDatabase() {
+        dataSource.close();
+    }
+
+    @Override
+    protected EventDao eventDao() {
+        return eventSqlDao;
+    }
+
+    @Override
+    protected void assertResourcesReleased() {
+        Assert.assertEquals(0, dataSource.getActive());
+    }
+
+    @Test
+    public void queriesSpanPartitions() throws Exception {
+        String type = uniqueType();
+        List<Event> events = new ArrayList<>();
+        for (long time = 10L * DAY; time < 15L * DAY; time += DAY / 4L) {
+            events.add(new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), time));
+        }
+        Assert.assertEquals(events.size(), eventSqlDao.addEvents(events));
+
+        List<Long> expected = new ArrayList<>();
+        for (long time = 14L * DAY - DAY / 2L; time >= 11L * DAY; time -= DAY / 4L) {
+            expected.add(time);
+        }
+        Assert.assertEquals(expected, times(eventSqlDao.findEvents(type, Instant.ofEpochMilli(11L * DAY), Instant.ofEpochMilli(14L * DAY - DAY / 2L))));
+        Assert.assertEquals(events.size(), eventSqlDao.findEvents(type).size());
+        Assert.assertEquals(15L * DAY - DAY / 4L, eventSqlDao.findLatestEvent(type).getEpochMillis());
+        Assert.assertTrue(eventSqlDao.containsEvent(events.get(0).getUuid()));
+
+        // pages of 3 cross partition boundaries
+        List<Long> paged = new ArrayList<>();
+        EventCursor after = null;
+        List<Event> page;
+        do {
+            page = eventSqlDao.findEvents(type, Instant.ofEpochMilli(11L * DAY), Instant.ofEpochMilli(14L * DAY - DAY / 2L), after, 3);
+            paged.addAll(times(page));
+            after = page.isEmpty() ? null : EventCursor.of(page.get(page.size() - 1));
+        } while (page.size() == 3);
+        Assert.assertEquals(expected, paged);
+
+        Assert.assertEquals(4L, eventSqlDao.countEventsByBucket(type, Instant.ofEpochMilli(11L * DAY), Instant.ofEpochMilli(12L * DAY - 1L), DAY)
+                .get(0).getCount());
+        Assert.assertTrue(eventSqlDao.rebuildRollups() > 0);
+        Assert.assertEquals(events.size(), eventSqlDao.countEvents(type));
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void onlyOverlappingPartitionsRead() throws Exception {
+        String type = uniqueType();
+        Assert.assertTrue(eventSqlDao.addEvent(new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), 20L * DAY + 5L)));
+        Assert.assertTrue(eventSqlDao.addEvent(new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), 22L * DAY + 5L)));
+        EventPartitions partitions = new EventPartitions(EventSqlDao.Partitioning.DAY);
+        try (Connection connection = dataSource.getConnection()) {
+            List<String> names = partitions.overlapping(connection, 20L * DAY, 21L * DAY).stream()
+                    .map(EventPartitions.Partition::getName).collect(Collectors.toList());
+            Assert.assertEquals(1, names.size());
+            Assert.assertEquals("event_19700121", names.get(0));
+            Assert.assertTrue(partitions.overlapping(connection, 21L * DAY, 22L * DAY - 1L).isEmpty());
+        }
+    }
+
+    @Test
+    public void unpartitionedEventsMovedAtStart() throws Exception {
+        // February 1971, which no other test writes to: a day partition on the 15th, an unpartitioned event on the 5th
+        String type = uniqueType();
+        UUID unpartitioned = UUID.randomUUID();
+        Assert.assertTrue(eventSqlDao.addEvent(new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), 410L * DAY)));
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(EventSqlDao.INSERT_EVENT)) {
+            preparedStatement.setObject(1, unpartitioned);
+            preparedStatement.setString(2, type);
+            preparedStatement.setString(3, "on");
+            preparedStatement.setTimestamp(4, Timestamp.from(Instant.ofEpochMilli(400L * DAY)));
+            preparedStatement.executeUpdate();
+        }
+
+        // month partitions around the day partition are narrowed so they don't overlap it
+        EventSqlDao monthly = new EventSqlDao(dataSource, new SqlPoolMetrics(dataSource), EventSqlDao.Partitioning.MONTH);
+        monthly.start();
+        Assert.assertTrue(monthly.addEvent(new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), 420L * DAY)));
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT count(*) from event")) {
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals(0L, resultSet.getLong(1));
+        }
+        // the time index built for the move is dropped once the event table is empty
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT count(*) from INFORMATION_SCHEMA.INDEXES WHERE INDEX_NAME = 'IDX_EVENT_TIME_MOVE'")) {
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals(0L, resultSet.getLong(1));
+        }
+        Assert.assertTrue(monthly.containsEvent(unpartitioned));
+
+        EventSqlDao restarted = new EventSqlDao(dataSource, new SqlPoolMetrics(dataSource), EventSqlDao.Partitioning.DAY);
+        Assert.assertEquals(Arrays.asList(420L * DAY, 410L * DAY, 400L * DAY),
+                            times(restarted.findEvents(type, Instant.ofEpochMilli(365L * DAY), Instant.ofEpochMilli(430L * DAY))));
+        try (Connection connection = dataSource.getConnection()) {
+            Assert.assertEquals(Arrays.asList("event_19710216", "event_19710215", "event_197102"),
+                                new EventPartitions(EventSqlDao.Partitioning.DAY).overlapping(connection, 396L * DAY, 424L * DAY).stream()
+                                        .map(EventPartitions.Partition::getName).collect(Collectors.toList()));
+        }
+        this.assertResourcesReleased();
+    }
+
+    @Test
+    public void deletedUuidsReleased() throws Exception {
+        String type = uniqueType();
+        Event expired = new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), 30L * DAY);
+        Assert.assertTrue(eventSqlDao.addEvent(expired));
+        Assert.assertTrue(eventSqlDao.addEvent(new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), 31L * DAY)));
+        Assert.assertTrue(eventSqlDao.containsEvent(expired.getUuid()));
+
+        Assert.assertEquals(1, eventSqlDao.deleteEvents(type, Instant.ofEpochMilli(31L * DAY), 10));
+        Assert.assertFalse(eventSqlDao.containsEvent(expired.getUuid()));
+        // the uuid can be stored again, under another time
+        Assert.assertTrue(eventSqlDao.addEvent(new Event(expired.getUuid(), new EventType(type), new EventValue("on"), 32L * DAY)));
+        this.assertResourcesReleased();
+    }
+
+    private static List<Long> times(List<Event> events) {
+        return events.stream().map(Event::getEpochMillis).collect(Collectors.toList());
+    }
+}
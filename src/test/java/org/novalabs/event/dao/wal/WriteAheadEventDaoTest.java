@@ -0,0 +1,231 @@
+package org.novalabs.event.dao.wal;
+
+import java.io.DataInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.novalabs.event.dao.EventDao;
+import org.novalabs.event.dao.EventDaoContractTest;
+import org.novalabs.event.dao.EventDaoException;
+import org.novalabs.event.dao.file.EventFileDao;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+
+public class WriteAheadEventDaoTest extends EventDaoContractTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path walDirectory;
+    private EventFileDao store;
+    private WriteAheadEventDao writeAheadEventDao;
+
+    public WriteAheadEventDaoTest() {
+    }
+
+    @Before
+    public void open() throws Exception {
+        this.walDirectory = this.folder.newFolder("wal").toPath();
+        this.store = new EventFileDao(this.folder.newFolder("store").toPath(), 1L << 20, 86400000L, false);
+        this.writeAheadEventDao = this.open(this.store, FsyncPolicy.ALWAYS);
+    }
+
+    @After
+    public void close() {
+        this.writeAheadEventDao.close();
+        this.store.close();
+    }
+
+    @Override
+    protected EventDao eventDao() {
+        return this.writeAheadEventDao;
+    }
+
+    @Test
+    public void replaysUnappliedEntries() throws Exception {
+        this.writeAheadEventDao.close();
+        EventDao failingStore = Mockito.mock(EventDao.class);
+        Mockito.when(failingStore.addEvents(Matchers.anyCollectionOf(Event.class))).thenThrow(new EventDaoException("down"));
+        Mockito.when(failingStore.addEvent(Matchers.any(Event.class))).thenThrow(new EventDaoException("down"));
+
+        // acknowledged while the store is down, then shut down before they could be applied
+        String type = uniqueType();
+        List<Event> events = this.events(type, 5);
+        WriteAheadEventDao unapplied = this.open(failingStore, FsyncPolicy.ALWAYS);
+        Assert.assertEquals(3, unapplied.addEvents(events.subList(0, 3)));
+        Assert.assertTrue(unapplied.addEvent(events.get(3)));
+        unapplied.close();
+        Assert.assertEquals(0L, this.store.countEvents(type));
+
+        // one event reached the store before the crash; replay must not add it again
+        this.store.addEvent(events.get(1));
+        this.writeAheadEventDao = this.open(this.store, FsyncPolicy.ALWAYS);
+        Assert.assertEquals(4L, this.store.countEvents(type));
+        Assert.assertEquals(0, this.logFiles().stream().filter(path -> this.size(path) > 0L).count());
+
+        // replaying again is a no-op
+        this.writeAheadEventDao.close();
+        this.writeAheadEventDao = this.open(this.store, FsyncPolicy.ALWAYS);
+        Assert.assertEquals(4L, this.store.countEvents(type));
+    }
+
+    @Test
+    public void tornEntryIsDropped() throws Exception {
+        this.writeAheadEventDao.close();
+        EventDao failingStore = Mockito.mock(EventDao.class);
+        Mockito.when(failingStore.addEvents(Matchers.anyCollectionOf(Event.class))).thenThrow(new EventDaoException("down"));
+        Mockito.when(failingStore.addEvent(Matchers.any(Event.class))).thenThrow(new EventDaoException("down"));
+        String type = uniqueType();
+        WriteAheadEventDao unapplied = this.open(failingStore, FsyncPolicy.OS);
+        unapplied.addEvents(this.events(type, 2));
+        unapplied.close();
+
+        List<Path> logs = this.logFiles();
+        try (FileChannel channel = FileChannel.open(logs.get(logs.size() - 1), StandardOpenOption.APPEND)) {
+            ByteBuffer torn = ByteBuffer.allocate(12).putInt(500).putInt(7).putInt(1);
+            torn.flip();
+            channel.write(torn);
+        }
+
+        this.writeAheadEventDao = this.open(this.store, FsyncPolicy.ALWAYS);
+        Assert.assertEquals(2L, this.store.countEvents(type));
+    }
+
+    @Test
+    public void intervalAndOsPolicies() throws Exception {
+        for (FsyncPolicy policy : new FsyncPolicy[] {FsyncPolicy.INTERVAL, FsyncPolicy.OS}) {
+            this.writeAheadEventDao.close();
+            this.writeAheadEventDao = this.open(this.store, policy);
+            String type = uniqueType();
+            Assert.assertEquals(10, this.writeAheadEventDao.addEvents(this.events(type, 10)));
+            // reads wait for the background apply
+            Assert.assertEquals(10, this.writeAheadEventDao.findEvents(type).size());
+            Assert.assertEquals(0L, this.writeAheadEventDao.backlog());
+        }
+    }
+
+    @Test
+    public void recentDuplicatesFoundWithoutQueryingStore() throws Exception {
+        this.writeAheadEventDao.close();
+        EventDao acceptingStore = Mockito.mock(EventDao.class);
+        Mockito.when(acceptingStore.addEvents(Matchers.anyCollectionOf(Event.class))).thenAnswer(invocation ->
+                ((Collection<?>) invocation.getArguments()[0]).size());
+        this.writeAheadEventDao = this.open(acceptingStore, FsyncPolicy.ALWAYS);
+        List<Event> events = this.events(uniqueType(), 3);
+        Assert.assertEquals(3, this.writeAheadEventDao.addEvents(events));
+        // a uuid logged before, alone or with new events, and a uuid repeated within a batch
+        List<Event> others = this.events(uniqueType(), 2);
+        for (List<Event> duplicate : Arrays.asList(new ArrayList<>(events.subList(2, 3)), new ArrayList<>(others))) {
+            duplicate.add(events.get(1));
+            try {
+                this.writeAheadEventDao.addEvents(duplicate);
+                Assert.fail("duplicate uuid should fail");
+            } catch (EventDaoException expected) {
+            }
+        }
+        try {
+            this.writeAheadEventDao.addEvents(Arrays.asList(events.get(0), events.get(0)));
+            Assert.fail("duplicate uuid should fail");
+        } catch (EventDaoException expected) {
+        }
+
+        // the events of a rejected batch may be added later
+        Assert.assertEquals(2, this.writeAheadEventDao.addEvents(others));
+        // a read waits until the entries are applied
+        this.writeAheadEventDao.findLatestEvents();
+        Assert.assertEquals(0L, this.writeAheadEventDao.backlog());
+        // only new uuids are looked up in the store
+        Mockito.verify(acceptingStore, Mockito.times(1)).containsEvent(events.get(0).getUuid());
+        Mockito.verify(acceptingStore, Mockito.times(1)).containsEvent(events.get(1).getUuid());
+    }
+
+    @Test
+    public void storedDuplicateRejected() throws Exception {
+        Event event = this.events(uniqueType(), 1).get(0);
+        // stored without passing through the log, as an event older than the in-memory index would be
+        Assert.assertTrue(this.store.addEvent(event));
+        try {
+            this.writeAheadEventDao.addEvent(event);
+            Assert.fail("duplicate uuid should fail");
+        } catch (EventDaoException expected) {
+        }
+        Assert.assertEquals(1L, this.writeAheadEventDao.countEvents(event.getType().getString()));
+    }
+
+    @Test
+    public void poisonEventDeadLettered() throws Exception {
+        this.writeAheadEventDao.close();
+        String type = uniqueType();
+        List<Event> events = this.events(type, 3);
+        Event poison = events.get(1);
+        EventDao rejectingStore = Mockito.mock(EventDao.class);
+        Mockito.when(rejectingStore.addEvents(Matchers.anyCollectionOf(Event.class))).thenThrow(new EventDaoException("rejected"));
+        Mockito.when(rejectingStore.addEvent(poison)).thenThrow(new EventDaoException("rejected"));
+        Mockito.when(rejectingStore.addEvent(events.get(0))).thenReturn(true);
+        Mockito.when(rejectingStore.addEvent(events.get(2))).thenReturn(true);
+        Mockito.when(rejectingStore.countEvents(type)).thenReturn(2L);
+        Mockito.when(rejectingStore.findLatestEvent(type)).thenReturn(events.get(2));
+
+        this.writeAheadEventDao = this.open(rejectingStore, FsyncPolicy.ALWAYS);
+        List<Event> dropped = new ArrayList<>();
+        this.writeAheadEventDao.setDropListener((event, latest) -> {
+            Assert.assertEquals(events.get(2), latest);
+            dropped.add(event);
+        });
+        Assert.assertEquals(3, this.writeAheadEventDao.addEvents(events));
+        // the read waits until the entry is applied, less the poison event
+        Assert.assertEquals(2L, this.writeAheadEventDao.countEvents(type));
+        Assert.assertEquals(0L, this.writeAheadEventDao.backlog());
+        Assert.assertEquals(1L, this.writeAheadEventDao.deadLettered());
+        Assert.assertEquals(Collections.singletonList(poison), dropped);
+        Mockito.verify(rejectingStore, Mockito.atLeastOnce()).addEvent(events.get(2));
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(this.walDirectory.resolve(WriteAheadEventDao.DEAD_LETTER)))) {
+            Assert.assertEquals(Collections.singletonList(poison), WalEntry.read(in));
+            Assert.assertNull(WalEntry.read(in));
+        }
+    }
+
+    private WriteAheadEventDao open(EventDao eventStore, FsyncPolicy policy) throws Exception {
+        return new WriteAheadEventDao(eventStore, this.walDirectory, policy, 5L, 4096L, 100);
+    }
+
+    private List<Event> events(String type, int count) {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            events.add(new Event(UUID.randomUUID(), new EventType(type), new EventValue("on"), 1000L + i));
+        }
+        return events;
+    }
+
+    private List<Path> logFiles() throws Exception {
+        try (Stream<Path> files = Files.list(this.walDirectory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private long size(Path path) {
+        try {
+            return Files.size(path);
+        } catch (Exception e) {
+            return 0L;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.novalabs.event.domain;
+
+import java.util.UUID;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitParamsRunner.class)
+public class EventCursorTest {
+    public EventCursorTest() {
+    }
+
+    @Test
+    public void encodeDecode() {
+        EventCursor cursor = new EventCursor(1515542400000L, UUID.randomUUID());
+        String encoded = cursor.encode();
+        Assert.assertTrue(encoded.matches("[A-Za-z0-9_-]+"));
+        Assert.assertEquals(cursor, EventCursor.decode(encoded));
+    }
+
+    @Test
+    public void ofEvent() {
+        Event event = new Event(UUID.randomUUID(), new EventType("door"), new EventValue("open"), 42L);
+        EventCursor cursor = EventCursor.of(event);
+        Assert.assertEquals(42L, cursor.getEpochMillis());
+        Assert.assertEquals(event.getUuid(), cursor.getUuid());
+    }
+
+    @Test(
+            expected = IllegalArgumentException.class
+    )
+    @Parameters
+    public void decodeIllegalArgument(String encoded) {
+        EventCursor.decode(encoded);
+    }
+
+    private Object[] parametersForDecodeIllegalArgument() {
+        return new Object[]{new Object[]{""}, new Object[]{"not base64!"}, new Object[]{"MTIzNA"}, new Object[]{"eDp5"}};
+    }
+}
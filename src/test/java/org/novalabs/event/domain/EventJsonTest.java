@@ -0,0 +1,107 @@
+package org.novalabs.event.domain;
+
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.BeanSerializer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.UUID;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+@RunWith(JUnitParamsRunner.class)
+public class EventJsonTest {
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    public EventJsonTest() {
+    }
+
+    @Test
+    @Parameters({"0", "951782400000", "951868799999", "1515542400123", "4107542400000", "253402300799999", "253402300800000"})
+    public void writesSameJsonAsBeanProperties(long epochMillis) throws Exception {
+        ObjectMapper beanMapper = Jackson2ObjectMapperBuilder.json().mixIn(Event.class, BeanEvent.class).build();
+        Assert.assertTrue(beanMapper.getSerializerProviderInstance().findValueSerializer(Event.class) instanceof BeanSerializer);
+        Event event = new Event(UUID.randomUUID(), new EventType("door"), new EventValue("\"open\" é"), epochMillis);
+        Assert.assertEquals(beanMapper.readTree(beanMapper.writeValueAsString(event)),
+                            this.objectMapper.readTree(this.objectMapper.writeValueAsString(event)));
+        Assert.assertEquals(beanMapper.writeValueAsString(event), this.objectMapper.writeValueAsString(event));
+    }
+
+    @Test
+    public void formatsTimeAsPattern() {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(EventJson.TIME_PATTERN).withZone(ZoneOffset.UTC);
+        Random random = new Random(17L);
+        char[] buffer = new char[36];
+        for (int i = 0; i < 100000; i++) {
+            long epochMillis = (long) (random.nextDouble() * 253402300799999L);
+            Assert.assertEquals(formatter.format(Instant.ofEpochMilli(epochMillis)),
+                                new String(buffer, 0, EventJson.formatTime(epochMillis, buffer)));
+        }
+    }
+
+    @Test
+    public void formatsUuid() {
+        char[] buffer = new char[36];
+        for (UUID uuid : new UUID[]{UUID.randomUUID(), new UUID(0L, 0L), new UUID(-1L, -1L), new UUID(Long.MIN_VALUE, 1L)}) {
+            Assert.assertEquals(uuid.toString(), new String(buffer, 0, EventJson.formatUuid(uuid, buffer)));
+        }
+    }
+
+    @Test
+    public void readsWrittenEvent() throws Exception {
+        Event event = new Event(UUID.randomUUID(), new EventType("door"), new EventValue("open"), 1515542400123L);
+        Assert.assertEquals(event, this.objectMapper.readValue(this.objectMapper.writeValueAsBytes(event), Event.class));
+
+        UUID uuid = new UUID(-1L, 0xABCDEFL);
+        Event upper = this.objectMapper.readValue("{\"extra\":{\"a\":[1]},\"uuid\":\"" + uuid.toString().toUpperCase()
+                                                  + "\",\"epochMillis\":\"42\",\"time\":\"ignored\",\"type\":\"door\",\"value\":\"open\"}", Event.class);
+        Assert.assertEquals(new Event(uuid, new EventType("door"), new EventValue("open"), 42L), upper);
+    }
+
+    @Test
+    public void missingFieldsAreDefaults() throws Exception {
+        long now = System.currentTimeMillis();
+        Event event = this.objectMapper.readValue("{}", Event.class);
+        Assert.assertTrue(event.isInvalid());
+        Assert.assertNotNull(event.getUuid());
+        Assert.assertTrue(event.getEpochMillis() >= now);
+    }
+
+    @Test(
+            expected = JsonMappingException.class
+    )
+    @Parameters
+    public void readInvalid(String json) throws Exception {
+        this.objectMapper.readValue(json, Event.class);
+    }
+
+    private Object[] parametersForReadInvalid() {
+        return new Object[]{
+                new Object[]{"{\"uuid\":\"not-a-uuid\",\"type\":\"door\",\"value\":\"open\"}"},
+                new Object[]{"{\"uuid\":\"0000000g-0000-0000-0000-000000000000\",\"type\":\"door\",\"value\":\"open\"}"},
+                new Object[]{"{\"type\":\"\",\"value\":\"open\"}"},
+                new Object[]{"{\"type\":null,\"value\":\"open\"}"},
+                new Object[]{"{\"type\":\"door\",\"value\":[\"open\"]}"},
+                new Object[]{"{\"type\":\"door\",\"value\":\"open\",\"epochMillis\":-1}"},
+                new Object[]{"[]"}
+        };
+    }
+
+    /**
+     * Reads and writes {@code Event} through its bean properties, as before {@link EventJson}.
+     */
+    @JsonSerialize(using = JsonSerializer.None.class)
+    @JsonDeserialize(using = JsonDeserializer.None.class)
+    abstract static class BeanEvent {
+    }
+}
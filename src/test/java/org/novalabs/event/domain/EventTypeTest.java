@@ -37,6 +37,23 @@ public class EventTypeTest {
         return params.toArray();
     }
 
+    @Test
+    public void ofIsCanonical() {
+        EventType eventType = EventType.of("door");
+        Assert.assertSame(eventType, EventType.of(new String("door")));
+        Assert.assertEquals(new EventType("door"), eventType);
+        Assert.assertEquals(eventType, new EventType("door"));
+        Assert.assertNotEquals(EventType.of("lathe"), eventType);
+    }
+
+    @Test(
+            expected = IllegalArgumentException.class
+    )
+    @Parameters(method = "parametersForConstructorIllegalArgument")
+    public void ofIllegalArgument(String type) {
+        EventType.of(type);
+    }
+
     @Test
     public void constructorChar() {
         EventType eventType = new EventType('a');
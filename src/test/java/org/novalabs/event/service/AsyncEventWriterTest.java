@@ -0,0 +1,113 @@
+package org.novalabs.event.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.novalabs.event.dao.EventDao;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+
+public class AsyncEventWriterTest {
+    public AsyncEventWriterTest() {
+    }
+
+    @Test
+    public void groupCommitsAndDrainsOnStop() throws Exception {
+        List<Integer> batchSizes = new ArrayList<>();
+        EventDao eventDao = Mockito.mock(EventDao.class);
+        Mockito.when(eventDao.addEvents(Mockito.anyCollection())).thenAnswer(invocation -> {
+            int size = ((Collection<?>) invocation.getArguments()[0]).size();
+            batchSizes.add(size);
+            return size;
+        });
+
+        AsyncEventWriter writer = new AsyncEventWriter(eventDao, 1000, 10, 1000L);
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 95; ++i) {
+            futures.add(writer.submit(event(i)));
+        }
+
+        writer.stop();
+        for (CompletableFuture<Boolean> future : futures) {
+            Assert.assertTrue(future.isDone());
+            Assert.assertTrue(future.get());
+        }
+
+        Assert.assertEquals(95, batchSizes.stream().mapToInt(Integer::intValue).sum());
+        Assert.assertTrue(batchSizes.stream().allMatch(size -> size <= 10));
+        Assert.assertNull(writer.submit(event(96)));
+    }
+
+    @Test
+    public void rejectsWhenFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        EventDao eventDao = Mockito.mock(EventDao.class);
+        Mockito.when(eventDao.addEvents(Mockito.anyCollection())).thenAnswer(invocation -> {
+            release.await(10L, TimeUnit.SECONDS);
+            return ((Collection<?>) invocation.getArguments()[0]).size();
+        });
+
+        AsyncEventWriter writer = new AsyncEventWriter(eventDao, 2, 1, 0L);
+        Assert.assertNotNull(writer.submit(event(0)));
+        // wait until the writer has taken the first event and is blocked writing it
+        while (writer.queueSize() > 0) {
+            Thread.sleep(5L);
+        }
+
+        Assert.assertNotNull(writer.submit(event(1)));
+        Assert.assertNotNull(writer.submit(event(2)));
+        Assert.assertNull(writer.submit(event(3)));
+        release.countDown();
+        writer.stop();
+        Assert.assertEquals(0, writer.queueSize());
+    }
+
+    @Test
+    public void failedBatchRetriedIndividually() throws Exception {
+        Event bad = event(1);
+        EventDao eventDao = Mockito.mock(EventDao.class);
+        Mockito.when(eventDao.addEvents(Mockito.anyCollection())).thenThrow(new RuntimeException("duplicate"));
+        Mockito.when(eventDao.addEvent(Mockito.any(Event.class))).thenAnswer(invocation -> invocation.getArguments()[0] != bad);
+
+        AsyncEventWriter writer = new AsyncEventWriter(eventDao, 10, 10, 1000L);
+        CompletableFuture<Boolean> good = writer.submit(event(0));
+        CompletableFuture<Boolean> failed = writer.submit(bad);
+        writer.stop();
+        Assert.assertTrue(good.get());
+        Assert.assertFalse(failed.get());
+    }
+
+    @Test
+    public void interruptedBatchWritten() throws Exception {
+        EventDao eventDao = Mockito.mock(EventDao.class);
+        Mockito.when(eventDao.addEvents(Mockito.anyCollection()))
+                .thenAnswer(invocation -> ((Collection<?>) invocation.getArguments()[0]).size());
+
+        // the writer waits up to a minute for the batch to fill; the interrupt cuts it short
+        AsyncEventWriter writer = new AsyncEventWriter(eventDao, 10, 10, 60000L);
+        CompletableFuture<Boolean> future = writer.submit(event(0));
+        while (writer.queueSize() > 0) {
+            Thread.sleep(5L);
+        }
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("async-event-writer")) {
+                thread.interrupt();
+            }
+        }
+
+        Assert.assertTrue(future.get(10L, TimeUnit.SECONDS));
+        writer.stop();
+    }
+
+    private static Event event(long epochMillis) {
+        return new Event(UUID.randomUUID(), new EventType("async"), new EventValue("on"), epochMillis);
+    }
+}
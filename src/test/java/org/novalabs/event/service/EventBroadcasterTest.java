@@ -0,0 +1,183 @@
+package org.novalabs.event.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.novalabs.event.domain.Event;
+
+public class EventBroadcasterTest {
+    private EventBroadcaster broadcaster;
+
+    public EventBroadcasterTest() {
+    }
+
+    @After
+    public void tearDown() {
+        if (this.broadcaster != null) {
+            this.broadcaster.close();
+        }
+    }
+
+    @Test
+    public void fansOutByType() throws Exception {
+        this.broadcaster = new EventBroadcaster(16, EventBroadcaster.OverflowPolicy.DROP, 10, 2, 0L, 0L);
+        RecordingSink all = new RecordingSink();
+        RecordingSink doors = new RecordingSink();
+        Assert.assertNotNull(this.broadcaster.subscribe(null, all));
+        Assert.assertNotNull(this.broadcaster.subscribe(new HashSet<>(Arrays.asList("door", "alarm")), doors));
+
+        Event door = EventServiceTest.event("door", "on", 1L);
+        Event lathe = EventServiceTest.event("lathe", "on", 2L);
+        Event alarm = EventServiceTest.event("alarm", "on", 3L);
+        this.broadcaster.publish(door);
+        this.broadcaster.publish(lathe);
+        this.broadcaster.publish(alarm);
+
+        await(() -> all.events.size() == 3 && doors.events.size() == 2);
+        Assert.assertEquals(Arrays.asList(door, lathe, alarm), all.events);
+        Assert.assertEquals(Arrays.asList(door, alarm), doors.events);
+        Assert.assertEquals(2, this.broadcaster.subscriberCount());
+    }
+
+    @Test
+    public void dropsOldestWhenBehind() throws Exception {
+        this.broadcaster = new EventBroadcaster(2, EventBroadcaster.OverflowPolicy.DROP, 10, 1, 0L, 0L);
+        RecordingSink sink = new RecordingSink();
+        sink.blockFirstSend();
+        this.broadcaster.subscribe(null, sink);
+
+        Event first = EventServiceTest.event("door", "on", 1L);
+        this.broadcaster.publish(first);
+        Assert.assertTrue(sink.sending.await(5L, TimeUnit.SECONDS));
+        Event[] later = {EventServiceTest.event("door", "on", 2L), EventServiceTest.event("door", "on", 3L),
+                         EventServiceTest.event("door", "on", 4L), EventServiceTest.event("door", "on", 5L)};
+        for (Event event : later) {
+            this.broadcaster.publish(event);
+        }
+
+        Assert.assertEquals(2L, this.broadcaster.droppedCount());
+        sink.release.countDown();
+        await(() -> sink.events.size() == 3);
+        Assert.assertEquals(Arrays.asList(first, later[2], later[3]), sink.events);
+        Assert.assertFalse(sink.closed);
+    }
+
+    @Test
+    public void closesSubscriberWhenBehind() throws Exception {
+        this.broadcaster = new EventBroadcaster(2, EventBroadcaster.OverflowPolicy.CLOSE, 10, 1, 0L, 0L);
+        RecordingSink sink = new RecordingSink();
+        sink.blockFirstSend();
+        this.broadcaster.subscribe(null, sink);
+
+        this.broadcaster.publish(EventServiceTest.event("door", "on", 1L));
+        Assert.assertTrue(sink.sending.await(5L, TimeUnit.SECONDS));
+        for (int i = 2; i <= 4; ++i) {
+            this.broadcaster.publish(EventServiceTest.event("door", "on", i));
+        }
+
+        Assert.assertTrue(sink.closed);
+        Assert.assertEquals(0, this.broadcaster.subscriberCount());
+        sink.release.countDown();
+    }
+
+    @Test
+    public void cancelsFailedSubscriberAndLimitsSubscribers() throws Exception {
+        this.broadcaster = new EventBroadcaster(16, EventBroadcaster.OverflowPolicy.DROP, 2, 1, 0L, 0L);
+        RecordingSink failing = new RecordingSink();
+        failing.fail = true;
+        Assert.assertNotNull(this.broadcaster.subscribe(null, failing));
+        EventBroadcaster.Subscription cancelled = this.broadcaster.subscribe(Collections.singleton("door"), new RecordingSink());
+        Assert.assertNotNull(cancelled);
+        Assert.assertNull(this.broadcaster.subscribe(null, new RecordingSink()));
+
+        cancelled.cancel();
+        this.broadcaster.publish(EventServiceTest.event("door", "on", 1L));
+        await(() -> this.broadcaster.subscriberCount() == 0);
+        Assert.assertNotNull(this.broadcaster.subscribe(null, new RecordingSink()));
+    }
+
+    @Test
+    public void closesStalledSubscriber() throws Exception {
+        this.broadcaster = new EventBroadcaster(16, EventBroadcaster.OverflowPolicy.DROP, 10, 1, 0L, 50L);
+        RecordingSink stalled = new RecordingSink();
+        stalled.blockFirstSend();
+        this.broadcaster.subscribe(null, stalled);
+        this.broadcaster.publish(EventServiceTest.event("door", "on", 1L));
+        Assert.assertTrue(stalled.sending.await(5L, TimeUnit.SECONDS));
+
+        // the stalled send holds the only dispatch thread until the write timeout frees it
+        RecordingSink healthy = new RecordingSink();
+        this.broadcaster.subscribe(null, healthy);
+        Event next = EventServiceTest.event("door", "on", 2L);
+        this.broadcaster.publish(next);
+        await(() -> healthy.events.size() == 1 && stalled.closed);
+        Assert.assertEquals(Collections.singletonList(next), healthy.events);
+        Assert.assertTrue(stalled.events.isEmpty());
+        Assert.assertEquals(1, this.broadcaster.subscriberCount());
+    }
+
+    @Test
+    public void sendsHeartbeats() throws Exception {
+        this.broadcaster = new EventBroadcaster(16, EventBroadcaster.OverflowPolicy.DROP, 10, 1, 10L, 0L);
+        RecordingSink sink = new RecordingSink();
+        this.broadcaster.subscribe(null, sink);
+        await(() -> sink.heartbeats > 1);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5L);
+        }
+    }
+
+    private static class RecordingSink implements EventBroadcaster.Sink {
+        private final List<Event> events = new CopyOnWriteArrayList<>();
+        private final CountDownLatch sending = new CountDownLatch(1);
+        private CountDownLatch release = new CountDownLatch(0);
+        private volatile boolean fail = false;
+        private volatile boolean closed = false;
+        private volatile int heartbeats = 0;
+
+        void blockFirstSend() {
+            this.release = new CountDownLatch(1);
+        }
+
+        @Override
+        public void send(Event event) throws IOException {
+            if (this.fail) {
+                throw new IOException("gone");
+            }
+
+            this.sending.countDown();
+            try {
+                this.release.await(5L, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // as a blocking socket write fails when its thread is interrupted
+                throw new InterruptedIOException();
+            }
+            this.events.add(event);
+        }
+
+        @Override
+        public void heartbeat() {
+            ++this.heartbeats;
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+    }
+}
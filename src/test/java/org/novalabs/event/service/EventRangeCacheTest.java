@@ -0,0 +1,127 @@
+package org.novalabs.event.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.Assert;
+import org.junit.Test;
+import org.novalabs.event.domain.Event;
+
+public class EventRangeCacheTest {
+    private final List<Event> store = new ArrayList<>();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    public EventRangeCacheTest() {
+    }
+
+    @Test
+    public void exactRangeFromAlignedEntry() throws Exception {
+        EventRangeCache cache = new EventRangeCache(1000L, 1000L, 100, 60000L);
+        for (long time = 0L; time < 3000L; time += 100L) {
+            this.add(EventServiceTest.event("door", "open", time));
+        }
+
+        Assert.assertEquals(times(1250L, 1750L), times(cache.get("door", Instant.ofEpochMilli(1250L), Instant.ofEpochMilli(1750L), this::load)));
+        Assert.assertEquals(times(1100L, 1900L), times(cache.get("door", Instant.ofEpochMilli(1001L), Instant.ofEpochMilli(1999L), this::load)));
+        Assert.assertEquals(times(1000L, 1000L), times(cache.get("door", Instant.ofEpochMilli(1000L), Instant.ofEpochMilli(1000L), this::load)));
+        Assert.assertEquals(1, this.loads.get());
+        Assert.assertEquals(2L, cache.stats().hitCount());
+
+        // a range spanning more buckets is another entry
+        Assert.assertEquals(times(1000L, 2100L), times(cache.get("door", Instant.ofEpochMilli(1000L), Instant.ofEpochMilli(2100L), this::load)));
+        Assert.assertEquals(2, this.loads.get());
+    }
+
+    @Test
+    public void addedEventEvictsOnlyContainingRanges() throws Exception {
+        EventRangeCache cache = new EventRangeCache(1000L, 1000L, 100, 60000L);
+        this.add(EventServiceTest.event("door", "open", 500L));
+        this.add(EventServiceTest.event("door", "open", 1500L));
+        this.add(EventServiceTest.event("alarm", "open", 1500L));
+        cache.get("door", Instant.ofEpochMilli(0L), Instant.ofEpochMilli(999L), this::load);
+        cache.get("door", Instant.ofEpochMilli(1000L), Instant.ofEpochMilli(1999L), this::load);
+        cache.get("alarm", Instant.ofEpochMilli(1000L), Instant.ofEpochMilli(1999L), this::load);
+        Assert.assertEquals(3, this.loads.get());
+
+        Event added = EventServiceTest.event("door", "open", 1600L);
+        this.add(added);
+        cache.invalidate(Collections.singletonList(added));
+        Assert.assertEquals(times(1500L, 1600L), times(cache.get("door", Instant.ofEpochMilli(1000L), Instant.ofEpochMilli(1999L), this::load)));
+        Assert.assertEquals(4, this.loads.get());
+        cache.get("door", Instant.ofEpochMilli(0L), Instant.ofEpochMilli(999L), this::load);
+        cache.get("alarm", Instant.ofEpochMilli(1000L), Instant.ofEpochMilli(1999L), this::load);
+        Assert.assertEquals(4, this.loads.get());
+
+        cache.invalidate("door");
+        cache.get("door", Instant.ofEpochMilli(0L), Instant.ofEpochMilli(999L), this::load);
+        Assert.assertEquals(5, this.loads.get());
+    }
+
+    @Test
+    public void rangeLoadedDuringAddIsNotKept() throws Exception {
+        EventRangeCache cache = new EventRangeCache(1000L, 1000L, 100, 60000L);
+        Event added = EventServiceTest.event("door", "open", 1500L);
+        // the event is added and invalidated after the store was read but before the range is cached
+        List<Event> events = cache.get("door", Instant.ofEpochMilli(1000L), Instant.ofEpochMilli(1999L), (type, earliest, latest) -> {
+            List<Event> loaded = this.load(type, earliest, latest);
+            this.add(added);
+            cache.invalidate(Collections.singletonList(added));
+            return loaded;
+        });
+
+        Assert.assertTrue(events.isEmpty());
+        Assert.assertEquals(Collections.singletonList(added), cache.get("door", Instant.ofEpochMilli(1000L), Instant.ofEpochMilli(1999L), this::load));
+    }
+
+    @Test
+    public void boundedByEvents() throws Exception {
+        EventRangeCache cache = new EventRangeCache(1000L, 50L, 20, 60000L);
+        for (long time = 0L; time < 10000L; time += 100L) {
+            this.add(EventServiceTest.event("door", "open", time));
+        }
+
+        // 10 events per bucket; 21 events exceed the entry limit
+        cache.get("door", Instant.ofEpochMilli(0L), Instant.ofEpochMilli(2999L), this::load);
+        cache.get("door", Instant.ofEpochMilli(0L), Instant.ofEpochMilli(2999L), this::load);
+        Assert.assertEquals(2, this.loads.get());
+        for (long bucket = 0L; bucket < 10L; bucket++) {
+            cache.get("door", Instant.ofEpochMilli(bucket * 1000L), Instant.ofEpochMilli(bucket * 1000L + 999L), this::load);
+        }
+
+        Assert.assertTrue(cache.stats().evictionCount() > 0L);
+        Assert.assertTrue(cache.metrics().stream().anyMatch(metric -> metric.getName().equals("event.cache.range.uncacheable")
+                                                                     && metric.getValue().longValue() == 2L));
+    }
+
+    private void add(Event event) {
+        this.store.add(event);
+        this.store.sort((a, b) -> Long.compare(b.getEpochMillis(), a.getEpochMillis()));
+    }
+
+    private List<Event> load(String type, Instant earliest, Instant latest) {
+        this.loads.incrementAndGet();
+        return this.store.stream()
+                .filter(event -> event.getType().getString().equals(type) && !event.getTime().isBefore(earliest)
+                                 && !event.getTime().isAfter(latest))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Long> times(List<Event> events) {
+        return events.stream().map(Event::getEpochMillis).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the times of the stored events between the times, inclusive, latest first.
+     */
+    private static List<Long> times(long earliest, long latest) {
+        List<Long> times = new ArrayList<>();
+        for (long time = latest / 100L * 100L; time >= earliest; time -= 100L) {
+            times.add(time);
+        }
+
+        return times;
+    }
+}
@@ -0,0 +1,126 @@
+package org.novalabs.event.service;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.boot.actuate.metrics.Metric;
+
+public class EventRetentionTest {
+    private static final long DAY = TimeUnit.DAYS.toMillis(1L);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1L);
+    private EventService eventService;
+
+    public EventRetentionTest() {
+    }
+
+    @Before
+    public void setUp() {
+        this.eventService = Mockito.mock(EventService.class);
+        Mockito.when(this.eventService.allEventTypes()).thenReturn(Arrays.asList("mongo", "door"));
+    }
+
+    @Test
+    public void parseRules() {
+        List<EventRetention.Rule> rules = EventRetention.Rule.parse("mongo:raw=90d, mongo:hour=730d,*:raw=365d,,a:b:minute=30m");
+        Assert.assertEquals(4, rules.size());
+        Assert.assertEquals("mongo", rules.get(1).getType());
+        Assert.assertEquals(HOUR, rules.get(1).getGranularityMillis());
+        Assert.assertEquals(730L * DAY, rules.get(1).getRetentionMillis());
+        Assert.assertEquals(EventRetention.Rule.ALL_TYPES, rules.get(2).getType());
+        Assert.assertEquals(EventRetention.RAW, rules.get(2).getGranularityMillis());
+        Assert.assertEquals("a:b", rules.get(3).getType());
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(30L), rules.get(3).getRetentionMillis());
+        Assert.assertTrue(EventRetention.Rule.parse("").isEmpty());
+
+        for (String invalid : new String[]{"mongo=90d", "mongo:week=90d", "mongo:raw=90y", ":raw=1d"}) {
+            try {
+                EventRetention.Rule.parse(invalid);
+                Assert.fail("invalid rule parsed | rule " + invalid);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void rollupsKeptAsLongAsRawEvents() {
+        for (String rules : new String[]{"mongo:raw=90d,mongo:hour=30d", "*:hour=30d", "*:raw=30d,*:hour=60d,mongo:raw=90d"}) {
+            try {
+                new EventRetention(this.eventService, EventRetention.Rule.parse(rules), 1000L, 10, 1000000.0);
+                Assert.fail("rollups expire before raw events | rules " + rules);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void passDeletesInBatches() {
+        Mockito.when(this.eventService.deleteEvents(Mockito.eq("mongo"), Mockito.any(Instant.class), Mockito.eq(10)))
+                .thenReturn(10, 10, 3);
+        Mockito.when(this.eventService.deleteRollups(Mockito.eq("mongo"), Mockito.eq(HOUR), Mockito.any(Instant.class), Mockito.eq(10)))
+                .thenReturn(2);
+        List<EventRetention.Rule> rules = EventRetention.Rule.parse("mongo:raw=90d,mongo:hour=730d,*:raw=365d");
+        EventRetention retention = new EventRetention(this.eventService, rules, 1000L, 10, 1000000.0);
+        long start = System.currentTimeMillis();
+        retention.runPass();
+
+        Mockito.verify(this.eventService, Mockito.times(3)).deleteEvents(Mockito.eq("mongo"), Mockito.any(Instant.class), Mockito.eq(10));
+        ArgumentCaptor<Instant> before = ArgumentCaptor.forClass(Instant.class);
+        Mockito.verify(this.eventService).deleteEvents(Mockito.eq("door"), before.capture(), Mockito.eq(10));
+        Assert.assertFalse(before.getValue().isBefore(Instant.ofEpochMilli(start - 365L * DAY)));
+        Mockito.verify(this.eventService, Mockito.never()).deleteRollups(Mockito.eq("door"), Mockito.anyLong(), Mockito.any(Instant.class),
+                                                                         Mockito.anyInt());
+        Mockito.verify(this.eventService).verifyEventCounts(true);
+
+        Map<String, Number> metrics = metrics(retention);
+        Assert.assertEquals(1L, metrics.get("event.retention.passes"));
+        Assert.assertEquals(23L, metrics.get("event.retention.deleted"));
+        Assert.assertEquals(2L, metrics.get("event.retention.rollupsDeleted"));
+        Assert.assertEquals(2, metrics.get("event.retention.pass.typesDone"));
+        Assert.assertTrue(metrics.get("event.retention.lagMs").longValue() >= 0L);
+    }
+
+    @Test
+    public void dayRollupsDeletedResyncCounts() {
+        Mockito.when(this.eventService.deleteRollups(Mockito.eq("mongo"), Mockito.anyLong(), Mockito.any(Instant.class), Mockito.eq(10)))
+                .thenReturn(2);
+        List<EventRetention.Rule> rules = EventRetention.Rule.parse("mongo:raw=10d,mongo:hour=30d");
+        EventRetention retention = new EventRetention(this.eventService, rules, 1000L, 10, 1000000.0);
+        retention.runPass();
+        // no event was deleted and hour rollups don't hold the counts
+        Mockito.verify(this.eventService, Mockito.never()).verifyEventCounts(Mockito.anyBoolean());
+
+        rules = EventRetention.Rule.parse("mongo:raw=10d,mongo:day=30d");
+        retention = new EventRetention(this.eventService, rules, 1000L, 10, 1000000.0);
+        retention.runPass();
+        Mockito.verify(this.eventService).verifyEventCounts(true);
+    }
+
+    @Test
+    public void failedDeleteLeavesPassIncomplete() {
+        Mockito.when(this.eventService.deleteEvents(Mockito.eq("mongo"), Mockito.any(Instant.class), Mockito.anyInt())).thenReturn(-1);
+        EventRetention retention = new EventRetention(this.eventService, EventRetention.Rule.parse("*:raw=1d"), 1000L, 10, 1000000.0);
+        retention.runPass();
+
+        Mockito.verify(this.eventService).deleteEvents(Mockito.eq("door"), Mockito.any(Instant.class), Mockito.eq(10));
+        Mockito.verify(this.eventService, Mockito.never()).verifyEventCounts(Mockito.anyBoolean());
+        Map<String, Number> metrics = metrics(retention);
+        Assert.assertEquals(1L, metrics.get("event.retention.failures"));
+        Assert.assertEquals(-1L, metrics.get("event.retention.lagMs"));
+    }
+
+    private static Map<String, Number> metrics(EventRetention retention) {
+        Map<String, Number> metrics = new HashMap<>();
+        for (Metric<?> metric : retention.metrics()) {
+            metrics.put(metric.getName(), metric.getValue());
+        }
+        return metrics;
+    }
+}
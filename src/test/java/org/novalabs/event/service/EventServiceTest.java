@@ -0,0 +1,214 @@
+package org.novalabs.event.service;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.novalabs.event.dao.EventDao;
+import org.novalabs.event.dao.EventDaoException;
+import org.novalabs.event.domain.Event;
+import org.novalabs.event.domain.EventCountDiscrepancy;
+import org.novalabs.event.domain.EventCursor;
+import org.novalabs.event.domain.EventDurations;
+import org.novalabs.event.domain.EventType;
+import org.novalabs.event.domain.EventValue;
+
+public class EventServiceTest {
+    private EventDao eventDao;
+    private EventService eventService;
+
+    public EventServiceTest() {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.eventDao = Mockito.mock(EventDao.class);
+        Mockito.when(this.eventDao.findLatestEvents()).thenReturn(Arrays.asList(event("door", "open", 2000L), event("alarm", "on", 1000L)));
+        Mockito.when(this.eventDao.addEvent(Mockito.any(Event.class))).thenReturn(true);
+        Map<String, Long> counts = new HashMap<>();
+        counts.put("door", 5L);
+        counts.put("alarm", 1L);
+        Mockito.when(this.eventDao.countEventsByType()).thenReturn(counts);
+        this.eventService = new EventService(this.eventDao);
+        this.eventService.start();
+    }
+
+    @Test
+    public void latestEventsFromMemory() throws Exception {
+        Assert.assertEquals("open", this.eventService.latestEvent("door").getValue().getString());
+        Assert.assertNull(this.eventService.latestEvent("unknown"));
+        Assert.assertEquals(Arrays.asList("alarm", "door"), Arrays.asList(
+                this.eventService.latestEvents().get(0).getType().getString(),
+                this.eventService.latestEvents().get(1).getType().getString()));
+        Mockito.verify(this.eventDao, Mockito.never()).findLatestEvent(Mockito.anyString());
+        Mockito.verify(this.eventDao, Mockito.times(1)).findLatestEvents();
+    }
+
+    @Test
+    public void durationsSeededFromPreviousEvent() throws Exception {
+        // closed before the window; open 1000-4000 and closed 4000-5000 inside it
+        Mockito.when(this.eventDao.findEvents(Mockito.eq("door"), Mockito.eq(Instant.EPOCH), Mockito.eq(Instant.ofEpochMilli(499L)),
+                                              Mockito.isNull(EventCursor.class), Mockito.eq(1)))
+                .thenReturn(Collections.singletonList(event("door", "closed", 100L)));
+        Mockito.doAnswer(invocation -> {
+            Consumer<Event> consumer = invocation.getArgumentAt(3, Consumer.class);
+            consumer.accept(event("door", "closed", 4000L));
+            consumer.accept(event("door", "open", 1000L));
+            return null;
+        }).when(this.eventDao).streamEvents(Mockito.eq("door"), Mockito.any(Instant.class), Mockito.any(Instant.class), Mockito.any());
+
+        EventDurations durations = this.eventService.durations("door", Instant.ofEpochMilli(500L), Instant.ofEpochMilli(5000L), 2000L);
+        Assert.assertEquals(Long.valueOf(3000L), durations.getMillis().get("open"));
+        Assert.assertEquals(Long.valueOf(500L + 1000L), durations.getMillis().get("closed"));
+        Assert.assertEquals(3, durations.getBuckets().size());
+        Assert.assertEquals(0L, durations.getBuckets().get(0).getEpochMillis());
+        Assert.assertEquals(Long.valueOf(500L), durations.getBuckets().get(0).getMillis().get("closed"));
+        Assert.assertEquals(Long.valueOf(1000L), durations.getBuckets().get(0).getMillis().get("open"));
+        Assert.assertEquals(Long.valueOf(2000L), durations.getBuckets().get(1).getMillis().get("open"));
+        Assert.assertEquals(Long.valueOf(1000L), durations.getBuckets().get(2).getMillis().get("closed"));
+        Assert.assertNull(durations.getBuckets().get(2).getMillis().get("open"));
+    }
+
+    @Test
+    public void latestEventUpdatedOnAdd() throws Exception {
+        Event newer = event("door", "closed", 3000L);
+        Assert.assertTrue(this.eventService.addEvent(newer));
+        Assert.assertEquals(newer, this.eventService.latestEvent("door"));
+
+        Event newType = event("lathe", "on", 10L);
+        Assert.assertTrue(this.eventService.addEvent(newType));
+        Assert.assertEquals(newType, this.eventService.latestEvent("lathe"));
+        Assert.assertEquals(3, this.eventService.latestEvents().size());
+    }
+
+    @Test
+    public void outOfOrderEventDoesNotReplaceLatest() throws Exception {
+        Assert.assertTrue(this.eventService.addEvent(event("door", "closed", 1500L)));
+        Assert.assertEquals("open", this.eventService.latestEvent("door").getValue().getString());
+    }
+
+    @Test
+    public void failedAddDoesNotUpdateLatest() throws Exception {
+        Mockito.when(this.eventDao.addEvent(Mockito.any(Event.class))).thenThrow(new EventDaoException("down"));
+        Assert.assertFalse(this.eventService.addEvent(event("door", "closed", 5000L)));
+        Assert.assertEquals("open", this.eventService.latestEvent("door").getValue().getString());
+    }
+
+    @Test
+    public void rangeCacheEvictedOnAdd() throws Exception {
+        this.eventService.enableRangeCache(new EventRangeCache(60000L, 1000L, 100, 60000L));
+        Instant earliest = Instant.ofEpochMilli(1000L);
+        Instant latest = Instant.ofEpochMilli(3000L);
+        Mockito.when(this.eventDao.findEvents("door", Instant.EPOCH, Instant.ofEpochMilli(59999L)))
+                .thenReturn(Collections.singletonList(event("door", "open", 2000L)));
+        Assert.assertEquals(1, this.eventService.findEvents("door", earliest, latest).size());
+        Assert.assertEquals(1, this.eventService.findEvents("door", earliest, latest).size());
+        Mockito.verify(this.eventDao, Mockito.times(1)).findEvents("door", Instant.EPOCH, Instant.ofEpochMilli(59999L));
+
+        Assert.assertTrue(this.eventService.addEvent(event("door", "closed", 2500L)));
+        this.eventService.findEvents("door", earliest, latest);
+        Mockito.verify(this.eventDao, Mockito.times(2)).findEvents("door", Instant.EPOCH, Instant.ofEpochMilli(59999L));
+
+        Mockito.when(this.eventDao.findEvents("door", Instant.EPOCH, Instant.ofEpochMilli(59999L))).thenThrow(new EventDaoException("down"));
+        Assert.assertTrue(this.eventService.addEvent(event("door", "closed", 2600L)));
+        Assert.assertTrue(this.eventService.findEvents("door", earliest, latest).isEmpty());
+    }
+
+    @Test
+    public void countsFromMemory() throws Exception {
+        Assert.assertEquals(5L, this.eventService.countEvents("door").getCount());
+        Assert.assertTrue(this.eventService.addEvent(event("door", "closed", 1L)));
+        Assert.assertTrue(this.eventService.addEvent(event("lathe", "on", 1L)));
+        Assert.assertEquals(6L, this.eventService.countEvents("door").getCount());
+        Assert.assertEquals(1L, this.eventService.countEvents("lathe").getCount());
+        Assert.assertEquals(0L, this.eventService.countEvents("unknown").getCount());
+        Mockito.verify(this.eventDao, Mockito.never()).countEvents(Mockito.anyString());
+    }
+
+    @Test
+    public void droppedEventUndone() throws Exception {
+        Event previous = this.eventService.latestEvent("door");
+        Event dropped = event("door", "closed", 3000L);
+        Assert.assertTrue(this.eventService.addEvent(dropped));
+        Assert.assertEquals(6L, this.eventService.countEvents("door").getCount());
+
+        this.eventService.eventDropped(dropped, previous);
+        Assert.assertEquals(previous, this.eventService.latestEvent("door"));
+        Assert.assertEquals(5L, this.eventService.countEvents("door").getCount());
+
+        // a dropped event that isn't the latest leaves the latest alone
+        this.eventService.eventDropped(event("door", "open", 1000L), null);
+        Assert.assertEquals(previous, this.eventService.latestEvent("door"));
+        Assert.assertEquals(4L, this.eventService.countEvents("door").getCount());
+    }
+
+    @Test
+    public void verifyAndResyncCounts() throws Exception {
+        Map<String, Long> counts = new HashMap<>();
+        counts.put("door", 7L);
+        counts.put("alarm", 1L);
+        Mockito.when(this.eventDao.countEventsByType()).thenReturn(counts);
+
+        List<EventCountDiscrepancy> discrepancies = this.eventService.verifyEventCounts(false);
+        Assert.assertEquals(1, discrepancies.size());
+        Assert.assertEquals("door", discrepancies.get(0).getType());
+        Assert.assertEquals(5L, discrepancies.get(0).getCounted());
+        Assert.assertEquals(7L, discrepancies.get(0).getStored());
+        Assert.assertFalse(discrepancies.get(0).isResynced());
+        Assert.assertEquals(5L, this.eventService.countEvents("door").getCount());
+
+        Assert.assertTrue(this.eventService.verifyEventCounts(true).get(0).isResynced());
+        Assert.assertEquals(7L, this.eventService.countEvents("door").getCount());
+        Assert.assertTrue(this.eventService.verifyEventCounts(false).isEmpty());
+    }
+
+    @Test
+    public void addInFlightNotResynced() throws Exception {
+        // the store has committed the add, but the service hasn't counted it yet
+        CountDownLatch committed = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Mockito.when(this.eventDao.addEvent(Mockito.any(Event.class))).thenAnswer(invocation -> {
+            committed.countDown();
+            release.await(10L, TimeUnit.SECONDS);
+            return true;
+        });
+        Map<String, Long> counts = new HashMap<>();
+        counts.put("door", 6L);
+        counts.put("alarm", 1L);
+        Mockito.when(this.eventDao.countEventsByType()).thenReturn(counts);
+
+        CompletableFuture<Boolean> added = CompletableFuture.supplyAsync(() -> this.eventService.addEvent(event("door", "closed", 3000L)));
+        Assert.assertTrue(committed.await(10L, TimeUnit.SECONDS));
+        Assert.assertFalse(this.eventService.verifyEventCounts(true).get(0).isResynced());
+        release.countDown();
+        Assert.assertTrue(added.get(10L, TimeUnit.SECONDS));
+        Assert.assertEquals(6L, this.eventService.countEvents("door").getCount());
+        Assert.assertTrue(this.eventService.verifyEventCounts(true).isEmpty());
+    }
+
+    @Test
+    public void unseededFallsBackToDao() throws Exception {
+        EventDao failingDao = Mockito.mock(EventDao.class);
+        Mockito.when(failingDao.findLatestEvents()).thenThrow(new EventDaoException("down"));
+        Mockito.when(failingDao.findLatestEvent("door")).thenReturn(event("door", "open", 1L));
+        EventService service = new EventService(failingDao);
+        service.start();
+        Assert.assertEquals("open", service.latestEvent("door").getValue().getString());
+        Mockito.verify(failingDao).findLatestEvent("door");
+    }
+
+    static Event event(String type, String value, long epochMillis) {
+        return new Event(UUID.randomUUID(), new EventType(type), new EventValue(value), epochMillis);
+    }
+}
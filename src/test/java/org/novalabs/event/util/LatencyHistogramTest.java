@@ -0,0 +1,65 @@
+package org.novalabs.event.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    public LatencyHistogramTest() {
+    }
+
+    @Test
+    public void bucketsWithinOnePercent() {
+        Random random = new Random(7L);
+        for (int i = 0; i < 100000; ++i) {
+            long value = random.nextLong() >>> 1 + random.nextInt(63);
+            int index = LatencyHistogram.index(value);
+            long highest = LatencyHistogram.highestEquivalentValue(index);
+            Assert.assertTrue(highest >= value);
+            Assert.assertTrue(highest - value <= value / 128L);
+            Assert.assertTrue(index == 0 || LatencyHistogram.highestEquivalentValue(index - 1) < value);
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram(1000000000L, 60000L);
+        for (long value = 1L; value <= 100000L; ++value) {
+            histogram.record(value);
+        }
+        histogram.record(5000000000L);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(100001L, snapshot.getCount());
+        Assert.assertEquals(1000000000L, snapshot.getMax());
+        Assert.assertEquals(50000.0, snapshot.getValueAtPercentile(50.0), 500.0);
+        Assert.assertEquals(99000.0, snapshot.getValueAtPercentile(99.0), 990.0);
+        Assert.assertEquals(99900.0, snapshot.getValueAtPercentile(99.9), 999.0);
+        Assert.assertEquals(1000000000L, snapshot.getValueAtPercentile(100.0));
+        Assert.assertEquals(0L, new LatencyHistogram(1000L, 60000L).snapshot().getValueAtPercentile(99.0));
+    }
+
+    @Test
+    public void oldWindowsForgotten() {
+        long[] now = {0L};
+        LatencyHistogram histogram = new LatencyHistogram(1000000L, 50L, () -> now[0]);
+        histogram.record(900000L);
+        now[0] += TimeUnit.MILLISECONDS.toNanos(60L);
+        histogram.record(10L);
+        Assert.assertEquals(2L, histogram.snapshot().getCount());
+
+        // more than two windows later, neither recent window holds the earlier values
+        now[0] += TimeUnit.MILLISECONDS.toNanos(120L);
+        histogram.record(20L);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(1L, snapshot.getCount());
+        Assert.assertEquals(20L, snapshot.getMax());
+
+        // the window after a window still covers it
+        now[0] += TimeUnit.MILLISECONDS.toNanos(50L);
+        Assert.assertEquals(1L, histogram.snapshot().getCount());
+        now[0] += TimeUnit.MILLISECONDS.toNanos(50L);
+        Assert.assertEquals(0L, histogram.snapshot().getCount());
+    }
+}
@@ -0,0 +1,97 @@
+package org.novalabs.event.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.novalabs.event.dao.EventDaoException;
+
+public class SingleFlightTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    public SingleFlightTest() {
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentCallersShareOneCall() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<Integer>> results = this.callConcurrently(8, () -> flight.execute("door", () -> {
+            release.await();
+            return calls.incrementAndGet();
+        }), flight);
+
+        release.countDown();
+        for (Future<Integer> result : results) {
+            Assert.assertEquals(Integer.valueOf(1), result.get(10L, TimeUnit.SECONDS));
+        }
+
+        Assert.assertEquals(1L, flight.calls());
+        Assert.assertEquals(7L, flight.shared());
+        // the call has completed, so the next caller makes a new one
+        Assert.assertEquals(Integer.valueOf(2), flight.execute("door", calls::incrementAndGet));
+    }
+
+    @Test
+    public void differentKeysAreSeparateCalls() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        Assert.assertEquals("door", flight.execute("door", () -> flight.execute("alarm", () -> "alarm").replace("alarm", "door")));
+        Assert.assertEquals(2L, flight.calls());
+        Assert.assertEquals(0L, flight.shared());
+    }
+
+    @Test
+    public void exceptionIsShared() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<Integer>> results = this.callConcurrently(4, () -> flight.execute("door", () -> {
+            release.await();
+            throw new EventDaoException("down");
+        }), flight);
+
+        release.countDown();
+        for (Future<Integer> result : results) {
+            try {
+                result.get(10L, TimeUnit.SECONDS);
+                Assert.fail("exception not shared");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof EventDaoException);
+            }
+        }
+
+        Assert.assertEquals(1L, flight.calls());
+    }
+
+    /**
+     * Starts the callers and returns once all but the first are waiting for its call.
+     */
+    private List<Future<Integer>> callConcurrently(int callers, Callable<Integer> caller,
+                                                   SingleFlight<?, ?> flight) throws InterruptedException {
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(this.executor.submit(caller));
+        }
+
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (flight.calls() + flight.shared() < callers && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1L);
+        }
+
+        return results;
+    }
+}